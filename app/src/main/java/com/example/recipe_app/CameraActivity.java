@@ -46,7 +46,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -76,6 +81,12 @@ public class CameraActivity extends AppCompatActivity {
     private BottomSheetBehavior<View> bottomSheetBehavior;
     private boolean isFrontCamera = false;
     private boolean isFlashEnabled = false;
+    private final List<String> detectedIngredients = new ArrayList<>();  // Food found in the last photo
+
+    // Labels that describe the photo rather than an ingredient
+    private static final Set<String> GENERIC_LABELS = new HashSet<>(Arrays.asList(
+            "food", "dish", "cuisine", "ingredient", "recipe", "produce", "tableware",
+            "natural foods", "vegetable", "fruit", "meal", "plate", "bowl"));
     private final ExecutorService cameraExecutor = Executors.newSingleThreadExecutor();
 
     @Override
@@ -138,8 +149,9 @@ public class CameraActivity extends AppCompatActivity {
         });
 
         findRecipesButton.setOnClickListener(v -> {
-            // TODO: Implement recipe search based on recognized food
-            Toast.makeText(this, "Finding recipes...", Toast.LENGTH_SHORT).show();
+            // Rank recipes by how many of the spotted ingredients they use
+            // (with nothing spotted, the user can type ingredients in instead)
+            startActivity(IngredientMatchActivity.newIntent(this, detectedIngredients));
         });
 
         retakeButton.setOnClickListener(v -> {
@@ -246,8 +258,12 @@ public class CameraActivity extends AppCompatActivity {
             labeler.process(image)
                     .addOnSuccessListener(labels -> {
                         StringBuilder detectedItems = new StringBuilder();
+                        detectedIngredients.clear();
                         for (ImageLabel label : labels) {
                             String text = label.getText();
+                            if (!GENERIC_LABELS.contains(text.toLowerCase(Locale.ROOT))) {
+                                detectedIngredients.add(text);
+                            }
                             float confidence = label.getConfidence();
                             detectedItems.append(text)
                                     .append(" (")
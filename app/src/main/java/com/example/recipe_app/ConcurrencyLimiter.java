@@ -0,0 +1,116 @@
+/**
+ * ConcurrencyLimiter - Only Lets a Few Loads Run at Once
+ *
+ * Starting hundreds of Firebase loads together can flood the connection and
+ * make everything slow. The limiter lets a fixed number run at a time; the
+ * rest wait in line and start as soon as one finishes.
+ *
+ * Each job is a "supplier" that starts the load and returns its future.
+ * submit() returns a future straight away that finishes when the job does.
+ */
+package com.example.recipe_app;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.Supplier;
+
+public class ConcurrencyLimiter {
+    /**
+     * A job waiting in line
+     */
+    private static class Job<T> {
+        final Supplier<ListenableFuture<T>> start;
+        final SettableFuture<T> result = SettableFuture.create();
+
+        Job(Supplier<ListenableFuture<T>> start) {
+            this.start = start;
+        }
+
+        void run(Runnable whenDone) {
+            ListenableFuture<T> running;
+            try {
+                running = start.get();
+            } catch (RuntimeException e) {
+                result.setException(e);
+                whenDone.run();
+                return;
+            }
+            result.setFuture(running);
+            running.addListener(whenDone, MoreExecutors.directExecutor());
+        }
+    }
+
+    private final int maxRunning;
+    private final Queue<Job<?>> waiting = new ArrayDeque<>();
+    private int running = 0;
+
+    /**
+     * Creates a limiter
+     * @param maxRunning How many jobs may run at the same time
+     */
+    public ConcurrencyLimiter(int maxRunning) {
+        if (maxRunning < 1) {
+            throw new IllegalArgumentException("maxRunning must be at least 1");
+        }
+        this.maxRunning = maxRunning;
+    }
+
+    /**
+     * Runs a job now if there's room, or when a running one finishes
+     */
+    public <T> ListenableFuture<T> submit(Supplier<ListenableFuture<T>> start) {
+        Job<T> job = new Job<>(start);
+        boolean runNow;
+        synchronized (this) {
+            runNow = running < maxRunning;
+            if (runNow) {
+                running++;
+            } else {
+                waiting.add(job);
+            }
+        }
+        if (runNow) {
+            job.run(this::onJobDone);
+        }
+        return job.result;
+    }
+
+    /**
+     * How many jobs are waiting for a turn
+     */
+    public synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    private void onJobDone() {
+        Job<?> next;
+        synchronized (this) {
+            // Skip jobs whose caller gave up while they were waiting
+            do {
+                next = waiting.poll();
+            } while (next != null && next.result.isCancelled());
+            if (next == null) {
+                running--;
+                return;
+            }
+        }
+        next.run(this::onJobDone);
+    }
+
+    /**
+     * Waits for every job to finish, like RecipeFutures.allOf, but runs at most maxRunning at once
+     */
+    public <T> ListenableFuture<RecipeFutures.Partial<T>> allOf(Iterable<Supplier<ListenableFuture<T>>> jobs) {
+        List<ListenableFuture<T>> futures = new ArrayList<>();
+        for (Supplier<ListenableFuture<T>> job : jobs) {
+            futures.add(submit(job));
+        }
+        return RecipeFutures.allOf(futures);
+    }
+}
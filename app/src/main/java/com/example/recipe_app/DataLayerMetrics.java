@@ -0,0 +1,417 @@
+/**
+ * DataLayerMetrics - Keeps Score of What Loading Data Costs
+ *
+ * Firebase charges for every document read and written, and slow loads make
+ * screens feel sluggish. This class keeps track of, for each screen:
+ * - How long each FirebaseManager call took (see LatencyHistogram)
+ * - How many documents were read from and written to Firebase
+ * - Roughly how many bytes of documents were turned into recipes
+ * - How often each cache had what we wanted (hits) or didn't (misses)
+ *
+ * Everything is tagged with the screen that was showing (RecipeApp tells us
+ * when it changes). The numbers can be seen on the DataMetricsActivity debug
+ * screen, or saved as JSON with toJson().
+ *
+ * There's also a "read budget": if one session reads more documents than
+ * that, a warning goes in the log, which is an easy way to spot a screen
+ * that reads far more than it should. Safe to use from any thread.
+ */
+package com.example.recipe_app;
+
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DataLayerMetrics {
+    private static final String TAG = "DataLayerMetrics";
+
+    // Reads per session before we warn (Firebase's free tier is 50,000 reads a day)
+    private static final long DEFAULT_READ_BUDGET = 2000;
+
+    // The screen name used before any screen has been shown
+    private static final String NO_SCREEN = "(none)";
+
+    private static DataLayerMetrics instance;
+
+    /**
+     * Timings and counts for one FirebaseManager method
+     */
+    public static class OperationStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong cancelled = new AtomicLong();   // Given up on part way (still timed)
+
+        public LatencyHistogram getLatency() { return latency; }
+        public long getCalls() { return latency.getCount(); }
+        public long getFailures() { return failures.get(); }
+        public long getCancelled() { return cancelled.get(); }
+    }
+
+    /**
+     * Hits and misses for one cache
+     */
+    public static class CacheStats {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+
+        public long getHits() { return hits.get(); }
+        public long getMisses() { return misses.get(); }
+
+        public double hitRatio() {
+            long total = hits.get() + misses.get();
+            return total == 0 ? 0 : (double) hits.get() / total;
+        }
+    }
+
+    /**
+     * Everything we know about one screen
+     */
+    public static class ScreenStats {
+        final Map<String, OperationStats> operations = new ConcurrentHashMap<>();
+        final Map<String, CacheStats> caches = new ConcurrentHashMap<>();
+        final AtomicLong documentsRead = new AtomicLong();
+        final AtomicLong documentsWritten = new AtomicLong();
+        final AtomicLong bytesDecoded = new AtomicLong();
+
+        public Map<String, OperationStats> getOperations() { return operations; }
+        public Map<String, CacheStats> getCaches() { return caches; }
+        public long getDocumentsRead() { return documentsRead.get(); }
+        public long getDocumentsWritten() { return documentsWritten.get(); }
+        public long getBytesDecoded() { return bytesDecoded.get(); }
+    }
+
+    private final Map<String, ScreenStats> screens = new ConcurrentHashMap<>();
+    private volatile String currentScreen = NO_SCREEN;
+    private volatile long sessionStartMillis = System.currentTimeMillis();
+
+    // The read budget, and whether we've already warned about going over it
+    private final AtomicLong sessionReads = new AtomicLong();
+    private volatile long readBudget = DEFAULT_READ_BUDGET;
+    private final AtomicBoolean budgetWarned = new AtomicBoolean(false);
+
+    private DataLayerMetrics() {}
+
+    public static synchronized DataLayerMetrics getInstance() {
+        if (instance == null) {
+            instance = new DataLayerMetrics();
+        }
+        return instance;
+    }
+
+    /**
+     * Remembers which screen is showing, so what happens next is counted against it
+     */
+    public void setCurrentScreen(String screen) {
+        currentScreen = screen;
+    }
+
+    public String getCurrentScreen() {
+        return currentScreen;
+    }
+
+    /**
+     * Sets how many documents a session may read before we log a warning
+     */
+    public void setReadBudget(long reads) {
+        readBudget = reads;
+        budgetWarned.set(sessionReads.get() > reads);
+    }
+
+    public long getReadBudget() {
+        return readBudget;
+    }
+
+    public long getSessionReads() {
+        return sessionReads.get();
+    }
+
+    /**
+     * Times a FirebaseManager call
+     *
+     * Returns a callback to use instead of the caller's one. When it's first
+     * answered, the time taken is recorded against the screen that made the
+     * call (later answers, like a refresh after a saved copy, aren't timed again).
+     */
+    public <T> FirebaseManager.FirebaseCallback<T> track(String operation, FirebaseManager.FirebaseCallback<T> callback) {
+        Call call = start(operation);
+        return new FirebaseManager.FirebaseCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                call.finish(true);
+                callback.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                call.finish(false);
+                callback.onFailure(e);
+            }
+
+            @Override
+            public boolean wantsSavedCopyFirst() {
+                return callback.wantsSavedCopyFirst();
+            }
+        };
+    }
+
+    /**
+     * Starts timing a call that doesn't use a FirebaseCallback; call finish() when it's done
+     */
+    public Call start(String operation) {
+        return new Call(stats(currentScreen), operation);
+    }
+
+    /**
+     * One call being timed
+     */
+    public static class Call {
+        private final ScreenStats screen;
+        private final String operation;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+
+        Call(ScreenStats screen, String operation) {
+            this.screen = screen;
+            this.operation = operation;
+        }
+
+        /**
+         * Records how long the call took; only the first finish counts
+         */
+        public void finish(boolean success) {
+            OperationStats stats = record();
+            if (stats != null && !success) {
+                stats.failures.incrementAndGet();
+            }
+        }
+
+        /**
+         * Records how long the call ran before it was given up on (e.g. a newer search replaced it)
+         *
+         * The time still counts towards the latency, since the calls that get
+         * replaced are often the slow ones; they're counted apart from failures.
+         */
+        public void cancel() {
+            OperationStats stats = record();
+            if (stats != null) {
+                stats.cancelled.incrementAndGet();
+            }
+        }
+
+        /**
+         * Records the time taken, or returns null if the call was already finished
+         */
+        private OperationStats record() {
+            if (!finished.compareAndSet(false, true)) {
+                return null;
+            }
+            OperationStats stats = screen.operations.computeIfAbsent(operation, name -> new OperationStats());
+            stats.latency.record((System.nanoTime() - startNanos) / 1000);
+            return stats;
+        }
+    }
+
+    /**
+     * Counts the documents a query read from Firebase
+     *
+     * Answers from Firebase's own offline copy are free, so they aren't
+     * counted. A query that finds nothing still costs one read.
+     */
+    public void recordReads(QuerySnapshot snapshot) {
+        if (snapshot != null && !snapshot.getMetadata().isFromCache()) {
+            recordReads(Math.max(1, snapshot.size()));
+        }
+    }
+
+    /**
+     * Counts a single document read from Firebase
+     */
+    public void recordRead(DocumentSnapshot snapshot) {
+        if (snapshot != null && !snapshot.getMetadata().isFromCache()) {
+            recordReads(1);
+        }
+    }
+
+    public void recordReads(long documents) {
+        stats(currentScreen).documentsRead.addAndGet(documents);
+        long total = sessionReads.addAndGet(documents);
+        if (total > readBudget && budgetWarned.compareAndSet(false, true)) {
+            Log.w(TAG, "This session has read " + total + " documents, over the budget of "
+                + readBudget + " (screen now: " + currentScreen + ")");
+        }
+    }
+
+    public void recordWrites(long documents) {
+        stats(currentScreen).documentsWritten.addAndGet(documents);
+    }
+
+    public void recordBytesDecoded(long bytes) {
+        stats(currentScreen).bytesDecoded.addAndGet(bytes);
+    }
+
+    public void recordCacheHit(String cache) {
+        cacheStats(cache).hits.incrementAndGet();
+    }
+
+    public void recordCacheMiss(String cache) {
+        cacheStats(cache).misses.incrementAndGet();
+    }
+
+    /**
+     * Gets the numbers for every screen, by screen name
+     */
+    public Map<String, ScreenStats> getScreens() {
+        return new TreeMap<>(screens);
+    }
+
+    /**
+     * Forgets everything and starts a new session
+     */
+    public void reset() {
+        screens.clear();
+        sessionReads.set(0);
+        budgetWarned.set(false);
+        sessionStartMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Roughly how many bytes a document's fields take, counted the way Firebase
+     * does (text is its length plus one, numbers are 8, and so on)
+     */
+    public static long estimateSize(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        }
+        if (value instanceof String) {
+            return ((String) value).length() + 1;
+        }
+        if (value instanceof Number) {
+            return 8;
+        }
+        if (value instanceof List<?>) {
+            long size = 0;
+            for (Object item : (List<?>) value) {
+                size += estimateSize(item);
+            }
+            return size;
+        }
+        if (value instanceof Map<?, ?>) {
+            long size = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += String.valueOf(entry.getKey()).length() + 1 + estimateSize(entry.getValue());
+            }
+            return size;
+        }
+        return 16;  // Timestamps, references and other Firebase types
+    }
+
+    /**
+     * Writes all the numbers as JSON
+     *
+     * Times are in milliseconds. The recipe memory cache's own numbers are
+     * included too, since it keeps better track of itself than we can.
+     */
+    public void writeJson(Writer out) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        json.setIndent("  ");
+        json.beginObject();
+        json.name("sessionStartMillis").value(sessionStartMillis);
+        json.name("currentScreen").value(currentScreen);
+        json.name("sessionReads").value(sessionReads.get());
+        json.name("readBudget").value(readBudget);
+
+        RecipeMemoryCache.Stats memory = FirebaseManager.getInstance().getRecipeCacheStats();
+        json.name("recipeMemoryCache").beginObject()
+            .name("hits").value(memory.hits)
+            .name("misses").value(memory.misses)
+            .name("hitRatio").value(memory.hitRatio())
+            .name("evictions").value(memory.evictions)
+            .name("expirations").value(memory.expirations)
+            .name("size").value(memory.size)
+            .name("weightBytes").value(memory.weightBytes)
+            .endObject();
+
+        json.name("screens").beginObject();
+        for (Map.Entry<String, ScreenStats> screen : getScreens().entrySet()) {
+            ScreenStats stats = screen.getValue();
+            json.name(screen.getKey()).beginObject();
+            json.name("documentsRead").value(stats.getDocumentsRead());
+            json.name("documentsWritten").value(stats.getDocumentsWritten());
+            json.name("bytesDecoded").value(stats.getBytesDecoded());
+
+            json.name("operations").beginObject();
+            for (Map.Entry<String, OperationStats> operation : new TreeMap<>(stats.operations).entrySet()) {
+                LatencyHistogram latency = operation.getValue().latency;
+                json.name(operation.getKey()).beginObject()
+                    .name("calls").value(latency.getCount())
+                    .name("failures").value(operation.getValue().getFailures())
+                    .name("cancelled").value(operation.getValue().getCancelled())
+                    .name("meanMs").value(latency.getMeanMicros() / 1000.0)
+                    .name("p50Ms").value(latency.getPercentileMicros(50) / 1000.0)
+                    .name("p90Ms").value(latency.getPercentileMicros(90) / 1000.0)
+                    .name("p99Ms").value(latency.getPercentileMicros(99) / 1000.0)
+                    .name("maxMs").value(latency.getMaxMicros() / 1000.0)
+                    .endObject();
+            }
+            json.endObject();
+
+            json.name("caches").beginObject();
+            for (Map.Entry<String, CacheStats> cache : new TreeMap<>(stats.caches).entrySet()) {
+                json.name(cache.getKey()).beginObject()
+                    .name("hits").value(cache.getValue().getHits())
+                    .name("misses").value(cache.getValue().getMisses())
+                    .name("hitRatio").value(cache.getValue().hitRatio())
+                    .endObject();
+            }
+            json.endObject();
+            json.endObject();
+        }
+        json.endObject();
+        json.endObject();
+        json.flush();
+    }
+
+    public String toJson() {
+        StringWriter out = new StringWriter();
+        try {
+            writeJson(out);
+        } catch (IOException e) {
+            // StringWriter never throws
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Saves the numbers to a JSON file
+     */
+    public void writeSnapshot(File file) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writeJson(out);
+        }
+    }
+
+    private ScreenStats stats(String screen) {
+        return screens.computeIfAbsent(screen, name -> new ScreenStats());
+    }
+
+    private CacheStats cacheStats(String cache) {
+        return stats(currentScreen).caches.computeIfAbsent(cache, name -> new CacheStats());
+    }
+}
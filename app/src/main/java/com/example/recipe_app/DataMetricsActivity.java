@@ -0,0 +1,132 @@
+/**
+ * DataMetricsActivity - A Debug Screen for Data Usage
+ *
+ * Shows what DataLayerMetrics has counted this session, screen by screen:
+ * how long each FirebaseManager call took, how many documents were read and
+ * written, and how often the caches helped. "Save JSON" writes the same
+ * numbers to a file (and offers to share them) so they can be compared
+ * between app versions.
+ *
+ * Only reachable from the Home menu in debug builds.
+ */
+package com.example.recipe_app;
+
+import android.os.Bundle;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.core.app.ShareCompat;
+import com.google.android.material.button.MaterialButton;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class DataMetricsActivity extends AppCompatActivity {
+    private static final String SNAPSHOT_FILE = "data-metrics.json";
+
+    private TextView metricsText;
+    private final DataLayerMetrics metrics = DataLayerMetrics.getInstance();
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_data_metrics);
+
+        // Set up toolbar
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle("Data Usage");
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+
+        metricsText = findViewById(R.id.metricsText);
+        MaterialButton refreshButton = findViewById(R.id.refreshButton);
+        MaterialButton shareJsonButton = findViewById(R.id.shareJsonButton);
+        MaterialButton resetButton = findViewById(R.id.resetButton);
+
+        refreshButton.setOnClickListener(v -> showMetrics());
+        shareJsonButton.setOnClickListener(v -> saveAndShareJson());
+        resetButton.setOnClickListener(v -> {
+            metrics.reset();
+            showMetrics();
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    private void showMetrics() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.US, "Reads this session: %d (budget %d)%n",
+            metrics.getSessionReads(), metrics.getReadBudget()));
+
+        RecipeMemoryCache.Stats memory = FirebaseManager.getInstance().getRecipeCacheStats();
+        text.append(String.format(Locale.US, "Recipe memory cache: %.0f%% hits, %d recipes, %d KB%n",
+            memory.hitRatio() * 100, memory.size, memory.weightBytes / 1024));
+
+        for (Map.Entry<String, DataLayerMetrics.ScreenStats> screen : metrics.getScreens().entrySet()) {
+            DataLayerMetrics.ScreenStats stats = screen.getValue();
+            text.append(String.format(Locale.US, "%n== %s ==%nread %d, wrote %d, decoded %d KB%n",
+                screen.getKey(), stats.getDocumentsRead(), stats.getDocumentsWritten(),
+                stats.getBytesDecoded() / 1024));
+
+            for (Map.Entry<String, DataLayerMetrics.OperationStats> operation
+                    : new TreeMap<>(stats.getOperations()).entrySet()) {
+                LatencyHistogram latency = operation.getValue().getLatency();
+                text.append(String.format(Locale.US, "  %-24s x%-4d p50 %6.1f ms  p99 %6.1f ms%s%s%n",
+                    operation.getKey(), latency.getCount(),
+                    latency.getPercentileMicros(50) / 1000.0,
+                    latency.getPercentileMicros(99) / 1000.0,
+                    operation.getValue().getFailures() > 0
+                        ? "  (" + operation.getValue().getFailures() + " failed)" : "",
+                    operation.getValue().getCancelled() > 0
+                        ? "  (" + operation.getValue().getCancelled() + " cancelled)" : ""));
+            }
+
+            for (Map.Entry<String, DataLayerMetrics.CacheStats> cache
+                    : new TreeMap<>(stats.getCaches()).entrySet()) {
+                text.append(String.format(Locale.US, "  cache %-18s %.0f%% hits (%d of %d)%n",
+                    cache.getKey(), cache.getValue().hitRatio() * 100, cache.getValue().getHits(),
+                    cache.getValue().getHits() + cache.getValue().getMisses()));
+            }
+        }
+        metricsText.setText(text);
+    }
+
+    /**
+     * Saves the numbers as JSON in the app's files folder and offers to share them
+     */
+    private void saveAndShareJson() {
+        File file = new File(getExternalFilesDir(null) != null ? getExternalFilesDir(null) : getFilesDir(),
+            SNAPSHOT_FILE);
+        try {
+            metrics.writeSnapshot(file);
+            Toast.makeText(this, "Saved to " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Toast.makeText(this, "Couldn't save: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+
+        ShareCompat.IntentBuilder.from(this)
+            .setType("application/json")
+            .setSubject("Data usage")
+            .setText(metrics.toJson())
+            .startChooser();
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            onBackPressed();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
@@ -35,7 +35,7 @@ public class FavouritesActivity extends AppCompatActivity implements RecipeAdapt
     
     // Data
     private RecipeAdapter recipeAdapter;          // Adapter for favorites list
-    private List<Recipe> favouritesList;          // List of favorite recipes
+    private List<RecipeSummary> favouritesList;   // List of favorite recipes
     private static final String PREFS_NAME = "FavouritesPrefs";
     private static final String FAVOURITES_KEY = "favourites";
 
@@ -50,6 +50,9 @@ public class FavouritesActivity extends AppCompatActivity implements RecipeAdapt
         // Setup toolbar
         setupToolbar();
 
+        // Setup list
+        setupRecyclerView();
+
         // Load favorites from Firebase
         loadFavorites();
     }
@@ -74,6 +77,7 @@ public class FavouritesActivity extends AppCompatActivity implements RecipeAdapt
      */
     private void setupRecyclerView() {
         favouritesRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        favouritesList = new ArrayList<>();
         recipeAdapter = new RecipeAdapter(favouritesList, this);
         favouritesRecyclerView.setAdapter(recipeAdapter);
     }
@@ -86,9 +90,9 @@ public class FavouritesActivity extends AppCompatActivity implements RecipeAdapt
         progressBar.setVisibility(View.VISIBLE);
         
         // Load favorites from Firebase
-        FirebaseManager.getInstance().getFavorites(new FirebaseManager.FirebaseCallback<List<Recipe>>() {
+        FirebaseManager.getInstance().getFavoriteSummaries(new FirebaseManager.FirebaseCallback<List<RecipeSummary>>() {
             @Override
-            public void onSuccess(List<Recipe> recipes) {
+            public void onSuccess(List<RecipeSummary> recipes) {
                 // Hide loading indicator
                 progressBar.setVisibility(View.GONE);
                 
@@ -129,7 +133,7 @@ public class FavouritesActivity extends AppCompatActivity implements RecipeAdapt
      * @param recipe The recipe that was clicked
      */
     @Override
-    public void onRecipeClick(Recipe recipe) {
+    public void onRecipeClick(RecipeSummary recipe) {
         // Add to history
         FirebaseManager.getInstance().addToHistory(recipe.getId(), new FirebaseManager.FirebaseCallback<Void>() {
             @Override
@@ -143,21 +147,8 @@ public class FavouritesActivity extends AppCompatActivity implements RecipeAdapt
             }
         });
         
-        // Open recipe details
-        Intent intent = new Intent(this, RecipeDetailActivity.class);
-        intent.putExtra("recipe_id", recipe.getId());
-        intent.putExtra("recipe_name", recipe.getName());
-        intent.putExtra("recipe_description", recipe.getDescription());
-        intent.putExtra("recipe_image_url", recipe.getImageUrl());
-        intent.putExtra("recipe_prep_time", recipe.getPrepTime());
-        intent.putExtra("recipe_cook_time", recipe.getCookTime());
-        intent.putExtra("recipe_servings", recipe.getServings());
-        intent.putExtra("recipe_difficulty", recipe.getDifficulty());
-        intent.putExtra("recipe_cuisine", recipe.getCuisine());
-        intent.putExtra("recipe_category", recipe.getCategory());
-        intent.putStringArrayListExtra("recipe_ingredients", new ArrayList<>(recipe.getIngredients()));
-        intent.putStringArrayListExtra("recipe_instructions", new ArrayList<>(recipe.getInstructions()));
-        startActivity(intent);
+        // Open recipe details (the detail screen loads the full recipe itself)
+        startActivity(RecipeDetailActivity.newIntent(this, recipe.getId()));
     }
 
     @Override
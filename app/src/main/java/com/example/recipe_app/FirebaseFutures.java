@@ -0,0 +1,206 @@
+/**
+ * FirebaseFutures - FirebaseManager, but With Futures Instead of Callbacks
+ *
+ * Every method here does the same thing as the FirebaseManager method with
+ * the same name, but returns a ListenableFuture instead of taking a callback.
+ * That makes it easy to run several loads in parallel and combine them
+ * (see RecipeFutures and ConcurrencyLimiter) without nesting callbacks:
+ *
+ *   ListenableFuture<RecipeFutures.Partial<Recipe>> loads = RecipeFutures.allOf(Arrays.asList(
+ *       FirebaseFutures.getRecipe("1"), FirebaseFutures.getRecipe("2")));
+ *   RecipeFutures.toCallback(RecipeFutures.withTimeout(loads, 10, TimeUnit.SECONDS),
+ *       FirebaseFutures.mainThread(), callback);
+ *
+ * Methods that answer from the saved copy first finish with the fresh answer
+ * instead, or with the saved copy if Firebase can't be reached.
+ * Futures finish on the main thread, like the callbacks do.
+ */
+package com.example.recipe_app;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.firebase.auth.FirebaseUser;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public final class FirebaseFutures {
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final Executor MAIN_THREAD = MAIN_HANDLER::post;
+
+    private FirebaseFutures() {}
+
+    /**
+     * Runs listeners on the main thread, so they can update the screen
+     */
+    public static Executor mainThread() {
+        return MAIN_THREAD;
+    }
+
+    private static FirebaseManager manager() {
+        return FirebaseManager.getInstance();
+    }
+
+    // User profile
+
+    public static ListenableFuture<Void> saveUserProfile(Map<String, Object> userData) {
+        return RecipeFutures.fromCallback(callback -> manager().saveUserProfile(userData, callback));
+    }
+
+    public static ListenableFuture<Map<String, Object>> getUserProfile() {
+        return RecipeFutures.fromCallback(callback -> manager().getUserProfile(callback));
+    }
+
+    // Recipes
+
+    public static ListenableFuture<String> saveRecipe(Recipe recipe) {
+        return RecipeFutures.fromCallback(callback -> manager().saveRecipe(recipe, callback));
+    }
+
+    /**
+     * Like FirebaseManager.saveRecipes, without the progress updates.
+     * Failed batches don't fail the future; they're listed in the result.
+     */
+    public static ListenableFuture<FirebaseManager.BulkSaveResult> saveRecipes(List<Recipe> recipes) {
+        return RecipeFutures.fromCallback(callback -> manager().saveRecipes(recipes,
+            new FirebaseManager.BulkSaveListener() {
+                @Override
+                public void onProgress(int savedCount, int totalCount) {}
+
+                @Override
+                public void onChunkFailed(List<String> recipeIds, Exception e) {}
+
+                @Override
+                public void onComplete(FirebaseManager.BulkSaveResult result) {
+                    callback.onSuccess(result);
+                }
+            }));
+    }
+
+    /**
+     * Like FirebaseManager.importRecipes, without the progress updates
+     */
+    public static ListenableFuture<FirebaseManager.BulkSaveResult> importRecipes(InputStream in) {
+        return RecipeFutures.fromCallback(callback -> manager().importRecipes(in,
+            new FirebaseManager.BulkSaveListener() {
+                @Override
+                public void onProgress(int savedCount, int totalCount) {}
+
+                @Override
+                public void onChunkFailed(List<String> recipeIds, Exception e) {}
+
+                @Override
+                public void onComplete(FirebaseManager.BulkSaveResult result) {
+                    callback.onSuccess(result);
+                }
+            }));
+    }
+
+    public static ListenableFuture<Integer> exportRecipes(OutputStream out) {
+        return RecipeFutures.fromCallback(callback -> manager().exportRecipes(out, callback));
+    }
+
+    public static ListenableFuture<Void> deleteRecipe(String recipeId) {
+        return RecipeFutures.fromCallback(callback -> manager().deleteRecipe(recipeId, callback));
+    }
+
+    public static ListenableFuture<Recipe> getRecipe(String recipeId) {
+        return RecipeFutures.fromCallback(callback -> manager().getRecipe(recipeId, callback));
+    }
+
+    public static ListenableFuture<List<Recipe>> getRecipesByIds(Collection<String> recipeIds) {
+        return RecipeFutures.fromCallback(callback -> manager().getRecipesByIds(recipeIds, callback));
+    }
+
+    public static ListenableFuture<List<Recipe>> getAllRecipes() {
+        return RecipeFutures.fromCallback(callback -> manager().getAllRecipes(callback));
+    }
+
+    public static ListenableFuture<RecipeSyncEngine.SyncResult> syncRecipes() {
+        return RecipeFutures.fromCallback(callback -> manager().syncRecipes(callback));
+    }
+
+    public static ListenableFuture<List<Recipe>> getRecipesByCategory(String category) {
+        return RecipeFutures.fromCallback(callback -> manager().getRecipesByCategory(category, callback));
+    }
+
+    public static ListenableFuture<List<Recipe>> getRecipesByCuisine(String cuisine) {
+        return RecipeFutures.fromCallback(callback -> manager().getRecipesByCuisine(cuisine, callback));
+    }
+
+    public static ListenableFuture<RecipePage<Recipe>> getRecipesPage(int pageSize, String startAfterId) {
+        return RecipeFutures.fromCallback(callback -> manager().getRecipesPage(pageSize, startAfterId, callback));
+    }
+
+    // Recipe summaries
+
+    public static ListenableFuture<RecipePage<RecipeSummary>> getRecipeSummariesPage(int pageSize, String startAfterId) {
+        return RecipeFutures.fromCallback(callback -> manager().getRecipeSummariesPage(pageSize, startAfterId, callback));
+    }
+
+    public static ListenableFuture<List<RecipeSummary>> getRecipeSummariesByIds(Collection<String> recipeIds) {
+        return RecipeFutures.fromCallback(callback -> manager().getRecipeSummariesByIds(recipeIds, callback));
+    }
+
+    public static ListenableFuture<List<RecipeSummary>> getFavoriteSummaries() {
+        return RecipeFutures.fromCallback(callback -> manager().getFavoriteSummaries(callback));
+    }
+
+    public static ListenableFuture<Integer> backfillRecipeSummaries() {
+        return RecipeFutures.fromCallback(callback -> manager().backfillRecipeSummaries(callback));
+    }
+
+    // Favorites and history
+
+    public static ListenableFuture<Void> addFavorite(String recipeId) {
+        return RecipeFutures.fromCallback(callback -> manager().addFavorite(recipeId, callback));
+    }
+
+    public static ListenableFuture<Void> removeFavorite(String recipeId) {
+        return RecipeFutures.fromCallback(callback -> manager().removeFavorite(recipeId, callback));
+    }
+
+    public static ListenableFuture<Boolean> isFavorite(String recipeId) {
+        return RecipeFutures.fromCallback(callback -> manager().isFavorite(recipeId, callback));
+    }
+
+    public static ListenableFuture<List<Recipe>> getFavorites() {
+        return RecipeFutures.fromCallback(callback -> manager().getFavorites(callback));
+    }
+
+    public static ListenableFuture<Void> addToHistory(String recipeId) {
+        return RecipeFutures.fromCallback(callback -> manager().addToHistory(recipeId, callback));
+    }
+
+    public static ListenableFuture<List<Recipe>> getHistory() {
+        return RecipeFutures.fromCallback(callback -> manager().getHistory(callback));
+    }
+
+    public static ListenableFuture<RecipePage<Recipe>> getHistoryPage(int pageSize, String startAfterId) {
+        return RecipeFutures.fromCallback(callback -> manager().getHistoryPage(pageSize, startAfterId, callback));
+    }
+
+    public static ListenableFuture<Integer> compactHistory() {
+        return RecipeFutures.fromCallback(callback -> manager().compactHistory(callback));
+    }
+
+    // Accounts
+
+    public static ListenableFuture<FirebaseUser> registerUser(String email, String password) {
+        return RecipeFutures.fromCallback(callback -> manager().registerUser(email, password, callback));
+    }
+
+    public static ListenableFuture<FirebaseUser> loginUser(String email, String password) {
+        return RecipeFutures.fromCallback(callback -> manager().loginUser(email, password, callback));
+    }
+
+    public static ListenableFuture<Void> resetPassword(String email) {
+        return RecipeFutures.fromCallback(callback -> manager().resetPassword(email, callback));
+    }
+}
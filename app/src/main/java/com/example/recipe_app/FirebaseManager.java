@@ -11,29 +11,61 @@
  */
 package com.example.recipe_app;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.WriteBatch;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class FirebaseManager {
     // A tag to help us find messages in the app's logs
@@ -47,9 +79,83 @@ public class FirebaseManager {
     // Different places where we store our data
     private final CollectionReference usersRef;      // Where we keep user information
     private final CollectionReference recipesRef;    // Where we keep all recipes
+    private final CollectionReference summariesRef;  // Where we keep the short version of each recipe
     private final CollectionReference favoritesRef;  // Where we keep favorite recipes
     private final CollectionReference historyRef;    // Where we keep recipe viewing history
     
+    // The copy of the recipes kept on the phone (null until the app attaches it)
+    private RecipeStore localStore;
+    private final ExecutorService storeExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    // Turning documents into recipes happens here, so long lists don't freeze the screen
+    private final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+    
+    // Reading and writing catalog files happens on its own thread, so it doesn't hold up loading
+    private final ExecutorService transferExecutor = Executors.newSingleThreadExecutor();
+    
+    // Keeps the saved copy up to date by downloading only changed recipes (null until attached)
+    private RecipeSyncEngine recipeSync;
+    
+    // Favorite and history changes waiting to be sent in one batch (null until the app attaches it)
+    private WriteOutbox writeOutbox;
+    
+    // Deletes old history entries now and then (null until the app attaches it)
+    private HistoryCompactor historyCompactor;
+    
+    // Deletes old deleted-recipe markers now and then (null until the app attaches it)
+    private TombstonePurger tombstonePurger;
+    
+    // How many history entries getHistory loads
+    private static final int HISTORY_PAGE_SIZE = 50;
+    
+    // Keeps score of reads, writes and timings for the debug screen
+    private final DataLayerMetrics metrics = DataLayerMetrics.getInstance();
+    
+    // Recipes loaded in the last few minutes, so other screens don't have to ask again
+    private static final int MEMORY_CACHE_MAX_RECIPES = 500;
+    private static final long MEMORY_CACHE_MAX_BYTES = 4L * 1024 * 1024;
+    private static final long MEMORY_CACHE_TTL_MILLIS = 5 * 60 * 1000;
+    private final RecipeMemoryCache memoryCache = new RecipeMemoryCache(
+        MEMORY_CACHE_MAX_RECIPES, MEMORY_CACHE_MAX_BYTES, MEMORY_CACHE_TTL_MILLIS);
+    
+    // Recipes we're already asking Firebase for, and everyone waiting on each one
+    private final Map<String, List<FirebaseCallback<Recipe>>> recipesInFlight = new HashMap<>();
+    
+    // The IDs of the user's favorite recipes, kept up to date by a live listener
+    private final Set<String> favoriteIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile boolean favoritesLoaded = false;
+    private ListenerRegistration favoritesRegistration;
+    private final List<FavoritesListener> favoritesListeners = new CopyOnWriteArrayList<>();
+    
+    // The most IDs Firestore lets us put in a single whereIn query
+    private static final int WHERE_IN_LIMIT = 30;
+    
+    // Firebase allows 500 writes per batch, and each recipe is two (the recipe and its summary)
+    private static final int WRITES_PER_RECIPE = 2;
+    private static final int RECIPES_PER_BATCH = 500 / WRITES_PER_RECIPE;
+    
+    // How many batches saveRecipes sends at the same time
+    private static final int BULK_SAVE_WINDOW = 4;
+    
+    // Catalog files are read in groups that fill every batch saveRecipes sends at once
+    private static final int IMPORT_BATCH_SIZE = RECIPES_PER_BATCH * BULK_SAVE_WINDOW;
+    
+    // How many recipes to download per page when exporting
+    private static final int EXPORT_PAGE_SIZE = 500;
+    
+    // How long logging out waits for the user's waiting writes to be sent
+    private static final long LOGOUT_FLUSH_TIMEOUT_MILLIS = 5000;
+    
+    // Goes up whenever saved recipes or summaries gain a field older ones need filled in
+    // (2: rating and dietaryTags on recipes, totalTime on summaries)
+    private static final long CATALOG_VERSION = 2;
+    private static final String MIGRATION_PREFS_NAME = "CatalogMigrationPrefs";
+    private static final String CATALOG_VERSION_KEY = "catalog_version";
+    
+    // Remembers which CATALOG_VERSION this phone has seen (null until the app attaches it)
+    private SharedPreferences migrationPrefs;
+    
     // We only want one copy of this class running at a time
     private static FirebaseManager instance;
     
@@ -57,6 +163,46 @@ public class FirebaseManager {
     public interface FirebaseCallback<T> {
         void onSuccess(T result);  // Called when something works
         void onFailure(Exception e); // Called when something goes wrong
+        
+        /**
+         * Whether to be handed the saved copy first, then the fresh answer if it's different
+         * 
+         * Callers that can only use one answer (like futures) return false;
+         * they then get just the fresh answer, or the saved copy if Firebase
+         * can't be reached.
+         */
+        default boolean wantsSavedCopyFirst() {
+            return true;
+        }
+    }
+    
+    // A way for screens to hear when a recipe is liked or unliked
+    public interface FavoritesListener {
+        void onFavoriteChanged(String recipeId, boolean isFavorite);
+    }
+    
+    // A way to hear how a big saveRecipes is going
+    public interface BulkSaveListener {
+        void onProgress(int savedCount, int totalCount);          // Called after each batch is saved
+        void onChunkFailed(List<String> recipeIds, Exception e);  // Called when a batch couldn't be saved
+        void onComplete(BulkSaveResult result);                   // Called once every batch has finished
+    }
+    
+    /**
+     * What a saveRecipes did
+     */
+    public static class BulkSaveResult {
+        public final List<String> savedIds;   // Recipes that were saved
+        public final List<String> failedIds;  // Recipes in batches that failed
+        
+        BulkSaveResult(List<String> savedIds, List<String> failedIds) {
+            this.savedIds = savedIds;
+            this.failedIds = failedIds;
+        }
+        
+        public boolean hasFailures() {
+            return !failedIds.isEmpty();
+        }
     }
     
     /**
@@ -74,8 +220,14 @@ public class FirebaseManager {
         // Set up places to store different types of data
         usersRef = db.collection("users");      // For user information
         recipesRef = db.collection("recipes");  // For all recipes
+        summariesRef = db.collection("recipe_summaries"); // For the short versions list screens use
         favoritesRef = db.collection("favorites"); // For favorite recipes
         historyRef = db.collection("history");  // For recipe viewing history
+        
+        // If someone is already logged in, start keeping track of their favorites
+        if (auth.getCurrentUser() != null) {
+            startFavoritesListener();
+        }
     }
     
     /**
@@ -90,6 +242,35 @@ public class FirebaseManager {
         return instance;
     }
     
+    /**
+     * Turns on the copy of the recipes kept on the phone
+     * 
+     * Called once when the app starts. After this, recipe loads answer from
+     * the saved copy first and then check Firebase for changes, and favorite
+     * and history changes are saved up and sent together.
+     */
+    public void attachLocalStore(Context context) {
+        localStore = RecipeStore.getInstance(context);
+        recipeSync = new RecipeSyncEngine(context, recipesRef, localStore, storeExecutor,
+            this::documentSnapshotToRecipe);
+        writeOutbox = new WriteOutbox(context, db);
+        historyCompactor = new HistoryCompactor(context, db, historyRef);
+        tombstonePurger = new TombstonePurger(context, db, recipesRef, summariesRef);
+        migrationPrefs = context.getApplicationContext()
+            .getSharedPreferences(MIGRATION_PREFS_NAME, Context.MODE_PRIVATE);
+    }
+    
+    /**
+     * Sends any saved-up favorite and history changes right now
+     * 
+     * Called when the app goes into the background, since it might not come back.
+     */
+    public void flushPendingWrites() {
+        if (writeOutbox != null) {
+            writeOutbox.flushNow();
+        }
+    }
+    
     /**
      * Gets the person who is currently using the app
      */
@@ -121,7 +302,8 @@ public class FirebaseManager {
      * 
      * This is like updating someone's profile with new information.
      */
-    public void saveUserProfile(Map<String, Object> userData, FirebaseCallback<Void> callback) {
+    public void saveUserProfile(Map<String, Object> userData, FirebaseCallback<Void> callerCallback) {
+        FirebaseCallback<Void> callback = metrics.track("saveUserProfile", callerCallback);
         DocumentReference userRef = getUserDocRef();
         if (userRef == null) {
             callback.onFailure(new Exception("User not logged in"));
@@ -129,7 +311,10 @@ public class FirebaseManager {
         }
         
         userRef.set(userData)
-            .addOnSuccessListener(aVoid -> callback.onSuccess(null))
+            .addOnSuccessListener(aVoid -> {
+                metrics.recordWrites(1);
+                callback.onSuccess(null);
+            })
             .addOnFailureListener(callback::onFailure);
     }
     
@@ -138,7 +323,8 @@ public class FirebaseManager {
      * 
      * This is like looking up someone's profile to see their information.
      */
-    public void getUserProfile(FirebaseCallback<Map<String, Object>> callback) {
+    public void getUserProfile(FirebaseCallback<Map<String, Object>> callerCallback) {
+        FirebaseCallback<Map<String, Object>> callback = metrics.track("getUserProfile", callerCallback);
         DocumentReference userRef = getUserDocRef();
         if (userRef == null) {
             callback.onFailure(new Exception("User not logged in"));
@@ -146,6 +332,7 @@ public class FirebaseManager {
         }
         
         userRef.get()
+            .addOnSuccessListener(metrics::recordRead)
             .addOnSuccessListener(documentSnapshot -> {
                 if (documentSnapshot.exists()) {
                     callback.onSuccess(documentSnapshot.getData());
@@ -162,34 +349,375 @@ public class FirebaseManager {
      * This is like adding a new recipe card to our collection.
      * If the recipe already exists, it updates it instead.
      */
-    public void saveRecipe(Recipe recipe, FirebaseCallback<String> callback) {
+    public void saveRecipe(Recipe recipe, FirebaseCallback<String> callerCallback) {
+        FirebaseCallback<String> callback = metrics.track("saveRecipe", callerCallback);
+        // If the recipe already exists, update it; if it's new, give it a new ID
+        String recipeId = recipeIdForSave(recipe);
+        
+        // Save the recipe and its summary together, so they can't get out of step
+        WriteBatch batch = db.batch();
+        addRecipeToBatch(batch, recipe, recipeId, System.currentTimeMillis());
+        batch.commit()
+            .addOnSuccessListener(aVoid -> {
+                metrics.recordWrites(WRITES_PER_RECIPE);
+                callback.onSuccess(recipeId);
+            })
+            .addOnFailureListener(callback::onFailure);
+    }
+    
+    /**
+     * Saves lots of recipes at once (for seeding or importing a catalog)
+     * 
+     * Instead of one write per recipe, recipes are grouped into batches of up to
+     * 250 (each recipe is two writes: the recipe and its summary, and Firebase
+     * allows 500 writes per batch). A few batches are sent at the same time, so
+     * tens of thousands of recipes take a handful of round trips.
+     * 
+     * If a batch fails, only the recipes in that batch are lost; the others
+     * still save. Must be called on the main thread; the listener is too.
+     */
+    public void saveRecipes(List<Recipe> recipes, BulkSaveListener callerListener) {
+        BulkSaveListener listener = trackBulk("saveRecipes", callerListener);
+        int total = recipes.size();
+        List<String> savedIds = new ArrayList<>();
+        List<String> failedIds = new ArrayList<>();
+        if (total == 0) {
+            listener.onComplete(new BulkSaveResult(savedIds, failedIds));
+            return;
+        }
+        
+        // Only a few batches are sent at once; the rest wait their turn
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(BULK_SAVE_WINDOW);
+        int chunkCount = (total + RECIPES_PER_BATCH - 1) / RECIPES_PER_BATCH;
+        int[] chunksLeft = {chunkCount};
+        for (int start = 0; start < total; start += RECIPES_PER_BATCH) {
+            List<Recipe> chunk = recipes.subList(start, Math.min(start + RECIPES_PER_BATCH, total));
+            
+            // Pick every ID up front, so a failed batch can say which recipes it had
+            List<String> chunkIds = new ArrayList<>(chunk.size());
+            for (Recipe recipe : chunk) {
+                chunkIds.add(recipeIdForSave(recipe));
+            }
+            
+            // The batch is only built when it's about to be sent, to keep memory down
+            ListenableFuture<Void> commit = limiter.submit(() -> {
+                WriteBatch batch = db.batch();
+                long timestamp = System.currentTimeMillis();
+                for (int i = 0; i < chunk.size(); i++) {
+                    addRecipeToBatch(batch, chunk.get(i), chunkIds.get(i), timestamp);
+                }
+                return RecipeFutures.fromTask(batch.commit());
+            });
+            
+            RecipeFutures.toCallback(commit, mainHandler::post, new FirebaseCallback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    metrics.recordWrites((long) chunkIds.size() * WRITES_PER_RECIPE);
+                    savedIds.addAll(chunkIds);
+                    listener.onProgress(savedIds.size(), total);
+                    finishChunk();
+                }
+                
+                @Override
+                public void onFailure(Exception e) {
+                    Log.e(TAG, "Error saving a batch of " + chunkIds.size() + " recipes", e);
+                    failedIds.addAll(chunkIds);
+                    listener.onChunkFailed(chunkIds, e);
+                    finishChunk();
+                }
+                
+                private void finishChunk() {
+                    if (--chunksLeft[0] == 0) {
+                        listener.onComplete(new BulkSaveResult(savedIds, failedIds));
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * Times a bulk save like metrics.track does for callbacks; it counts as failed if any batch failed
+     */
+    private BulkSaveListener trackBulk(String operation, BulkSaveListener listener) {
+        DataLayerMetrics.Call call = metrics.start(operation);
+        return new BulkSaveListener() {
+            @Override
+            public void onProgress(int savedCount, int totalCount) {
+                listener.onProgress(savedCount, totalCount);
+            }
+            
+            @Override
+            public void onChunkFailed(List<String> recipeIds, Exception e) {
+                listener.onChunkFailed(recipeIds, e);
+            }
+            
+            @Override
+            public void onComplete(BulkSaveResult result) {
+                call.finish(!result.hasFailures());
+                listener.onComplete(result);
+            }
+        };
+    }
+    
+    /**
+     * The recipe's own ID if it has one, or a new one from Firebase if it doesn't
+     */
+    private String recipeIdForSave(Recipe recipe) {
+        return recipe.getId() != null && !recipe.getId().isEmpty()
+            ? recipe.getId()
+            : recipesRef.document().getId();
+    }
+    
+    /**
+     * Adds the writes for one recipe and its summary to a batch
+     */
+    private void addRecipeToBatch(WriteBatch batch, Recipe recipe, String recipeId, long timestamp) {
         // Create a map of all the recipe information
         Map<String, Object> recipeMap = new HashMap<>();
-        recipeMap.put("id", recipe.getId());
+        recipeMap.put("id", recipeId);
         recipeMap.put("name", recipe.getName());
         recipeMap.put("description", recipe.getDescription());
         recipeMap.put("imageUrl", recipe.getImageUrl());
         recipeMap.put("prepTime", recipe.getPrepTime());
         recipeMap.put("cookTime", recipe.getCookTime());
+        recipeMap.put("totalTime", recipe.getPrepTime() + recipe.getCookTime());  // For "at most N minutes" queries
         recipeMap.put("servings", recipe.getServings());
         recipeMap.put("ingredients", recipe.getIngredients());
         recipeMap.put("instructions", recipe.getInstructions());
         recipeMap.put("difficulty", recipe.getDifficulty());
         recipeMap.put("cuisine", recipe.getCuisine());
         recipeMap.put("category", recipe.getCategory());
-        recipeMap.put("timestamp", System.currentTimeMillis());
+        recipeMap.put("rating", recipe.getRating());
+        recipeMap.put("dietaryTags", recipe.getDietaryTags());
+        recipeMap.put("timestamp", timestamp);
+        
+        // The short version that list screens load instead of the whole recipe
+        Map<String, Object> summaryMap = RecipeSummary.from(recipe).toMap();
+        summaryMap.put("timestamp", timestamp);
         
-        // If the recipe already exists, update it
-        if (recipe.getId() != null && !recipe.getId().isEmpty()) {
-            recipesRef.document(recipe.getId())
-                .set(recipeMap)
-                .addOnSuccessListener(aVoid -> callback.onSuccess(recipe.getId()))
-                .addOnFailureListener(callback::onFailure);
-        } else {
-            // If it's a new recipe, add it
-            recipesRef.add(recipeMap)
-                .addOnSuccessListener(documentReference -> callback.onSuccess(documentReference.getId()))
-                .addOnFailureListener(callback::onFailure);
+        batch.set(recipesRef.document(recipeId), recipeMap);
+        batch.set(summariesRef.document(recipeId), summaryMap);
+    }
+    
+    /**
+     * Adds every recipe in a catalog file (see RecipeCatalogCodec) to the database
+     * 
+     * The file is read a thousand recipes at a time and each group goes through
+     * saveRecipes, so a huge file never has to fit in memory. The next group is
+     * only read once the last one is saved. Progress counts are "saved so far"
+     * out of "read so far", since we don't know the total until the end.
+     * 
+     * If the file can't be read, onChunkFailed is called with no recipe IDs and
+     * the import stops; anything already saved stays saved. The stream is closed
+     * when the import finishes. Must be called on the main thread; the listener is too.
+     */
+    public void importRecipes(InputStream in, BulkSaveListener callerListener) {
+        BulkSaveListener listener = trackBulk("importRecipes", callerListener);
+        RecipeCatalogCodec.CatalogReader reader = new RecipeCatalogCodec.CatalogReader(
+            new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        importNextBatch(reader, new BulkSaveResult(new ArrayList<>(), new ArrayList<>()), 0, listener);
+    }
+    
+    private void importNextBatch(RecipeCatalogCodec.CatalogReader reader, BulkSaveResult soFar,
+                                 int readSoFar, BulkSaveListener listener) {
+        transferExecutor.execute(() -> {
+            List<Recipe> batch;
+            try {
+                batch = reader.nextBatch(IMPORT_BATCH_SIZE);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error reading recipe catalog", e);
+                closeQuietly(reader);
+                mainHandler.post(() -> {
+                    listener.onChunkFailed(Collections.emptyList(), e);
+                    listener.onComplete(soFar);
+                });
+                return;
+            }
+            
+            mainHandler.post(() -> {
+                if (batch.isEmpty()) {
+                    closeQuietly(reader);
+                    listener.onComplete(soFar);
+                    return;
+                }
+                
+                int read = readSoFar + batch.size();
+                saveRecipes(batch, new BulkSaveListener() {
+                    @Override
+                    public void onProgress(int savedCount, int totalCount) {
+                        listener.onProgress(soFar.savedIds.size() + savedCount, read);
+                    }
+                    
+                    @Override
+                    public void onChunkFailed(List<String> recipeIds, Exception e) {
+                        listener.onChunkFailed(recipeIds, e);
+                    }
+                    
+                    @Override
+                    public void onComplete(BulkSaveResult result) {
+                        soFar.savedIds.addAll(result.savedIds);
+                        soFar.failedIds.addAll(result.failedIds);
+                        importNextBatch(reader, soFar, read, listener);
+                    }
+                });
+            });
+        });
+    }
+    
+    /**
+     * Writes every recipe in the database to a catalog file (see RecipeCatalogCodec)
+     * 
+     * Recipes are downloaded a page at a time, in the same order as getRecipesPage,
+     * and each page is written out before the next is asked for, so the whole
+     * catalog never sits in memory. Recipes saved before rating and dietary
+     * tags were kept on the recipe get them from their summary, so an export
+     * then import keeps them. Answers with how many recipes were written.
+     * The stream is closed when the export finishes.
+     */
+    public void exportRecipes(OutputStream out, FirebaseCallback<Integer> callerCallback) {
+        FirebaseCallback<Integer> callback = metrics.track("exportRecipes", callerCallback);
+        transferExecutor.execute(() -> {
+            RecipeCatalogCodec.CatalogWriter writer;
+            try {
+                writer = new RecipeCatalogCodec.CatalogWriter(
+                    new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                closeQuietly(out);
+                mainHandler.post(() -> callback.onFailure(e));
+                return;
+            }
+            exportPage(writer, null, callback);
+        });
+    }
+    
+    private void exportPage(RecipeCatalogCodec.CatalogWriter writer, String startAfterId,
+                            FirebaseCallback<Integer> callback) {
+        Query query = recipesRef.orderBy(FieldPath.documentId()).limit(EXPORT_PAGE_SIZE);
+        if (startAfterId != null) {
+            query = query.startAfter(startAfterId);
+        }
+        
+        // Decoding and writing happen on the transfer thread, one page at a time
+        query.get()
+            .addOnSuccessListener(transferExecutor, snapshot -> {
+                metrics.recordReads(snapshot);
+                List<DocumentSnapshot> documents = snapshot.getDocuments();
+                boolean missingFields = false;
+                for (DocumentSnapshot document : documents) {
+                    if (!RecipeSyncEngine.isTombstone(document) && !document.contains("rating")) {
+                        missingFields = true;
+                        break;
+                    }
+                }
+                if (!missingFields) {
+                    writeExportPage(writer, documents, new HashMap<>(), callback);
+                    return;
+                }
+                
+                // Recipes saved before rating and tags were kept on the recipe only
+                // have them in their summary, so read this page's summaries too
+                summariesRef.orderBy(FieldPath.documentId())
+                    .startAt(documents.get(0).getId())
+                    .endAt(documents.get(documents.size() - 1).getId())
+                    .get()
+                    .addOnSuccessListener(transferExecutor, summaries -> {
+                        metrics.recordReads(summaries);
+                        Map<String, RecipeSummary> summariesById = new HashMap<>();
+                        for (DocumentSnapshot summary : summaries.getDocuments()) {
+                            if (!RecipeSyncEngine.isTombstone(summary)) {
+                                summariesById.put(summary.getId(), documentSnapshotToSummary(summary));
+                            }
+                        }
+                        writeExportPage(writer, documents, summariesById, callback);
+                    })
+                    .addOnFailureListener(transferExecutor, e -> failExport(writer, e, callback));
+            })
+            .addOnFailureListener(transferExecutor, e -> failExport(writer, e, callback));
+    }
+    
+    /**
+     * Writes one downloaded page of the export, then asks for the next
+     * @param summariesById Summaries to take rating and tags from, for recipes that don't have them
+     */
+    private void writeExportPage(RecipeCatalogCodec.CatalogWriter writer, List<DocumentSnapshot> documents,
+                                 Map<String, RecipeSummary> summariesById, FirebaseCallback<Integer> callback) {
+        try {
+            for (DocumentSnapshot document : documents) {
+                if (RecipeSyncEngine.isTombstone(document)) {
+                    continue;
+                }
+                Recipe recipe = documentSnapshotToRecipe(document);
+                RecipeSummary summary = summariesById.get(document.getId());
+                if (summary != null && !document.contains("rating")) {
+                    recipe.setRating(summary.getRating());
+                    recipe.setDietaryTags(summary.getDietaryTags());
+                }
+                writer.write(recipe);
+            }
+            if (documents.size() == EXPORT_PAGE_SIZE) {
+                exportPage(writer, documents.get(documents.size() - 1).getId(), callback);
+                return;
+            }
+            writer.close();
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error writing recipe catalog", e);
+            closeQuietly(writer);
+            mainHandler.post(() -> callback.onFailure(e));
+            return;
+        }
+        int written = writer.getCount();
+        mainHandler.post(() -> callback.onSuccess(written));
+    }
+    
+    private void failExport(RecipeCatalogCodec.CatalogWriter writer, Exception e, FirebaseCallback<Integer> callback) {
+        Log.e(TAG, "Error downloading recipes to export", e);
+        closeQuietly(writer);
+        mainHandler.post(() -> callback.onFailure(e));
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing catalog file", e);
+        }
+    }
+    
+    /**
+     * Deletes a recipe from the database
+     * 
+     * Rather than removing the document, we replace it with a small "tombstone"
+     * (deleted = true and a new timestamp). That way phones that only download
+     * recently changed recipes still find out it's gone.
+     */
+    public void deleteRecipe(String recipeId, FirebaseCallback<Void> callerCallback) {
+        FirebaseCallback<Void> callback = metrics.track("deleteRecipe", callerCallback);
+        Map<String, Object> tombstone = new HashMap<>();
+        tombstone.put("id", recipeId);
+        tombstone.put(RecipeSyncEngine.FIELD_DELETED, true);
+        tombstone.put(RecipeSyncEngine.FIELD_TIMESTAMP, System.currentTimeMillis());
+        
+        // The summary gets a tombstone too, so list screens drop the recipe as well
+        WriteBatch batch = db.batch();
+        batch.set(recipesRef.document(recipeId), tombstone);
+        batch.set(summariesRef.document(recipeId), tombstone);
+        batch.commit()
+            .addOnSuccessListener(aVoid -> {
+                metrics.recordWrites(2);
+                forgetRecipe(recipeId);
+                callback.onSuccess(null);
+            })
+            .addOnFailureListener(callback::onFailure);
+    }
+    
+    /**
+     * Removes a deleted recipe from memory and from the copy on the phone
+     */
+    private void forgetRecipe(String recipeId) {
+        memoryCache.invalidate(recipeId);
+        RecipeStore store = localStore;
+        if (store != null) {
+            storeExecutor.execute(() -> store.deleteRecipe(recipeId));
         }
     }
     
@@ -197,101 +725,960 @@ public class FirebaseManager {
      * Loads a specific recipe from the database
      * 
      * This is like looking up a specific recipe card by its number.
+     * A recipe loaded in the last few minutes comes straight from memory.
+     * Otherwise, if we have a saved copy on the phone, the callback gets that first
+     * and then gets called a second time only if Firebase has something different.
+     */
+    public void getRecipe(String recipeId, FirebaseCallback<Recipe> callerCallback) {
+        FirebaseCallback<Recipe> callback = metrics.track("getRecipe", callerCallback);
+        // Another screen may have loaded this recipe a moment ago
+        Recipe remembered = memoryCache.get(recipeId);
+        if (remembered != null) {
+            metrics.recordCacheHit("memory");
+            callback.onSuccess(applyLiveFavorite(remembered));
+            return;
+        }
+        metrics.recordCacheMiss("memory");
+        
+        readThroughLocalStore(
+            store -> applyLiveFavorite(store.getRecipe(recipeId)),
+            networkCallback -> fetchRecipeOnce(recipeId, networkCallback),
+            RecipeStore::putRecipe,
+            callback);
+    }
+    
+    /**
+     * Shows how well the in-memory recipe cache is working
+     */
+    public RecipeMemoryCache.Stats getRecipeCacheStats() {
+        return memoryCache.getStats();
+    }
+    
+    /**
+     * Loads a recipe from Firebase, sharing one read between everyone who asks at the same time
+     * 
+     * If two screens open the same recipe together, only the first one actually
+     * asks Firebase; the second just waits for the same answer.
+     */
+    private void fetchRecipeOnce(String recipeId, FirebaseCallback<Recipe> callback) {
+        List<FirebaseCallback<Recipe>> waiting = recipesInFlight.get(recipeId);
+        if (waiting != null) {
+            waiting.add(callback);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(callback);
+        recipesInFlight.put(recipeId, waiting);
+        
+        fetchRecipe(recipeId, new FirebaseCallback<Recipe>() {
+            @Override
+            public void onSuccess(Recipe recipe) {
+                memoryCache.put(recipe);
+                for (FirebaseCallback<Recipe> waiter : recipesInFlight.remove(recipeId)) {
+                    waiter.onSuccess(recipe);
+                }
+            }
+            
+            @Override
+            public void onFailure(Exception e) {
+                for (FirebaseCallback<Recipe> waiter : recipesInFlight.remove(recipeId)) {
+                    waiter.onFailure(e);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Loads a specific recipe straight from Firebase
      */
-    public void getRecipe(String recipeId, FirebaseCallback<Recipe> callback) {
+    private void fetchRecipe(String recipeId, FirebaseCallback<Recipe> callback) {
         recipesRef.document(recipeId).get()
+            .addOnSuccessListener(metrics::recordRead)
             .addOnSuccessListener(documentSnapshot -> {
-                if (documentSnapshot.exists()) {
+                if (documentSnapshot.exists() && !RecipeSyncEngine.isTombstone(documentSnapshot)) {
                     Recipe recipe = documentSnapshotToRecipe(documentSnapshot);
                     checkIfFavorite(recipe, callback);
                 } else {
+                    // It's gone from Firebase, so forget our saved copies too
+                    forgetRecipe(recipeId);
                     callback.onFailure(new Exception("Recipe not found"));
                 }
-            })
-            .addOnFailureListener(callback::onFailure);
+            })
+            .addOnFailureListener(callback::onFailure);
+    }
+    
+    /**
+     * Loads a group of recipes by their IDs
+     * 
+     * Instead of looking up each recipe on its own, the IDs are split into
+     * small groups and each group is fetched with one query. All the groups
+     * are requested at the same time, and the recipes come back in the same
+     * order as the IDs we were given. Recipes that no longer exist are skipped.
+     */
+    public void getRecipesByIds(Collection<String> recipeIds, FirebaseCallback<List<Recipe>> callerCallback) {
+        FirebaseCallback<List<Recipe>> callback = metrics.track("getRecipesByIds", callerCallback);
+        fetchRecipesByIds(recipeIds, loadFavoriteIds(), callback);
+    }
+    
+    /**
+     * Does the work for getRecipesByIds, using the given favorite IDs to mark favorites
+     * 
+     * Saved copies on the phone are shown first, then refreshed from Firebase.
+     */
+    private void fetchRecipesByIds(Collection<String> recipeIds, Task<Set<String>> favoritesTask,
+                                   FirebaseCallback<List<Recipe>> callback) {
+        readThroughLocalStore(
+            store -> {
+                List<Recipe> saved = store.getRecipesByIds(recipeIds);
+                // Only answer early if every recipe was saved, otherwise rows would pop in later
+                return saved.size() == new LinkedHashSet<>(recipeIds).size()
+                    ? markFavorites(saved, favoritesTask) : null;
+            },
+            networkCallback -> queryRecipesByIds(recipeIds, favoritesTask, networkCallback),
+            RecipeStore::putRecipes,
+            callback);
+    }
+    
+    /**
+     * Loads a group of recipes straight from Firebase, a few IDs per query
+     */
+    private void queryRecipesByIds(Collection<String> recipeIds, Task<Set<String>> favoritesTask,
+                                   FirebaseCallback<List<Recipe>> callback) {
+        fetchDocumentsByIds(recipesRef, recipeIds, favoritesTask, (document, favoriteIds) -> {
+            Recipe recipe = documentSnapshotToRecipe(document);
+            recipe.setFavorite(favoriteIds.contains(recipe.getId()));
+            memoryCache.put(recipe);
+            return recipe;
+        }, callback);
+    }
+    
+    /**
+     * Reads documents by their IDs, a few IDs per query, and converts each one
+     * 
+     * All the groups are requested at the same time (along with the user's
+     * favorites) and the results come back in the same order as the IDs.
+     * Documents that don't exist or were deleted are skipped. If some groups
+     * fail the rest are still returned; if every group fails, onFailure is called.
+     */
+    private <T> void fetchDocumentsByIds(CollectionReference collection, Collection<String> ids,
+                                         Task<Set<String>> favoritesTask,
+                                         BiFunction<DocumentSnapshot, Set<String>, T> convert,
+                                         FirebaseCallback<List<T>> callback) {
+        // Remove duplicates but keep the order the caller asked for
+        List<String> orderedIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        if (orderedIds.isEmpty()) {
+            callback.onSuccess(new ArrayList<>());
+            return;
+        }
+        
+        // Start one query per group of IDs
+        List<Task<QuerySnapshot>> chunkTasks = new ArrayList<>();
+        for (int start = 0; start < orderedIds.size(); start += WHERE_IN_LIMIT) {
+            List<String> chunk = new ArrayList<>(
+                orderedIds.subList(start, Math.min(start + WHERE_IN_LIMIT, orderedIds.size())));
+            chunkTasks.add(collection.whereIn(FieldPath.documentId(), chunk).get()
+                .addOnSuccessListener(metrics::recordReads));
+        }
+        
+        List<Task<?>> allTasks = new ArrayList<>(chunkTasks);
+        allTasks.add(favoritesTask);
+        
+        // Decode in the background and only hand the finished list to the main thread
+        Tasks.whenAllComplete(allTasks)
+            .addOnCompleteListener(decodeExecutor, done -> {
+                Set<String> favoriteIds = favoritesTask.isSuccessful()
+                    ? favoritesTask.getResult()
+                    : Collections.emptySet();
+                
+                Map<String, T> itemsById = new HashMap<>();
+                Exception lastError = null;
+                int groupsLoaded = 0;
+                for (Task<QuerySnapshot> chunkTask : chunkTasks) {
+                    if (!chunkTask.isSuccessful()) {
+                        Log.w(TAG, "Error loading recipe group", chunkTask.getException());
+                        lastError = chunkTask.getException();
+                        continue;
+                    }
+                    groupsLoaded++;
+                    for (QueryDocumentSnapshot document : chunkTask.getResult()) {
+                        if (RecipeSyncEngine.isTombstone(document)) {
+                            continue;
+                        }
+                        itemsById.put(document.getId(), convert.apply(document, favoriteIds));
+                    }
+                }
+                
+                // A missing group just means fewer rows, but if none loaded we have no answer at all
+                if (groupsLoaded == 0) {
+                    Exception error = lastError;
+                    mainHandler.post(() -> callback.onFailure(error));
+                    return;
+                }
+
+                // Put them back in the order they were asked for
+                List<T> items = new ArrayList<>(itemsById.size());
+                for (String id : orderedIds) {
+                    T item = itemsById.get(id);
+                    if (item != null) {
+                        items.add(item);
+                    }
+                }
+                List<T> result = Collections.unmodifiableList(items);
+                mainHandler.post(() -> callback.onSuccess(result));
+            });
+    }
+    
+    /**
+     * Loads all recipes from the database
+     * 
+     * This is like getting all recipe cards from our collection.
+     * Like getRecipe, the saved copy is shown first and then refreshed.
+     * The refresh only downloads recipes that changed since last time
+     * (see RecipeSyncEngine), so it's cheap even for a big catalog.
+     */
+    public void getAllRecipes(FirebaseCallback<List<Recipe>> callerCallback) {
+        FirebaseCallback<List<Recipe>> callback = metrics.track("getAllRecipes", callerCallback);
+        if (recipeSync == null) {
+            queryRecipesWithFavorites(recipesRef, callback);
+            return;
+        }
+        
+        readThroughLocalStore(
+            store -> applyLiveFavorites(nullIfEmpty(store.getAllRecipes())),
+            this::syncAndReadAllRecipes,
+            (store, recipes) -> { },  // The sync already saved everything
+            callback);
+    }
+    
+    /**
+     * Brings the copy of the recipes on the phone up to date with Firebase
+     * 
+     * Only recipes saved or deleted since the last sync are downloaded.
+     */
+    public void syncRecipes(FirebaseCallback<RecipeSyncEngine.SyncResult> callerCallback) {
+        FirebaseCallback<RecipeSyncEngine.SyncResult> callback = metrics.track("syncRecipes", callerCallback);
+        if (recipeSync == null) {
+            callback.onFailure(new IllegalStateException("Local store not attached"));
+            return;
+        }
+        
+        recipeSync.sync(new FirebaseCallback<RecipeSyncEngine.SyncResult>() {
+            @Override
+            public void onSuccess(RecipeSyncEngine.SyncResult result) {
+                // Recipes remembered in memory might now be out of date
+                if (result.fullSync) {
+                    memoryCache.clear();
+                } else {
+                    for (String recipeId : result.updatedIds) {
+                        memoryCache.invalidate(recipeId);
+                    }
+                    for (String recipeId : result.deletedIds) {
+                        memoryCache.invalidate(recipeId);
+                    }
+                }
+                tombstonePurger.maybePurge();
+                recipeSync.checkRowCount();
+                callback.onSuccess(result);
+            }
+            
+            @Override
+            public void onFailure(Exception e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+    
+    /**
+     * Syncs the saved copy, then reads the whole catalog back out of it
+     */
+    private void syncAndReadAllRecipes(FirebaseCallback<List<Recipe>> callback) {
+        syncRecipes(new FirebaseCallback<RecipeSyncEngine.SyncResult>() {
+            @Override
+            public void onSuccess(RecipeSyncEngine.SyncResult result) {
+                Task<Set<String>> favoritesTask = loadFavoriteIds();
+                favoritesTask.addOnCompleteListener(done -> storeExecutor.execute(() -> {
+                    List<Recipe> recipes = markFavorites(localStore.getAllRecipes(), favoritesTask);
+                    mainHandler.post(() -> callback.onSuccess(recipes));
+                }));
+            }
+            
+            @Override
+            public void onFailure(Exception e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+    
+    /**
+     * Loads recipes of a specific type (like all desserts)
+     */
+    public void getRecipesByCategory(String category, FirebaseCallback<List<Recipe>> callerCallback) {
+        FirebaseCallback<List<Recipe>> callback = metrics.track("getRecipesByCategory", callerCallback);
+        readThroughLocalStore(
+            store -> applyLiveFavorites(nullIfEmpty(store.getRecipesByCategory(category))),
+            networkCallback -> queryRecipesWithFavorites(recipesRef.whereEqualTo("category", category), networkCallback),
+            RecipeStore::putRecipes,
+            callback);
+    }
+    
+    /**
+     * Loads recipes from a specific cuisine (like all Italian recipes)
+     */
+    public void getRecipesByCuisine(String cuisine, FirebaseCallback<List<Recipe>> callerCallback) {
+        FirebaseCallback<List<Recipe>> callback = metrics.track("getRecipesByCuisine", callerCallback);
+        readThroughLocalStore(
+            store -> applyLiveFavorites(nullIfEmpty(store.getRecipesByCuisine(cuisine))),
+            networkCallback -> queryRecipesWithFavorites(recipesRef.whereEqualTo("cuisine", cuisine), networkCallback),
+            RecipeStore::putRecipes,
+            callback);
+    }
+    
+    /**
+     * Loads one page of the recipe catalog
+     * 
+     * Recipes are read in a fixed order, a page at a time. Pass null as the
+     * cursor to get the first page, then pass the last page's cursor
+     * (RecipePage.getLastRecipeId) to get the page after it.
+     * The first page is answered from the saved copy first, like getAllRecipes,
+     * but only once the whole catalog is saved; until then the saved rows
+     * aren't one unbroken page.
+     */
+    public void getRecipesPage(int pageSize, String startAfterId, FirebaseCallback<RecipePage<Recipe>> callerCallback) {
+        FirebaseCallback<RecipePage<Recipe>> callback = metrics.track("getRecipesPage", callerCallback);
+        Query query = recipesRef.orderBy(FieldPath.documentId()).limit(pageSize);
+        if (startAfterId != null) {
+            queryRecipePage(query.startAfter(startAfterId), pageSize, callback);
+            return;
+        }
+        
+        readThroughLocalStore(
+            store -> {
+                if (!localCatalogComplete()) {
+                    return null;
+                }
+                List<Recipe> saved = applyLiveFavorites(store.getFirstRecipes(pageSize));
+                return saved.isEmpty() ? null : new RecipePage<>(saved,
+                    saved.get(saved.size() - 1).getId(), saved.size() == pageSize);
+            },
+            networkCallback -> queryRecipePage(query, pageSize, networkCallback),
+            (store, page) -> store.putRecipes(page.getRecipes()),
+            callback);
+    }
+    
+    /**
+     * Loads one page of recipe summaries (the short versions list screens show)
+     * 
+     * Works like getRecipesPage, but only downloads what a list row needs.
+     * The first page is answered from the recipes saved on the phone first,
+     * once the whole catalog is saved there.
+     */
+    public void getRecipeSummariesPage(int pageSize, String startAfterId,
+                                       FirebaseCallback<RecipePage<RecipeSummary>> callerCallback) {
+        FirebaseCallback<RecipePage<RecipeSummary>> callback = metrics.track("getRecipeSummariesPage", callerCallback);
+        Query query = summariesRef.orderBy(FieldPath.documentId()).limit(pageSize);
+        if (startAfterId != null) {
+            querySummaryPage(query.startAfter(startAfterId), pageSize, callback);
+            return;
+        }
+        
+        readThroughLocalStore(
+            store -> {
+                if (!localCatalogComplete()) {
+                    return null;
+                }
+                List<RecipeSummary> saved = applyLiveFavoriteSummaries(
+                    RecipeSummary.fromAll(store.getFirstRecipes(pageSize)));
+                return saved.isEmpty() ? null : new RecipePage<>(saved,
+                    saved.get(saved.size() - 1).getId(), saved.size() == pageSize);
+            },
+            networkCallback -> querySummaryPage(query, pageSize, networkCallback),
+            (store, page) -> { },  // The phone keeps full recipes, so there's nothing to save
+            callback);
+    }
+    
+    /**
+     * Works out how to load recipes for some filters (see RecipeQueryPlanner)
+     * 
+     * The saved copy is only used once it has been fully synced (and holds as
+     * many recipes as Firebase), since until then it may be missing recipes
+     * that match. Firebase is only asked for a time limit once the catalog
+     * migration has given every summary a totalTime.
+     */
+    public RecipeQueryPlanner.Plan planSummaryQuery(RecipeQueryPlanner.Filters filters) {
+        boolean totalTimeStored = migrationPrefs != null
+            && migrationPrefs.getLong(CATALOG_VERSION_KEY, 0) >= CATALOG_VERSION;
+        return RecipeQueryPlanner.plan(filters, localCatalogComplete(), totalTimeStored);
+    }
+    
+    /**
+     * Checks whether the copy on the phone holds the whole catalog
+     * 
+     * Until it does, saved rows can have gaps, so they're fine for showing a
+     * recipe early but not for answering "the first page" or "everything that matches".
+     */
+    private boolean localCatalogComplete() {
+        return localStore != null && recipeSync != null && recipeSync.isComplete();
+    }
+    
+    /**
+     * Loads one page of the summaries that a plan from planSummaryQuery asks for
+     * 
+     * Pass null as the cursor for the first page, then the last page's cursor.
+     * Cursors only work with the plan that made them.
+     */
+    public void getSummariesPage(RecipeQueryPlanner.Plan plan, int pageSize, String startAfter,
+                                 FirebaseCallback<RecipePage<RecipeSummary>> callerCallback) {
+        switch (plan.source) {
+            case CATALOG:
+                getRecipeSummariesPage(pageSize, startAfter, callerCallback);
+                return;
+            case LOCAL:
+                readLocalSummaryPage(plan, pageSize, startAfter,
+                    metrics.track("getSummariesPage.local", callerCallback));
+                return;
+            default:
+                querySummaryPage(narrowedSummaryQuery(plan, pageSize, startAfter), pageSize, plan,
+                    metrics.track("getSummariesPage.narrowed", callerCallback));
+        }
+    }
+    
+    /**
+     * Builds the Firebase query for a NARROWED plan
+     * 
+     * Every mix of fields used here needs a composite index (firestore.indexes.json).
+     */
+    private Query narrowedSummaryQuery(RecipeQueryPlanner.Plan plan, int pageSize, String startAfter) {
+        Query query = summariesRef;
+        for (Map.Entry<String, String> equality : plan.getEqualities().entrySet()) {
+            query = query.whereEqualTo(equality.getKey(), equality.getValue());
+        }
+        if (plan.hasTimeLimit()) {
+            // A range clause means Firebase has to sort by that field first
+            query = query.whereLessThanOrEqualTo(RecipeQueryPlanner.FIELD_TOTAL_TIME, plan.filters.maxTotalTime)
+                .orderBy(RecipeQueryPlanner.FIELD_TOTAL_TIME);
+        }
+        query = query.orderBy(FieldPath.documentId()).limit(pageSize);
+        return startAfter != null ? query.startAfter(plan.startAfterValues(startAfter)) : query;
+    }
+    
+    /**
+     * Answers a LOCAL plan from the recipes saved on the phone, without asking Firebase
+     */
+    private void readLocalSummaryPage(RecipeQueryPlanner.Plan plan, int pageSize, String startAfter,
+                                      FirebaseCallback<RecipePage<RecipeSummary>> callback) {
+        RecipeStore store = localStore;
+        storeExecutor.execute(() -> {
+            List<RecipeSummary> saved = applyLiveFavoriteSummaries(
+                RecipeSummary.fromAll(store.getRecipesMatching(plan.filters, startAfter, pageSize)));
+            metrics.recordCacheHit("localStore");
+            String cursor = saved.isEmpty() ? null : plan.cursorAfter(saved.get(saved.size() - 1));
+            RecipePage<RecipeSummary> page = new RecipePage<>(saved, cursor, saved.size() == pageSize);
+            mainHandler.post(() -> callback.onSuccess(page));
+        });
+    }
+    
+    /**
+     * Loads the summaries of a group of recipes, in the order of the IDs given
+     */
+    public void getRecipeSummariesByIds(Collection<String> recipeIds,
+                                        FirebaseCallback<List<RecipeSummary>> callerCallback) {
+        FirebaseCallback<List<RecipeSummary>> callback = metrics.track("getRecipeSummariesByIds", callerCallback);
+        fetchSummariesByIds(recipeIds, loadFavoriteIds(), callback);
+    }
+    
+    /**
+     * Loads the summaries of all the recipes the user has marked as favorites
+     */
+    public void getFavoriteSummaries(FirebaseCallback<List<RecipeSummary>> callerCallback) {
+        FirebaseCallback<List<RecipeSummary>> callback = metrics.track("getFavoriteSummaries", callerCallback);
+        String userId = getCurrentUserId();
+        if (userId == null) {
+            callback.onFailure(new Exception("User not logged in"));
+            return;
+        }
+        
+        if (favoritesLoaded) {
+            List<String> recipeIds = new ArrayList<>(favoriteIds);
+            fetchSummariesByIds(recipeIds, Tasks.forResult(new HashSet<>(recipeIds)), callback);
+            return;
+        }
+        
+        favoritesRef.document(userId)
+            .collection("recipes")
+            .get()
+            .addOnSuccessListener(metrics::recordReads)
+            .addOnSuccessListener(queryDocumentSnapshots -> {
+                Set<String> ids = new LinkedHashSet<>();
+                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
+                    ids.add(document.getId());
+                }
+                List<String> recipeIds = new ArrayList<>(applyPendingFavorites(userId, ids));
+                fetchSummariesByIds(recipeIds, Tasks.forResult(new HashSet<>(recipeIds)), callback);
+            })
+            .addOnFailureListener(callback::onFailure);
+    }
+    
+    /**
+     * Fills in summaries and recipe fields that older saves left out
+     * 
+     * Writes a summary for every recipe that has none, or whose summary is
+     * older than the recipe or was written before totalTime was stored.
+     * Recipes saved before rating and dietary tags were kept on the recipe
+     * itself get them copied over from their summary, so summaries made from
+     * the recipe later (for example from the copy on the phone) keep them;
+     * those recipes get a new timestamp so phones pick the change up on their
+     * next sync. Answers with how many recipes needed something written.
+     */
+    public void backfillRecipeSummaries(FirebaseCallback<Integer> callerCallback) {
+        FirebaseCallback<Integer> callback = metrics.track("backfillRecipeSummaries", callerCallback);
+        Task<QuerySnapshot> recipesTask = recipesRef.get().addOnSuccessListener(metrics::recordReads);
+        Task<QuerySnapshot> summariesTask = summariesRef.get().addOnSuccessListener(metrics::recordReads);
+        
+        Tasks.whenAllComplete(recipesTask, summariesTask)
+            .addOnCompleteListener(decodeExecutor, done -> {
+                if (!recipesTask.isSuccessful() || !summariesTask.isSuccessful()) {
+                    Exception error = recipesTask.isSuccessful()
+                        ? summariesTask.getException() : recipesTask.getException();
+                    mainHandler.post(() -> callback.onFailure(error));
+                    return;
+                }
+                
+                Map<String, DocumentSnapshot> summariesById = new HashMap<>();
+                for (QueryDocumentSnapshot summary : summariesTask.getResult()) {
+                    summariesById.put(summary.getId(), summary);
+                }
+                
+                List<Task<Void>> commits = new ArrayList<>();
+                WriteBatch batch = db.batch();
+                int inBatch = 0;
+                int written = 0;
+                long now = System.currentTimeMillis();
+                for (QueryDocumentSnapshot document : recipesTask.getResult()) {
+                    if (RecipeSyncEngine.isTombstone(document)) {
+                        continue;
+                    }
+                    DocumentSnapshot summary = summariesById.get(document.getId());
+                    boolean recipeMissingFields = !document.contains("rating");
+                    boolean summaryOutOfDate = summary == null
+                        || !summary.contains(RecipeQueryPlanner.FIELD_TOTAL_TIME)
+                        || RecipeSyncEngine.timestampOf(summary) < RecipeSyncEngine.timestampOf(document);
+                    if (!recipeMissingFields && !summaryOutOfDate) {
+                        continue;
+                    }
+                    
+                    // Firebase allows at most 500 writes in one batch
+                    if (inBatch + WRITES_PER_RECIPE > 500) {
+                        commits.add(batch.commit());
+                        batch = db.batch();
+                        inBatch = 0;
+                    }
+                    
+                    Recipe recipe = documentSnapshotToRecipe(document);
+                    if (recipeMissingFields) {
+                        // Older recipes only kept these in their summary
+                        if (summary != null && !RecipeSyncEngine.isTombstone(summary)) {
+                            RecipeSummary saved = documentSnapshotToSummary(summary);
+                            recipe.setRating(saved.getRating());
+                            recipe.setDietaryTags(saved.getDietaryTags());
+                        }
+                        addRecipeToBatch(batch, recipe, document.getId(), now);
+                        inBatch += WRITES_PER_RECIPE;
+                    } else {
+                        Map<String, Object> summaryMap = RecipeSummary.from(recipe).toMap();
+                        summaryMap.put("timestamp", RecipeSyncEngine.timestampOf(document));
+                        batch.set(summariesRef.document(document.getId()), summaryMap);
+                        inBatch++;
+                    }
+                    written++;
+                }
+                if (inBatch > 0) {
+                    commits.add(batch.commit());
+                }
+                
+                int total = written;
+                Tasks.whenAll(commits)
+                    .addOnSuccessListener(aVoid -> {
+                        metrics.recordWrites(total);
+                        callback.onSuccess(total);
+                    })
+                    .addOnFailureListener(callback::onFailure);
+            });
+    }
+    
+    /**
+     * Runs backfillRecipeSummaries once for the whole catalog, whenever the saved fields change
+     * 
+     * The "meta/catalog" document says which CATALOG_VERSION the catalog has
+     * been brought up to, so only the first phone to get here does the work.
+     * Each phone remembers the answer, so after that it isn't even asked.
+     * Called when the app starts.
+     */
+    public void migrateCatalogIfNeeded() {
+        if (migrationPrefs == null || migrationPrefs.getLong(CATALOG_VERSION_KEY, 0) >= CATALOG_VERSION) {
+            return;
+        }
+        DocumentReference catalogMetaRef = db.collection("meta").document("catalog");
+        catalogMetaRef.get()
+            .addOnSuccessListener(metrics::recordRead)
+            .addOnSuccessListener(snapshot -> {
+                Long version = snapshot.getLong("version");
+                if (version != null && version >= CATALOG_VERSION) {
+                    migrationPrefs.edit().putLong(CATALOG_VERSION_KEY, version).apply();
+                    return;
+                }
+                backfillRecipeSummaries(new FirebaseCallback<Integer>() {
+                    @Override
+                    public void onSuccess(Integer written) {
+                        Log.d(TAG, "Brought " + written + " recipes up to catalog version " + CATALOG_VERSION);
+                        Map<String, Object> meta = new HashMap<>();
+                        meta.put("version", CATALOG_VERSION);
+                        catalogMetaRef.set(meta)
+                            .addOnSuccessListener(aVoid -> {
+                                metrics.recordWrites(1);
+                                migrationPrefs.edit().putLong(CATALOG_VERSION_KEY, CATALOG_VERSION).apply();
+                            })
+                            .addOnFailureListener(e -> Log.w(TAG, "Couldn't record catalog version", e));
+                    }
+                    
+                    @Override
+                    public void onFailure(Exception e) {
+                        // Tried again next time the app starts
+                        Log.w(TAG, "Couldn't bring the catalog up to date", e);
+                    }
+                });
+            })
+            .addOnFailureListener(e -> Log.w(TAG, "Couldn't check the catalog version", e));
+    }
+    
+    /**
+     * Does the work for getRecipeSummariesByIds, using saved recipes first if we have them all
+     */
+    private void fetchSummariesByIds(Collection<String> recipeIds, Task<Set<String>> favoritesTask,
+                                     FirebaseCallback<List<RecipeSummary>> callback) {
+        readThroughLocalStore(
+            store -> {
+                List<Recipe> saved = store.getRecipesByIds(recipeIds);
+                return saved.size() == new LinkedHashSet<>(recipeIds).size()
+                    ? RecipeSummary.fromAll(markFavorites(saved, favoritesTask)) : null;
+            },
+            networkCallback -> fetchDocumentsByIds(summariesRef, recipeIds, favoritesTask,
+                (document, favoriteIds) -> {
+                    RecipeSummary summary = documentSnapshotToSummary(document);
+                    summary.setFavorite(favoriteIds.contains(summary.getId()));
+                    return summary;
+                }, networkCallback),
+            (store, summaries) -> { },
+            callback);
+    }
+    
+    /**
+     * Runs a summary query and marks which of the results the user likes
+     * 
+     * The same as queryRecipePage, but for the short versions of recipes.
+     */
+    private void querySummaryPage(Query query, int pageSize, FirebaseCallback<RecipePage<RecipeSummary>> callback) {
+        querySummaryPage(query, pageSize, null, callback);
+    }
+    
+    /**
+     * Runs a summary query for a plan, whose cursors may need more than the last ID
+     */
+    private void querySummaryPage(Query query, int pageSize, RecipeQueryPlanner.Plan plan,
+                                  FirebaseCallback<RecipePage<RecipeSummary>> callback) {
+        Task<QuerySnapshot> summariesTask = query.get().addOnSuccessListener(metrics::recordReads);
+        Task<Set<String>> favoritesTask = loadFavoriteIds();
+        
+        Tasks.whenAllComplete(summariesTask, favoritesTask)
+            .addOnCompleteListener(decodeExecutor, done -> {
+                if (!summariesTask.isSuccessful()) {
+                    Exception error = summariesTask.getException();
+                    mainHandler.post(() -> callback.onFailure(error));
+                    return;
+                }
+                
+                Set<String> favoriteIds = favoritesTask.isSuccessful()
+                    ? favoritesTask.getResult()
+                    : Collections.emptySet();
+                
+                List<DocumentSnapshot> documents = summariesTask.getResult().getDocuments();
+                List<RecipeSummary> summaries = new ArrayList<>();
+                for (DocumentSnapshot document : documents) {
+                    if (RecipeSyncEngine.isTombstone(document)) {
+                        continue;
+                    }
+                    RecipeSummary summary = documentSnapshotToSummary(document);
+                    summary.setFavorite(favoriteIds.contains(summary.getId()));
+                    summaries.add(summary);
+                }
+                
+                DocumentSnapshot lastDocument = documents.isEmpty() ? null : documents.get(documents.size() - 1);
+                String lastRecipeId = lastDocument == null ? null
+                    : plan == null ? lastDocument.getId()
+                    : plan.cursorAfter(lastDocument.getLong(RecipeQueryPlanner.FIELD_TOTAL_TIME), lastDocument.getId());
+                boolean hasMore = pageSize > 0 && documents.size() == pageSize;
+                RecipePage<RecipeSummary> page = new RecipePage<>(
+                    Collections.unmodifiableList(summaries), lastRecipeId, hasMore);
+                mainHandler.post(() -> callback.onSuccess(page));
+            });
+    }
+    
+    /**
+     * Loads the recipes a query points at and marks which ones the user likes
+     */
+    private void queryRecipesWithFavorites(Query query, FirebaseCallback<List<Recipe>> callback) {
+        queryRecipePage(query, 0, new FirebaseCallback<RecipePage<Recipe>>() {
+            @Override
+            public void onSuccess(RecipePage<Recipe> page) {
+                callback.onSuccess(page.getRecipes());
+            }
+            
+            @Override
+            public void onFailure(Exception e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+    
+    /**
+     * Runs a recipe query and marks which of the results the user likes
+     * 
+     * Rather than asking the database about every recipe one at a time, we read
+     * the user's favorites list once and tick off the matching recipes in memory.
+     * Both reads run at the same time and we answer as soon as both are back.
+     * A page size of 0 means the query isn't paged.
+     */
+    private void queryRecipePage(Query query, int pageSize, FirebaseCallback<RecipePage<Recipe>> callback) {
+        Task<QuerySnapshot> recipesTask = query.get().addOnSuccessListener(metrics::recordReads);
+        Task<Set<String>> favoritesTask = loadFavoriteIds();
+        
+        // Decode in the background and only hand the finished page to the main thread
+        Tasks.whenAllComplete(recipesTask, favoritesTask)
+            .addOnCompleteListener(decodeExecutor, done -> {
+                if (!recipesTask.isSuccessful()) {
+                    Exception error = recipesTask.getException();
+                    mainHandler.post(() -> callback.onFailure(error));
+                    return;
+                }
+                
+                // A failed favorites read just means no hearts are filled in
+                Set<String> favoriteIds = favoritesTask.isSuccessful()
+                    ? favoritesTask.getResult()
+                    : Collections.emptySet();
+                
+                QuerySnapshot snapshot = recipesTask.getResult();
+                List<Recipe> recipes = new ArrayList<>();
+                for (QueryDocumentSnapshot document : snapshot) {
+                    // Deleted recipes leave a tombstone behind, which we skip
+                    if (RecipeSyncEngine.isTombstone(document)) {
+                        continue;
+                    }
+                    Recipe recipe = documentSnapshotToRecipe(document);
+                    recipe.setFavorite(favoriteIds.contains(recipe.getId()));
+                    recipes.add(recipe);
+                }
+                // Keep them handy for the detail screen
+                memoryCache.putAll(recipes);
+                
+                // The cursor and "more" check go by documents read, so tombstones don't end paging early
+                List<DocumentSnapshot> documents = snapshot.getDocuments();
+                String lastRecipeId = documents.isEmpty() ? null : documents.get(documents.size() - 1).getId();
+                boolean hasMore = pageSize > 0 && documents.size() == pageSize;
+                RecipePage<Recipe> page = new RecipePage<>(
+                    Collections.unmodifiableList(recipes), lastRecipeId, hasMore);
+                mainHandler.post(() -> callback.onSuccess(page));
+            });
+    }
+    
+    /**
+     * Reads the IDs of every recipe the current user likes in a single query
+     */
+    private Task<Set<String>> loadFavoriteIds() {
+        String userId = getCurrentUserId();
+        if (userId == null) {
+            return Tasks.forResult(Collections.emptySet());
+        }
+        
+        // No need to ask Firebase once the live listener has the answer
+        if (favoritesLoaded) {
+            metrics.recordCacheHit("favorites");
+            return Tasks.forResult(new HashSet<>(favoriteIds));
+        }
+        metrics.recordCacheMiss("favorites");
+        
+        return favoritesRef.document(userId)
+            .collection("recipes")
+            .get()
+            .addOnSuccessListener(metrics::recordReads)
+            .continueWith(task -> {
+                Set<String> ids = new HashSet<>();
+                if (task.isSuccessful() && task.getResult() != null) {
+                    for (QueryDocumentSnapshot document : task.getResult()) {
+                        ids.add(document.getId());
+                    }
+                }
+                return applyPendingFavorites(userId, ids);
+            });
     }
     
     /**
-     * Loads all recipes from the database
+     * Answers from the copy on the phone first, then checks Firebase
      * 
-     * This is like getting all recipe cards from our collection.
+     * The saved copy (if there is one) is handed to the callback straight away.
+     * Firebase is asked at the same time; its answer is saved for next time and
+     * only passed on if it's different from what the callback already got
+     * (going by the fields the store keeps, see RecipeStore.sameContent).
+     * If Firebase can't be reached, the saved copy is all the callback gets.
+     * 
+     * Callbacks that only want one answer (see FirebaseCallback.wantsSavedCopyFirst)
+     * are handed the fresh answer, or the saved copy if Firebase fails.
      */
-    public void getAllRecipes(FirebaseCallback<List<Recipe>> callback) {
-        recipesRef.get()
-            .addOnSuccessListener(queryDocumentSnapshots -> {
-                List<Recipe> recipes = new ArrayList<>();
-                List<Recipe> tempRecipes = new ArrayList<>();
-                
-                // Convert each document into a recipe
-                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                    Recipe recipe = documentSnapshotToRecipe(document);
-                    tempRecipes.add(recipe);
+    private <T> void readThroughLocalStore(Function<RecipeStore, T> readSaved,
+                                           Consumer<FirebaseCallback<T>> readFirebase,
+                                           BiConsumer<RecipeStore, T> save,
+                                           FirebaseCallback<T> callback) {
+        RecipeStore store = localStore;
+        if (store == null) {
+            readFirebase.accept(callback);
+            return;
+        }
+        if (!callback.wantsSavedCopyFirst()) {
+            readLatest(store, readSaved, readFirebase, save, callback);
+            return;
+        }
+        
+        // Both answers arrive on the main thread, so plain arrays are enough to share state
+        final Object[] delivered = {null};
+        final boolean[] firebaseAnswered = {false};
+        
+        storeExecutor.execute(() -> {
+            T saved = readSaved.apply(store);
+            if (saved != null) {
+                metrics.recordCacheHit("localStore");
+            } else {
+                metrics.recordCacheMiss("localStore");
+            }
+            mainHandler.post(() -> {
+                // Don't show the saved copy if Firebase already answered
+                if (saved != null && !firebaseAnswered[0]) {
+                    delivered[0] = saved;
+                    callback.onSuccess(saved);
                 }
-                
-                // If there are no recipes, return an empty list
-                if (tempRecipes.isEmpty()) {
-                    callback.onSuccess(recipes);
+            });
+        });
+        
+        readFirebase.accept(new FirebaseCallback<T>() {
+            @Override
+            public void onSuccess(T fresh) {
+                firebaseAnswered[0] = true;
+                Object shown = delivered[0];
+                if (shown == null) {
+                    storeExecutor.execute(() -> save.accept(store, fresh));
+                    callback.onSuccess(fresh);
                     return;
                 }
-
-                // Check if each recipe is a favorite
-                final int[] count = {0};
-                for (Recipe recipe : tempRecipes) {
-                    checkIfFavorite(recipe, new FirebaseCallback<Recipe>() {
-                        @Override
-                        public void onSuccess(Recipe checkedRecipe) {
-                            recipes.add(checkedRecipe);
-                            count[0]++;
-                            if (count[0] == tempRecipes.size()) {
-                                callback.onSuccess(recipes);
-                            }
-                        }
-
-                        @Override
-                        public void onFailure(Exception e) {
-                            count[0]++;
-                            if (count[0] == tempRecipes.size()) {
-                                callback.onSuccess(recipes);
-                            }
+                // Comparing big lists is slow, so it happens on the store's thread too
+                storeExecutor.execute(() -> {
+                    save.accept(store, fresh);
+                    if (!store.sameContent(shown, fresh)) {
+                        mainHandler.post(() -> callback.onSuccess(fresh));
+                    }
+                });
+            }
+            
+            @Override
+            public void onFailure(Exception e) {
+                firebaseAnswered[0] = true;
+                if (delivered[0] == null) {
+                    callback.onFailure(e);
+                } else {
+                    Log.w(TAG, "Couldn't refresh from Firebase, keeping the saved copy", e);
+                }
+            }
+        });
+    }
+    
+    /**
+     * readThroughLocalStore for callbacks that want a single answer
+     * 
+     * The saved copy is only read in case Firebase fails.
+     */
+    private <T> void readLatest(RecipeStore store,
+                                Function<RecipeStore, T> readSaved,
+                                Consumer<FirebaseCallback<T>> readFirebase,
+                                BiConsumer<RecipeStore, T> save,
+                                FirebaseCallback<T> callback) {
+        readFirebase.accept(new FirebaseCallback<T>() {
+            @Override
+            public void onSuccess(T fresh) {
+                storeExecutor.execute(() -> save.accept(store, fresh));
+                callback.onSuccess(fresh);
+            }
+            
+            @Override
+            public void onFailure(Exception e) {
+                storeExecutor.execute(() -> {
+                    T saved = readSaved.apply(store);
+                    if (saved != null) {
+                        metrics.recordCacheHit("localStore");
+                    } else {
+                        metrics.recordCacheMiss("localStore");
+                    }
+                    mainHandler.post(() -> {
+                        if (saved != null) {
+                            Log.w(TAG, "Couldn't refresh from Firebase, answering with the saved copy", e);
+                            callback.onSuccess(saved);
+                        } else {
+                            callback.onFailure(e);
                         }
                     });
-                }
-            })
-            .addOnFailureListener(callback::onFailure);
+                });
+            }
+        });
+    }
+    
+    private static <T> List<T> nullIfEmpty(List<T> list) {
+        return list.isEmpty() ? null : list;
     }
     
     /**
-     * Loads recipes of a specific type (like all desserts)
+     * Sets a remembered recipe's favorite flag from the live favorites list, once it has loaded
      */
-    public void getRecipesByCategory(String category, FirebaseCallback<List<Recipe>> callback) {
-        recipesRef.whereEqualTo("category", category)
-            .get()
-            .addOnSuccessListener(queryDocumentSnapshots -> {
-                List<Recipe> recipes = new ArrayList<>();
-                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                    Recipe recipe = documentSnapshotToRecipe(document);
-                    recipes.add(recipe);
-                }
-                callback.onSuccess(recipes);
-            })
-            .addOnFailureListener(callback::onFailure);
+    private Recipe applyLiveFavorite(Recipe recipe) {
+        if (recipe != null && favoritesLoaded) {
+            recipe.setFavorite(favoriteIds.contains(recipe.getId()));
+        }
+        return recipe;
+    }
+    
+    private List<RecipeSummary> applyLiveFavoriteSummaries(List<RecipeSummary> summaries) {
+        if (favoritesLoaded) {
+            for (RecipeSummary summary : summaries) {
+                summary.setFavorite(favoriteIds.contains(summary.getId()));
+            }
+        }
+        return summaries;
+    }
+    
+    private List<Recipe> applyLiveFavorites(List<Recipe> recipes) {
+        if (recipes != null) {
+            for (Recipe recipe : recipes) {
+                applyLiveFavorite(recipe);
+            }
+        }
+        return recipes;
     }
     
     /**
-     * Loads recipes from a specific cuisine (like all Italian recipes)
+     * Marks saved recipes as favorites, if we already know the user's favorites
      */
-    public void getRecipesByCuisine(String cuisine, FirebaseCallback<List<Recipe>> callback) {
-        recipesRef.whereEqualTo("cuisine", cuisine)
-            .get()
-            .addOnSuccessListener(queryDocumentSnapshots -> {
-                List<Recipe> recipes = new ArrayList<>();
-                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                    Recipe recipe = documentSnapshotToRecipe(document);
-                    recipes.add(recipe);
-                }
-                callback.onSuccess(recipes);
-            })
-            .addOnFailureListener(callback::onFailure);
+    private static List<Recipe> markFavorites(List<Recipe> recipes, Task<Set<String>> favoritesTask) {
+        if (favoritesTask.isComplete() && favoritesTask.isSuccessful()) {
+            Set<String> favoriteIds = favoritesTask.getResult();
+            for (Recipe recipe : recipes) {
+                recipe.setFavorite(favoriteIds.contains(recipe.getId()));
+            }
+        }
+        return recipes;
     }
     
     /**
@@ -300,53 +1687,10 @@ public class FirebaseManager {
      * This is like reading a recipe card and making a copy of it.
      */
     private Recipe documentSnapshotToRecipe(DocumentSnapshot document) {
-        // Get all the basic information
-        String id = document.getId();
-        String name = document.getString("name");
-        String description = document.getString("description");
-        String imageUrl = document.getString("imageUrl");
-        int prepTime = document.getLong("prepTime") != null ? document.getLong("prepTime").intValue() : 0;
-        int cookTime = document.getLong("cookTime") != null ? document.getLong("cookTime").intValue() : 0;
-        int servings = document.getLong("servings") != null ? document.getLong("servings").intValue() : 4;
-        String difficulty = document.getString("difficulty");
-        String cuisine = document.getString("cuisine");
-        String category = document.getString("category");
-        
-        // Get the lists of ingredients and instructions
-        List<String> ingredients = new ArrayList<>();
-        List<String> instructions = new ArrayList<>();
-        
-        // Handle ingredients list
-        Object ingredientsObj = document.get("ingredients");
-        if (ingredientsObj instanceof List<?>) {
-            for (Object item : ((List<?>) ingredientsObj)) {
-                if (item instanceof String) {
-                    ingredients.add((String) item);
-                }
-            }
-        }
-        
-        // Handle instructions list
-        Object instructionsObj = document.get("instructions");
-        if (instructionsObj instanceof List<?>) {
-            for (Object item : ((List<?>) instructionsObj)) {
-                if (item instanceof String) {
-                    instructions.add((String) item);
-                }
-            }
-        }
-
-        // Create a new recipe with all the information
-        Recipe recipe = new Recipe(name, description, imageUrl);
-        recipe.setId(id);
-        recipe.setPrepTime(prepTime);
-        recipe.setCookTime(cookTime);
-        recipe.setServings(servings);
-        recipe.setIngredients(ingredients);
-        recipe.setInstructions(instructions);
-        recipe.setDifficulty(difficulty);
-        recipe.setCuisine(cuisine);
-        recipe.setCategory(category);
+        // Read all the fields in one go and let RecipeMapper build the recipe
+        Map<String, Object> data = document.getData();
+        metrics.recordBytesDecoded(DataLayerMetrics.estimateSize(data));
+        Recipe recipe = RecipeMapper.fromMap(document.getId(), data);
         
         // Set who created the recipe
         String userId = getCurrentUserId();
@@ -357,6 +1701,15 @@ public class FirebaseManager {
         return recipe;
     }
     
+    /**
+     * Converts a summary document into a RecipeSummary object
+     */
+    private RecipeSummary documentSnapshotToSummary(DocumentSnapshot document) {
+        Map<String, Object> data = document.getData();
+        metrics.recordBytesDecoded(DataLayerMetrics.estimateSize(data));
+        return RecipeMapper.summaryFromMap(document.getId(), data);
+    }
+    
     /**
      * Checks if the current user likes a recipe
      */
@@ -366,11 +1719,18 @@ public class FirebaseManager {
             callback.onSuccess(recipe);
             return;
         }
+        
+        if (favoritesLoaded) {
+            recipe.setFavorite(favoriteIds.contains(recipe.getId()));
+            callback.onSuccess(recipe);
+            return;
+        }
 
         favoritesRef.document(userId)
             .collection("recipes")
             .document(recipe.getId())
             .get()
+            .addOnSuccessListener(metrics::recordRead)
             .addOnSuccessListener(documentSnapshot -> {
                 recipe.setFavorite(documentSnapshot.exists());
                 callback.onSuccess(recipe);
@@ -381,7 +1741,8 @@ public class FirebaseManager {
     /**
      * Adds a recipe to the user's favorites
      */
-    public void addFavorite(String recipeId, FirebaseCallback<Void> callback) {
+    public void addFavorite(String recipeId, FirebaseCallback<Void> callerCallback) {
+        FirebaseCallback<Void> callback = metrics.track("addFavorite", callerCallback);
         String userId = getCurrentUserId();
         if (userId == null) {
             callback.onFailure(new Exception("User not logged in"));
@@ -391,99 +1752,258 @@ public class FirebaseManager {
         Map<String, Object> favoriteMap = new HashMap<>();
         favoriteMap.put("timestamp", System.currentTimeMillis());
         
-        favoritesRef.document(userId)
+        DocumentReference favoriteRef = favoritesRef.document(userId)
             .collection("recipes")
-            .document(recipeId)
-            .set(favoriteMap)
-            .addOnSuccessListener(aVoid -> callback.onSuccess(null))
+            .document(recipeId);
+        
+        if (writeOutbox != null) {
+            // If the live list has loaded and doesn't have it, it isn't in Firebase,
+            // so unliking before this is sent can just cancel it
+            boolean knownAbsent = favoritesLoaded && !favoriteIds.contains(recipeId);
+            // Show it as liked straight away; the outbox sends it with the next batch
+            setLocalFavorite(recipeId, true);
+            if (knownAbsent) {
+                writeOutbox.create(favoriteRef.getPath(), favoriteMap);
+            } else {
+                writeOutbox.set(favoriteRef.getPath(), favoriteMap);
+            }
+            callback.onSuccess(null);
+            return;
+        }
+        
+        favoriteRef.set(favoriteMap)
+            .addOnSuccessListener(aVoid -> {
+                metrics.recordWrites(1);
+                callback.onSuccess(null);
+            })
             .addOnFailureListener(callback::onFailure);
     }
     
     /**
      * Removes a recipe from the user's favorites
      */
-    public void removeFavorite(String recipeId, FirebaseCallback<Void> callback) {
+    public void removeFavorite(String recipeId, FirebaseCallback<Void> callerCallback) {
+        FirebaseCallback<Void> callback = metrics.track("removeFavorite", callerCallback);
         String userId = getCurrentUserId();
         if (userId == null) {
             callback.onFailure(new Exception("User not logged in"));
             return;
         }
         
-        favoritesRef.document(userId)
+        DocumentReference favoriteRef = favoritesRef.document(userId)
             .collection("recipes")
-            .document(recipeId)
-            .delete()
-            .addOnSuccessListener(aVoid -> callback.onSuccess(null))
+            .document(recipeId);
+        
+        if (writeOutbox != null) {
+            // If the like was new and hasn't been sent yet, the two cancel out and nothing is sent
+            setLocalFavorite(recipeId, false);
+            writeOutbox.delete(favoriteRef.getPath());
+            callback.onSuccess(null);
+            return;
+        }
+        
+        favoriteRef.delete()
+            .addOnSuccessListener(aVoid -> {
+                metrics.recordWrites(1);
+                callback.onSuccess(null);
+            })
             .addOnFailureListener(callback::onFailure);
     }
     
+    /**
+     * Updates the live favorites list and tells any screens that care, if it changed
+     */
+    private void setLocalFavorite(String recipeId, boolean isFavorite) {
+        boolean changed = isFavorite ? favoriteIds.add(recipeId) : favoriteIds.remove(recipeId);
+        if (!changed) {
+            return;
+        }
+        for (FavoritesListener listener : favoritesListeners) {
+            listener.onFavoriteChanged(recipeId, isFavorite);
+        }
+    }
+    
+    /**
+     * Likes (true) and unlikes (false) for this user that are still waiting in the outbox
+     */
+    private Map<String, Boolean> pendingFavorites(String userId) {
+        if (writeOutbox == null) {
+            return Collections.emptyMap();
+        }
+        return writeOutbox.getPendingDocuments(favoritesRef.document(userId).collection("recipes").getPath());
+    }
+    
+    /**
+     * Adds and removes the favorites still waiting in the outbox, since Firebase doesn't have them yet
+     */
+    private Set<String> applyPendingFavorites(String userId, Set<String> ids) {
+        for (Map.Entry<String, Boolean> pendingFavorite : pendingFavorites(userId).entrySet()) {
+            if (pendingFavorite.getValue()) {
+                ids.add(pendingFavorite.getKey());
+            } else {
+                ids.remove(pendingFavorite.getKey());
+            }
+        }
+        return ids;
+    }
+    
     /**
      * Checks if a recipe is in the user's favorites
+     * 
+     * This answers straight away from the live list of favorites, with no
+     * trip to the database. It's false until the list has loaded after login.
+     */
+    public boolean isFavorite(String recipeId) {
+        return favoriteIds.contains(recipeId);
+    }
+    
+    /**
+     * Checks if a recipe is in the user's favorites, waiting for the database if needed
      */
-    public void isFavorite(String recipeId, FirebaseCallback<Boolean> callback) {
+    public void isFavorite(String recipeId, FirebaseCallback<Boolean> callerCallback) {
+        FirebaseCallback<Boolean> callback = metrics.track("isFavorite", callerCallback);
         String userId = getCurrentUserId();
         if (userId == null) {
             callback.onSuccess(false);
             return;
         }
+        
+        if (favoritesLoaded) {
+            metrics.recordCacheHit("favorites");
+            callback.onSuccess(favoriteIds.contains(recipeId));
+            return;
+        }
+        metrics.recordCacheMiss("favorites");
 
         favoritesRef.document(userId)
             .collection("recipes")
             .document(recipeId)
             .get()
+            .addOnSuccessListener(metrics::recordRead)
             .addOnSuccessListener(documentSnapshot -> callback.onSuccess(documentSnapshot.exists()))
             .addOnFailureListener(callback::onFailure);
     }
     
+    /**
+     * Starts listening for a screen that wants to know when favorites change
+     * 
+     * Also restarts the live favorites list if it stopped after an error.
+     */
+    public void addFavoritesListener(FavoritesListener listener) {
+        favoritesListeners.add(listener);
+        startFavoritesListener();
+    }
+    
+    /**
+     * Stops telling a screen about favorite changes
+     */
+    public void removeFavoritesListener(FavoritesListener listener) {
+        favoritesListeners.remove(listener);
+    }
+    
+    /**
+     * Keeps a live list of the user's favorite recipes
+     * 
+     * Firebase tells us about every favorite that's added or removed (including
+     * ones from this phone, straight away), so after the first load we never
+     * have to ask the database whether a recipe is a favorite.
+     */
+    private void startFavoritesListener() {
+        String userId = getCurrentUserId();
+        if (userId == null || favoritesRegistration != null) {
+            return;
+        }
+        
+        favoritesRegistration = favoritesRef.document(userId)
+            .collection("recipes")
+            .addSnapshotListener((snapshots, e) -> {
+                if (e != null || snapshots == null) {
+                    // Firebase stops a listener after an error, so forget it and
+                    // go back to reading favorites until it's started again
+                    Log.w(TAG, "Favorites listener failed", e);
+                    favoritesRegistration = null;
+                    favoritesLoaded = false;
+                    return;
+                }
+                
+                // A listener is charged one read per document that changed
+                if (!snapshots.getMetadata().isFromCache()) {
+                    metrics.recordReads(snapshots.getDocumentChanges().size());
+                }
+                
+                for (DocumentChange change : snapshots.getDocumentChanges()) {
+                    // Changes from the outbox were already shown, so this only tells screens about new ones.
+                    // MODIFIED means only the timestamp changed, so it's still a favorite.
+                    String recipeId = change.getDocument().getId();
+                    setLocalFavorite(recipeId, change.getType() != DocumentChange.Type.REMOVED);
+                }
+                // Likes and unlikes still in the outbox haven't reached Firebase yet, so they win
+                for (Map.Entry<String, Boolean> pendingFavorite : pendingFavorites(userId).entrySet()) {
+                    setLocalFavorite(pendingFavorite.getKey(), pendingFavorite.getValue());
+                }
+                favoritesLoaded = true;
+            });
+    }
+    
+    /**
+     * Stops the live favorites list and forgets it (used when logging out)
+     */
+    private void stopFavoritesListener() {
+        if (favoritesRegistration != null) {
+            favoritesRegistration.remove();
+            favoritesRegistration = null;
+        }
+        favoritesLoaded = false;
+        
+        List<String> removed = new ArrayList<>(favoriteIds);
+        favoriteIds.clear();
+        for (String recipeId : removed) {
+            for (FavoritesListener listener : favoritesListeners) {
+                listener.onFavoriteChanged(recipeId, false);
+            }
+        }
+    }
+    
     /**
      * Gets all the recipes the user has marked as favorites
      */
-    public void getFavorites(FirebaseCallback<List<Recipe>> callback) {
+    public void getFavorites(FirebaseCallback<List<Recipe>> callerCallback) {
+        FirebaseCallback<List<Recipe>> callback = metrics.track("getFavorites", callerCallback);
         String userId = getCurrentUserId();
         if (userId == null) {
             callback.onFailure(new Exception("User not logged in"));
             return;
         }
         
+        if (favoritesLoaded) {
+            // The live list already knows (including likes still waiting in the outbox)
+            List<String> recipeIds = new ArrayList<>(favoriteIds);
+            if (recipeIds.isEmpty()) {
+                callback.onSuccess(new ArrayList<>());
+            } else {
+                fetchRecipesByIds(recipeIds, Tasks.forResult(new HashSet<>(recipeIds)), callback);
+            }
+            return;
+        }
+        
         favoritesRef.document(userId)
             .collection("recipes")
             .get()
+            .addOnSuccessListener(metrics::recordReads)
             .addOnSuccessListener(queryDocumentSnapshots -> {
-                List<String> recipeIds = new ArrayList<>();
+                Set<String> ids = new LinkedHashSet<>();
                 for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                    recipeIds.add(document.getId());
+                    ids.add(document.getId());
                 }
+                List<String> recipeIds = new ArrayList<>(applyPendingFavorites(userId, ids));
                 
                 if (recipeIds.isEmpty()) {
                     callback.onSuccess(new ArrayList<>());
                     return;
                 }
                 
-                List<Recipe> favoriteRecipes = new ArrayList<>();
-                final int[] count = {0};
-                for (String recipeId : recipeIds) {
-                    getRecipe(recipeId, new FirebaseCallback<Recipe>() {
-                        @Override
-                        public void onSuccess(Recipe recipe) {
-                            if (recipe != null) {
-                                recipe.setFavorite(true);
-                                favoriteRecipes.add(recipe);
-                            }
-                            count[0]++;
-                            if (count[0] == recipeIds.size()) {
-                                callback.onSuccess(favoriteRecipes);
-                            }
-                        }
-                        
-                        @Override
-                        public void onFailure(Exception e) {
-                            count[0]++;
-                            if (count[0] == recipeIds.size()) {
-                                callback.onSuccess(favoriteRecipes);
-                            }
-                        }
-                    });
-                }
+                // Everything on this list is a favorite, so there is nothing else to look up
+                fetchRecipesByIds(recipeIds, Tasks.forResult(new HashSet<>(recipeIds)), callback);
             })
             .addOnFailureListener(callback::onFailure);
     }
@@ -491,7 +2011,8 @@ public class FirebaseManager {
     /**
      * Records that a user has looked at a recipe
      */
-    public void addToHistory(String recipeId, FirebaseCallback<Void> callback) {
+    public void addToHistory(String recipeId, FirebaseCallback<Void> callerCallback) {
+        FirebaseCallback<Void> callback = metrics.track("addToHistory", callerCallback);
         String userId = getCurrentUserId();
         if (userId == null) {
             callback.onFailure(new Exception("User not logged in"));
@@ -503,78 +2024,150 @@ public class FirebaseManager {
         historyMap.put("recipeId", recipeId);
         historyMap.put("timestamp", System.currentTimeMillis());
 
-        historyRef.document(userId)
+        DocumentReference historyEntryRef = historyRef.document(userId)
             .collection("recipes")
-            .document(recipeId)
-            .set(historyMap)
-            .addOnSuccessListener(aVoid -> callback.onSuccess(null))
+            .document(recipeId);
+        
+        // Now and then, clear out entries that are too old or over the limit
+        if (historyCompactor != null) {
+            historyCompactor.maybeCompact(userId);
+        }
+        
+        if (writeOutbox != null) {
+            // Opening the same recipe again before the batch goes out just updates the time
+            writeOutbox.set(historyEntryRef.getPath(), historyMap);
+            callback.onSuccess(null);
+            return;
+        }
+
+        historyEntryRef.set(historyMap)
+            .addOnSuccessListener(aVoid -> {
+                metrics.recordWrites(1);
+                callback.onSuccess(null);
+            })
             .addOnFailureListener(callback::onFailure);
     }
     
     /**
-     * Gets all the recipes the user has looked at recently
+     * Gets the recipes the user has looked at most recently (newest first)
+     * 
+     * Only the newest HISTORY_PAGE_SIZE are loaded; use getHistoryPage for more.
+     */
+    public void getHistory(FirebaseCallback<List<Recipe>> callerCallback) {
+        FirebaseCallback<List<Recipe>> callback = metrics.track("getHistory", callerCallback);
+        getHistoryPage(HISTORY_PAGE_SIZE, null, new FirebaseCallback<RecipePage<Recipe>>() {
+            @Override
+            public void onSuccess(RecipePage<Recipe> page) {
+                callback.onSuccess(page.getRecipes());
+            }
+            
+            @Override
+            public void onFailure(Exception e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+    
+    /**
+     * Gets one page of the user's history, newest first
+     * @param pageSize How many history entries to load
+     * @param startAfterId The last recipe ID from the previous page, or null for the first page
      */
-    public void getHistory(FirebaseCallback<List<Recipe>> callback) {
+    public void getHistoryPage(int pageSize, String startAfterId, FirebaseCallback<RecipePage<Recipe>> callerCallback) {
+        FirebaseCallback<RecipePage<Recipe>> callback = metrics.track("getHistoryPage", callerCallback);
         String userId = getCurrentUserId();
         if (userId == null) {
             callback.onFailure(new Exception("User not logged in"));
             return;
         }
-
-        historyRef.document(userId)
-            .collection("recipes")
-            .orderBy("timestamp", Query.Direction.DESCENDING)
-            .get()
+        
+        CollectionReference entries = historyRef.document(userId).collection("recipes");
+        Query query = entries.orderBy("timestamp", Query.Direction.DESCENDING).limit(pageSize);
+        if (startAfterId == null) {
+            queryHistoryPage(query, pageSize, callback);
+            return;
+        }
+        
+        // Each entry's ID is its recipe's ID, so the cursor tells us which entry to start after
+        entries.document(startAfterId).get()
+            .addOnSuccessListener(metrics::recordRead)
+            .addOnSuccessListener(cursor -> {
+                if (!cursor.exists()) {
+                    // The entry was tidied away, so everything after it was too
+                    callback.onSuccess(new RecipePage<>(new ArrayList<>(), null, false));
+                    return;
+                }
+                queryHistoryPage(query.startAfter(cursor), pageSize, callback);
+            })
+            .addOnFailureListener(callback::onFailure);
+    }
+    
+    private void queryHistoryPage(Query query, int pageSize, FirebaseCallback<RecipePage<Recipe>> callback) {
+        query.get()
+            .addOnSuccessListener(metrics::recordReads)
             .addOnSuccessListener(queryDocumentSnapshots -> {
-                List<String> recipeIds = new ArrayList<>();
-                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
+                // Newest first, and each recipe only once
+                List<DocumentSnapshot> documents = queryDocumentSnapshots.getDocuments();
+                Set<String> recipeIds = new LinkedHashSet<>();
+                for (DocumentSnapshot document : documents) {
                     String recipeId = document.getString("recipeId");
-                    if (recipeId != null && !recipeIds.contains(recipeId)) {
+                    if (recipeId != null) {
                         recipeIds.add(recipeId);
                     }
                 }
-
+                
+                String lastId = documents.isEmpty() ? null : documents.get(documents.size() - 1).getId();
+                boolean hasMore = documents.size() == pageSize;
                 if (recipeIds.isEmpty()) {
-                    callback.onSuccess(new ArrayList<>());
+                    callback.onSuccess(new RecipePage<>(new ArrayList<>(), lastId, hasMore));
                     return;
                 }
-
-                List<Recipe> historyRecipes = new ArrayList<>();
-                final int[] count = {0};
-                for (String recipeId : recipeIds) {
-                    getRecipe(recipeId, new FirebaseCallback<Recipe>() {
-                        @Override
-                        public void onSuccess(Recipe recipe) {
-                            if (recipe != null) {
-                                historyRecipes.add(recipe);
-                            }
-                            count[0]++;
-                            if (count[0] == recipeIds.size()) {
-                                callback.onSuccess(historyRecipes);
-                            }
-                        }
-
-                        @Override
-                        public void onFailure(Exception e) {
-                            count[0]++;
-                            if (count[0] == recipeIds.size()) {
-                                callback.onSuccess(historyRecipes);
-                            }
-                        }
-                    });
-                }
+                
+                getRecipesByIds(recipeIds, new FirebaseCallback<List<Recipe>>() {
+                    @Override
+                    public void onSuccess(List<Recipe> recipes) {
+                        callback.onSuccess(new RecipePage<>(recipes, lastId, hasMore));
+                    }
+                    
+                    @Override
+                    public void onFailure(Exception e) {
+                        callback.onFailure(e);
+                    }
+                });
             })
             .addOnFailureListener(callback::onFailure);
     }
     
+    /**
+     * Deletes the user's history entries that are too old or over the limit, right now
+     * 
+     * This also happens by itself about once a day (see HistoryCompactor).
+     * Answers with how many entries were deleted.
+     */
+    public void compactHistory(FirebaseCallback<Integer> callerCallback) {
+        FirebaseCallback<Integer> callback = metrics.track("compactHistory", callerCallback);
+        String userId = getCurrentUserId();
+        if (userId == null) {
+            callback.onFailure(new Exception("User not logged in"));
+            return;
+        }
+        if (historyCompactor == null) {
+            callback.onFailure(new IllegalStateException("Local store not attached"));
+            return;
+        }
+        historyCompactor.compact(userId, callback);
+    }
+    
     /**
      * Creates a new user account
      */
-    public void registerUser(String email, String password, FirebaseCallback<FirebaseUser> callback) {
+    public void registerUser(String email, String password, FirebaseCallback<FirebaseUser> callerCallback) {
+        FirebaseCallback<FirebaseUser> callback = metrics.track("registerUser", callerCallback);
         auth.createUserWithEmailAndPassword(email, password)
             .addOnCompleteListener(task -> {
                 if (task.isSuccessful()) {
                     FirebaseUser user = auth.getCurrentUser();
+                    startFavoritesListener();
                     callback.onSuccess(user);
                 } else {
                     callback.onFailure(task.getException());
@@ -585,11 +2178,13 @@ public class FirebaseManager {
     /**
      * Logs in an existing user
      */
-    public void loginUser(String email, String password, FirebaseCallback<FirebaseUser> callback) {
+    public void loginUser(String email, String password, FirebaseCallback<FirebaseUser> callerCallback) {
+        FirebaseCallback<FirebaseUser> callback = metrics.track("loginUser", callerCallback);
         auth.signInWithEmailAndPassword(email, password)
             .addOnCompleteListener(task -> {
                 if (task.isSuccessful()) {
                     FirebaseUser user = auth.getCurrentUser();
+                    startFavoritesListener();
                     callback.onSuccess(user);
                 } else {
                     callback.onFailure(task.getException());
@@ -601,13 +2196,55 @@ public class FirebaseManager {
      * Logs out the current user
      */
     public void logoutUser() {
-        auth.signOut();
+        logoutUser(null);
+    }
+    
+    /**
+     * Logs out the current user once their waiting writes have been sent
+     * 
+     * Writes to favorites and history have to reach Firebase while we're still
+     * allowed to write as this user. Logging out waits for them (up to
+     * LOGOUT_FLUSH_TIMEOUT_MILLIS); anything that still hasn't gone by then is
+     * forgotten, since it could never be sent after signing out.
+     * @param whenLoggedOut Runs on the main thread once signed out (can be null)
+     */
+    public void logoutUser(Runnable whenLoggedOut) {
+        stopFavoritesListener();
+        FirebaseUser user = auth.getCurrentUser();
+        if (writeOutbox == null || user == null) {
+            auth.signOut();
+            if (whenLoggedOut != null) {
+                mainHandler.post(whenLoggedOut);
+            }
+            return;
+        }
+        
+        String userId = user.getUid();
+        boolean[] finished = {false};
+        Runnable signOut = () -> {
+            if (finished[0]) {
+                return;
+            }
+            finished[0] = true;
+            int dropped = writeOutbox.discardUnder(favoritesRef.document(userId).getPath())
+                + writeOutbox.discardUnder(historyRef.document(userId).getPath());
+            if (dropped > 0) {
+                Log.w(TAG, "Logging out with " + dropped + " writes that couldn't be sent");
+            }
+            auth.signOut();
+            if (whenLoggedOut != null) {
+                whenLoggedOut.run();
+            }
+        };
+        writeOutbox.flushAll(signOut);
+        mainHandler.postDelayed(signOut, LOGOUT_FLUSH_TIMEOUT_MILLIS);
     }
     
     /**
      * Sends a password reset email to a user
      */
-    public void resetPassword(String email, FirebaseCallback<Void> callback) {
+    public void resetPassword(String email, FirebaseCallback<Void> callerCallback) {
+        FirebaseCallback<Void> callback = metrics.track("resetPassword", callerCallback);
         auth.sendPasswordResetEmail(email)
             .addOnSuccessListener(aVoid -> callback.onSuccess(null))
             .addOnFailureListener(callback::onFailure);
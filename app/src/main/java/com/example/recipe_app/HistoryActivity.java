@@ -57,7 +57,7 @@ public class HistoryActivity extends AppCompatActivity implements RecipeAdapter.
 
     private void loadHistory() {
         List<Recipe> history = recipeHistory.getHistory();
-        adapter.setRecipes(history);
+        adapter.setRecipes(RecipeSummary.fromAll(history));
         
         // Update empty state
         if (history.isEmpty()) {
@@ -72,7 +72,7 @@ public class HistoryActivity extends AppCompatActivity implements RecipeAdapter.
     }
 
     @Override
-    public void onRecipeClick(Recipe recipe) {
+    public void onRecipeClick(RecipeSummary recipe) {
         startActivity(RecipeDetailActivity.newIntent(this, recipe.getId()));
     }
 
@@ -0,0 +1,221 @@
+/**
+ * HistoryCompactor - Keeps Each User's Recipe History From Growing Forever
+ *
+ * Every recipe a user opens adds an entry to history/{user}/recipes in Firebase.
+ * Without clearing out old entries, that list (and the cost of reading it)
+ * would keep growing for as long as someone uses the app. This class tidies
+ * it up in the background, using two rules:
+ * - Entries older than MAX_AGE_MILLIS are deleted
+ * - Only the newest MAX_ENTRIES are kept; older ones are deleted
+ *
+ * Deletes are sent in batches, oldest first. To keep the cost down, each
+ * user's history is tidied at most once a day; the "how many entries" check
+ * uses a count query, which is much cheaper than reading every entry.
+ */
+package com.example.recipe_app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class HistoryCompactor {
+    private static final String TAG = "HistoryCompactor";
+
+    // The retention rules
+    static final int MAX_ENTRIES = 200;                                    // Most history entries kept per user
+    static final long MAX_AGE_MILLIS = 90L * 24 * 60 * 60 * 1000;          // Entries older than 90 days are deleted
+
+    // How often each user's history is tidied
+    private static final long COMPACT_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    // Firebase allows at most 500 writes in one batch
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    // Where we remember when each user's history was last tidied
+    private static final String PREFS_NAME = "HistoryCompactorPrefs";
+    private static final String LAST_COMPACT_PREFIX = "last_compact_";
+
+    private final FirebaseFirestore db;
+    private final CollectionReference historyRef;
+    private final SharedPreferences preferences;
+    private final DataLayerMetrics metrics = DataLayerMetrics.getInstance();
+
+    // Users whose history is being tidied right now
+    private final Set<String> running = new HashSet<>();
+
+    /**
+     * Creates a compactor
+     * @param historyRef The "history" collection (each user's entries are under history/{user}/recipes)
+     */
+    public HistoryCompactor(Context context, FirebaseFirestore db, CollectionReference historyRef) {
+        this.db = db;
+        this.historyRef = historyRef;
+        this.preferences = context.getApplicationContext()
+            .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Tidies a user's history if it hasn't been done in the last day
+     *
+     * Must be called on the main thread.
+     */
+    public void maybeCompact(String userId) {
+        long lastCompact = preferences.getLong(LAST_COMPACT_PREFIX + userId, 0);
+        if (System.currentTimeMillis() - lastCompact < COMPACT_INTERVAL_MILLIS) {
+            return;
+        }
+        compact(userId, new FirebaseManager.FirebaseCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer deleted) {
+                Log.d(TAG, "Removed " + deleted + " old history entries");
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.w(TAG, "Couldn't tidy history", e);
+            }
+        });
+    }
+
+    /**
+     * Tidies a user's history now
+     *
+     * Answers with how many entries were deleted. If the user's history is
+     * already being tidied, answers 0 straight away. Must be called on the
+     * main thread; the callback is too.
+     */
+    public void compact(String userId, FirebaseManager.FirebaseCallback<Integer> callback) {
+        if (!running.add(userId)) {
+            callback.onSuccess(0);
+            return;
+        }
+
+        CollectionReference entries = historyRef.document(userId).collection("recipes");
+        long cutoff = System.currentTimeMillis() - MAX_AGE_MILLIS;
+        FirebaseManager.FirebaseCallback<Integer> done = new FirebaseManager.FirebaseCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer deleted) {
+                running.remove(userId);
+                preferences.edit()
+                    .putLong(LAST_COMPACT_PREFIX + userId, System.currentTimeMillis())
+                    .apply();
+                callback.onSuccess(deleted);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                running.remove(userId);
+                callback.onFailure(e);
+            }
+        };
+
+        // First remove everything that's too old, then trim what's left down to the limit
+        deleteOlderThan(entries, cutoff, 0, new FirebaseManager.FirebaseCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer deletedByAge) {
+                trimToLimit(entries, deletedByAge, done);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                done.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Deletes entries older than the cutoff, a batch at a time, oldest first
+     */
+    private void deleteOlderThan(CollectionReference entries, long cutoff, int deletedSoFar,
+                                 FirebaseManager.FirebaseCallback<Integer> callback) {
+        entries.whereLessThan("timestamp", cutoff)
+            .orderBy("timestamp")
+            .limit(DELETE_BATCH_SIZE)
+            .get()
+            .addOnSuccessListener(snapshot -> {
+                metrics.recordReads(snapshot);
+                List<DocumentSnapshot> documents = snapshot.getDocuments();
+                if (documents.isEmpty()) {
+                    callback.onSuccess(deletedSoFar);
+                    return;
+                }
+                deleteAll(documents)
+                    .addOnSuccessListener(aVoid -> {
+                        int deleted = deletedSoFar + documents.size();
+                        if (documents.size() == DELETE_BATCH_SIZE) {
+                            deleteOlderThan(entries, cutoff, deleted, callback);
+                        } else {
+                            callback.onSuccess(deleted);
+                        }
+                    })
+                    .addOnFailureListener(callback::onFailure);
+            })
+            .addOnFailureListener(callback::onFailure);
+    }
+
+    /**
+     * Counts the entries and deletes the oldest ones over MAX_ENTRIES
+     */
+    private void trimToLimit(CollectionReference entries, int deletedSoFar,
+                             FirebaseManager.FirebaseCallback<Integer> callback) {
+        entries.count().get(AggregateSource.SERVER)
+            .addOnSuccessListener(count -> {
+                // A count costs one read per 1,000 entries counted
+                metrics.recordReads(1 + count.getCount() / 1000);
+                long excess = count.getCount() - MAX_ENTRIES;
+                if (excess <= 0) {
+                    callback.onSuccess(deletedSoFar);
+                    return;
+                }
+                deleteOldest(entries, excess, deletedSoFar, callback);
+            })
+            .addOnFailureListener(callback::onFailure);
+    }
+
+    private void deleteOldest(CollectionReference entries, long remaining, int deletedSoFar,
+                              FirebaseManager.FirebaseCallback<Integer> callback) {
+        entries.orderBy("timestamp")
+            .limit(Math.min(remaining, DELETE_BATCH_SIZE))
+            .get()
+            .addOnSuccessListener(snapshot -> {
+                metrics.recordReads(snapshot);
+                List<DocumentSnapshot> documents = snapshot.getDocuments();
+                if (documents.isEmpty()) {
+                    callback.onSuccess(deletedSoFar);
+                    return;
+                }
+                deleteAll(documents)
+                    .addOnSuccessListener(aVoid -> {
+                        int deleted = deletedSoFar + documents.size();
+                        long left = remaining - documents.size();
+                        if (left > 0) {
+                            deleteOldest(entries, left, deleted, callback);
+                        } else {
+                            callback.onSuccess(deleted);
+                        }
+                    })
+                    .addOnFailureListener(callback::onFailure);
+            })
+            .addOnFailureListener(callback::onFailure);
+    }
+
+    private Task<Void> deleteAll(List<DocumentSnapshot> documents) {
+        WriteBatch batch = db.batch();
+        for (DocumentSnapshot document : documents) {
+            batch.delete(document.getReference());
+        }
+        return batch.commit()
+            .addOnSuccessListener(aVoid -> metrics.recordWrites(documents.size()));
+    }
+}
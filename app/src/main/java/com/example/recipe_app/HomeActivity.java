@@ -6,6 +6,7 @@
 package com.example.recipe_app;
 
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
 import android.text.Editable;
 import android.text.TextWatcher;
@@ -35,7 +36,7 @@ public class HomeActivity extends AppCompatActivity implements PopularRecipeAdap
     private PopularRecipeAdapter popularRecipeAdapter;
     private RecipeAdapter recentRecipeAdapter;        // Added declaration
     private List<Recipe> popularRecipes;              // List of popular recipes
-    private List<Recipe> historyRecipes;              // List of recently viewed recipes
+    private List<RecipeSummary> historyRecipes;       // List of recently viewed recipes
     private String userName;                          // Current user's name
 
     @Override
@@ -188,8 +189,8 @@ public class HomeActivity extends AppCompatActivity implements PopularRecipeAdap
         ));
 
         // Set the recipes to adapters
-        popularRecipeAdapter.setRecipes(popularRecipes);
-        historyRecipes.addAll(popularRecipes);
+        popularRecipeAdapter.setRecipes(RecipeSummary.fromAll(popularRecipes));
+        historyRecipes.addAll(RecipeSummary.fromAll(popularRecipes));
         recentRecipeAdapter.setRecipes(historyRecipes);
     }
 
@@ -198,15 +199,18 @@ public class HomeActivity extends AppCompatActivity implements PopularRecipeAdap
      * @param recipe The recipe that was clicked
      */
     @Override
-    public void onRecipeClick(Recipe recipe) {
-        Intent intent = new Intent(this, RecipeDetailActivity.class);
-        intent.putExtra("RECIPE_ID", recipe.getId());
-        startActivity(intent);
+    public void onRecipeClick(RecipeSummary recipe) {
+        // The detail screen loads the full recipe itself
+        startActivity(RecipeDetailActivity.newIntent(this, recipe.getId()));
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.home_menu, menu);
+        
+        // The data usage screen is only for debug builds
+        boolean debuggable = (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        menu.findItem(R.id.action_data_metrics).setVisible(debuggable);
         return true;
     }
 
@@ -231,6 +235,9 @@ public class HomeActivity extends AppCompatActivity implements PopularRecipeAdap
         } else if (id == R.id.action_contact) {
             startActivity(new Intent(this, ContactActivity.class));
             return true;
+        } else if (id == R.id.action_data_metrics) {
+            startActivity(new Intent(this, DataMetricsActivity.class));
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -0,0 +1,291 @@
+/**
+ * IngredientMatchActivity - "What Can I Cook?"
+ *
+ * Shows the recipes that make the most of the ingredients the user has.
+ * Ingredients can come from the camera (CameraActivity passes what it
+ * spotted) or be typed in; each one shows as a chip that can be removed.
+ * Every change re-ranks the recipes using RecipeIngredientIndex, on a
+ * background thread so typing stays smooth.
+ *
+ * The index is built from the recipes saved on the phone, then kept up to
+ * date with anything that changed in Firebase.
+ */
+package com.example.recipe_app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.inputmethod.EditorInfo;
+import android.widget.EditText;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.android.material.button.MaterialButton;
+import com.google.android.material.chip.Chip;
+import com.google.android.material.chip.ChipGroup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class IngredientMatchActivity extends AppCompatActivity implements RecipeSearchAdapter.OnRecipeClickListener {
+    private static final String TAG = "IngredientMatch";
+    private static final String EXTRA_INGREDIENTS = "ingredients";
+
+    // Most recipes shown
+    private static final int RESULT_LIMIT = 50;
+
+    // UI Components
+    private EditText ingredientInput;
+    private ChipGroup ingredientChips;
+    private ProgressBar progressBar;
+    private TextView noResultsText;
+
+    // Data
+    private RecipeSearchAdapter adapter;
+    private final ArrayList<String> ingredients = new ArrayList<>();                    // What the user has
+    private volatile RecipeIngredientIndex ingredientIndex = new RecipeIngredientIndex();
+    private volatile Map<String, RecipeSummary> recipesById = new ConcurrentHashMap<>(); // Every recipe, by ID
+    private boolean indexReady = false;
+    private int matchGeneration = 0;    // Goes up with every change, so older answers are ignored
+
+    // Building the index and ranking happen here, one job at a time
+    private final ExecutorService matchExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Creates an intent that opens this screen with some ingredients already added
+     */
+    public static Intent newIntent(Context context, List<String> ingredients) {
+        Intent intent = new Intent(context, IngredientMatchActivity.class);
+        intent.putStringArrayListExtra(EXTRA_INGREDIENTS, new ArrayList<>(ingredients));
+        return intent;
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_ingredient_match);
+
+        // Set up toolbar
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle("What Can I Cook?");
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+
+        ingredientInput = findViewById(R.id.ingredientInput);
+        ingredientChips = findViewById(R.id.ingredientChips);
+        progressBar = findViewById(R.id.progressBar);
+        noResultsText = findViewById(R.id.noResultsText);
+        MaterialButton addButton = findViewById(R.id.addIngredientButton);
+
+        RecyclerView results = findViewById(R.id.matchResults);
+        results.setLayoutManager(new LinearLayoutManager(this));
+        adapter = new RecipeSearchAdapter(this);
+        results.setAdapter(adapter);
+
+        addButton.setOnClickListener(v -> addTypedIngredient());
+        ingredientInput.setOnEditorActionListener((v, actionId, event) -> {
+            if (actionId == EditorInfo.IME_ACTION_DONE) {
+                addTypedIngredient();
+                return true;
+            }
+            return false;
+        });
+
+        // Start with what the camera found (or what we had before a rotation)
+        List<String> startingIngredients = savedInstanceState != null
+            ? savedInstanceState.getStringArrayList(EXTRA_INGREDIENTS)
+            : getIntent().getStringArrayListExtra(EXTRA_INGREDIENTS);
+        if (startingIngredients != null) {
+            for (String ingredient : startingIngredients) {
+                addIngredient(ingredient);
+            }
+        }
+
+        loadRecipes();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putStringArrayList(EXTRA_INGREDIENTS, ingredients);
+    }
+
+    private void addTypedIngredient() {
+        String text = ingredientInput.getText().toString().trim();
+        if (!text.isEmpty()) {
+            addIngredient(text);
+            ingredientInput.setText("");
+            findMatches();
+        }
+    }
+
+    /**
+     * Adds an ingredient and its chip (ignored if it's already there)
+     */
+    private void addIngredient(String ingredient) {
+        for (String existing : ingredients) {
+            if (existing.equalsIgnoreCase(ingredient)) {
+                return;
+            }
+        }
+        ingredients.add(ingredient);
+
+        Chip chip = new Chip(this);
+        chip.setText(ingredient);
+        chip.setCloseIconVisible(true);
+        chip.setOnCloseIconClickListener(v -> {
+            ingredients.remove(ingredient);
+            ingredientChips.removeView(chip);
+            findMatches();
+        });
+        ingredientChips.addView(chip);
+    }
+
+    /**
+     * Builds the index from the recipes saved on the phone, then checks Firebase for changes
+     */
+    private void loadRecipes() {
+        progressBar.setVisibility(View.VISIBLE);
+        RecipeStore store = RecipeStore.getInstance(this);
+        matchExecutor.execute(() -> {
+            rebuildIndex(store);
+            mainHandler.post(() -> {
+                indexReady = true;
+                findMatches();
+            });
+        });
+
+        FirebaseManager.getInstance().syncRecipes(new FirebaseManager.FirebaseCallback<RecipeSyncEngine.SyncResult>() {
+            @Override
+            public void onSuccess(RecipeSyncEngine.SyncResult result) {
+                if (result.hasChanges()) {
+                    applySyncResult(store, result);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                // The recipes already on the phone can still be matched
+                Log.w(TAG, "Couldn't check for recipe changes", e);
+            }
+        });
+    }
+
+    /**
+     * Builds a fresh index of every saved recipe (on the match thread)
+     */
+    private void rebuildIndex(RecipeStore store) {
+        List<Recipe> recipes = store.getAllRecipes();
+        Map<String, RecipeSummary> byId = new ConcurrentHashMap<>();
+        for (Recipe recipe : recipes) {
+            if (recipe.getId() != null) {
+                byId.put(recipe.getId(), RecipeSummary.from(recipe));
+            }
+        }
+        ingredientIndex = RecipeIngredientIndex.build(recipes);
+        recipesById = byId;
+    }
+
+    /**
+     * Updates the index with what changed in Firebase, then ranks again
+     */
+    private void applySyncResult(RecipeStore store, RecipeSyncEngine.SyncResult result) {
+        if (isDestroyed()) {
+            return;  // The sync finished after the screen closed; matchExecutor is shut down
+        }
+        matchExecutor.execute(() -> {
+            if (result.fullSync) {
+                rebuildIndex(store);
+            } else {
+                for (Recipe recipe : store.getRecipesByIds(result.updatedIds)) {
+                    ingredientIndex.add(recipe);
+                    recipesById.put(recipe.getId(), RecipeSummary.from(recipe));
+                }
+                for (String recipeId : result.deletedIds) {
+                    ingredientIndex.remove(recipeId);
+                    recipesById.remove(recipeId);
+                }
+            }
+            mainHandler.post(this::findMatches);
+        });
+    }
+
+    /**
+     * Ranks the recipes for the current ingredients in the background and shows the newest answer
+     */
+    private void findMatches() {
+        if (!indexReady || isDestroyed()) {
+            return;  // A rebuild can finish after the screen closed, when matchExecutor is shut down
+        }
+        int generation = ++matchGeneration;
+        List<String> available = new ArrayList<>(ingredients);
+        progressBar.setVisibility(View.VISIBLE);
+        noResultsText.setVisibility(View.GONE);
+
+        matchExecutor.execute(() -> {
+            List<RecipeIngredientIndex.Match> matches = ingredientIndex.findRecipes(available, RESULT_LIMIT);
+            Map<String, RecipeSummary> recipes = recipesById;
+
+            List<RecipeSummary> summaries = new ArrayList<>(matches.size());
+            Map<String, String> notes = new HashMap<>();
+            for (RecipeIngredientIndex.Match match : matches) {
+                RecipeSummary summary = recipes.get(match.recipeId);
+                if (summary == null) {
+                    continue;
+                }
+                summaries.add(summary);
+                notes.put(match.recipeId, match.getMissingCount() == 0
+                    ? getString(R.string.ingredient_match_note, match.matchedCount, match.ingredientCount)
+                    : getString(R.string.ingredient_match_note_missing,
+                        match.matchedCount, match.ingredientCount, match.getMissingCount()));
+            }
+
+            mainHandler.post(() -> {
+                if (generation != matchGeneration) {
+                    return;  // The ingredients changed while we were ranking
+                }
+                adapter.updateRecipes(summaries, notes);
+                progressBar.setVisibility(View.GONE);
+                noResultsText.setVisibility(summaries.isEmpty() ? View.VISIBLE : View.GONE);
+            });
+        });
+    }
+
+    @Override
+    public void onRecipeClick(RecipeSummary recipe) {
+        startActivity(RecipeDetailActivity.newIntent(this, recipe.getId()));
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            onBackPressed();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        matchExecutor.shutdownNow();
+    }
+}
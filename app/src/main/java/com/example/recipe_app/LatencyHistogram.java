@@ -0,0 +1,125 @@
+/**
+ * LatencyHistogram - Remembers How Long Something Took, Without Keeping Every Time
+ *
+ * Keeping every single timing would use more and more memory, so instead each
+ * timing is dropped into a "bucket" and we only count how many landed in each.
+ *
+ * The buckets get wider as times get longer (like a ruler that's marked in
+ * millimetres near 0 but in centimetres further along), so:
+ * - Short times are measured precisely, long times roughly
+ * - Every time is within about 6% of the bucket it's counted in
+ * - A few hundred buckets cover everything from 1 microsecond to many hours
+ *
+ * That's enough to answer "how long does this usually take?" (the 50th
+ * percentile) and "how long does it take on a bad day?" (the 99th).
+ * Safe to use from any thread.
+ */
+package com.example.recipe_app;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+    // Each doubling of time is split into this many buckets (2^4, so about 6% apart)
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Times above 2^36 microseconds (about 19 hours) all go in the last bucket
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKET_COUNT = SUB_BUCKETS * (MAX_EXPONENT - SUB_BUCKET_BITS + 2);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();         // How many times were recorded
+    private final AtomicLong totalMicros = new AtomicLong();   // All the times added together
+    private final AtomicLong maxMicros = new AtomicLong();     // The longest time
+
+    /**
+     * Records one timing
+     * @param micros How long it took, in microseconds
+     */
+    public void record(long micros) {
+        micros = Math.max(0, micros);
+        counts.incrementAndGet(bucketFor(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    public double getMeanMicros() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) totalMicros.get() / n;
+    }
+
+    /**
+     * Gets the time that the given percentage of timings were at or under
+     * @param percentile From 0 to 100 (50 is the median)
+     * @return The top of that timing's bucket, in microseconds (0 if nothing was recorded)
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= wanted) {
+                // Never report more than the longest time we actually saw
+                return Math.min(highestInBucket(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    /**
+     * Forgets every timing
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    /**
+     * Works out which bucket a time goes in
+     *
+     * Times under 16 microseconds get a bucket each. After that, each doubling
+     * (16-31, 32-63, 64-127...) is split into 16 equal buckets.
+     */
+    static int bucketFor(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * The longest time that goes in a bucket
+     */
+    static long highestInBucket(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
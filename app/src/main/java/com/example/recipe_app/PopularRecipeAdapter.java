@@ -24,14 +24,14 @@ import java.util.List;
  * metadata for featured recipes.
  */
 public class PopularRecipeAdapter extends RecyclerView.Adapter<PopularRecipeAdapter.ViewHolder> {
-    private List<Recipe> recipes;
+    private List<RecipeSummary> recipes;
     private final OnRecipeClickListener listener;
 
     /**
      * Interface for handling popular recipe click events
      */
     public interface OnRecipeClickListener {
-        void onRecipeClick(Recipe recipe);
+        void onRecipeClick(RecipeSummary recipe);
     }
 
     /**
@@ -39,7 +39,7 @@ public class PopularRecipeAdapter extends RecyclerView.Adapter<PopularRecipeAdap
      * @param recipes List of popular recipes to display
      * @param listener Callback for recipe click events
      */
-    public PopularRecipeAdapter(List<Recipe> recipes, OnRecipeClickListener listener) {
+    public PopularRecipeAdapter(List<RecipeSummary> recipes, OnRecipeClickListener listener) {
         this.recipes = recipes;
         this.listener = listener;
     }
@@ -54,7 +54,7 @@ public class PopularRecipeAdapter extends RecyclerView.Adapter<PopularRecipeAdap
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        Recipe recipe = recipes.get(position);
+        RecipeSummary recipe = recipes.get(position);
         holder.bind(recipe, listener);
     }
 
@@ -64,7 +64,7 @@ public class PopularRecipeAdapter extends RecyclerView.Adapter<PopularRecipeAdap
     }
 
     // Add the setRecipes method
-    public void setRecipes(List<Recipe> recipes) {
+    public void setRecipes(List<RecipeSummary> recipes) {
         this.recipes = recipes;
         notifyDataSetChanged();
     }
@@ -99,7 +99,7 @@ public class PopularRecipeAdapter extends RecyclerView.Adapter<PopularRecipeAdap
          * @param recipe Recipe to display
          * @param listener Callback for recipe click events
          */
-        void bind(Recipe recipe, OnRecipeClickListener listener) {
+        void bind(RecipeSummary recipe, OnRecipeClickListener listener) {
             recipeName.setText(recipe.getName());
 
             // Format and set cooking time
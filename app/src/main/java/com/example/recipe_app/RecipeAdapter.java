@@ -24,10 +24,11 @@ import java.text.DecimalFormat;
 /**
  * Adapter for displaying recipe items in a RecyclerView.
  * Supports click handling for recipe selection and displays
- * recipe information in a card format.
+ * recipe information in a card format. Rows are bound from
+ * RecipeSummary, so the list never holds ingredients or instructions.
  */
 public class RecipeAdapter extends RecyclerView.Adapter<RecipeAdapter.ViewHolder> {
-    private List<Recipe> recipes;
+    private List<RecipeSummary> recipes;
     private final OnRecipeClickListener listener;
     private final DecimalFormat ratingFormat = new DecimalFormat("#.#");
 
@@ -35,7 +36,7 @@ public class RecipeAdapter extends RecyclerView.Adapter<RecipeAdapter.ViewHolder
      * Interface for handling recipe click events
      */
     public interface OnRecipeClickListener {
-        void onRecipeClick(Recipe recipe);
+        void onRecipeClick(RecipeSummary recipe);
     }
 
     /**
@@ -43,7 +44,7 @@ public class RecipeAdapter extends RecyclerView.Adapter<RecipeAdapter.ViewHolder
      * @param recipes List of recipes to display
      * @param listener Callback for recipe click events
      */
-    public RecipeAdapter(List<Recipe> recipes, OnRecipeClickListener listener) {
+    public RecipeAdapter(List<RecipeSummary> recipes, OnRecipeClickListener listener) {
         this.recipes = recipes;
         this.listener = listener;
     }
@@ -58,7 +59,7 @@ public class RecipeAdapter extends RecyclerView.Adapter<RecipeAdapter.ViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        Recipe recipe = recipes.get(position);
+        RecipeSummary recipe = recipes.get(position);
         holder.bind(recipe, listener);
     }
 
@@ -71,7 +72,7 @@ public class RecipeAdapter extends RecyclerView.Adapter<RecipeAdapter.ViewHolder
      * Updates the list of recipes and refreshes the display
      * @param recipes New list of recipes to display
      */
-    public void setRecipes(List<Recipe> recipes) {
+    public void setRecipes(List<RecipeSummary> recipes) {
         this.recipes = recipes;
         notifyDataSetChanged();
     }
@@ -111,7 +112,7 @@ public class RecipeAdapter extends RecyclerView.Adapter<RecipeAdapter.ViewHolder
          * Binds recipe data to the view holder
          * @param recipe Recipe to display
          */
-        public void bind(Recipe recipe, OnRecipeClickListener listener) {
+        public void bind(RecipeSummary recipe, OnRecipeClickListener listener) {
             titleText.setText(recipe.getName());
             descriptionText.setText(recipe.getDescription());
             cookingTime.setText(recipe.getCookingTimeDisplay());
@@ -12,7 +12,10 @@
  */
 package com.example.recipe_app;
 
+import android.app.Activity;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.os.Bundle;
 import com.google.firebase.FirebaseApp;
 
 public class RecipeApp extends Application {
@@ -21,11 +24,64 @@ public class RecipeApp extends Application {
      * 
      * This is like opening the kitchen for the first time each day:
      * - Turn on the lights (start Firebase)
+     * - Get the saved recipes out of the cupboard (the copy kept on the phone)
      * - Get everything ready to cook (set up the app)
      */
     @Override
     public void onCreate() {
         super.onCreate();
         FirebaseApp.initializeApp(this);
+        FirebaseManager.getInstance().attachLocalStore(this);
+        
+        // Fill in fields that recipes saved by older versions of the app don't have (once per catalog)
+        FirebaseManager.getInstance().migrateCatalogIfNeeded();
+        
+        // Have search suggestions ready (from last time's copy) before a search box opens
+        RecipeSuggestions.getInstance(this).refresh();
+        
+        // Tell the data metrics which screen is showing, so reads are counted against it
+        registerActivityLifecycleCallbacks(new ScreenTracker());
+    }
+    
+    /**
+     * Called when Android wants memory back
+     * 
+     * TRIM_MEMORY_UI_HIDDEN means the user has left the app, which might be
+     * the last chance we get, so we send any saved-up changes now.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            FirebaseManager.getInstance().flushPendingWrites();
+        }
+    }
+    
+    /**
+     * Keeps DataLayerMetrics up to date with the screen the user is looking at
+     */
+    private static class ScreenTracker implements ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityResumed(Activity activity) {
+            DataLayerMetrics.getInstance().setCurrentScreen(activity.getClass().getSimpleName());
+        }
+        
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+        
+        @Override
+        public void onActivityStarted(Activity activity) {}
+        
+        @Override
+        public void onActivityPaused(Activity activity) {}
+        
+        @Override
+        public void onActivityStopped(Activity activity) {}
+        
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+        
+        @Override
+        public void onActivityDestroyed(Activity activity) {}
     }
 } 
\ No newline at end of file
@@ -0,0 +1,467 @@
+/**
+ * RecipeAutocomplete - Suggests What the User Might Be Typing
+ *
+ * Suggestions come from recipe names, cuisines and ingredient names (tidied
+ * up the same way as RecipeIngredientIndex, so "2 chopped onions" becomes
+ * "onion"). A suggestion is offered when what's typed is the start of it, or
+ * the start of any word after the first, so "carb" suggests "Spaghetti
+ * Carbonara". The ones used by the most recipes come first.
+ *
+ * They're kept in a trie: a tree where each step down adds some letters, so
+ * every way of starting a suggestion is one place in the tree. To keep it
+ * small, runs of letters with no choices along the way share one step. Each
+ * place also remembers its best few suggestions, worked out when the tree is
+ * built, so looking something up only walks down the letters typed and reads
+ * the list there, however many recipes there are.
+ *
+ * Building takes a moment with a big catalog, so do it on a background
+ * thread. Once built it never changes, so it's safe to use from any thread.
+ * It can be saved to a file and read back (writeTo() and readFrom()), so the
+ * app has suggestions straight away next time. This class doesn't use any
+ * Android code, so it can be tested on a computer.
+ */
+package com.example.recipe_app;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RecipeAutocomplete {
+    // How many suggestions each place in the tree remembers
+    public static final int MAX_SUGGESTIONS = 8;
+
+    // Marks a saved file as ours; the version goes up whenever the layout changes
+    private static final int FILE_MAGIC = 0x52414331;   // "RAC1"
+    private static final int FILE_VERSION = 1;
+
+    // No saved list is ever this long, so a bigger length means the file is damaged
+    private static final int MAX_SAVED_LENGTH = 1 << 24;
+
+    // The suggestions, best first, so a lower number always means a better suggestion
+    private final String[] phrases;
+
+    // The tree, with places numbered so each one comes before everything below it.
+    // The first place below p is p + 1 (if p + 1 < subtreeEnd[p]), and the next
+    // one alongside a place c is subtreeEnd[c].
+    private final int[] subtreeEnd;
+    private final int[] labelStart;     // The letters for the step into each place, in labels
+    private final int[] labelLength;
+    private final char[] labels;
+    private final int[] topStart;       // Each place's best suggestions are topIds[topStart[p]..topStart[p + 1])
+    private final int[] topIds;
+
+    private RecipeAutocomplete(String[] phrases, int[] subtreeEnd, int[] labelStart, int[] labelLength,
+                               char[] labels, int[] topStart, int[] topIds) {
+        this.phrases = phrases;
+        this.subtreeEnd = subtreeEnd;
+        this.labelStart = labelStart;
+        this.labelLength = labelLength;
+        this.labels = labels;
+        this.topStart = topStart;
+        this.topIds = topIds;
+    }
+
+    /**
+     * An autocomplete with no suggestions, for before the real one is ready
+     */
+    public static RecipeAutocomplete empty() {
+        return build(Collections.emptyList());
+    }
+
+    /**
+     * Builds suggestions from all the given recipes (do this on a background thread)
+     */
+    public static RecipeAutocomplete build(Collection<Recipe> recipes) {
+        // Count how many recipes use each suggestion; the first spelling seen is the one shown
+        Map<String, String> displayByKey = new HashMap<>();
+        Map<String, Integer> countByKey = new HashMap<>();
+        List<String> seen = new ArrayList<>();
+        for (Recipe recipe : recipes) {
+            seen.clear();
+            addPhrase(recipe.getName(), displayByKey, countByKey, seen);
+            addPhrase(recipe.getCuisine(), displayByKey, countByKey, seen);
+            if (recipe.getIngredients() != null) {
+                for (String ingredient : recipe.getIngredients()) {
+                    List<String> words = RecipeIngredientIndex.normalise(ingredient);
+                    if (!words.isEmpty()) {
+                        addPhrase(String.join(" ", words), displayByKey, countByKey, seen);
+                    }
+                }
+            }
+        }
+
+        // Number the suggestions best first: most used, then A to Z
+        String[] keys = displayByKey.keySet().toArray(new String[0]);
+        Arrays.sort(keys, (a, b) -> {
+            int byCount = Integer.compare(countByKey.get(b), countByKey.get(a));
+            return byCount != 0 ? byCount : a.compareTo(b);
+        });
+        String[] phrases = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            phrases[i] = displayByKey.get(keys[i]);
+        }
+
+        // Every way into a suggestion: its start, and the start of each later word
+        List<Entry> entries = new ArrayList<>();
+        for (int id = 0; id < keys.length; id++) {
+            String key = keys[id];
+            entries.add(new Entry(key, id));
+            for (int i = key.indexOf(' '); i >= 0; i = key.indexOf(' ', i + 1)) {
+                entries.add(new Entry(key.substring(i + 1), id));
+            }
+        }
+        Collections.sort(entries);
+
+        return new Builder(entries).build(phrases);
+    }
+
+    /**
+     * The best suggestions for what's been typed so far, best first
+     */
+    public List<String> suggest(String typed) {
+        String prefix = normalise(typed, true);
+        if (prefix.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        int node = 0;
+        int matched = 0;
+        while (matched < prefix.length()) {
+            int child = findChild(node, prefix.charAt(matched));
+            if (child < 0) {
+                return Collections.emptyList();
+            }
+            // Check the rest of the step's letters (the typing may stop part way through)
+            int start = labelStart[child];
+            int length = Math.min(labelLength[child], prefix.length() - matched);
+            for (int i = 1; i < length; i++) {
+                if (labels[start + i] != prefix.charAt(matched + i)) {
+                    return Collections.emptyList();
+                }
+            }
+            matched += length;
+            node = child;
+        }
+
+        List<String> suggestions = new ArrayList<>(topStart[node + 1] - topStart[node]);
+        for (int i = topStart[node]; i < topStart[node + 1]; i++) {
+            suggestions.add(phrases[topIds[i]]);
+        }
+        return suggestions;
+    }
+
+    /**
+     * How many different suggestions there are
+     */
+    public int size() {
+        return phrases.length;
+    }
+
+    /**
+     * Saves the autocomplete so readFrom() can load it without building it again
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(FILE_MAGIC);
+        data.writeInt(FILE_VERSION);
+        data.writeInt(phrases.length);
+        for (String phrase : phrases) {
+            data.writeUTF(phrase);
+        }
+        writeInts(data, subtreeEnd);
+        writeInts(data, labelStart);
+        writeInts(data, labelLength);
+        data.writeInt(labels.length);
+        for (char c : labels) {
+            data.writeChar(c);
+        }
+        writeInts(data, topStart);
+        writeInts(data, topIds);
+        data.flush();
+    }
+
+    /**
+     * Loads an autocomplete saved by writeTo()
+     *
+     * Every place and suggestion number in the file is checked, so a damaged
+     * file fails here rather than when someone types.
+     * @throws IOException If the file can't be read, is damaged or was saved by a different version
+     */
+    public static RecipeAutocomplete readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != FILE_MAGIC || data.readInt() != FILE_VERSION) {
+            throw new IOException("Not a saved autocomplete, or from an older version");
+        }
+        String[] phrases = new String[readLength(data)];
+        for (int i = 0; i < phrases.length; i++) {
+            phrases[i] = data.readUTF();
+        }
+        int[] subtreeEnd = readInts(data);
+        int[] labelStart = readInts(data);
+        int[] labelLength = readInts(data);
+        char[] labels = new char[readLength(data)];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = data.readChar();
+        }
+        int[] topStart = readInts(data);
+        int[] topIds = readInts(data);
+
+        int nodeCount = subtreeEnd.length;
+        checkSaved(nodeCount > 0 && labelStart.length == nodeCount
+            && labelLength.length == nodeCount && topStart.length == nodeCount + 1);
+        // The top place holds everything and has no letters; every other place has some
+        checkSaved(subtreeEnd[0] == nodeCount && labelLength[0] == 0);
+        for (int node = 0; node < nodeCount; node++) {
+            checkSaved(subtreeEnd[node] > node && subtreeEnd[node] <= nodeCount);
+            checkSaved(node == 0 || labelLength[node] > 0);
+            checkSaved(labelStart[node] >= 0 && labelLength[node] >= 0
+                && labelStart[node] <= labels.length - labelLength[node]);
+            checkSaved(topStart[node] <= topStart[node + 1]);
+        }
+        checkSaved(topStart[0] == 0 && topStart[nodeCount] == topIds.length);
+        for (int id : topIds) {
+            checkSaved(id >= 0 && id < phrases.length);
+        }
+        return new RecipeAutocomplete(phrases, subtreeEnd, labelStart, labelLength, labels, topStart, topIds);
+    }
+
+    private static void checkSaved(boolean ok) throws IOException {
+        if (!ok) {
+            throw new IOException("Saved autocomplete is damaged");
+        }
+    }
+
+    /**
+     * Finds the step below a place that starts with a letter, or -1
+     *
+     * There's at most one per letter, and letters and digits are all there
+     * is, so this is a short scan.
+     */
+    private int findChild(int node, char c) {
+        for (int child = node + 1; child < subtreeEnd[node]; child = subtreeEnd[child]) {
+            if (labels[labelStart[child]] == c) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    private static void addPhrase(String text, Map<String, String> displayByKey,
+                                  Map<String, Integer> countByKey, List<String> seen) {
+        String key = normalise(text, false);
+        // Each recipe only counts once towards a suggestion
+        if (key.isEmpty() || seen.contains(key)) {
+            return;
+        }
+        seen.add(key);
+        if (!displayByKey.containsKey(key)) {
+            displayByKey.put(key, text.trim());
+        }
+        countByKey.merge(key, 1, Integer::sum);
+    }
+
+    /**
+     * Lower-case words with single spaces between them
+     *
+     * While typing, a space at the end is kept, so "chicken " only suggests
+     * things with another word after "chicken".
+     */
+    private static String normalise(String text, boolean keepTrailingSpace) {
+        List<String> words = RecipeSearchIndex.tokenize(text);
+        String joined = String.join(" ", words);
+        if (keepTrailingSpace && !words.isEmpty()
+                && !Character.isLetterOrDigit(text.charAt(text.length() - 1))) {
+            joined += " ";
+        }
+        return joined;
+    }
+
+    private static void writeInts(DataOutputStream data, int[] values) throws IOException {
+        data.writeInt(values.length);
+        for (int value : values) {
+            data.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream data) throws IOException {
+        int[] values = new int[readLength(data)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data.readInt();
+        }
+        return values;
+    }
+
+    private static int readLength(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        checkSaved(length >= 0 && length <= MAX_SAVED_LENGTH);
+        return length;
+    }
+
+    /**
+     * A growing list of numbers
+     */
+    private static class IntList {
+        int[] items = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = value;
+        }
+    }
+
+    /**
+     * One way into a suggestion: some text, and the suggestion it leads to
+     */
+    private static class Entry implements Comparable<Entry> {
+        final String key;
+        final int phraseId;
+
+        Entry(String key, int phraseId) {
+            this.key = key;
+            this.phraseId = phraseId;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byKey = key.compareTo(other.key);
+            return byKey != 0 ? byKey : Integer.compare(phraseId, other.phraseId);
+        }
+    }
+
+    /**
+     * Turns the sorted entries into the tree's arrays
+     *
+     * Because the entries are sorted, everything below a place is a run of
+     * neighbouring entries that share its letters, and the places can be
+     * numbered by visiting them top to bottom.
+     */
+    private static class Builder {
+        private final List<Entry> entries;
+        private final IntList subtreeEnd = new IntList();
+        private final IntList labelStart = new IntList();   // Where in its entry's text the step's letters start
+        private final IntList labelLength = new IntList();
+        private final IntList labelKey = new IntList();     // Which entry the step's letters come from
+        private final List<int[]> tops = new ArrayList<>();
+
+        Builder(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        RecipeAutocomplete build(String[] phrases) {
+            addNode(0, entries.size(), 0, -1, 0);
+
+            // Copy each step's letters into one array
+            int nodeCount = subtreeEnd.size;
+            int labelTotal = 0;
+            for (int node = 0; node < nodeCount; node++) {
+                labelTotal += labelLength.items[node];
+            }
+            char[] labels = new char[labelTotal];
+            int[] starts = new int[nodeCount];
+            int next = 0;
+            for (int node = 0; node < nodeCount; node++) {
+                starts[node] = next;
+                if (labelLength.items[node] > 0) {
+                    String key = entries.get(labelKey.items[node]).key;
+                    key.getChars(labelStart.items[node], labelStart.items[node] + labelLength.items[node], labels, next);
+                    next += labelLength.items[node];
+                }
+            }
+
+            int[] topStart = new int[nodeCount + 1];
+            for (int node = 0; node < nodeCount; node++) {
+                topStart[node + 1] = topStart[node] + tops.get(node).length;
+            }
+            int[] topIds = new int[topStart[nodeCount]];
+            for (int node = 0; node < nodeCount; node++) {
+                System.arraycopy(tops.get(node), 0, topIds, topStart[node], tops.get(node).length);
+            }
+
+            return new RecipeAutocomplete(phrases, Arrays.copyOf(subtreeEnd.items, nodeCount), starts,
+                Arrays.copyOf(labelLength.items, nodeCount),
+                labels, topStart, topIds);
+        }
+
+        /**
+         * Adds the place for entries [from, to), which all share their first depth letters
+         * @return The place's best suggestions
+         */
+        private int[] addNode(int from, int to, int depth, int labelFrom, int labelDepth) {
+            int node = subtreeEnd.size;
+            subtreeEnd.add(0);
+            labelKey.add(from);
+            labelStart.add(labelDepth);
+            labelLength.add(labelFrom < 0 ? 0 : depth - labelDepth);
+            tops.add(null);
+
+            // Entries that end here come first, since they sort before anything longer
+            int[] top = new int[0];
+            int i = from;
+            while (i < to && entries.get(i).key.length() == depth) {
+                top = mergeTop(top, new int[]{entries.get(i).phraseId});
+                i++;
+            }
+
+            // Then one step down for each next letter
+            while (i < to) {
+                char c = entries.get(i).key.charAt(depth);
+                int groupEnd = i + 1;
+                while (groupEnd < to && entries.get(groupEnd).key.charAt(depth) == c) {
+                    groupEnd++;
+                }
+                // Sorted, so the letters all of them share are the ones the first and last share
+                int shared = commonPrefix(entries.get(i).key, entries.get(groupEnd - 1).key);
+                top = mergeTop(top, addNode(i, groupEnd, shared, i, depth));
+                i = groupEnd;
+            }
+
+            subtreeEnd.items[node] = subtreeEnd.size;
+            tops.set(node, top);
+            return top;
+        }
+
+        /**
+         * The best MAX_SUGGESTIONS of two lists of suggestions (lower numbers are better)
+         */
+        private static int[] mergeTop(int[] a, int[] b) {
+            int[] merged = new int[Math.min(a.length + b.length, MAX_SUGGESTIONS)];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (n < merged.length && (i < a.length || j < b.length)) {
+                int next;
+                if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+                    next = a[i++];
+                } else {
+                    next = b[j++];
+                }
+                // The same suggestion can be reached more than one way
+                if (n == 0 || merged[n - 1] != next) {
+                    merged[n++] = next;
+                }
+            }
+            return n == merged.length ? merged : Arrays.copyOf(merged, n);
+        }
+
+        private static int commonPrefix(String a, String b) {
+            int length = Math.min(a.length(), b.length());
+            int i = 0;
+            while (i < length && a.charAt(i) == b.charAt(i)) {
+                i++;
+            }
+            return i;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * RecipeCatalogCodec - Reads and Writes Recipe Catalog Files
+ *
+ * A catalog file is a JSON list of recipes:
+ *
+ *   [
+ *     {"id": "abc", "name": "Pancakes", "prepTime": 10, "ingredients": ["Flour", "Milk"], ...},
+ *     ...
+ *   ]
+ *
+ * The file is read and written one recipe at a time (streaming), so even a
+ * huge catalog never has to fit in memory all at once. Reading a recipe only
+ * builds that one recipe; writing one sends it straight out to the file.
+ *
+ * Fields we don't know about are skipped, and missing fields get the same
+ * defaults as a new Recipe. This class doesn't use any Android or Firebase
+ * code, so it can be tested on a computer.
+ */
+package com.example.recipe_app;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class RecipeCatalogCodec {
+    private RecipeCatalogCodec() {}
+
+    /**
+     * Reads recipes from a catalog file, one at a time
+     *
+     *   try (CatalogReader reader = new CatalogReader(file)) {
+     *       while (reader.hasNext()) {
+     *           Recipe recipe = reader.next();
+     *       }
+     *   }
+     */
+    public static class CatalogReader implements Closeable {
+        private final JsonReader json;
+        private boolean started = false;   // True once we've stepped into the list
+        private boolean finished = false;  // True once we've read the end of the list
+
+        public CatalogReader(Reader in) {
+            this.json = new JsonReader(in);
+        }
+
+        /**
+         * Checks whether there's another recipe to read
+         */
+        public boolean hasNext() throws IOException {
+            if (finished) {
+                return false;
+            }
+            if (!started) {
+                json.beginArray();
+                started = true;
+            }
+            if (json.hasNext()) {
+                return true;
+            }
+            json.endArray();
+            finished = true;
+            return false;
+        }
+
+        /**
+         * Reads the next recipe
+         */
+        public Recipe next() throws IOException {
+            if (!hasNext()) {
+                throw new IOException("No more recipes in the catalog");
+            }
+            return readRecipe(json);
+        }
+
+        /**
+         * Reads up to max recipes; an empty list means the catalog is finished
+         */
+        public List<Recipe> nextBatch(int max) throws IOException {
+            List<Recipe> batch = new ArrayList<>();
+            while (batch.size() < max && hasNext()) {
+                batch.add(readRecipe(json));
+            }
+            return batch;
+        }
+
+        @Override
+        public void close() throws IOException {
+            json.close();
+        }
+    }
+
+    /**
+     * Writes recipes to a catalog file, one at a time
+     *
+     * Closing the writer finishes the list and closes the file.
+     */
+    public static class CatalogWriter implements Closeable {
+        private final JsonWriter json;
+        private int count = 0;  // How many recipes we've written
+
+        public CatalogWriter(Writer out) throws IOException {
+            this.json = new JsonWriter(out);
+            json.beginArray();
+        }
+
+        public void write(Recipe recipe) throws IOException {
+            writeRecipe(json, recipe);
+            count++;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            json.endArray();
+            json.close();
+        }
+    }
+
+    private static Recipe readRecipe(JsonReader json) throws IOException {
+        Recipe recipe = new Recipe(null, null, null, 0, 0, null, Collections.emptyList());
+        json.beginObject();
+        while (json.hasNext()) {
+            String field = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "id": recipe.setId(json.nextString()); break;
+                case "name": recipe.setName(json.nextString()); break;
+                case "description": recipe.setDescription(json.nextString()); break;
+                case "imageUrl": recipe.setImageUrl(json.nextString()); break;
+                case "prepTime": recipe.setPrepTime(json.nextInt()); break;
+                case "cookTime": recipe.setCookTime(json.nextInt()); break;
+                case "servings": recipe.setServings(json.nextInt()); break;
+                case "ingredients": recipe.setIngredients(readStringList(json)); break;
+                case "instructions": recipe.setInstructions(readStringList(json)); break;
+                case "difficulty": recipe.setDifficulty(json.nextString()); break;
+                case "cuisine": recipe.setCuisine(json.nextString()); break;
+                case "category": recipe.setCategory(json.nextString()); break;
+                case "rating": recipe.setRating(json.nextDouble()); break;
+                case "dietaryTags": recipe.setDietaryTags(readStringList(json)); break;
+                default: json.skipValue(); break;  // A field we don't know about
+            }
+        }
+        json.endObject();
+        return recipe;
+    }
+
+    private static List<String> readStringList(JsonReader json) throws IOException {
+        List<String> strings = new ArrayList<>();
+        json.beginArray();
+        while (json.hasNext()) {
+            if (json.peek() == JsonToken.STRING) {
+                strings.add(json.nextString());
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endArray();
+        return strings;
+    }
+
+    private static void writeRecipe(JsonWriter json, Recipe recipe) throws IOException {
+        json.beginObject();
+        json.name("id").value(recipe.getId());
+        json.name("name").value(recipe.getName());
+        json.name("description").value(recipe.getDescription());
+        json.name("imageUrl").value(recipe.getImageUrl());
+        json.name("prepTime").value(recipe.getPrepTime());
+        json.name("cookTime").value(recipe.getCookTime());
+        json.name("servings").value(recipe.getServings());
+        writeStringList(json, "ingredients", recipe.getIngredients());
+        writeStringList(json, "instructions", recipe.getInstructions());
+        json.name("difficulty").value(recipe.getDifficulty());
+        json.name("cuisine").value(recipe.getCuisine());
+        json.name("category").value(recipe.getCategory());
+        json.name("rating").value(recipe.getRating());
+        writeStringList(json, "dietaryTags", recipe.getDietaryTags());
+        json.endObject();
+    }
+
+    private static void writeStringList(JsonWriter json, String field, List<String> strings) throws IOException {
+        json.name(field).beginArray();
+        if (strings != null) {
+            for (String string : strings) {
+                json.value(string);
+            }
+        }
+        json.endArray();
+    }
+}
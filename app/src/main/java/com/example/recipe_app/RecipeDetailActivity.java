@@ -61,11 +61,20 @@ public class RecipeDetailActivity extends AppCompatActivity {
     private TextView noIngredientsText;            // Text shown when no ingredients
     private TextView noInstructionsText;           // Text shown when no instructions
     private Recipe currentRecipe;                  // Current recipe being displayed
+    private boolean historyRecorded;               // Whether this view is already in the history
     
     // Adapters
     private IngredientAdapter ingredientAdapter;    // Adapter for ingredients list
     private InstructionAdapter instructionAdapter;  // Adapter for instructions list
 
+    // Keeps the favorite button in step if this recipe is liked or unliked anywhere else
+    private final FirebaseManager.FavoritesListener favoritesListener = (changedId, isFavorite) -> {
+        if (currentRecipe != null && changedId.equals(currentRecipe.getId())) {
+            currentRecipe.setFavorite(isFavorite);
+            updateFavoriteButton(isFavorite);
+        }
+    };
+
     /**
      * Creates a new intent to start this activity
      * @param context The context to create the intent from
@@ -93,6 +102,18 @@ public class RecipeDetailActivity extends AppCompatActivity {
         displayRecipeDetails();
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        FirebaseManager.getInstance().addFavoritesListener(favoritesListener);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        FirebaseManager.getInstance().removeFavoritesListener(favoritesListener);
+    }
+
     private void initializeViews() {
         try {
             recipeImage = findViewById(R.id.recipeImage);
@@ -212,7 +233,11 @@ public class RecipeDetailActivity extends AppCompatActivity {
                     // Setup button listeners
                     setupButtonListeners();
 
-                    // Add to history
+                    // Add to history (only the first time, if a fresher copy arrives later)
+                    if (historyRecorded) {
+                        return;
+                    }
+                    historyRecorded = true;
                     FirebaseManager.getInstance().addToHistory(recipe.getId(), new FirebaseManager.FirebaseCallback<Void>() {
                         @Override
                         public void onSuccess(Void result) {
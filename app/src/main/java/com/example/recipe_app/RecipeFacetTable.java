@@ -0,0 +1,478 @@
+/**
+ * RecipeFacetTable - Filters Recipes by Cuisine, Difficulty, Category and Time
+ *
+ * Instead of asking every recipe "are you Italian? are you Easy?" each time
+ * a chip is tapped, this keeps the recipes as a table with one column per
+ * filter, like a spreadsheet:
+ * - Each cuisine, category and difficulty name gets a number, and for each one
+ *   we keep a set of the rows that have it. Filtering by chips is then just
+ *   "rows that are in all of these sets", which is very quick.
+ * - Total cooking times are also kept sorted, so "at most 30 minutes" is found
+ *   by looking it up in the sorted list rather than checking every recipe.
+ *
+ * Dragging the cooking time slider only looks at the recipes between the old
+ * and new time, so it stays quick even with a big catalog.
+ *
+ * It can also count how many recipes each chip would show (see
+ * countFacets()), all in one pass over the table.
+ *
+ * For sorting, the table remembers the order of all its rows by rating, by
+ * time and by name, worked out once each time rows are added. Showing the
+ * filtered recipes in order is then a walk along that order picking out the
+ * ones that match, stopping once enough have been found for the screen.
+ *
+ * Rows are numbered in the order recipes were added. Not thread safe; use it
+ * from the main thread. This class doesn't use any Android code, so it can be
+ * tested on a computer.
+ */
+package com.example.recipe_app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class RecipeFacetTable {
+    // What Facet.idFor() returns for "any value" and for a value no recipe has
+    private static final int ANY = -1;
+    private static final int UNKNOWN = -2;
+
+    // Sort orders (the same numbers as the sort spinner)
+    public static final int SORT_DEFAULT = 0;   // The order recipes were added
+    public static final int SORT_RATING = 1;    // Rating, high to low
+    public static final int SORT_TIME = 2;      // Total time, low to high
+    public static final int SORT_NAME = 3;      // Name, A to Z
+
+    /**
+     * One filter column (like cuisine): a number for each name, and the rows that have it
+     */
+    private static class Facet {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<BitSet> rowsById = new ArrayList<>();
+        private int[] idByRow = new int[16];   // Each row's value number (-1 for none)
+
+        void add(int row, String value) {
+            if (row == idByRow.length) {
+                idByRow = Arrays.copyOf(idByRow, row * 2);
+            }
+            if (value == null || value.isEmpty()) {
+                idByRow[row] = -1;  // Never matches a chip
+                return;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = rowsById.size();
+                ids.put(value, id);
+                rowsById.add(new BitSet());
+            }
+            rowsById.get(id).set(row);
+            idByRow[row] = id;
+        }
+
+        /**
+         * The number for a chip's value: ANY for "All", UNKNOWN if no recipe has it
+         */
+        int idFor(String value) {
+            if (value == null || value.isEmpty()) {
+                return ANY;
+            }
+            Integer id = ids.get(value);
+            return id != null ? id : UNKNOWN;
+        }
+
+        int valueCount() {
+            return rowsById.size();
+        }
+
+        /**
+         * Keeps only the rows that have this value (an empty value keeps everything)
+         */
+        void narrow(String value, BitSet rows) {
+            if (value == null || value.isEmpty()) {
+                return;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                rows.clear();
+            } else {
+                rows.and(rowsById.get(id));
+            }
+        }
+
+        void clear() {
+            ids.clear();
+            rowsById.clear();
+        }
+    }
+
+    // The table itself, one entry per row
+    private final List<RecipeSummary> recipes = new ArrayList<>();
+    private int[] totalTimes = new int[16];    // Prep time + cook time, in minutes
+
+    private final Facet cuisines = new Facet();
+    private final Facet difficulties = new Facet();
+    private final Facet categories = new Facet();
+
+    // Rows sorted by total time (rebuilt when rows are added)
+    private int[] sortedTimes = new int[0];
+    private int[] rowsByTime = new int[0];
+    private boolean timesChanged = false;
+
+    // The rows within the last time limit, kept so moving the slider only changes the difference
+    private final BitSet withinTime = new BitSet();
+    private int withinTimeCount = 0;    // How many of rowsByTime are in withinTime
+
+    // Reused for every answer
+    private final BitSet result = new BitSet();
+
+    // Every row in each sort order, worked out when first needed (null until then)
+    private final int[][] sortOrders = new int[SORT_NAME + 1][];
+
+    /**
+     * How many recipes each chip would show if it were picked, keeping the other filters
+     *
+     * Made by countFacets(). An empty value asks about the "All" chip.
+     */
+    public static class FacetCounts {
+        private final RecipeFacetTable table;
+        private final String cuisine;
+        private final String difficulty;
+        private final String category;
+        private final int maxTotalTime;
+        private Set<String> searchMatches;
+
+        // Per facet: a count for each value, and the "All" count
+        private int[] cuisineCounts = new int[0];
+        private int[] difficultyCounts = new int[0];
+        private int[] categoryCounts = new int[0];
+        private int allCuisines = 0;
+        private int allDifficulties = 0;
+        private int allCategories = 0;
+
+        FacetCounts(RecipeFacetTable table, String cuisine, String difficulty, String category,
+                    int maxTotalTime, Set<String> searchMatches) {
+            this.table = table;
+            this.cuisine = cuisine;
+            this.difficulty = difficulty;
+            this.category = category;
+            this.maxTotalTime = maxTotalTime;
+            this.searchMatches = searchMatches;
+        }
+
+        public int getCuisineCount(String value) {
+            return countFor(table.cuisines, cuisineCounts, allCuisines, value);
+        }
+
+        public int getDifficultyCount(String value) {
+            return countFor(table.difficulties, difficultyCounts, allDifficulties, value);
+        }
+
+        public int getCategoryCount(String value) {
+            return countFor(table.categories, categoryCounts, allCategories, value);
+        }
+
+        private static int countFor(Facet facet, int[] counts, int all, String value) {
+            int id = facet.idFor(value);
+            if (id == ANY) {
+                return all;
+            }
+            return id >= 0 && id < counts.length ? counts[id] : 0;
+        }
+    }
+
+    /**
+     * Adds a recipe as the next row
+     */
+    public void add(RecipeSummary recipe) {
+        int row = recipes.size();
+        recipes.add(recipe);
+        if (row == totalTimes.length) {
+            totalTimes = Arrays.copyOf(totalTimes, row * 2);
+        }
+        totalTimes[row] = recipe.getPrepTime() + recipe.getCookTime();
+
+        cuisines.add(row, recipe.getCuisine());
+        difficulties.add(row, recipe.getDifficulty());
+        categories.add(row, recipe.getCategory());
+        timesChanged = true;
+        Arrays.fill(sortOrders, null);
+    }
+
+    public void addAll(List<RecipeSummary> recipes) {
+        for (RecipeSummary recipe : recipes) {
+            add(recipe);
+        }
+    }
+
+    /**
+     * Empties the table
+     */
+    public void clear() {
+        recipes.clear();
+        cuisines.clear();
+        difficulties.clear();
+        categories.clear();
+        sortedTimes = new int[0];
+        rowsByTime = new int[0];
+        timesChanged = false;
+        withinTime.clear();
+        withinTimeCount = 0;
+        Arrays.fill(sortOrders, null);
+    }
+
+    public int size() {
+        return recipes.size();
+    }
+
+    public RecipeSummary get(int row) {
+        return recipes.get(row);
+    }
+
+    /**
+     * Finds the rows that match all the filters
+     *
+     * An empty (or null) cuisine, difficulty or category means "any".
+     * @param maxTotalTime Longest prep + cook time allowed, in minutes
+     * @return The matching rows. This set is reused by the next call, so read it straight away.
+     */
+    public BitSet select(String cuisine, String difficulty, String category, int maxTotalTime) {
+        updateWithinTime(maxTotalTime);
+
+        result.clear();
+        result.or(withinTime);
+        cuisines.narrow(cuisine, result);
+        difficulties.narrow(difficulty, result);
+        categories.narrow(category, result);
+        return result;
+    }
+
+    /**
+     * Adds some of the given rows to a list, in sort order
+     *
+     * Walks the saved order for the sort, so this never sorts anything. It
+     * stops once it has enough, so showing the first screenful is quick.
+     * @param rows The rows to pick from (e.g. from select())
+     * @param sortOption One of the SORT_ numbers
+     * @param skip How many matching rows to skip first (the ones already shown)
+     * @param count Most recipes to add
+     * @param out Where the recipes are added
+     * @return How many were added
+     */
+    public int selectSorted(BitSet rows, int sortOption, int skip, int count, List<RecipeSummary> out) {
+        int added = 0;
+        if (sortOption == SORT_DEFAULT) {
+            for (int row = rows.nextSetBit(0); row >= 0 && added < count; row = rows.nextSetBit(row + 1)) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    out.add(recipes.get(row));
+                    added++;
+                }
+            }
+            return added;
+        }
+
+        int[] order = sortOrder(sortOption);
+        for (int i = 0; i < order.length && added < count; i++) {
+            if (!rows.get(order[i])) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+            } else {
+                out.add(recipes.get(order[i]));
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Every row in the given order, worked out once after rows were added
+     *
+     * Rows that tie keep the order they were added in.
+     */
+    private int[] sortOrder(int sortOption) {
+        int[] order = sortOrders[sortOption];
+        if (order != null) {
+            return order;
+        }
+
+        int size = recipes.size();
+        order = new int[size];
+        if (sortOption == SORT_TIME) {
+            // Times are whole numbers, so (time, row) packs into one number and sorts without boxing
+            ensureSortedTimes();
+            System.arraycopy(rowsByTime, 0, order, 0, size);
+        } else {
+            Integer[] boxed = new Integer[size];
+            for (int row = 0; row < size; row++) {
+                boxed[row] = row;
+            }
+            if (sortOption == SORT_RATING) {
+                double[] ratings = new double[size];
+                for (int row = 0; row < size; row++) {
+                    ratings[row] = recipes.get(row).getRating();
+                }
+                Arrays.sort(boxed, (a, b) -> Double.compare(ratings[b], ratings[a]));
+            } else {
+                String[] names = new String[size];
+                for (int row = 0; row < size; row++) {
+                    String name = recipes.get(row).getName();
+                    names[row] = name != null ? name : "";
+                }
+                Arrays.sort(boxed, (a, b) -> names[a].compareTo(names[b]));
+            }
+            for (int i = 0; i < size; i++) {
+                order[i] = boxed[i];
+            }
+        }
+        sortOrders[sortOption] = order;
+        return order;
+    }
+
+    /**
+     * Counts how many recipes each cuisine, difficulty and category chip would show
+     *
+     * Each chip's count keeps every other filter (and the search) as it is,
+     * so it's exactly what picking that chip would show. All three are worked
+     * out in one pass over the table.
+     * @param searchMatches IDs matching the search box, or null for no search
+     */
+    public FacetCounts countFacets(String cuisine, String difficulty, String category,
+                                   int maxTotalTime, Set<String> searchMatches) {
+        FacetCounts counts = new FacetCounts(this, cuisine, difficulty, category, maxTotalTime, searchMatches);
+        countRows(counts, 0);
+        return counts;
+    }
+
+    /**
+     * Adds rows added since the counts were made (e.g. a new page) to the counts
+     * @param fromRow The first new row
+     * @param searchMatches The search matches now (they may include the new rows)
+     */
+    public void countNewRows(FacetCounts counts, int fromRow, Set<String> searchMatches) {
+        counts.searchMatches = searchMatches;
+        countRows(counts, fromRow);
+    }
+
+    private void countRows(FacetCounts counts, int fromRow) {
+        if (counts.cuisineCounts.length < cuisines.valueCount()) {
+            counts.cuisineCounts = Arrays.copyOf(counts.cuisineCounts, cuisines.valueCount());
+        }
+        if (counts.difficultyCounts.length < difficulties.valueCount()) {
+            counts.difficultyCounts = Arrays.copyOf(counts.difficultyCounts, difficulties.valueCount());
+        }
+        if (counts.categoryCounts.length < categories.valueCount()) {
+            counts.categoryCounts = Arrays.copyOf(counts.categoryCounts, categories.valueCount());
+        }
+
+        int wantedCuisine = cuisines.idFor(counts.cuisine);
+        int wantedDifficulty = difficulties.idFor(counts.difficulty);
+        int wantedCategory = categories.idFor(counts.category);
+        Set<String> searchMatches = counts.searchMatches;
+
+        for (int row = fromRow; row < recipes.size(); row++) {
+            // The time and the search apply to every chip's count
+            if (totalTimes[row] > counts.maxTotalTime
+                    || (searchMatches != null && !searchMatches.contains(recipes.get(row).getId()))) {
+                continue;
+            }
+
+            int cuisine = cuisines.idByRow[row];
+            int difficulty = difficulties.idByRow[row];
+            int category = categories.idByRow[row];
+            boolean failsCuisine = wantedCuisine != ANY && cuisine != wantedCuisine;
+            boolean failsDifficulty = wantedDifficulty != ANY && difficulty != wantedDifficulty;
+            boolean failsCategory = wantedCategory != ANY && category != wantedCategory;
+            int failures = (failsCuisine ? 1 : 0) + (failsDifficulty ? 1 : 0) + (failsCategory ? 1 : 0);
+
+            // A row counts for a facet's chips if it passes the *other* two filters:
+            // with no failures that's every facet, with one it's just the one it fails
+            if (failures == 0 || failsCuisine && failures == 1) {
+                counts.allCuisines++;
+                if (cuisine >= 0) {
+                    counts.cuisineCounts[cuisine]++;
+                }
+            }
+            if (failures == 0 || failsDifficulty && failures == 1) {
+                counts.allDifficulties++;
+                if (difficulty >= 0) {
+                    counts.difficultyCounts[difficulty]++;
+                }
+            }
+            if (failures == 0 || failsCategory && failures == 1) {
+                counts.allCategories++;
+                if (category >= 0) {
+                    counts.categoryCounts[category]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the time limit, adding or removing only the rows in between
+     */
+    private void updateWithinTime(int maxTotalTime) {
+        ensureSortedTimes();
+        int count = countAtMost(maxTotalTime);
+        if (count > withinTimeCount) {
+            for (int i = withinTimeCount; i < count; i++) {
+                withinTime.set(rowsByTime[i]);
+            }
+        } else {
+            for (int i = count; i < withinTimeCount; i++) {
+                withinTime.clear(rowsByTime[i]);
+            }
+        }
+        withinTimeCount = count;
+    }
+
+    /**
+     * How many rows have a total time of at most the given minutes
+     */
+    private int countAtMost(int minutes) {
+        int low = 0;
+        int high = sortedTimes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedTimes[mid] <= minutes) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Re-sorts the rows by time if any were added
+     */
+    private void ensureSortedTimes() {
+        if (!timesChanged) {
+            return;
+        }
+        // Pack (time, row) into one number so they sort together without boxing
+        int size = recipes.size();
+        long[] packed = new long[size];
+        for (int row = 0; row < size; row++) {
+            packed[row] = ((long) totalTimes[row] << 32) | row;
+        }
+        Arrays.sort(packed);
+
+        sortedTimes = new int[size];
+        rowsByTime = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedTimes[i] = (int) (packed[i] >> 32);
+            rowsByTime[i] = (int) packed[i];
+        }
+
+        // The order changed, so work out the time limit from scratch next time
+        withinTime.clear();
+        withinTimeCount = 0;
+        timesChanged = false;
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * RecipeFutures - Tools for Running Lots of Loads Together
+ *
+ * A "future" is a promise of an answer that isn't here yet. Unlike a
+ * FirebaseCallback, futures can be combined: wait for a whole group, take
+ * the first few answers, give up after a time limit, and so on. This class
+ * has the ways of combining them that the app needs:
+ * - allOf: wait for every load, keeping the ones that worked even if some failed
+ * - firstN: answer as soon as a few loads have worked, and cancel the rest
+ * - withTimeout: give up on a load that takes too long
+ * - fromCallback / fromTask: turn the app's callbacks and Firebase tasks into futures
+ *
+ * To stop too many loads running at once, see ConcurrencyLimiter.
+ * FirebaseFutures uses these to offer a future version of every FirebaseManager method.
+ */
+package com.example.recipe_app;
+
+import com.google.android.gms.tasks.Task;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public final class RecipeFutures {
+    // One small background thread is enough to fire every time limit in the app
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RecipeFutures-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private RecipeFutures() {}
+
+    /**
+     * What came back from a group of loads where some are allowed to fail
+     */
+    public static class Partial<T> {
+        private final List<T> results;            // Answers from the loads that worked, in the order given
+        private final List<Throwable> failures;   // Why the others failed
+
+        Partial(List<T> results, List<Throwable> failures) {
+            this.results = results;
+            this.failures = failures;
+        }
+
+        public List<T> getResults() { return results; }
+        public List<Throwable> getFailures() { return failures; }
+        public boolean isComplete() { return failures.isEmpty(); }
+    }
+
+    /**
+     * Turns a FirebaseCallback-style method into a future
+     *
+     * Some FirebaseManager methods answer twice (the saved copy, then a fresh
+     * one). A future can only finish once, so it asks for a single answer:
+     * the fresh one, or the saved copy if Firebase can't be reached.
+     */
+    public static <T> ListenableFuture<T> fromCallback(Consumer<FirebaseManager.FirebaseCallback<T>> call) {
+        SettableFuture<T> future = SettableFuture.create();
+        call.accept(new FirebaseManager.FirebaseCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                future.set(result);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.setException(e);
+            }
+
+            @Override
+            public boolean wantsSavedCopyFirst() {
+                return false;
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Turns a Firebase Task into a future
+     */
+    public static <T> ListenableFuture<T> fromTask(Task<T> task) {
+        SettableFuture<T> future = SettableFuture.create();
+        task.addOnCompleteListener(MoreExecutors.directExecutor(), done -> {
+            if (done.isCanceled()) {
+                future.cancel(false);
+            } else if (done.isSuccessful()) {
+                future.set(done.getResult());
+            } else {
+                future.setException(done.getException());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Hands a future's answer to a FirebaseCallback, on the given thread
+     */
+    public static <T> void toCallback(ListenableFuture<T> future, Executor executor,
+                                      FirebaseManager.FirebaseCallback<T> callback) {
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                callback.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                callback.onFailure(t instanceof Exception ? (Exception) t : new Exception(t));
+            }
+        }, executor);
+    }
+
+    /**
+     * Waits for every future, keeping the answers that worked
+     *
+     * Never fails itself: failed loads are listed in Partial.getFailures instead.
+     */
+    public static <T> ListenableFuture<Partial<T>> allOf(List<? extends ListenableFuture<? extends T>> futures) {
+        List<ListenableFuture<? extends T>> copy = new ArrayList<>(futures);
+        return Futures.whenAllComplete(copy).call(() -> {
+            List<T> results = new ArrayList<>();
+            List<Throwable> failures = new ArrayList<>();
+            for (ListenableFuture<? extends T> future : copy) {
+                try {
+                    results.add(Futures.getDone(future));
+                } catch (CancellationException e) {
+                    failures.add(e);
+                } catch (Exception e) {
+                    failures.add(e.getCause() != null ? e.getCause() : e);
+                }
+            }
+            return new Partial<>(results, failures);
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Answers with the first n loads that work (in the order they finish) and cancels the rest
+     *
+     * Fails if so many loads fail that n can no longer be reached.
+     * If n is more than the number of futures, waits for all of them.
+     */
+    public static <T> ListenableFuture<List<T>> firstN(List<? extends ListenableFuture<? extends T>> futures, int n) {
+        List<ListenableFuture<? extends T>> copy = new ArrayList<>(futures);
+        int wanted = Math.min(n, copy.size());
+        SettableFuture<List<T>> result = SettableFuture.create();
+        if (wanted <= 0) {
+            result.set(new ArrayList<>());
+            return result;
+        }
+
+        List<T> answers = Collections.synchronizedList(new ArrayList<>());
+        int[] failed = {0};
+        for (ListenableFuture<? extends T> future : copy) {
+            Futures.addCallback(future, new FutureCallback<T>() {
+                @Override
+                public void onSuccess(T value) {
+                    synchronized (answers) {
+                        if (result.isDone()) {
+                            return;
+                        }
+                        answers.add(value);
+                        if (answers.size() == wanted) {
+                            result.set(new ArrayList<>(answers));
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    synchronized (answers) {
+                        if (result.isDone()) {
+                            return;
+                        }
+                        failed[0]++;
+                        if (copy.size() - failed[0] < wanted) {
+                            result.setException(t);
+                        }
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        // Once we have an answer, nobody needs the loads that are still running
+        result.addListener(() -> {
+            for (ListenableFuture<? extends T> future : copy) {
+                future.cancel(false);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    /**
+     * Fails with a TimeoutException if the future hasn't finished in time
+     *
+     * When the time runs out the original future is cancelled, but that only
+     * stops the waiting: a Firebase read or write that has already been sent
+     * can't be called back, so it carries on in the background and its answer
+     * is thrown away. A save that timed out may still end up in Firebase.
+     * Loads still waiting in a ConcurrencyLimiter line are dropped before they start.
+     */
+    public static <T> ListenableFuture<T> withTimeout(ListenableFuture<T> future, long timeout, TimeUnit unit) {
+        return Futures.withTimeout(future, timeout, unit, TIMER);
+    }
+}
@@ -0,0 +1,423 @@
+/**
+ * RecipeFuzzyIndex - Finds Recipes Even When the Name Is Misspelled
+ *
+ * Someone typing "carbonera" or "chiken" should still find "Spaghetti
+ * Carbonara" and "Chicken Curry". This index finds recipe names that are
+ * close to what was typed, in two steps:
+ *
+ * 1. Find candidates. Every word in every recipe name is cut into
+ *    overlapping three-letter pieces ("trigrams": "chicken" has "chi", "hic",
+ *    "ick"...). A misspelled word still shares most of its pieces with the
+ *    right one, so only words sharing enough pieces are looked at. Words
+ *    are listed by length too, so only words within a few letters of the
+ *    typed one's length are counted at all.
+ * 2. Check them. For each candidate we count the fewest single-letter
+ *    changes that turn one word into the other (the "edit distance"), and
+ *    give up as soon as it's clearly too many.
+ *
+ * Short words are allowed fewer mistakes than long ones (see maxEditsFor).
+ * Pairs of words are also stored joined together, so "stirfry" finds
+ * "Stir Fry". With several words typed, every one has to match; the closest
+ * matches come first.
+ *
+ * Recipes can be added, changed and removed one at a time. Safe to use from
+ * any thread. This class doesn't use any Android code, so it can be tested on
+ * a computer.
+ */
+package com.example.recipe_app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RecipeFuzzyIndex {
+    // Don't bother tidying up until at least this many recipes have been removed
+    private static final int COMPACT_MIN_REMOVED = 1024;
+
+    // Each edit can spoil at most this many of a word's trigrams
+    private static final int GRAM_SIZE = 3;
+    private static final String PADDING = "$$";
+
+    /**
+     * A growing list of numbers
+     */
+    private static class IntList {
+        int[] items = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = value;
+        }
+    }
+
+    // Every word (and joined word pair) in the recipe names, and the recipes that use it
+    private final List<String> terms = new ArrayList<>();
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private final List<IntList> docsByTerm = new ArrayList<>();
+    private final IntList gramCounts = new IntList();   // Per word: how many different trigrams it has
+    private final Map<String, IntList> termsByTrigram = new HashMap<>();   // Keyed by trigram + word length, see gramKey
+
+    // Each recipe gets a number when it's added
+    private final List<String> recipeIds = new ArrayList<>();   // null once removed
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> docsByRecipeId = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private int removedCount = 0;
+
+    // Reused by every search
+    private int[] sharedTrigrams = new int[0];     // Per word: trigrams it shares with the typed word
+    private final IntList touchedTerms = new IntList();
+    private int[] wordDistance = new int[0];       // Per recipe: closest match for the current typed word
+    private final IntList wordDocs = new IntList();
+    private int[] totalDistance = new int[0];      // Per recipe: closest matches of all typed words added up
+    private int[] wordsMatched = new int[0];       // Per recipe: how many typed words matched so far
+    private final IntList matchedDocs = new IntList();
+    private final List<String> queryGrams = new ArrayList<>();
+
+    /**
+     * Builds an index of all the given recipes (do this on a background thread)
+     */
+    public static RecipeFuzzyIndex build(Collection<Recipe> recipes) {
+        RecipeFuzzyIndex index = new RecipeFuzzyIndex();
+        index.addRecipes(recipes);
+        return index;
+    }
+
+    /**
+     * Adds a recipe, or updates it if it's already in the index
+     */
+    public synchronized void add(Recipe recipe) {
+        put(recipe.getId(), recipe.getName());
+    }
+
+    public synchronized void add(RecipeSummary summary) {
+        put(summary.getId(), summary.getName());
+    }
+
+    public synchronized void addRecipes(Collection<Recipe> recipes) {
+        for (Recipe recipe : recipes) {
+            add(recipe);
+        }
+    }
+
+    public synchronized void addSummaries(Collection<RecipeSummary> summaries) {
+        for (RecipeSummary summary : summaries) {
+            add(summary);
+        }
+    }
+
+    /**
+     * Takes a recipe out of the index (does nothing if it isn't there)
+     */
+    public synchronized void remove(String recipeId) {
+        Integer doc = docsByRecipeId.remove(recipeId);
+        if (doc == null) {
+            return;
+        }
+        live.clear(doc);
+        recipeIds.set(doc, null);
+        names.set(doc, null);
+        removedCount++;
+        if (removedCount >= COMPACT_MIN_REMOVED && removedCount > docsByRecipeId.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Empties the index
+     */
+    public synchronized void clear() {
+        terms.clear();
+        termIds.clear();
+        docsByTerm.clear();
+        gramCounts.size = 0;
+        termsByTrigram.clear();
+        recipeIds.clear();
+        names.clear();
+        docsByRecipeId.clear();
+        live.clear();
+        removedCount = 0;
+    }
+
+    public synchronized int size() {
+        return docsByRecipeId.size();
+    }
+
+    /**
+     * Finds recipes whose names are close to the query
+     *
+     * Every typed word has to be close to a word (or joined word pair) in the name.
+     * @param limit Most results to return
+     * @return Recipe IDs, closest first (ties in the order recipes were added)
+     */
+    public synchronized List<String> search(String query, int limit) {
+        List<String> words = RecipeSearchIndex.tokenize(query);
+        if (words.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        ensureScratchSpace();
+
+        for (int w = 0; w < words.size(); w++) {
+            String word = words.get(w);
+            matchWord(word, maxEditsFor(word.length()));
+
+            for (int i = 0; i < wordDocs.size; i++) {
+                int doc = wordDocs.items[i];
+                if (w == 0) {
+                    matchedDocs.add(doc);
+                    totalDistance[doc] = wordDistance[doc];
+                    wordsMatched[doc] = 1;
+                } else if (wordsMatched[doc] == w) {
+                    totalDistance[doc] += wordDistance[doc];
+                    wordsMatched[doc]++;
+                }
+                wordDistance[doc] = Integer.MAX_VALUE;
+            }
+            wordDocs.size = 0;
+        }
+
+        // Sort by (distance, recipe number), packed into one number so nothing is boxed
+        long[] ranked = new long[matchedDocs.size];
+        int count = 0;
+        for (int i = 0; i < matchedDocs.size; i++) {
+            int doc = matchedDocs.items[i];
+            if (wordsMatched[doc] == words.size()) {
+                ranked[count++] = ((long) totalDistance[doc] << 32) | doc;
+            }
+            wordsMatched[doc] = 0;
+        }
+        matchedDocs.size = 0;
+        Arrays.sort(ranked, 0, count);
+
+        List<String> results = new ArrayList<>(Math.min(count, limit));
+        for (int i = 0; i < count && results.size() < limit; i++) {
+            results.add(recipeIds.get((int) ranked[i]));
+        }
+        return results;
+    }
+
+    /**
+     * Finds the recipes with a word close to the typed one, filling in wordDistance and wordDocs
+     */
+    private void matchWord(String word, int maxEdits) {
+        // Count how many of the typed word's trigrams each known word shares. Words
+        // more than maxEdits letters longer or shorter can't be close enough, so
+        // their lists are never opened; common starts like "$$s" stay cheap.
+        distinctTrigrams(word, queryGrams);
+        int shortest = Math.max(1, word.length() - maxEdits);
+        for (int length = shortest; length <= word.length() + maxEdits; length++) {
+            for (String gram : queryGrams) {
+                IntList termsWithGram = termsByTrigram.get(gramKey(gram, length));
+                if (termsWithGram == null) {
+                    continue;
+                }
+                for (int i = 0; i < termsWithGram.size; i++) {
+                    int term = termsWithGram.items[i];
+                    if (sharedTrigrams[term]++ == 0) {
+                        touchedTerms.add(term);
+                    }
+                }
+            }
+        }
+
+        // Each edit spoils at most GRAM_SIZE trigrams of either word, so words
+        // sharing fewer than that allows can't be close enough
+        for (int i = 0; i < touchedTerms.size; i++) {
+            int term = touchedTerms.items[i];
+            int required = Math.max(queryGrams.size(), gramCounts.items[term]) - GRAM_SIZE * maxEdits;
+            if (sharedTrigrams[term] >= required) {
+                int distance = editDistance(word, terms.get(term), maxEdits);
+                if (distance <= maxEdits) {
+                    IntList docs = docsByTerm.get(term);
+                    for (int j = 0; j < docs.size; j++) {
+                        int doc = docs.items[j];
+                        if (live.get(doc) && distance < wordDistance[doc]) {
+                            if (wordDistance[doc] == Integer.MAX_VALUE) {
+                                wordDocs.add(doc);
+                            }
+                            wordDistance[doc] = distance;
+                        }
+                    }
+                }
+            }
+            sharedTrigrams[term] = 0;
+        }
+        touchedTerms.size = 0;
+    }
+
+    private void put(String recipeId, String name) {
+        if (recipeId == null) {
+            return;
+        }
+        remove(recipeId);
+
+        int doc = recipeIds.size();
+        recipeIds.add(recipeId);
+        names.add(name);
+        docsByRecipeId.put(recipeId, doc);
+        live.set(doc);
+
+        List<String> words = RecipeSearchIndex.tokenize(name);
+        for (int i = 0; i < words.size(); i++) {
+            addTerm(words.get(i), doc);
+            if (i + 1 < words.size()) {
+                addTerm(words.get(i) + words.get(i + 1), doc);
+            }
+        }
+    }
+
+    private void addTerm(String term, int doc) {
+        Integer id = termIds.get(term);
+        if (id == null) {
+            id = terms.size();
+            terms.add(term);
+            termIds.put(term, id);
+            docsByTerm.add(new IntList());
+
+            List<String> grams = new ArrayList<>();
+            distinctTrigrams(term, grams);
+            gramCounts.add(grams.size());
+            for (String gram : grams) {
+                String key = gramKey(gram, term.length());
+                IntList termsWithGram = termsByTrigram.get(key);
+                if (termsWithGram == null) {
+                    termsWithGram = new IntList();
+                    termsByTrigram.put(key, termsWithGram);
+                }
+                termsWithGram.add(id);
+            }
+        }
+
+        // A recipe's words are all added together, so a repeat is always at the end
+        IntList docs = docsByTerm.get(id);
+        if (docs.size == 0 || docs.items[docs.size - 1] != doc) {
+            docs.add(doc);
+        }
+    }
+
+    /**
+     * Makes sure the reused arrays are big enough for every word and recipe
+     */
+    private void ensureScratchSpace() {
+        if (sharedTrigrams.length < terms.size()) {
+            sharedTrigrams = Arrays.copyOf(sharedTrigrams, terms.size() * 2);
+        }
+        if (wordDistance.length < recipeIds.size()) {
+            int oldLength = wordDistance.length;
+            int newLength = recipeIds.size() * 2;
+            wordDistance = Arrays.copyOf(wordDistance, newLength);
+            Arrays.fill(wordDistance, oldLength, newLength, Integer.MAX_VALUE);
+            totalDistance = Arrays.copyOf(totalDistance, newLength);
+            wordsMatched = Arrays.copyOf(wordsMatched, newLength);
+        }
+    }
+
+    /**
+     * Starts again with just the recipes that are left, so removed ones stop taking up space
+     */
+    private void compact() {
+        List<String> keptIds = new ArrayList<>(docsByRecipeId.size());
+        List<String> keptNames = new ArrayList<>(docsByRecipeId.size());
+        for (int doc = live.nextSetBit(0); doc >= 0; doc = live.nextSetBit(doc + 1)) {
+            keptIds.add(recipeIds.get(doc));
+            keptNames.add(names.get(doc));
+        }
+        clear();
+        for (int i = 0; i < keptIds.size(); i++) {
+            put(keptIds.get(i), keptNames.get(i));
+        }
+    }
+
+    /**
+     * How many mistakes a typed word of this length may have
+     */
+    static int maxEditsFor(int length) {
+        if (length <= 2) {
+            return 0;
+        } else if (length <= 5) {
+            return 1;
+        }
+        return 2;
+    }
+
+    /**
+     * Where the words of one length with this trigram are listed (a trigram is
+     * always three letters, so the length that follows can't be mistaken for it)
+     */
+    private static String gramKey(String gram, int length) {
+        return gram + length;
+    }
+
+    /**
+     * The different trigrams in a word, with "$$" added at both ends so the
+     * first and last letters count as much as the middle ones
+     */
+    static void distinctTrigrams(String word, List<String> out) {
+        out.clear();
+        String padded = PADDING + word + PADDING;
+        for (int i = 0; i + GRAM_SIZE <= padded.length(); i++) {
+            String gram = padded.substring(i, i + GRAM_SIZE);
+            if (!out.contains(gram)) {
+                out.add(gram);
+            }
+        }
+    }
+
+    /**
+     * Counts the fewest single-letter inserts, deletes and swaps that turn a into b
+     *
+     * Only the cells within maxDistance of the diagonal are worked out, and it
+     * stops as soon as every path is over the limit.
+     * @return The distance, or maxDistance + 1 if it's more than maxDistance
+     */
+    static int editDistance(String a, String b, int maxDistance) {
+        int n = a.length();
+        int m = b.length();
+        int tooFar = maxDistance + 1;
+        if (Math.abs(n - m) > maxDistance) {
+            return tooFar;
+        }
+
+        int[] previous = new int[m + 2];
+        int[] current = new int[m + 2];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = Math.min(j, tooFar);
+        }
+        previous[m + 1] = tooFar;
+
+        for (int i = 1; i <= n; i++) {
+            int from = Math.max(1, i - maxDistance);
+            int to = Math.min(m, i + maxDistance);
+            current[from - 1] = from == 1 ? Math.min(i, tooFar) : tooFar;
+            int rowBest = current[from - 1];
+
+            char ac = a.charAt(i - 1);
+            for (int j = from; j <= to; j++) {
+                int substitute = previous[j - 1] + (ac == b.charAt(j - 1) ? 0 : 1);
+                int delete = previous[j] + 1;
+                int insert = current[j - 1] + 1;
+                int best = Math.min(substitute, Math.min(delete, insert));
+                current[j] = Math.min(best, tooFar);
+                rowBest = Math.min(rowBest, current[j]);
+            }
+            if (to < m) {
+                current[to + 1] = tooFar;
+            }
+            if (rowBest > maxDistance) {
+                return tooFar;
+            }
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[m];
+    }
+}
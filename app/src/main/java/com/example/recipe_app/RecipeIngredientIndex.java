@@ -0,0 +1,406 @@
+/**
+ * RecipeIngredientIndex - Answers "What Can I Cook With What I've Got?"
+ *
+ * Give it the ingredients someone has (typed in, or spotted by the camera)
+ * and it finds the recipes they can make most of. Recipes are ranked by:
+ * 1. How much of the ingredient list they already have (3 of 4 beats 3 of 6)
+ * 2. How few ingredients are missing
+ *
+ * Ingredient lines are tidied up before they're compared, so "200g chopped
+ * tomatoes" and "Tomato" both become "tomato": amounts, units and words like
+ * "chopped" or "fresh" are dropped and plurals are made singular. A line
+ * counts as covered when it contains every word of something the user has,
+ * so "chicken" covers "2 chicken breasts". Lines that are only salt, pepper
+ * or water don't count, since everyone has those.
+ *
+ * For every ingredient word the index keeps a list of the recipes (and which
+ * of their lines) use it, so only recipes sharing an ingredient are looked
+ * at. Only the best few are kept while ranking (in a small heap), instead of
+ * sorting every recipe.
+ *
+ * Only the first 64 ingredient lines of a recipe are looked at. Safe to use
+ * from any thread. This class doesn't use any Android code, so it can be
+ * tested on a computer.
+ */
+package com.example.recipe_app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+public class RecipeIngredientIndex {
+    // Each line's number has to fit in a 64-bit mask
+    static final int MAX_LINES = 64;
+    private static final int LINE_BITS = 6;
+
+    // Don't bother tidying up until at least this many recipes have been removed
+    private static final int COMPACT_MIN_REMOVED = 1024;
+
+    // Words that say how much or how it's prepared, not what it is
+    private static final Set<String> IGNORED_WORDS = new HashSet<>(Arrays.asList(
+        "g", "kg", "mg", "ml", "l", "oz", "lb", "lbs", "cup", "tbsp", "tsp", "tablespoon", "teaspoon",
+        "pinch", "dash", "handful", "can", "tin", "pack", "packet", "slice", "piece", "bunch",
+        "clove", "sprig", "stick", "of", "and", "or", "to", "a", "an", "the", "for", "taste",
+        "chopped", "diced", "sliced", "minced", "grated", "crushed", "peeled", "fresh", "freshly",
+        "ground", "large", "small", "medium", "finely", "roughly", "thinly", "optional", "about",
+        "cooked", "raw", "frozen", "dried", "whole", "halved", "beaten", "melted", "softened"));
+
+    // Everyone has these, so a line that's only these is left out of the count
+    private static final Set<String> STAPLES = new HashSet<>(Arrays.asList("salt", "pepper", "water"));
+
+    /**
+     * One recipe in the results
+     */
+    public static class Match {
+        public final String recipeId;
+        public final int matchedCount;      // Ingredient lines the user has
+        public final int ingredientCount;   // Ingredient lines that count (staples left out)
+        final int doc;
+
+        Match(String recipeId, int matchedCount, int ingredientCount, int doc) {
+            this.recipeId = recipeId;
+            this.matchedCount = matchedCount;
+            this.ingredientCount = ingredientCount;
+            this.doc = doc;
+        }
+
+        public int getMissingCount() {
+            return ingredientCount - matchedCount;
+        }
+
+        /**
+         * How much of the recipe is covered, from 0 to 1
+         */
+        public double getCoverage() {
+            return ingredientCount == 0 ? 0 : (double) matchedCount / ingredientCount;
+        }
+    }
+
+    /**
+     * A growing list of numbers
+     */
+    private static class IntList {
+        int[] items = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = value;
+        }
+    }
+
+    // Every ingredient word we know, and (recipe number, line number) pairs packed into one int
+    private final Map<String, Integer> wordIds = new HashMap<>();
+    private final List<IntList> linesByWord = new ArrayList<>();
+
+    // Each recipe gets a number when it's added
+    private final List<String> recipeIds = new ArrayList<>();   // null once removed
+    private final List<int[][]> recipeLines = new ArrayList<>(); // Word numbers on each counted line
+    private final Map<String, Integer> docsByRecipeId = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private int removedCount = 0;
+
+    // Reused by every search: which lines of each recipe are covered
+    private long[] coveredLines = new long[0];
+    private final IntList touchedDocs = new IntList();
+
+    /**
+     * Builds an index of all the given recipes (do this on a background thread)
+     */
+    public static RecipeIngredientIndex build(Collection<Recipe> recipes) {
+        RecipeIngredientIndex index = new RecipeIngredientIndex();
+        index.addRecipes(recipes);
+        return index;
+    }
+
+    /**
+     * Adds a recipe, or updates it if it's already in the index
+     */
+    public synchronized void add(Recipe recipe) {
+        String recipeId = recipe.getId();
+        if (recipeId == null) {
+            return;
+        }
+        remove(recipeId);
+
+        List<int[]> lines = new ArrayList<>();
+        if (recipe.getIngredients() != null) {
+            for (String ingredient : recipe.getIngredients()) {
+                if (lines.size() == MAX_LINES) {
+                    break;
+                }
+                List<String> words = normalise(ingredient);
+                if (words.isEmpty() || STAPLES.containsAll(words)) {
+                    continue;
+                }
+                int[] wordNumbers = new int[words.size()];
+                for (int i = 0; i < words.size(); i++) {
+                    wordNumbers[i] = wordIdFor(words.get(i));
+                }
+                lines.add(wordNumbers);
+            }
+        }
+        addDoc(recipeId, lines.toArray(new int[0][]));
+    }
+
+    public synchronized void addRecipes(Collection<Recipe> recipes) {
+        for (Recipe recipe : recipes) {
+            add(recipe);
+        }
+    }
+
+    /**
+     * Takes a recipe out of the index (does nothing if it isn't there)
+     */
+    public synchronized void remove(String recipeId) {
+        Integer doc = docsByRecipeId.remove(recipeId);
+        if (doc == null) {
+            return;
+        }
+        live.clear(doc);
+        recipeIds.set(doc, null);
+        recipeLines.set(doc, null);
+        removedCount++;
+        if (removedCount >= COMPACT_MIN_REMOVED && removedCount > docsByRecipeId.size()) {
+            compact();
+        }
+    }
+
+    public synchronized int size() {
+        return docsByRecipeId.size();
+    }
+
+    /**
+     * Finds the recipes that make the most of the given ingredients
+     *
+     * Recipes that don't use any of them aren't included.
+     * @param available What the user has, e.g. "Tomatoes", "chicken", "olive oil"
+     * @param limit Most results to return
+     * @return The best matches, best first
+     */
+    public synchronized List<Match> findRecipes(Collection<String> available, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        if (coveredLines.length < recipeIds.size()) {
+            coveredLines = new long[recipeIds.size() * 2];
+        }
+
+        // Mark every line that something the user has covers
+        for (String ingredient : available) {
+            int[] words = knownWordIds(normalise(ingredient));
+            if (words == null) {
+                continue;
+            }
+            // Walk the rarest word's list and check the line has the other words too
+            IntList rarest = linesByWord.get(words[0]);
+            for (int word : words) {
+                if (linesByWord.get(word).size < rarest.size) {
+                    rarest = linesByWord.get(word);
+                }
+            }
+            for (int i = 0; i < rarest.size; i++) {
+                int doc = rarest.items[i] >>> LINE_BITS;
+                int line = rarest.items[i] & (MAX_LINES - 1);
+                if (!live.get(doc) || (words.length > 1 && !lineHasAll(recipeLines.get(doc)[line], words))) {
+                    continue;
+                }
+                if (coveredLines[doc] == 0) {
+                    touchedDocs.add(doc);
+                }
+                coveredLines[doc] |= 1L << line;
+            }
+        }
+
+        // Keep only the best few; the worst of them sits on top of the heap, ready to be replaced
+        PriorityQueue<Match> best = new PriorityQueue<>(limit, (a, b) -> compare(b, a));
+        for (int i = 0; i < touchedDocs.size; i++) {
+            int doc = touchedDocs.items[i];
+            int matched = Long.bitCount(coveredLines[doc]);
+            int total = recipeLines.get(doc).length;
+            coveredLines[doc] = 0;
+
+            if (best.size() < limit) {
+                best.add(new Match(recipeIds.get(doc), matched, total, doc));
+            } else if (isBetter(matched, total, doc, best.peek())) {
+                best.poll();
+                best.add(new Match(recipeIds.get(doc), matched, total, doc));
+            }
+        }
+        touchedDocs.size = 0;
+
+        List<Match> results = new ArrayList<>(best);
+        Collections.sort(results, RecipeIngredientIndex::compare);
+        return results;
+    }
+
+    /**
+     * Orders matches best first: more coverage, then fewer missing, then the order they were added
+     */
+    private static int compare(Match a, Match b) {
+        if (a == b) {
+            return 0;
+        }
+        return isBetter(a.matchedCount, a.ingredientCount, a.doc, b) ? -1 : 1;
+    }
+
+    private static boolean isBetter(int matched, int total, int doc, Match other) {
+        // matched / total against other's, without dividing
+        long ours = (long) matched * other.ingredientCount;
+        long theirs = (long) other.matchedCount * total;
+        if (ours != theirs) {
+            return ours > theirs;
+        }
+        int missing = total - matched;
+        if (missing != other.getMissingCount()) {
+            return missing < other.getMissingCount();
+        }
+        return doc < other.doc;
+    }
+
+    private static boolean lineHasAll(int[] line, int[] words) {
+        for (int word : words) {
+            boolean found = false;
+            for (int lineWord : line) {
+                if (lineWord == word) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addDoc(String recipeId, int[][] lines) {
+        int doc = recipeIds.size();
+        recipeIds.add(recipeId);
+        recipeLines.add(lines);
+        docsByRecipeId.put(recipeId, doc);
+        live.set(doc);
+
+        for (int line = 0; line < lines.length; line++) {
+            int packed = (doc << LINE_BITS) | line;
+            for (int word : lines[line]) {
+                IntList list = linesByWord.get(word);
+                // The same word twice on a line only needs listing once
+                if (list.size == 0 || list.items[list.size - 1] != packed) {
+                    list.add(packed);
+                }
+            }
+        }
+    }
+
+    private int wordIdFor(String word) {
+        Integer id = wordIds.get(word);
+        if (id == null) {
+            id = linesByWord.size();
+            wordIds.put(word, id);
+            linesByWord.add(new IntList());
+        }
+        return id;
+    }
+
+    /**
+     * The word numbers for an ingredient, or null if it's empty or uses a word no recipe has
+     */
+    private int[] knownWordIds(List<String> words) {
+        if (words.isEmpty()) {
+            return null;
+        }
+        int[] ids = new int[words.size()];
+        for (int i = 0; i < words.size(); i++) {
+            Integer id = wordIds.get(words.get(i));
+            if (id == null) {
+                return null;
+            }
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Starts again with just the recipes that are left, so removed ones stop taking up space
+     */
+    private void compact() {
+        List<String> keptIds = new ArrayList<>(docsByRecipeId.size());
+        List<int[][]> keptLines = new ArrayList<>(docsByRecipeId.size());
+        for (int doc = live.nextSetBit(0); doc >= 0; doc = live.nextSetBit(doc + 1)) {
+            keptIds.add(recipeIds.get(doc));
+            keptLines.add(recipeLines.get(doc));
+        }
+
+        // Word numbers stay the same; only the recipe numbers change
+        for (IntList list : linesByWord) {
+            list.size = 0;
+        }
+        recipeIds.clear();
+        recipeLines.clear();
+        docsByRecipeId.clear();
+        live.clear();
+        removedCount = 0;
+        for (int i = 0; i < keptIds.size(); i++) {
+            addDoc(keptIds.get(i), keptLines.get(i));
+        }
+    }
+
+    /**
+     * Tidies an ingredient into the words that say what it is
+     *
+     * "200g Chopped Tomatoes" becomes [tomato], "2 chicken breasts" becomes
+     * [chicken, breast]. Amounts, units and preparation words are dropped and
+     * plurals are made singular.
+     */
+    static List<String> normalise(String ingredient) {
+        List<String> words = new ArrayList<>();
+        for (String word : RecipeSearchIndex.tokenize(ingredient)) {
+            if (hasDigit(word)) {
+                continue;
+            }
+            word = singular(word);
+            if (!IGNORED_WORDS.contains(word) && !words.contains(word)) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static boolean hasDigit(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.isDigit(word.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A simple guess at the singular of an English word (good enough for ingredients)
+     */
+    static String singular(String word) {
+        int length = word.length();
+        if (length > 4 && word.endsWith("ies")) {
+            return word.substring(0, length - 3) + "y";        // berries -> berry
+        }
+        if (length > 4 && (word.endsWith("oes") || word.endsWith("ches")
+                || word.endsWith("shes") || word.endsWith("sses") || word.endsWith("xes"))) {
+            return word.substring(0, length - 2);              // tomatoes -> tomato, peaches -> peach
+        }
+        if (length > 3 && word.endsWith("s") && !word.endsWith("ss") && !word.endsWith("us")) {
+            return word.substring(0, length - 1);              // onions -> onion
+        }
+        return word;
+    }
+}
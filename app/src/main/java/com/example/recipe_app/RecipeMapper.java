@@ -0,0 +1,97 @@
+/**
+ * RecipeMapper - Turns Database Fields Into Recipes
+ *
+ * Firebase hands us each document as a map of field names to values. This
+ * class reads those maps and builds Recipe and RecipeSummary objects.
+ *
+ * It's kept separate from FirebaseManager for two reasons:
+ * - It doesn't touch any Android or Firebase classes, so it's safe to run on
+ *   a background thread and easy to test and time on a computer
+ * - Reading the whole map once is cheaper than asking the document for each
+ *   field one at a time
+ */
+package com.example.recipe_app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public final class RecipeMapper {
+    private RecipeMapper() {}
+
+    /**
+     * Builds a full recipe from a recipe document's fields
+     * @param id The document's ID
+     * @param data The document's fields (from DocumentSnapshot.getData)
+     */
+    public static Recipe fromMap(String id, Map<String, Object> data) {
+        if (data == null) {
+            data = Collections.emptyMap();
+        }
+
+        // This constructor takes the ID, so we don't waste time making a random one
+        Recipe recipe = new Recipe(id, asString(data.get("name")), asString(data.get("description")),
+            asInt(data.get("prepTime"), 0), asInt(data.get("cookTime"), 0),
+            asString(data.get("imageUrl")), Collections.emptyList());
+        recipe.setServings(asInt(data.get("servings"), 4));
+        recipe.setIngredients(asStringList(data.get("ingredients")));
+        recipe.setInstructions(asStringList(data.get("instructions")));
+        recipe.setDifficulty(asString(data.get("difficulty")));
+        recipe.setCuisine(asString(data.get("cuisine")));
+        recipe.setCategory(asString(data.get("category")));
+        recipe.setRating(asDouble(data.get("rating"), 0.0));
+        recipe.setDietaryTags(asStringList(data.get("dietaryTags")));
+        return recipe;
+    }
+
+    /**
+     * Builds a recipe summary from a summary document's fields
+     */
+    public static RecipeSummary summaryFromMap(String id, Map<String, Object> data) {
+        if (data == null) {
+            data = Collections.emptyMap();
+        }
+
+        RecipeSummary summary = new RecipeSummary();
+        summary.setId(id);
+        summary.setName(asString(data.get("name")));
+        summary.setDescription(asString(data.get("description")));
+        summary.setImageUrl(asString(data.get("imageUrl")));
+        summary.setPrepTime(asInt(data.get("prepTime"), 0));
+        summary.setCookTime(asInt(data.get("cookTime"), 0));
+        summary.setDifficulty(asString(data.get("difficulty")));
+        summary.setCuisine(asString(data.get("cuisine")));
+        summary.setCategory(asString(data.get("category")));
+        summary.setRating(asDouble(data.get("rating"), 0.0));
+        summary.setDietaryTags(asStringList(data.get("dietaryTags")));
+        return summary;
+    }
+
+    private static String asString(Object value) {
+        return value instanceof String ? (String) value : null;
+    }
+
+    private static int asInt(Object value, int fallback) {
+        // Firebase gives whole numbers back as Long
+        return value instanceof Number ? ((Number) value).intValue() : fallback;
+    }
+
+    private static double asDouble(Object value, double fallback) {
+        return value instanceof Number ? ((Number) value).doubleValue() : fallback;
+    }
+
+    private static List<String> asStringList(Object value) {
+        if (!(value instanceof List<?>)) {
+            return new ArrayList<>();
+        }
+        List<?> items = (List<?>) value;
+        List<String> strings = new ArrayList<>(items.size());
+        for (Object item : items) {
+            if (item instanceof String) {
+                strings.add((String) item);
+            }
+        }
+        return strings;
+    }
+}
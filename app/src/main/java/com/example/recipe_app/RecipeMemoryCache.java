@@ -0,0 +1,224 @@
+/**
+ * RecipeMemoryCache - Recipes We've Just Seen, Kept in Memory
+ *
+ * When one screen has just loaded a recipe, the next screen shouldn't have
+ * to ask Firebase for it again. This cache remembers recently loaded recipes
+ * so FirebaseManager can hand them straight back.
+ *
+ * To stop it using too much memory it:
+ * - Holds at most a fixed number of recipes
+ * - Holds at most a rough number of bytes (long recipes count for more)
+ * - Forgets recipes after a while so we don't show stale data forever
+ * - Removes the least recently used recipe first when it's full
+ *
+ * It also counts hits, misses and removals so we can see how well it's working.
+ */
+package com.example.recipe_app;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RecipeMemoryCache {
+    // One remembered recipe
+    private static class Entry {
+        final Recipe recipe;
+        final long weight;   // Rough size in bytes
+        final long storedAt; // When it was put in the cache
+
+        Entry(Recipe recipe, long weight, long storedAt) {
+            this.recipe = recipe;
+            this.weight = weight;
+            this.storedAt = storedAt;
+        }
+    }
+
+    /**
+     * A snapshot of how the cache is doing
+     */
+    public static class Stats {
+        public final long hits;         // Times we had the recipe
+        public final long misses;       // Times we didn't (including expired ones)
+        public final long evictions;    // Recipes removed to make room
+        public final long expirations;  // Recipes removed because they were too old
+        public final int size;          // Recipes in the cache right now
+        public final long weightBytes;  // Rough bytes used right now
+
+        Stats(long hits, long misses, long evictions, long expirations, int size, long weightBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+            this.size = size;
+            this.weightBytes = weightBytes;
+        }
+
+        public double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " evictions=" + evictions
+                + " expirations=" + expirations + " size=" + size + " bytes=" + weightBytes;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxWeightBytes;
+    private final long ttlMillis;
+
+    // In access order, so the first entry is always the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+
+    /**
+     * Creates a cache with the given limits
+     * @param maxEntries Most recipes to hold at once
+     * @param maxWeightBytes Most (rough) bytes to hold at once
+     * @param ttlMillis How long a recipe stays fresh
+     */
+    public RecipeMemoryCache(int maxEntries, long maxWeightBytes, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.maxWeightBytes = maxWeightBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Gets a recipe if we have a fresh copy, or null if not
+     */
+    public synchronized Recipe get(String recipeId) {
+        Entry entry = entries.get(recipeId);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (isExpired(entry, System.currentTimeMillis())) {
+            removeEntry(recipeId, entry);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.recipe;
+    }
+
+    /**
+     * Remembers a recipe, replacing any older copy
+     */
+    public synchronized void put(Recipe recipe) {
+        if (recipe == null || recipe.getId() == null) {
+            return;
+        }
+        long weight = estimateBytes(recipe);
+        if (weight > maxWeightBytes) {
+            // Too big to ever fit, so don't push everything else out for it
+            return;
+        }
+
+        Entry old = entries.remove(recipe.getId());
+        if (old != null) {
+            totalWeight -= old.weight;
+        }
+        entries.put(recipe.getId(), new Entry(recipe, weight, System.currentTimeMillis()));
+        totalWeight += weight;
+        trimToLimits();
+    }
+
+    /**
+     * Remembers a whole list of recipes
+     */
+    public void putAll(List<Recipe> recipes) {
+        for (Recipe recipe : recipes) {
+            put(recipe);
+        }
+    }
+
+    /**
+     * Forgets one recipe (for example after it was deleted)
+     */
+    public synchronized void invalidate(String recipeId) {
+        Entry entry = entries.get(recipeId);
+        if (entry != null) {
+            removeEntry(recipeId, entry);
+        }
+    }
+
+    /**
+     * Forgets everything
+     */
+    public synchronized void clear() {
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, expirations, entries.size(), totalWeight);
+    }
+
+    private void trimToLimits() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && (entries.size() > maxEntries || totalWeight > maxWeightBytes)) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            totalWeight -= eldest.weight;
+            if (isExpired(eldest, now)) {
+                expirations++;
+            } else {
+                evictions++;
+            }
+        }
+    }
+
+    private void removeEntry(String recipeId, Entry entry) {
+        entries.remove(recipeId);
+        totalWeight -= entry.weight;
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.storedAt > ttlMillis;
+    }
+
+    /**
+     * Works out roughly how many bytes a recipe takes up in memory
+     *
+     * This doesn't need to be exact, just big for long recipes and small for short ones.
+     */
+    static long estimateBytes(Recipe recipe) {
+        long bytes = 96; // The recipe object itself and its number fields
+        bytes += stringBytes(recipe.getId());
+        bytes += stringBytes(recipe.getName());
+        bytes += stringBytes(recipe.getDescription());
+        bytes += stringBytes(recipe.getImageUrl());
+        bytes += stringBytes(recipe.getCuisine());
+        bytes += stringBytes(recipe.getCategory());
+        bytes += stringBytes(recipe.getUserId());
+        bytes += listBytes(recipe.getIngredients());
+        bytes += listBytes(recipe.getInstructions());
+        bytes += listBytes(recipe.getDietaryTags());
+        return bytes;
+    }
+
+    private static long stringBytes(String text) {
+        return text == null ? 0 : 40 + 2L * text.length();
+    }
+
+    private static long listBytes(List<String> list) {
+        if (list == null) {
+            return 0;
+        }
+        long bytes = 40;
+        for (String item : list) {
+            bytes += 8 + stringBytes(item);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * RecipePage - One Page of Recipes From the Catalog
+ * 
+ * Instead of downloading every recipe at once, the catalog is read a page
+ * at a time. Each page remembers where it stopped so the next page can
+ * pick up right after it.
+ * 
+ * A page can hold full recipes (RecipePage<Recipe>) or just the short
+ * versions used by list screens (RecipePage<RecipeSummary>).
+ */
+package com.example.recipe_app;
+
+import java.util.List;
+
+public class RecipePage<T> {
+    private final List<T> recipes;              // The recipes on this page
+    private final String lastRecipeId;          // Where this page stopped (used to ask for the next one)
+    private final boolean hasMore;              // Whether there might be more pages after this one
+
+    /**
+     * Creates a new page of recipes
+     */
+    public RecipePage(List<T> recipes, String lastRecipeId, boolean hasMore) {
+        this.recipes = recipes;
+        this.lastRecipeId = lastRecipeId;
+        this.hasMore = hasMore;
+    }
+
+    public List<T> getRecipes() { return recipes; }
+
+    /**
+     * Gets the cursor to pass back in when asking for the next page
+     */
+    public String getLastRecipeId() { return lastRecipeId; }
+
+    public boolean hasMore() { return hasMore; }
+}
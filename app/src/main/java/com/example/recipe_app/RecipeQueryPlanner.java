@@ -0,0 +1,208 @@
+/**
+ * RecipeQueryPlanner - Decides Where a Filtered Recipe List Comes From
+ *
+ * When chips or the cooking time slider are set, there are three ways to get
+ * the next page of matching recipes:
+ * - LOCAL: the whole catalog is already saved on the phone (it has been
+ *   synced), so the saved copy is searched and Firebase isn't asked at all
+ * - CATALOG: no filters are set, so it's just the next page of the catalog
+ * - NARROWED: Firebase is asked only for the matching recipes, using
+ *   "equals" clauses for cuisine, category and difficulty and an "at most"
+ *   clause on the stored totalTime field
+ *
+ * Without the narrowed query, a rare filter means downloading page after
+ * page of recipes that are then thrown away on the phone.
+ *
+ * The narrowed query reads the "recipe_summaries" collection. Firebase needs a
+ * composite index for every mix of "equals" fields with the time limit; they
+ * are listed in firestore.indexes.json, with the fields always in the order
+ * cuisine, category, difficulty, totalTime. Summaries written before totalTime
+ * was stored don't have it, so they'd never match an "at most" clause; until
+ * every summary has it (see FirebaseManager.migrateCatalogIfNeeded), plans
+ * leave the time clause out and the screen checks the time itself.
+ *
+ * Each plan pages in its own order (by ID, or by time then ID), so a page
+ * cursor only makes sense with the plan that made it. Keep the plan until the
+ * filters change. The answers can include more than asked for (the screen
+ * still checks every filter itself), but never less.
+ *
+ * This class doesn't use any Android code, so it can be tested on a computer.
+ */
+package com.example.recipe_app;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+public class RecipeQueryPlanner {
+    // Means "no time limit" for Filters.maxTotalTime
+    public static final int NO_TIME_LIMIT = Integer.MAX_VALUE;
+
+    // The stored field that holds prep time + cook time, in minutes
+    public static final String FIELD_TOTAL_TIME = "totalTime";
+
+    // Separates the time from the ID in cursors for time-ordered plans (IDs can't contain a /)
+    private static final char CURSOR_SEPARATOR = '/';
+
+    /**
+     * Where a plan's recipes come from
+     */
+    public enum Source {
+        LOCAL,      // The catalog saved on the phone
+        CATALOG,    // The next page of the whole catalog
+        NARROWED    // A Firebase query for just the matching recipes
+    }
+
+    /**
+     * The filters that are set; an empty string means "any"
+     */
+    public static class Filters {
+        public final String cuisine;
+        public final String category;
+        public final String difficulty;
+        public final int maxTotalTime;  // Minutes, or NO_TIME_LIMIT
+
+        public Filters(String cuisine, String category, String difficulty, int maxTotalTime) {
+            this.cuisine = cuisine != null ? cuisine : "";
+            this.category = category != null ? category : "";
+            this.difficulty = difficulty != null ? difficulty : "";
+            this.maxTotalTime = maxTotalTime;
+        }
+
+        /**
+         * Whether every recipe passes these filters
+         */
+        public boolean isEmpty() {
+            return cuisine.isEmpty() && category.isEmpty() && difficulty.isEmpty()
+                && maxTotalTime == NO_TIME_LIMIT;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Filters)) {
+                return false;
+            }
+            Filters that = (Filters) other;
+            return cuisine.equals(that.cuisine) && category.equals(that.category)
+                && difficulty.equals(that.difficulty) && maxTotalTime == that.maxTotalTime;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(cuisine, category, difficulty, maxTotalTime);
+        }
+    }
+
+    /**
+     * What to ask for, and how to page through it
+     */
+    public static class Plan {
+        public final Source source;
+        public final Filters filters;
+        private final Map<String, String> equalities;  // Field name -> value, in index order
+        private final boolean timeClause;              // Whether a narrowed query uses the time limit
+
+        private Plan(Source source, Filters filters, Map<String, String> equalities, boolean timeClause) {
+            this.source = source;
+            this.filters = filters;
+            this.equalities = Collections.unmodifiableMap(equalities);
+            this.timeClause = timeClause;
+        }
+
+        /**
+         * The "equals" clauses for a narrowed query, in the order the indexes list them
+         */
+        public Map<String, String> getEqualities() {
+            return equalities;
+        }
+
+        /**
+         * Whether a narrowed query has an "at most" clause on totalTime
+         *
+         * Firebase then has to sort by totalTime first, so the cursor holds
+         * the time as well as the ID.
+         */
+        public boolean hasTimeLimit() {
+            return source == Source.NARROWED && timeClause && filters.maxTotalTime != NO_TIME_LIMIT;
+        }
+
+        /**
+         * The cursor for the page that ended with this recipe
+         */
+        public String cursorAfter(RecipeSummary last) {
+            return cursorAfter((long) last.getPrepTime() + last.getCookTime(), last.getId());
+        }
+
+        /**
+         * The cursor for the page that ended with this recipe, using its stored totalTime
+         */
+        public String cursorAfter(Long totalTime, String recipeId) {
+            if (!hasTimeLimit()) {
+                return recipeId;
+            }
+            return (totalTime != null ? totalTime : 0L) + "" + CURSOR_SEPARATOR + recipeId;
+        }
+
+        /**
+         * The values to start after for a cursor from cursorAfter(): the ID,
+         * or the time and the ID for plans with a time limit
+         */
+        public Object[] startAfterValues(String cursor) {
+            if (!hasTimeLimit()) {
+                return new Object[]{cursor};
+            }
+            int separator = cursor.indexOf(CURSOR_SEPARATOR);
+            if (separator < 0) {
+                throw new IllegalArgumentException("Not a cursor for this plan: " + cursor);
+            }
+            return new Object[]{
+                Long.parseLong(cursor.substring(0, separator)),
+                cursor.substring(separator + 1)
+            };
+        }
+    }
+
+    private RecipeQueryPlanner() {
+    }
+
+    /**
+     * A plan that pages through the whole catalog whatever the filters
+     *
+     * For when a narrowed query can't be run; the screen filters the pages itself.
+     */
+    public static Plan catalog(Filters filters) {
+        return new Plan(Source.CATALOG, filters, new LinkedHashMap<>(), false);
+    }
+
+    /**
+     * Picks where the recipes for these filters should come from
+     * @param localCatalogReady Whether the whole catalog is saved on the phone and has been synced
+     * @param totalTimeStored Whether every summary in Firebase has a totalTime field
+     */
+    public static Plan plan(Filters filters, boolean localCatalogReady, boolean totalTimeStored) {
+        Map<String, String> equalities = new LinkedHashMap<>();
+        if (filters.isEmpty()) {
+            // Every recipe matches, so there's nothing to narrow
+            return catalog(filters);
+        }
+        if (localCatalogReady) {
+            return new Plan(Source.LOCAL, filters, equalities, false);
+        }
+
+        if (!filters.cuisine.isEmpty()) {
+            equalities.put("cuisine", filters.cuisine);
+        }
+        if (!filters.category.isEmpty()) {
+            equalities.put("category", filters.category);
+        }
+        if (!filters.difficulty.isEmpty()) {
+            equalities.put("difficulty", filters.difficulty);
+        }
+        if (equalities.isEmpty() && !totalTimeStored) {
+            // Only the time is set, and it can't be asked for yet
+            return catalog(filters);
+        }
+        return new Plan(Source.NARROWED, filters, equalities, totalTimeStored);
+    }
+}
@@ -1,7 +1,12 @@
 package com.example.recipe_app;
 
 import android.content.Intent;
+import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -20,20 +25,30 @@ import android.widget.AdapterView;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import androidx.core.app.ShareCompat;
+import androidx.core.widget.NestedScrollView;
+import androidx.cursoradapter.widget.SimpleCursorAdapter;
 import android.net.Uri;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Comparator;
-import java.util.stream.Collectors;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 import android.util.Log;
 
 public class RecipeRecommendationActivity extends AppCompatActivity implements RecipeAdapter.OnRecipeClickListener {
+    private static final String SUGGESTION_COLUMN = "suggestion";   // The text column in the search suggestions
     private RecyclerView recipeRecyclerView;
     private RecipeAdapter recipeAdapter;
     private ProgressBar progressBar;
-    private List<Recipe> allRecipes;
-    private List<Recipe> filteredRecipes;
+    private List<RecipeSummary> allRecipes;
+    private List<RecipeSummary> filteredRecipes;   // The matching recipes on screen (the first windowSize of them)
+    private int matchingCount = 0;                 // How many loaded recipes match in total
+    private int windowSize;                        // How many matching recipes to show before scrolling further
     private ChipGroup cuisineFilterChips;
     private ChipGroup difficultyFilterChips;
     private SearchView searchView;
@@ -41,6 +56,15 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
     private String currentCuisineFilter = "";
     private String currentDifficultyFilter = "";
     private String currentSearchQuery = "";
+    private final RecipeFacetTable facetTable = new RecipeFacetTable();   // allRecipes as columns, for the chips and slider
+    private RecipeFacetTable.FacetCounts facetCounts;                      // How many recipes each chip would show
+    private final RecipeSearchIndex searchIndex = new RecipeSearchIndex(); // Word index of the loaded recipes
+    private Set<String> searchMatches = null;  // IDs matching the search box (null when it's empty)
+    private String matchedQuery = "";          // The search searchMatches is for
+    private SearchPipeline<Set<String>> searchPipeline;  // Looks up the search box in the background
+    // searchIndex is updated here, one job at a time, so loading pages never waits for it
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private ChipGroup categoryFilterChips;
     private SeekBar cookingTimeSeekBar;
     private TextView cookingTimeText;
@@ -48,6 +72,22 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
     private String currentCategory = "";
     private int currentMaxCookingTime = maxCookingTime;
 
+    // Paging through the recipe catalog
+    private NestedScrollView recipeScrollView;
+    private int pageSize;                  // How many recipes to load per page
+    private int prefetchDistance;          // Load the next page when this many rows from the end
+    private String lastPageCursor;         // Where the last loaded page stopped
+    private int pagesLoaded = 0;
+    private List<RecipeSummary> firstPageRecipes = new ArrayList<>(); // Kept so a refreshed first page can replace it
+    private boolean hasMorePages = true;
+    private boolean isLoadingPage = false;
+    private final Set<String> loadedIds = new HashSet<>();   // So a recipe loaded by two kinds of page only shows once
+
+    // While filters are set, pages hold only matching recipes (see RecipeQueryPlanner)
+    private RecipeQueryPlanner.Plan queryPlan;   // For the current filters (CATALOG plans use lastPageCursor)
+    private String planCursor;                   // Where the last page for queryPlan stopped
+    private boolean planHasMore = true;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -99,9 +139,25 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
         categoryFilterChips = findViewById(R.id.categoryFilterChips);
         cookingTimeSeekBar = findViewById(R.id.cookingTimeSeekBar);
         cookingTimeText = findViewById(R.id.cookingTimeText);
+        recipeScrollView = findViewById(R.id.recipeScrollView);
     }
 
     private void setupSearchView() {
+        searchPipeline = new SearchPipeline<>("recommendations",
+            getResources().getInteger(R.integer.search_debounce_millis),
+            (query, cancellation) -> findSearchMatches(query),
+            (query, matches) -> {
+                boolean newQuery = !query.equals(matchedQuery);
+                searchMatches = matches;
+                matchedQuery = query;
+                if (newQuery) {
+                    filterRecipes();
+                } else {
+                    showNewMatches();
+                }
+            });
+
+        setupSearchSuggestions();
         searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
             @Override
             public boolean onQueryTextSubmit(String query) {
@@ -110,8 +166,48 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
 
             @Override
             public boolean onQueryTextChange(String newText) {
-                currentSearchQuery = newText.toLowerCase();
-                filterRecipes();
+                currentSearchQuery = newText;
+                searchPipeline.submit(newText);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Shows recipe, cuisine and ingredient suggestions under the search box (see RecipeSuggestions)
+     */
+    private void setupSearchSuggestions() {
+        RecipeSuggestions suggestions = RecipeSuggestions.getInstance(this);
+        SimpleCursorAdapter adapter = new SimpleCursorAdapter(this, android.R.layout.simple_dropdown_item_1line,
+            null, new String[]{SUGGESTION_COLUMN}, new int[]{android.R.id.text1}, 0);
+
+        // The search box asks for these on a background thread as the user types
+        adapter.setFilterQueryProvider(constraint -> {
+            MatrixCursor cursor = new MatrixCursor(new String[]{BaseColumns._ID, SUGGESTION_COLUMN});
+            if (constraint != null) {
+                int id = 0;
+                for (String suggestion : suggestions.suggest(constraint.toString())) {
+                    cursor.addRow(new Object[]{id++, suggestion});
+                }
+            }
+            return cursor;
+        });
+        searchView.setSuggestionsAdapter(adapter);
+
+        searchView.setOnSuggestionListener(new SearchView.OnSuggestionListener() {
+            @Override
+            public boolean onSuggestionSelect(int position) {
+                return false;
+            }
+
+            @Override
+            public boolean onSuggestionClick(int position) {
+                Cursor cursor = adapter.getCursor();
+                if (cursor != null && cursor.moveToPosition(position)) {
+                    // Searches through onQueryTextChange like typing it would
+                    searchView.setQuery(cursor.getString(cursor.getColumnIndexOrThrow(SUGGESTION_COLUMN)), false);
+                    searchView.clearFocus();
+                }
                 return true;
             }
         });
@@ -123,6 +219,7 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
         for (String cuisine : cuisines) {
             Chip chip = new Chip(this);
             chip.setText(cuisine);
+            chip.setTag(cuisine.equals("All") ? "" : cuisine);   // The filter value; the text also shows a count
             chip.setCheckable(true);
             chip.setChecked(cuisine.equals("All"));
             cuisineFilterChips.addView(chip);
@@ -130,7 +227,7 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
 
         cuisineFilterChips.setOnCheckedChangeListener((group, checkedId) -> {
             Chip chip = group.findViewById(checkedId);
-            currentCuisineFilter = chip != null ? (chip.getText().toString().equals("All") ? "" : chip.getText().toString()) : "";
+            currentCuisineFilter = chip != null ? (String) chip.getTag() : "";
             filterRecipes();
         });
 
@@ -139,6 +236,7 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
         for (String difficulty : difficulties) {
             Chip chip = new Chip(this);
             chip.setText(difficulty);
+            chip.setTag(difficulty.equals("All") ? "" : difficulty);   // The filter value; the text also shows a count
             chip.setCheckable(true);
             chip.setChecked(difficulty.equals("All"));
             difficultyFilterChips.addView(chip);
@@ -146,7 +244,7 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
 
         difficultyFilterChips.setOnCheckedChangeListener((group, checkedId) -> {
             Chip chip = group.findViewById(checkedId);
-            currentDifficultyFilter = chip != null ? (chip.getText().toString().equals("All") ? "" : chip.getText().toString()) : "";
+            currentDifficultyFilter = chip != null ? (String) chip.getTag() : "";
             filterRecipes();
         });
     }
@@ -160,7 +258,7 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
         sortSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                sortRecipes(position);
+                showWindow();
             }
 
             @Override
@@ -173,6 +271,7 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
         for (String category : categories) {
             Chip chip = new Chip(this);
             chip.setText(category);
+            chip.setTag(category.equals("All") ? "" : category);   // The filter value; the text also shows a count
             chip.setCheckable(true);
             chip.setChecked(category.equals("All"));
             categoryFilterChips.addView(chip);
@@ -180,7 +279,7 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
 
         categoryFilterChips.setOnCheckedChangeListener((group, checkedId) -> {
             Chip chip = group.findViewById(checkedId);
-            currentCategory = chip != null ? (chip.getText().toString().equals("All") ? "" : chip.getText().toString()) : "";
+            currentCategory = chip != null ? (String) chip.getTag() : "";
             filterRecipes();
         });
     }
@@ -219,80 +318,422 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
     }
 
     private void filterRecipes() {
-        filteredRecipes = allRecipes.stream()
-            .filter(recipe -> currentCuisineFilter.isEmpty() || 
-                    (recipe.getCuisine() != null && recipe.getCuisine().equals(currentCuisineFilter)))
-            .filter(recipe -> currentDifficultyFilter.isEmpty() || 
-                    (recipe.getDifficulty() != null && recipe.getDifficulty().equals(currentDifficultyFilter)))
-            .filter(recipe -> currentCategory.isEmpty() ||
-                    (recipe.getCategory() != null && recipe.getCategory().equals(currentCategory)))
-            .filter(recipe -> (recipe.getPrepTime() + recipe.getCookTime()) <= currentMaxCookingTime)
-            .filter(recipe -> currentSearchQuery.isEmpty() || 
-                    recipe.getName().toLowerCase().contains(currentSearchQuery) ||
-                    recipe.getDescription().toLowerCase().contains(currentSearchQuery) ||
-                    (recipe.getCuisine() != null && recipe.getCuisine().toLowerCase().contains(currentSearchQuery)))
-            .collect(Collectors.toList());
-
-        sortRecipes(sortSpinner.getSelectedItemPosition());
-    }
-
-    private void sortRecipes(int sortOption) {
-        switch (sortOption) {
-            case 1: // Rating (High to Low)
-                filteredRecipes.sort((r1, r2) -> Double.compare(r2.getRating(), r1.getRating()));
-                break;
-            case 2: // Time (Low to High)
-                filteredRecipes.sort(Comparator.comparingInt(r -> r.getPrepTime() + r.getCookTime()));
-                break;
-            case 3: // Name (A to Z)
-                filteredRecipes.sort(Comparator.comparing(Recipe::getName));
-                break;
+        // A new filter starts back at the top, so only the first screenful is needed
+        windowSize = pageSize + prefetchDistance;
+        showWindow();
+        if (updateQueryPlan()) {
+            // The new filters may not fill the screen from what's loaded
+            recipeRecyclerView.post(() -> maybeLoadNextPage());
+        }
+
+        facetCounts = facetTable.countFacets(currentCuisineFilter, currentDifficultyFilter,
+            currentCategory, currentMaxCookingTime, searchMatches);
+        updateChipCounts();
+    }
+
+    /**
+     * Shows on each chip how many recipes picking it would give
+     *
+     * The counts only cover the recipes loaded so far. Filtered pages (from a
+     * narrowed query or the saved catalog) bring just the recipes matching the
+     * current chips, so until the whole catalog has been paged in, the other
+     * chips may have more than they show; those counts get a "+" (like "Thai (3+)").
+     */
+    private void updateChipCounts() {
+        updateChipCounts(cuisineFilterChips, facetCounts::getCuisineCount);
+        updateChipCounts(difficultyFilterChips, facetCounts::getDifficultyCount);
+        updateChipCounts(categoryFilterChips, facetCounts::getCategoryCount);
+    }
+
+    private void updateChipCounts(ChipGroup group, ToIntFunction<String> countFor) {
+        String partial = hasMorePages ? "+" : "";  // Recipes not loaded yet may add to every count
+        for (int i = 0; i < group.getChildCount(); i++) {
+            Chip chip = (Chip) group.getChildAt(i);
+            String value = (String) chip.getTag();
+            String label = value.isEmpty() ? "All" : value;
+            chip.setText(label + " (" + countFor.applyAsInt(value) + partial + ")");
+        }
+    }
+
+    /**
+     * Plans how to load more recipes for the current filters, if they changed
+     *
+     * The slider at its highest means "any time" to Firebase; the facet table
+     * still hides the longer recipes.
+     * @return true if there's a new plan
+     */
+    private boolean updateQueryPlan() {
+        RecipeQueryPlanner.Filters filters = new RecipeQueryPlanner.Filters(
+            currentCuisineFilter, currentCategory, currentDifficultyFilter,
+            currentMaxCookingTime >= maxCookingTime ? RecipeQueryPlanner.NO_TIME_LIMIT : currentMaxCookingTime);
+        if (queryPlan != null && queryPlan.filters.equals(filters)) {
+            return false;
+        }
+        queryPlan = FirebaseManager.getInstance().planSummaryQuery(filters);
+        planCursor = null;
+        planHasMore = true;
+        return true;
+    }
+
+    /**
+     * Whether there are matching recipes left to load for the current filters
+     */
+    private boolean canLoadMore() {
+        if (!hasMorePages) {
+            return false;  // The whole catalog is loaded, so every match is already here
+        }
+        return queryPlan == null || queryPlan.source == RecipeQueryPlanner.Source.CATALOG || planHasMore;
+    }
+
+    /**
+     * The facet table rows that pass the chips, the cooking time and the search box
+     *
+     * The set is reused by the facet table, so use it straight away.
+     */
+    private BitSet matchingRows() {
+        BitSet rows = facetTable.select(currentCuisineFilter, currentDifficultyFilter,
+            currentCategory, currentMaxCookingTime);
+        if (searchMatches != null) {
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                if (!searchMatches.contains(facetTable.get(row).getId())) {
+                    rows.clear(row);
+                }
+            }
         }
+        return rows;
+    }
+
+    /**
+     * Shows the first windowSize matching recipes, in the chosen sort order
+     */
+    private void showWindow() {
+        BitSet rows = matchingRows();
+        matchingCount = rows.cardinality();
+        filteredRecipes = new ArrayList<>(Math.min(matchingCount, windowSize));
+        facetTable.selectSorted(rows, sortSpinner.getSelectedItemPosition(), 0, windowSize, filteredRecipes);
         recipeAdapter.setRecipes(filteredRecipes);
     }
 
-    private void setupRecipeList() {
-        // Show loading indicator
-        progressBar.setVisibility(View.VISIBLE);
+    /**
+     * Shows another page of the matching recipes that are already loaded
+     */
+    private void extendWindow() {
+        int start = filteredRecipes.size();
+        windowSize = start + pageSize;
+        int added = facetTable.selectSorted(matchingRows(), sortSpinner.getSelectedItemPosition(),
+            start, pageSize, filteredRecipes);
+        if (added > 0) {
+            recipeAdapter.notifyItemRangeInserted(start, added);
+        }
+    }
+
+    /**
+     * Changes searchIndex in the background, then looks up the search box again
+     *
+     * Lists handed in must not change afterwards, since the change runs later.
+     */
+    private void updateSearchIndex(Consumer<RecipeSearchIndex> change) {
+        if (isDestroyed()) {
+            return;  // A page arrived after the screen closed; indexExecutor is shut down
+        }
+        indexExecutor.execute(() -> {
+            change.accept(searchIndex);
+            mainHandler.post(this::updateSearchMatches);
+        });
+    }
+
+    /**
+     * Looks up which loaded recipes match the search box, now the loaded recipes changed
+     *
+     * The lookup runs through searchPipeline like typing does, so the main
+     * thread never searches; until it answers, the new recipes are left out.
+     */
+    private void updateSearchMatches() {
+        if (!currentSearchQuery.trim().isEmpty()) {
+            searchPipeline.submitNow(currentSearchQuery);
+        }
+    }
+
+    /**
+     * Shows the list again when the same search has new matches (more recipes were loaded)
+     *
+     * Unlike filterRecipes(), it keeps how far down the list the user has got.
+     */
+    private void showNewMatches() {
+        showWindow();
+        facetCounts = facetTable.countFacets(currentCuisineFilter, currentDifficultyFilter,
+            currentCategory, currentMaxCookingTime, searchMatches);
+        updateChipCounts();
+    }
+
+    /**
+     * The IDs of the loaded recipes matching a query (null for an empty query; on searchPipeline's thread)
+     */
+    private Set<String> findSearchMatches(String query) {
+        return query.trim().isEmpty() ? null : new HashSet<>(searchIndex.search(query));
+    }
+
+    /**
+     * Refills the facet table after allRecipes changed other than at the end
+     */
+    private void rebuildFacetTable() {
+        facetTable.clear();
+        facetTable.addAll(allRecipes);
+    }
 
+    /**
+     * Adds a freshly loaded page to the list
+     *
+     * In the default order the new recipes can only go after the ones on
+     * screen, so they're just added to the end; other orders pick the window
+     * again from the saved sort order.
+     */
+    private void appendPage(List<RecipeSummary> loadedPage) {
+        // Filtered pages and catalog pages can both bring the same recipe
+        List<RecipeSummary> page = new ArrayList<>(loadedPage.size());
+        for (RecipeSummary recipe : loadedPage) {
+            if (loadedIds.add(recipe.getId())) {
+                page.add(recipe);
+            }
+        }
+
+        int firstNewRow = facetTable.size();
+        allRecipes.addAll(page);
+        facetTable.addAll(page);
+        updateSearchIndex(index -> index.addSummaries(page));
+
+        // Only the new rows need adding to the chip counts
+        if (facetCounts != null) {
+            facetTable.countNewRows(facetCounts, firstNewRow, searchMatches);
+            updateChipCounts();
+        }
+
+        int sortOption = sortSpinner.getSelectedItemPosition();
+        if (sortOption == RecipeFacetTable.SORT_DEFAULT) {
+            BitSet rows = matchingRows();
+            matchingCount = rows.cardinality();
+            int start = filteredRecipes.size();
+            int added = facetTable.selectSorted(rows, sortOption, start, windowSize - start, filteredRecipes);
+            if (added > 0) {
+                recipeAdapter.notifyItemRangeInserted(start, added);
+            }
+        } else {
+            showWindow();
+        }
+    }
+
+    private void setupRecipeList() {
         // Initialize lists if not already initialized
         if (allRecipes == null) allRecipes = new ArrayList<>();
         if (filteredRecipes == null) filteredRecipes = new ArrayList<>();
 
-        // Load recipes from Firebase
-        FirebaseManager.getInstance().getAllRecipes(new FirebaseManager.FirebaseCallback<List<Recipe>>() {
+        pageSize = getResources().getInteger(R.integer.recipe_page_size);
+        prefetchDistance = getResources().getInteger(R.integer.recipe_prefetch_distance);
+        windowSize = pageSize + prefetchDistance;
+
+        // The list sits inside a NestedScrollView, so watch that for scrolling
+        recipeScrollView.setOnScrollChangeListener(
+            (NestedScrollView.OnScrollChangeListener) (v, scrollX, scrollY, oldScrollX, oldScrollY) ->
+                maybeLoadNextPage());
+
+        // Load the first page straight away
+        loadNextPage();
+    }
+
+    /**
+     * Loads the next page when the user has scrolled close to the end of the list
+     */
+    private void maybeLoadNextPage() {
+        boolean moreLoaded = filteredRecipes.size() < matchingCount;
+        if (!moreLoaded && (isLoadingPage || !canLoadMore())) {
+            return;
+        }
+
+        // Work out which row is at the bottom of the screen
+        int itemCount = recipeAdapter.getItemCount();
+        int visibleBottom = recipeScrollView.getScrollY() + recipeScrollView.getHeight()
+            - recipeRecyclerView.getTop();
+        View lastVisibleRow = recipeRecyclerView.findChildViewUnder(0, visibleBottom);
+        int lastVisiblePosition;
+        if (lastVisibleRow != null) {
+            lastVisiblePosition = recipeRecyclerView.getChildAdapterPosition(lastVisibleRow);
+        } else {
+            lastVisiblePosition = visibleBottom >= recipeRecyclerView.getHeight() ? itemCount - 1 : -1;
+        }
+
+        if (lastVisiblePosition >= itemCount - prefetchDistance) {
+            // Show more of what's already loaded before fetching another page
+            if (moreLoaded) {
+                extendWindow();
+            } else {
+                loadNextPage();
+            }
+        }
+    }
+
+    /**
+     * Swaps the saved copy of the first page for the fresh one from Firebase
+     */
+    private void replaceFirstPage(RecipePage<RecipeSummary> freshPage) {
+        Set<String> freshIds = new HashSet<>();
+        for (RecipeSummary recipe : freshPage.getRecipes()) {
+            freshIds.add(recipe.getId());
+        }
+        allRecipes.removeAll(firstPageRecipes);
+        allRecipes.removeIf(recipe -> freshIds.contains(recipe.getId()));   // Also loaded by a filtered page
+        allRecipes.addAll(0, freshPage.getRecipes());
+        for (RecipeSummary recipe : firstPageRecipes) {
+            loadedIds.remove(recipe.getId());
+        }
+        loadedIds.addAll(freshIds);
+        rebuildFacetTable();
+        List<RecipeSummary> stalePage = firstPageRecipes;
+        List<RecipeSummary> freshRecipes = freshPage.getRecipes();
+        updateSearchIndex(index -> {
+            for (RecipeSummary recipe : stalePage) {
+                index.remove(recipe.getId());
+            }
+            index.addSummaries(freshRecipes);
+        });
+        firstPageRecipes = freshRecipes;
+
+        // Only move the cursor if we haven't already paged past the first page
+        if (pagesLoaded <= 1) {
+            lastPageCursor = freshPage.getLastRecipeId();
+            hasMorePages = freshPage.hasMore();
+        }
+        filterRecipes();
+    }
+
+    /**
+     * Loads the next page of recipes from Firebase
+     */
+    private void loadNextPage() {
+        if (isLoadingPage || !canLoadMore()) {
+            return;
+        }
+        boolean firstPage = lastPageCursor == null;
+        if (!firstPage && queryPlan != null && queryPlan.source != RecipeQueryPlanner.Source.CATALOG) {
+            loadFilteredPage();
+            return;
+        }
+        isLoadingPage = true;
+
+        // Only show the big loading indicator for the first page
+        if (firstPage) {
+            progressBar.setVisibility(View.VISIBLE);
+        }
+
+        // Only the short version of each recipe is loaded; the detail screen loads the rest
+        FirebaseManager.getInstance().getRecipeSummariesPage(pageSize, lastPageCursor, new FirebaseManager.FirebaseCallback<RecipePage<RecipeSummary>>() {
+            private boolean answered = false;
+
             @Override
-            public void onSuccess(List<Recipe> recipes) {
-                // Hide loading indicator
+            public void onSuccess(RecipePage<RecipeSummary> page) {
+                if (answered) {
+                    // The first page is shown from the saved copy first; this is the fresh one
+                    replaceFirstPage(page);
+                    return;
+                }
+                answered = true;
+                isLoadingPage = false;
                 progressBar.setVisibility(View.GONE);
 
-                if (recipes.isEmpty()) {
-                    // If no recipes exist, add sample recipes
-                    addSampleRecipes();
-                } else {
-                    // Update the recipes list
-                    allRecipes.clear();
-                    allRecipes.addAll(recipes);
-                    filterRecipes();
-                    
-                    // Update adapter
-                    if (recipeAdapter != null) {
-                        recipeAdapter.notifyDataSetChanged();
-                    }
+                if (firstPage && page.getRecipes().isEmpty()) {
+                    // No summaries yet: older recipes may need them written, otherwise add samples
+                    hasMorePages = false;
+                    backfillSummariesOrAddSamples();
+                    return;
+                }
+
+                if (firstPage) {
+                    firstPageRecipes = page.getRecipes();
                 }
+                pagesLoaded++;
+                lastPageCursor = page.getLastRecipeId();
+                hasMorePages = page.hasMore();
+                appendPage(page.getRecipes());
+
+                // Filters may hide most of a page, so keep going until the screen is full
+                recipeRecyclerView.post(() -> maybeLoadNextPage());
             }
 
             @Override
             public void onFailure(Exception e) {
-                // Hide loading indicator
+                isLoadingPage = false;
                 progressBar.setVisibility(View.GONE);
-                
+
                 // Show error message
                 Toast.makeText(RecipeRecommendationActivity.this, 
                     "Error loading recipes: " + e.getMessage(), 
                     Toast.LENGTH_SHORT).show();
-                
-                // Load sample recipes as fallback
+
+                if (firstPage) {
+                    // Load sample recipes as fallback
+                    hasMorePages = false;
+                    addSampleRecipes();
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the next page of just the recipes matching the filters
+     *
+     * Depending on the plan this comes from the saved catalog or from a
+     * narrowed Firebase query. If the query fails (for example an index is
+     * still being built), paging goes back to the whole catalog.
+     */
+    private void loadFilteredPage() {
+        isLoadingPage = true;
+        RecipeQueryPlanner.Plan plan = queryPlan;
+        FirebaseManager.getInstance().getSummariesPage(plan, pageSize, planCursor, new FirebaseManager.FirebaseCallback<RecipePage<RecipeSummary>>() {
+            @Override
+            public void onSuccess(RecipePage<RecipeSummary> page) {
+                isLoadingPage = false;
+                // If the filters changed while this loaded, the recipes are still worth keeping
+                if (plan == queryPlan) {
+                    planCursor = page.getLastRecipeId();
+                    planHasMore = page.hasMore();
+                }
+                appendPage(page.getRecipes());
+                recipeRecyclerView.post(() -> maybeLoadNextPage());
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                isLoadingPage = false;
+                Log.w("RecipeRecommendation", "Couldn't load filtered recipes, paging the catalog instead", e);
+                if (plan == queryPlan) {
+                    queryPlan = RecipeQueryPlanner.catalog(plan.filters);
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes summaries for recipes saved before summaries existed, then reloads
+     *
+     * If there are no recipes at all, the sample recipes are added instead.
+     */
+    private void backfillSummariesOrAddSamples() {
+        progressBar.setVisibility(View.VISIBLE);
+        FirebaseManager.getInstance().backfillRecipeSummaries(new FirebaseManager.FirebaseCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer written) {
+                progressBar.setVisibility(View.GONE);
+                if (written == 0) {
+                    addSampleRecipes();
+                    return;
+                }
+                hasMorePages = true;
+                loadNextPage();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                progressBar.setVisibility(View.GONE);
+                Log.e("RecipeRecommendation", "Error writing recipe summaries: " + e.getMessage());
                 addSampleRecipes();
             }
         });
@@ -408,40 +849,42 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
         cookies.setDietaryTags(Arrays.asList("Dessert", "Baking"));
         sampleRecipes.add(cookies);
 
-        // Save sample recipes to Firebase
-        final int[] savedCount = {0};
-        for (Recipe recipe : sampleRecipes) {
-            FirebaseManager.getInstance().saveRecipe(recipe, new FirebaseManager.FirebaseCallback<String>() {
-                @Override
-                public void onSuccess(String result) {
-                    Log.d("RecipeRecommendation", "Sample recipe saved: " + recipe.getName());
-                    savedCount[0]++;
-                    if (savedCount[0] == sampleRecipes.size()) {
-                        // All recipes saved, update UI
-                        allRecipes.clear();
-                        allRecipes.addAll(sampleRecipes);
-                        filterRecipes();
-                        if (recipeAdapter != null) {
-                            recipeAdapter.notifyDataSetChanged();
-                        }
-                    }
-                }
+        // Save all the sample recipes to Firebase in one go
+        FirebaseManager.getInstance().saveRecipes(sampleRecipes, new FirebaseManager.BulkSaveListener() {
+            @Override
+            public void onProgress(int savedCount, int totalCount) {
+                Log.d("RecipeRecommendation", "Sample recipes saved: " + savedCount + " of " + totalCount);
+            }
 
-                @Override
-                public void onFailure(Exception e) {
-                    Log.e("RecipeRecommendation", "Error saving sample recipe: " + e.getMessage());
-                    savedCount[0]++;
-                    if (savedCount[0] == sampleRecipes.size()) {
-                        // Even if some failed, update UI with what we have
-                        allRecipes.clear();
-                        allRecipes.addAll(sampleRecipes);
-                        filterRecipes();
-                        if (recipeAdapter != null) {
-                            recipeAdapter.notifyDataSetChanged();
-                        }
-                    }
-                }
-            });
+            @Override
+            public void onChunkFailed(List<String> recipeIds, Exception e) {
+                Log.e("RecipeRecommendation", "Error saving " + recipeIds.size() + " sample recipes: " + e.getMessage());
+            }
+
+            @Override
+            public void onComplete(FirebaseManager.BulkSaveResult result) {
+                // Even if some failed, update UI with what we have
+                showSampleRecipes(sampleRecipes);
+            }
+        });
+    }
+
+    private void showSampleRecipes(List<Recipe> sampleRecipes) {
+        allRecipes.clear();
+        allRecipes.addAll(RecipeSummary.fromAll(sampleRecipes));
+        loadedIds.clear();
+        for (RecipeSummary recipe : allRecipes) {
+            loadedIds.add(recipe.getId());
+        }
+        rebuildFacetTable();
+        List<RecipeSummary> samples = new ArrayList<>(allRecipes);
+        updateSearchIndex(index -> {
+            index.clear();
+            index.addSummaries(samples);
+        });
+        filterRecipes();
+        if (recipeAdapter != null) {
+            recipeAdapter.notifyDataSetChanged();
         }
     }
 
@@ -461,6 +904,13 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
             .startChooser();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        indexExecutor.shutdownNow();
+        searchPipeline.shutdown();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.recipe_recommendation_menu, menu);
@@ -518,7 +968,7 @@ public class RecipeRecommendationActivity extends AppCompatActivity implements R
     }
 
     @Override
-    public void onRecipeClick(Recipe recipe) {
+    public void onRecipeClick(RecipeSummary recipe) {
         // Add to history
         FirebaseManager.getInstance().addToHistory(recipe.getId(), new FirebaseManager.FirebaseCallback<Void>() {
             @Override
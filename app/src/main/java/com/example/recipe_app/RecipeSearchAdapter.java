@@ -19,7 +19,9 @@ import com.google.android.material.chip.Chip;
 import com.google.android.material.chip.ChipGroup;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Adapter for displaying recipe search results in a RecyclerView.
@@ -27,14 +29,15 @@ import java.util.List;
  * for recipe selection.
  */
 public class RecipeSearchAdapter extends RecyclerView.Adapter<RecipeSearchAdapter.RecipeViewHolder> {
-    private List<Recipe> recipes = new ArrayList<>();
+    private List<RecipeSummary> recipes = new ArrayList<>();
+    private Map<String, String> notes = Collections.emptyMap();  // Shown instead of the description, by recipe ID
     private final OnRecipeClickListener listener;
 
     /**
      * Interface for handling recipe click events in search results
      */
     public interface OnRecipeClickListener {
-        void onRecipeClick(Recipe recipe);
+        void onRecipeClick(RecipeSummary recipe);
     }
 
     /**
@@ -67,8 +70,18 @@ public class RecipeSearchAdapter extends RecyclerView.Adapter<RecipeSearchAdapte
      * Updates the list of recipes with search results
      * @param newRecipes New list of recipes to display
      */
-    public void updateRecipes(List<Recipe> newRecipes) {
+    public void updateRecipes(List<RecipeSummary> newRecipes) {
+        updateRecipes(newRecipes, Collections.emptyMap());
+    }
+
+    /**
+     * Updates the list of recipes, with a note to show under some of them
+     * @param newRecipes New list of recipes to display
+     * @param newNotes Text shown in place of the description, by recipe ID
+     */
+    public void updateRecipes(List<RecipeSummary> newRecipes, Map<String, String> newNotes) {
         this.recipes = newRecipes;
+        this.notes = newNotes;
         notifyDataSetChanged();
     }
 
@@ -103,9 +116,10 @@ public class RecipeSearchAdapter extends RecyclerView.Adapter<RecipeSearchAdapte
          * Binds recipe data to the search result view
          * @param recipe Recipe to display
          */
-        public void bind(Recipe recipe) {
+        public void bind(RecipeSummary recipe) {
             recipeName.setText(recipe.getName());
-            recipeDescription.setText(recipe.getDescription());
+            String note = notes.get(recipe.getId());
+            recipeDescription.setText(note != null ? note : recipe.getDescription());
             cookingTime.setText(recipe.getCookingTimeDisplay());
             
             // Load recipe image with placeholder and error handling
@@ -0,0 +1,542 @@
+/**
+ * RecipeSearchIndex - Finds Recipes by the Words in Them, Fast
+ *
+ * Checking every recipe's name and description on every keystroke gets slow
+ * once there are thousands of recipes. This index works like the index at
+ * the back of a cookbook: for every word, it keeps a list of the recipes that
+ * use it (a "posting list"). Searching just looks up the words.
+ *
+ * - Words come from the name, description, cuisine, dietary tags and ingredients
+ * - Words are matched by how they start, so "chick" finds "chicken" and "chickpea"
+ * - With several words, a recipe has to match all of them
+ * - Upper and lower case don't matter
+ *
+ * searchRanked() also puts the best matches first, scored with BM25 (the
+ * usual "how well does this match" formula used by search engines):
+ * - A word counts for more in the name than in the tags, more in the tags
+ *   than in the ingredients, and least in the description
+ * - Rare words count for more than common ones (the IDF)
+ * - A word in a short name counts for more than the same word in a long one
+ * So "Chicken Stir Fry" comes before a salad that mentions chicken once.
+ * The word counts and lengths it needs are kept as recipes come and go.
+ *
+ * Recipes can be added, changed and removed one at a time. A removed recipe
+ * is only marked as gone; once there are more gone than left, the lists are
+ * tidied up in one go.
+ *
+ * Building a big index takes a moment, so do it on a background thread (see
+ * build()). Searching is quick and can happen on the main thread. Safe to use
+ * from any thread. This class doesn't use any Android code, so it can be
+ * tested on a computer.
+ */
+package com.example.recipe_app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RecipeSearchIndex {
+    // Don't bother tidying up until at least this many recipes have been removed
+    private static final int COMPACT_MIN_REMOVED = 1024;
+
+    // The parts of a recipe that are scored separately (cuisine counts as a tag)
+    private static final int FIELD_NAME = 0;
+    private static final int FIELD_TAGS = 1;
+    private static final int FIELD_INGREDIENTS = 2;
+    private static final int FIELD_DESCRIPTION = 3;
+    private static final int FIELD_COUNT = 4;
+
+    // How much a word counts in each part, in the order above
+    private static final float[] FIELD_WEIGHTS = {3.0f, 2.0f, 1.5f, 1.0f};
+
+    // The usual BM25 settings: K1 stops repeated words counting forever,
+    // B is how much a long field is held against a match
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    // Word counts are stored in one byte per field
+    private static final int MAX_FIELD_COUNT = 0xFF;
+
+    /**
+     * The recipes that use one word, as a growing list of recipe numbers (always in order)
+     *
+     * Next to each recipe number is how often the word comes up in each
+     * field, one byte per field.
+     */
+    private static class Postings {
+        int[] docs = new int[4];
+        int[] counts = new int[4];
+        int size = 0;
+        int liveCount = 0;      // Recipes using this word that haven't been removed
+        float idf;              // Worked out for version idfVersion of the index
+        int idfVersion = -1;
+
+        /**
+         * Counts the word once more in a field
+         * @return true if this is the first time the word was seen in this recipe
+         */
+        boolean add(int doc, int field) {
+            int shift = field * 8;
+            // The same word can come up more than once in a recipe
+            if (size > 0 && docs[size - 1] == doc) {
+                int count = (counts[size - 1] >>> shift) & MAX_FIELD_COUNT;
+                if (count < MAX_FIELD_COUNT) {
+                    counts[size - 1] += 1 << shift;
+                }
+                return false;
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            docs[size] = doc;
+            counts[size] = 1 << shift;
+            size++;
+            liveCount++;
+            return true;
+        }
+    }
+
+    private static final Postings[] NO_POSTINGS = new Postings[0];
+
+    // Every word we know, and the recipes that use it
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    // The same words in alphabetical order, for looking up everything that starts with some letters
+    private String[] sortedTerms = new String[0];
+    private Postings[] sortedPostings = new Postings[0];
+    private boolean termsChanged = false;
+
+    // Each recipe gets a number when it's added; these turn numbers back into IDs and back again
+    private final List<String> recipeIds = new ArrayList<>();       // null once removed
+    private final Map<String, Integer> docsByRecipeId = new HashMap<>();
+    private final BitSet live = new BitSet();                        // Recipes that haven't been removed
+    private int removedCount = 0;
+
+    // What ranking needs: the words in each recipe (so their counts can go down
+    // when it's removed), each field's length per recipe, and the totals for averages
+    private final List<Postings[]> docWords = new ArrayList<>();     // null once removed
+    private int[] fieldLengths = new int[FIELD_COUNT * 16];          // Recipe number * FIELD_COUNT + field
+    private final long[] totalFieldLengths = new long[FIELD_COUNT];  // Of the recipes that haven't been removed
+    private int version = 0;                                          // Goes up with every change, so old IDFs are redone
+
+    // Reused by every search, so searching doesn't create lots of garbage
+    private final BitSet matches = new BitSet();
+    private final BitSet wordMatches = new BitSet();
+    private final List<Postings> docWordsScratch = new ArrayList<>();
+    private float[] scores = new float[0];
+    private float[] wordScores = new float[0];
+
+    /**
+     * Builds an index of all the given recipes (do this on a background thread)
+     */
+    public static RecipeSearchIndex build(Collection<Recipe> recipes) {
+        RecipeSearchIndex index = new RecipeSearchIndex();
+        index.addRecipes(recipes);
+        return index;
+    }
+
+    /**
+     * Adds a recipe, or updates it if it's already in the index
+     */
+    public synchronized void add(Recipe recipe) {
+        put(recipe.getId(), recipe.getName(), recipe.getDescription(), recipe.getCuisine(),
+            recipe.getDietaryTags(), recipe.getIngredients());
+    }
+
+    /**
+     * Adds a recipe summary, or updates it if it's already in the index
+     *
+     * Summaries don't have ingredients, so only the other fields are searchable.
+     */
+    public synchronized void add(RecipeSummary summary) {
+        put(summary.getId(), summary.getName(), summary.getDescription(), summary.getCuisine(),
+            summary.getDietaryTags(), null);
+    }
+
+    public synchronized void addRecipes(Collection<Recipe> recipes) {
+        for (Recipe recipe : recipes) {
+            add(recipe);
+        }
+    }
+
+    public synchronized void addSummaries(Collection<RecipeSummary> summaries) {
+        for (RecipeSummary summary : summaries) {
+            add(summary);
+        }
+    }
+
+    /**
+     * Takes a recipe out of the index (does nothing if it isn't there)
+     */
+    public synchronized void remove(String recipeId) {
+        Integer doc = docsByRecipeId.remove(recipeId);
+        if (doc == null) {
+            return;
+        }
+        live.clear(doc);
+        recipeIds.set(doc, null);
+        for (Postings list : docWords.set(doc, null)) {
+            list.liveCount--;
+        }
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            totalFieldLengths[field] -= fieldLengths[doc * FIELD_COUNT + field];
+        }
+        version++;
+        removedCount++;
+        if (removedCount >= COMPACT_MIN_REMOVED && removedCount > docsByRecipeId.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Empties the index
+     */
+    public synchronized void clear() {
+        postings.clear();
+        sortedTerms = new String[0];
+        sortedPostings = new Postings[0];
+        termsChanged = false;
+        recipeIds.clear();
+        docsByRecipeId.clear();
+        live.clear();
+        removedCount = 0;
+        docWords.clear();
+        Arrays.fill(totalFieldLengths, 0);
+        version++;
+    }
+
+    /**
+     * How many recipes are in the index
+     */
+    public synchronized int size() {
+        return docsByRecipeId.size();
+    }
+
+    /**
+     * Finds the recipes that match every word in the query
+     *
+     * An empty query matches everything.
+     * @return The matching recipe IDs, in the order the recipes were added
+     */
+    public synchronized List<String> search(String query) {
+        findMatches(tokenize(query));
+
+        List<String> results = new ArrayList<>(matches.cardinality());
+        for (int doc = matches.nextSetBit(0); doc >= 0; doc = matches.nextSetBit(doc + 1)) {
+            results.add(recipeIds.get(doc));
+        }
+        return results;
+    }
+
+    /**
+     * Finds the same recipes as search(), best match first
+     *
+     * Each query word scores its best-matching word in the recipe, and the
+     * scores are added up. Equal scores keep the order the recipes were
+     * added, as does an empty query.
+     * @return The matching recipe IDs, best first
+     */
+    public synchronized List<String> searchRanked(String query) {
+        List<String> words = tokenize(query);
+        findMatches(words);
+        if (words.isEmpty()) {
+            return search(query);
+        }
+
+        int docCount = recipeIds.size();
+        if (scores.length < docCount) {
+            scores = new float[docCount];
+            wordScores = new float[docCount];
+        }
+        float[] lengthFactors = lengthFactors();
+        for (String word : words) {
+            scoreWord(word, lengthFactors);
+            for (int doc = matches.nextSetBit(0); doc >= 0; doc = matches.nextSetBit(doc + 1)) {
+                scores[doc] += wordScores[doc];
+                wordScores[doc] = 0f;
+            }
+        }
+
+        // Sort score and recipe number together as one long: the top half is
+        // the score turned upside down (positive float bits sort like the
+        // float), so the best scores come first and ties keep their order
+        long[] keys = new long[matches.cardinality()];
+        int n = 0;
+        for (int doc = matches.nextSetBit(0); doc >= 0; doc = matches.nextSetBit(doc + 1)) {
+            keys[n++] = ((long) (Integer.MAX_VALUE - Float.floatToIntBits(scores[doc])) << 32) | doc;
+            scores[doc] = 0f;
+        }
+        Arrays.sort(keys);
+
+        List<String> results = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            results.add(recipeIds.get((int) key));
+        }
+        return results;
+    }
+
+    /**
+     * Leaves the recipes that match every word in matches
+     */
+    private void findMatches(List<String> words) {
+        if (words.isEmpty()) {
+            matches.clear();
+            matches.or(live);
+            return;
+        }
+        ensureSortedTerms();
+        for (int i = 0; i < words.size(); i++) {
+            wordMatches.clear();
+            collectPrefix(words.get(i), wordMatches);
+            if (i == 0) {
+                matches.clear();
+                matches.or(wordMatches);
+            } else {
+                matches.and(wordMatches);
+            }
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        matches.and(live);
+    }
+
+    /**
+     * Scores one query word for every matching recipe into wordScores
+     *
+     * The word can be the start of several words in a recipe ("chick" for
+     * "chicken" and "chickpea"); the recipe gets the best of them.
+     */
+    private void scoreWord(String prefix, float[] lengthFactors) {
+        int i = Arrays.binarySearch(sortedTerms, prefix);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        for (; i < sortedTerms.length && sortedTerms[i].startsWith(prefix); i++) {
+            Postings list = sortedPostings[i];
+            float idf = idf(list);
+            for (int j = 0; j < list.size; j++) {
+                int doc = list.docs[j];
+                if (!matches.get(doc)) {
+                    continue;
+                }
+                float score = idf * termWeight(doc, list.counts[j], lengthFactors);
+                if (score > wordScores[doc]) {
+                    wordScores[doc] = score;
+                }
+            }
+        }
+    }
+
+    /**
+     * BM25F: adds up the word's count in each field, weighted by field and
+     * scaled down for long fields, then flattens it so repeats count less
+     */
+    private float termWeight(int doc, int packedCounts, float[] lengthFactors) {
+        float weighted = 0f;
+        int base = doc * FIELD_COUNT;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            int count = (packedCounts >>> (field * 8)) & MAX_FIELD_COUNT;
+            if (count > 0) {
+                float norm = (1f - B) + lengthFactors[field] * fieldLengths[base + field];
+                weighted += FIELD_WEIGHTS[field] * count / norm;
+            }
+        }
+        return weighted / (K1 + weighted);
+    }
+
+    /**
+     * B divided by each field's average length, so a recipe's length only needs multiplying
+     */
+    private float[] lengthFactors() {
+        float[] factors = new float[FIELD_COUNT];
+        int docCount = docsByRecipeId.size();
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            float average = docCount == 0 ? 0f : (float) totalFieldLengths[field] / docCount;
+            factors[field] = average > 0f ? B / average : 0f;
+        }
+        return factors;
+    }
+
+    /**
+     * How rare a word is; only worked out again after the recipes change
+     */
+    private float idf(Postings list) {
+        if (list.idfVersion != version) {
+            int docCount = docsByRecipeId.size();
+            list.idf = (float) Math.log(1.0 + (docCount - list.liveCount + 0.5) / (list.liveCount + 0.5));
+            list.idfVersion = version;
+        }
+        return list.idf;
+    }
+
+    /**
+     * Marks every recipe that has a word starting with the given letters
+     */
+    private void collectPrefix(String prefix, BitSet out) {
+        int i = Arrays.binarySearch(sortedTerms, prefix);
+        if (i < 0) {
+            i = -i - 1;  // Where the prefix would go; the words starting with it come next
+        }
+        for (; i < sortedTerms.length && sortedTerms[i].startsWith(prefix); i++) {
+            Postings list = sortedPostings[i];
+            for (int j = 0; j < list.size; j++) {
+                out.set(list.docs[j]);
+            }
+        }
+    }
+
+    private void put(String recipeId, String name, String description, String cuisine,
+                     List<String> tags, List<String> ingredients) {
+        if (recipeId == null) {
+            return;
+        }
+        remove(recipeId);
+
+        int doc = recipeIds.size();
+        recipeIds.add(recipeId);
+        docsByRecipeId.put(recipeId, doc);
+        live.set(doc);
+        if (fieldLengths.length < (doc + 1) * FIELD_COUNT) {
+            fieldLengths = Arrays.copyOf(fieldLengths, fieldLengths.length * 2);
+        }
+        Arrays.fill(fieldLengths, doc * FIELD_COUNT, (doc + 1) * FIELD_COUNT, 0);  // May be left over from before clear()
+
+        docWordsScratch.clear();
+        indexText(doc, FIELD_NAME, name);
+        indexText(doc, FIELD_DESCRIPTION, description);
+        indexText(doc, FIELD_TAGS, cuisine);
+        if (tags != null) {
+            for (String tag : tags) {
+                indexText(doc, FIELD_TAGS, tag);
+            }
+        }
+        if (ingredients != null) {
+            for (String ingredient : ingredients) {
+                indexText(doc, FIELD_INGREDIENTS, ingredient);
+            }
+        }
+        docWords.add(docWordsScratch.toArray(NO_POSTINGS));
+        version++;
+    }
+
+    private void indexText(int doc, int field, String text) {
+        if (text == null) {
+            return;
+        }
+        List<String> words = tokenize(text);
+        fieldLengths[doc * FIELD_COUNT + field] += words.size();
+        totalFieldLengths[field] += words.size();
+        for (String word : words) {
+            Postings list = postings.get(word);
+            if (list == null) {
+                list = new Postings();
+                postings.put(word, list);
+                termsChanged = true;
+            }
+            if (list.add(doc, field)) {
+                docWordsScratch.add(list);
+            }
+        }
+    }
+
+    /**
+     * Re-sorts the word list if new words were added since the last search
+     */
+    private void ensureSortedTerms() {
+        if (!termsChanged) {
+            return;
+        }
+        sortedTerms = postings.keySet().toArray(new String[0]);
+        Arrays.sort(sortedTerms);
+        sortedPostings = new Postings[sortedTerms.length];
+        for (int i = 0; i < sortedTerms.length; i++) {
+            sortedPostings[i] = postings.get(sortedTerms[i]);
+        }
+        termsChanged = false;
+    }
+
+    /**
+     * Drops removed recipes from every list and renumbers the rest
+     *
+     * Numbers stay in the same order, so every list stays sorted.
+     */
+    private void compact() {
+        int[] newNumbers = new int[recipeIds.size()];
+        List<String> keptIds = new ArrayList<>(docsByRecipeId.size());
+        for (int doc = 0; doc < recipeIds.size(); doc++) {
+            if (live.get(doc)) {
+                newNumbers[doc] = keptIds.size();
+                keptIds.add(recipeIds.get(doc));
+            } else {
+                newNumbers[doc] = -1;
+            }
+        }
+
+        int[] keptLengths = new int[Math.max(keptIds.size(), 16) * FIELD_COUNT];
+        List<Postings[]> keptWords = new ArrayList<>(keptIds.size());
+        for (int doc = 0; doc < recipeIds.size(); doc++) {
+            if (newNumbers[doc] >= 0) {
+                System.arraycopy(fieldLengths, doc * FIELD_COUNT,
+                    keptLengths, newNumbers[doc] * FIELD_COUNT, FIELD_COUNT);
+                keptWords.add(docWords.get(doc));
+            }
+        }
+        fieldLengths = keptLengths;
+        docWords.clear();
+        docWords.addAll(keptWords);
+
+        postings.values().removeIf(list -> {
+            int kept = 0;
+            for (int j = 0; j < list.size; j++) {
+                int newNumber = newNumbers[list.docs[j]];
+                if (newNumber >= 0) {
+                    list.counts[kept] = list.counts[j];
+                    list.docs[kept++] = newNumber;
+                }
+            }
+            list.size = kept;
+            if (kept == 0) {
+                termsChanged = true;
+                return true;
+            }
+            return false;
+        });
+
+        recipeIds.clear();
+        recipeIds.addAll(keptIds);
+        docsByRecipeId.clear();
+        for (int doc = 0; doc < keptIds.size(); doc++) {
+            docsByRecipeId.put(keptIds.get(doc), doc);
+        }
+        live.clear();
+        live.set(0, keptIds.size());
+        removedCount = 0;
+    }
+
+    /**
+     * Splits text into lower-case words made of letters and digits
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+}
@@ -0,0 +1,503 @@
+/**
+ * RecipeStore - A Copy of the Recipes Kept on the Phone
+ *
+ * This class keeps recipes in a small database on the phone so screens can
+ * show something straight away, even on a slow connection. FirebaseManager
+ * hands out these saved copies first and then checks Firebase for anything new.
+ *
+ * It keeps:
+ * - One row per recipe, with lists stored as JSON text
+ * - Indexes on cuisine, category and difficulty so filtered reads are quick
+ * - At most MAX_RECIPES rows; the ones nobody has opened for longest are removed first
+ *   (the EvictionListener hears about it, since the copy then has gaps)
+ *
+ * All methods read or write the database directly, so call them from a
+ * background thread, never from the main thread.
+ */
+package com.example.recipe_app;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+public class RecipeStore extends SQLiteOpenHelper {
+    // Database file details
+    private static final String DATABASE_NAME = "recipe_store.db";
+    private static final int DATABASE_VERSION = 1;
+
+    // How many recipes we keep on the phone before removing old ones
+    // (room for the whole synced catalog, so delta syncs don't leave gaps)
+    private static final int MAX_RECIPES = 20000;
+
+    // How many ? placeholders we put in one query (SQLite allows 999)
+    private static final int MAX_QUERY_ARGS = 500;
+
+    // The recipes table and its columns
+    private static final String TABLE_RECIPES = "recipes";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_DESCRIPTION = "description";
+    private static final String COLUMN_IMAGE_URL = "image_url";
+    private static final String COLUMN_PREP_TIME = "prep_time";
+    private static final String COLUMN_COOK_TIME = "cook_time";
+    private static final String COLUMN_SERVINGS = "servings";
+    private static final String COLUMN_DIFFICULTY = "difficulty";
+    private static final String COLUMN_CUISINE = "cuisine";
+    private static final String COLUMN_CATEGORY = "category";
+    private static final String COLUMN_RATING = "rating";
+    private static final String COLUMN_INGREDIENTS = "ingredients";     // JSON list
+    private static final String COLUMN_INSTRUCTIONS = "instructions";   // JSON list
+    private static final String COLUMN_DIETARY_TAGS = "dietary_tags";   // JSON list
+    private static final String COLUMN_UPDATED_AT = "updated_at";       // When we last saved this row
+    private static final String COLUMN_LAST_ACCESSED = "last_accessed"; // When a screen last opened it
+
+    private static final Type STRING_LIST_TYPE = new TypeToken<List<String>>(){}.getType();
+
+    private static RecipeStore instance;
+    private final Gson gson = new Gson();
+
+    // Told when rows are removed to make room (null if nobody is listening)
+    private volatile EvictionListener evictionListener;
+
+    /**
+     * A way to hear that saved recipes were removed to make room
+     *
+     * Called on whatever thread saved the recipes that pushed the store over its limit.
+     */
+    public interface EvictionListener {
+        void onRecipesEvicted(long count);
+    }
+
+    /**
+     * Gets the one and only RecipeStore
+     */
+    public static synchronized RecipeStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new RecipeStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private RecipeStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Sets who hears about rows removed to make room (RecipeSyncEngine, so it knows the copy has gaps)
+     */
+    public void setEvictionListener(EvictionListener listener) {
+        evictionListener = listener;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_RECIPES + " ("
+            + COLUMN_ID + " TEXT PRIMARY KEY, "
+            + COLUMN_NAME + " TEXT, "
+            + COLUMN_DESCRIPTION + " TEXT, "
+            + COLUMN_IMAGE_URL + " TEXT, "
+            + COLUMN_PREP_TIME + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_COOK_TIME + " INTEGER NOT NULL DEFAULT 0, "
+            + COLUMN_SERVINGS + " INTEGER NOT NULL DEFAULT 4, "
+            + COLUMN_DIFFICULTY + " TEXT, "
+            + COLUMN_CUISINE + " TEXT, "
+            + COLUMN_CATEGORY + " TEXT, "
+            + COLUMN_RATING + " REAL NOT NULL DEFAULT 0, "
+            + COLUMN_INGREDIENTS + " TEXT, "
+            + COLUMN_INSTRUCTIONS + " TEXT, "
+            + COLUMN_DIETARY_TAGS + " TEXT, "
+            + COLUMN_UPDATED_AT + " INTEGER NOT NULL, "
+            + COLUMN_LAST_ACCESSED + " INTEGER NOT NULL)");
+
+        // Indexes for the filters the recipe screens use, and for finding old rows to remove
+        db.execSQL("CREATE INDEX idx_recipes_cuisine ON " + TABLE_RECIPES + " (" + COLUMN_CUISINE + ")");
+        db.execSQL("CREATE INDEX idx_recipes_category ON " + TABLE_RECIPES + " (" + COLUMN_CATEGORY + ")");
+        db.execSQL("CREATE INDEX idx_recipes_difficulty ON " + TABLE_RECIPES + " (" + COLUMN_DIFFICULTY + ")");
+        db.execSQL("CREATE INDEX idx_recipes_last_accessed ON " + TABLE_RECIPES + " (" + COLUMN_LAST_ACCESSED + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // This is only a copy of what's in Firebase, so it's safe to start over
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_RECIPES);
+        onCreate(db);
+    }
+
+    /**
+     * Gets one saved recipe, or null if we don't have it
+     *
+     * Opening a recipe counts as using it, so it moves to the back of the removal queue.
+     */
+    public Recipe getRecipe(String recipeId) {
+        SQLiteDatabase db = getWritableDatabase();
+        Recipe recipe = null;
+        try (Cursor cursor = db.query(TABLE_RECIPES, null, COLUMN_ID + " = ?",
+                new String[]{recipeId}, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                recipe = cursorToRecipe(cursor);
+            }
+        }
+
+        if (recipe != null) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_LAST_ACCESSED, System.currentTimeMillis());
+            db.update(TABLE_RECIPES, values, COLUMN_ID + " = ?", new String[]{recipeId});
+        }
+        return recipe;
+    }
+
+    /**
+     * Gets every saved recipe, in the same order Firebase lists them (by ID)
+     */
+    public List<Recipe> getAllRecipes() {
+        return queryRecipes(null, null, null);
+    }
+
+    /**
+     * Gets the first few saved recipes, in the same order Firebase pages through them
+     */
+    public List<Recipe> getFirstRecipes(int limit) {
+        return queryRecipes(null, null, String.valueOf(limit));
+    }
+
+    /**
+     * Gets the saved recipes with these IDs, in the order the IDs were given
+     *
+     * IDs we don't have a copy of are skipped.
+     */
+    public List<Recipe> getRecipesByIds(Collection<String> recipeIds) {
+        List<String> orderedIds = new ArrayList<>(new LinkedHashSet<>(recipeIds));
+        Map<String, Recipe> recipesById = new HashMap<>();
+
+        // SQLite limits how many ? placeholders one query can have
+        for (int start = 0; start < orderedIds.size(); start += MAX_QUERY_ARGS) {
+            List<String> chunk = orderedIds.subList(start, Math.min(start + MAX_QUERY_ARGS, orderedIds.size()));
+            String placeholders = TextUtils.join(",", Collections.nCopies(chunk.size(), "?"));
+            for (Recipe recipe : queryRecipes(COLUMN_ID + " IN (" + placeholders + ")",
+                    chunk.toArray(new String[0]), null)) {
+                recipesById.put(recipe.getId(), recipe);
+            }
+        }
+
+        List<Recipe> recipes = new ArrayList<>(recipesById.size());
+        for (String recipeId : orderedIds) {
+            Recipe recipe = recipesById.get(recipeId);
+            if (recipe != null) {
+                recipes.add(recipe);
+            }
+        }
+        return recipes;
+    }
+
+    /**
+     * Gets the saved recipes from one cuisine (like all Italian recipes)
+     */
+    public List<Recipe> getRecipesByCuisine(String cuisine) {
+        return queryRecipes(COLUMN_CUISINE + " = ?", new String[]{cuisine}, null);
+    }
+
+    /**
+     * Gets the saved recipes of one type (like all desserts)
+     */
+    public List<Recipe> getRecipesByCategory(String category) {
+        return queryRecipes(COLUMN_CATEGORY + " = ?", new String[]{category}, null);
+    }
+
+    /**
+     * Gets the saved recipes that are this hard to make
+     */
+    public List<Recipe> getRecipesByDifficulty(String difficulty) {
+        return queryRecipes(COLUMN_DIFFICULTY + " = ?", new String[]{difficulty}, null);
+    }
+
+    /**
+     * Gets the next few saved recipes that pass some filters, by ID like Firebase pages
+     *
+     * Used by RecipeQueryPlanner's LOCAL plans. Pass null as afterId for the first page.
+     */
+    public List<Recipe> getRecipesMatching(RecipeQueryPlanner.Filters filters, String afterId, int limit) {
+        List<String> clauses = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        if (!filters.cuisine.isEmpty()) {
+            clauses.add(COLUMN_CUISINE + " = ?");
+            args.add(filters.cuisine);
+        }
+        if (!filters.category.isEmpty()) {
+            clauses.add(COLUMN_CATEGORY + " = ?");
+            args.add(filters.category);
+        }
+        if (!filters.difficulty.isEmpty()) {
+            clauses.add(COLUMN_DIFFICULTY + " = ?");
+            args.add(filters.difficulty);
+        }
+        if (filters.maxTotalTime != RecipeQueryPlanner.NO_TIME_LIMIT) {
+            // Arguments are bound as text, and a number compared with text is always
+            // smaller in SQLite, so the limit has to be turned back into a number
+            clauses.add(COLUMN_PREP_TIME + " + " + COLUMN_COOK_TIME + " <= CAST(? AS INTEGER)");
+            args.add(String.valueOf(filters.maxTotalTime));
+        }
+        if (afterId != null) {
+            clauses.add(COLUMN_ID + " > ?");
+            args.add(afterId);
+        }
+        return queryRecipes(clauses.isEmpty() ? null : TextUtils.join(" AND ", clauses),
+            args.toArray(new String[0]), String.valueOf(limit));
+    }
+
+    /**
+     * How many recipes are saved on the phone
+     */
+    public long getRecipeCount() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_RECIPES);
+    }
+
+    /**
+     * A short mark that changes whenever the saved recipes do
+     *
+     * Made of the row count and the newest save time: saving a recipe moves
+     * the time forward and removing one lowers the count. Used to tell whether
+     * something built from the recipes (like RecipeSuggestions) is out of date.
+     */
+    public String getChangeMark() {
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT COUNT(*), MAX(" + COLUMN_UPDATED_AT
+                + ") FROM " + TABLE_RECIPES, null)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0) + ":" + cursor.getLong(1);
+        }
+    }
+
+    /**
+     * Saves a recipe, replacing any older copy
+     */
+    public void putRecipe(Recipe recipe) {
+        SQLiteDatabase db = getWritableDatabase();
+        saveRow(db, recipe, System.currentTimeMillis());
+        evictIfNeeded(db);
+    }
+
+    /**
+     * Saves a group of recipes in one go
+     */
+    public void putRecipes(Collection<Recipe> recipes) {
+        SQLiteDatabase db = getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (Recipe recipe : recipes) {
+                saveRow(db, recipe, now);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        evictIfNeeded(db);
+    }
+
+    /**
+     * Saves changed recipes and forgets deleted ones, all in one go
+     *
+     * Used by RecipeSyncEngine to merge in just the recipes that changed.
+     */
+    public void applyChanges(Collection<Recipe> updated, Collection<String> deletedIds) {
+        SQLiteDatabase db = getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (Recipe recipe : updated) {
+                saveRow(db, recipe, now);
+            }
+            for (String recipeId : deletedIds) {
+                db.delete(TABLE_RECIPES, COLUMN_ID + " = ?", new String[]{recipeId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        evictIfNeeded(db);
+    }
+
+    /**
+     * Replaces everything we have with a fresh copy of the whole catalog
+     *
+     * Recipes that aren't in the new list have been deleted, so they go too.
+     * Recipes we already had keep their place in the removal queue.
+     */
+    public void replaceAllRecipes(Collection<Recipe> recipes) {
+        SQLiteDatabase db = getWritableDatabase();
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (Recipe recipe : recipes) {
+                saveRow(db, recipe, now);
+            }
+            // Every row in the new list was just saved with this time; the rest are gone from Firebase
+            db.delete(TABLE_RECIPES, COLUMN_UPDATED_AT + " != ?", new String[]{String.valueOf(now)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        evictIfNeeded(db);
+    }
+
+    /**
+     * Forgets a recipe (for example when it was deleted from Firebase)
+     */
+    public void deleteRecipe(String recipeId) {
+        getWritableDatabase().delete(TABLE_RECIPES, COLUMN_ID + " = ?", new String[]{recipeId});
+    }
+
+    /**
+     * Forgets every saved recipe
+     */
+    public void clear() {
+        getWritableDatabase().delete(TABLE_RECIPES, null, null);
+    }
+
+    /**
+     * Checks whether two loads gave back the same thing
+     *
+     * Used to decide if a fresh copy from Firebase is worth telling the screen about.
+     * Only the fields this store saves are compared: a saved copy never has
+     * things like who is signed in, so those would always look different.
+     * Works on recipes, summaries, pages and lists of them.
+     */
+    public boolean sameContent(Object first, Object second) {
+        return Objects.equals(savedForm(first), savedForm(second));
+    }
+
+    /**
+     * What the store would keep of a loaded value, in a form that can be compared with equals
+     */
+    private Object savedForm(Object value) {
+        if (value instanceof Recipe) {
+            // The same columns putRecipe writes, with the row times left out
+            return recipeToValues((Recipe) value, 0);
+        }
+        if (value instanceof RecipeSummary) {
+            return ((RecipeSummary) value).toMap();
+        }
+        if (value instanceof RecipePage) {
+            RecipePage<?> page = (RecipePage<?>) value;
+            return Arrays.asList(savedForm(page.getRecipes()), page.getLastRecipeId(), page.hasMore());
+        }
+        if (value instanceof Collection) {
+            List<Object> forms = new ArrayList<>();
+            for (Object item : (Collection<?>) value) {
+                forms.add(savedForm(item));
+            }
+            return forms;
+        }
+        return value;
+    }
+
+    /**
+     * Removes the recipes nobody has opened for longest once we have too many
+     */
+    private void evictIfNeeded(SQLiteDatabase db) {
+        long count = DatabaseUtils.queryNumEntries(db, TABLE_RECIPES);
+        if (count <= MAX_RECIPES) {
+            return;
+        }
+        long excess = count - MAX_RECIPES;
+        db.execSQL("DELETE FROM " + TABLE_RECIPES + " WHERE " + COLUMN_ID + " IN ("
+            + "SELECT " + COLUMN_ID + " FROM " + TABLE_RECIPES
+            + " ORDER BY " + COLUMN_LAST_ACCESSED + " ASC LIMIT " + excess + ")");
+
+        EvictionListener listener = evictionListener;
+        if (listener != null) {
+            listener.onRecipesEvicted(excess);
+        }
+    }
+
+    private List<Recipe> queryRecipes(String selection, String[] selectionArgs, String limit) {
+        List<Recipe> recipes = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_RECIPES, null, selection,
+                selectionArgs, null, null, COLUMN_ID + " ASC", limit)) {
+            while (cursor.moveToNext()) {
+                recipes.add(cursorToRecipe(cursor));
+            }
+        }
+        return recipes;
+    }
+
+    /**
+     * Saves one row, leaving when it was last opened alone if we already had it
+     *
+     * Only getRecipe() counts as using a recipe; syncs and refreshes from
+     * Firebase mustn't move it to the back of the removal queue. (Upserts
+     * need a newer SQLite than minSdk has, so it's an update, then an insert
+     * if there was nothing to update.)
+     */
+    private void saveRow(SQLiteDatabase db, Recipe recipe, long now) {
+        ContentValues values = recipeToValues(recipe, now);
+        int updated = recipe.getId() == null ? 0
+            : db.update(TABLE_RECIPES, values, COLUMN_ID + " = ?", new String[]{recipe.getId()});
+        if (updated == 0) {
+            values.put(COLUMN_LAST_ACCESSED, now);
+            db.insertWithOnConflict(TABLE_RECIPES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+    }
+
+    private ContentValues recipeToValues(Recipe recipe, long now) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, recipe.getId());
+        values.put(COLUMN_NAME, recipe.getName());
+        values.put(COLUMN_DESCRIPTION, recipe.getDescription());
+        values.put(COLUMN_IMAGE_URL, recipe.getImageUrl());
+        values.put(COLUMN_PREP_TIME, recipe.getPrepTime());
+        values.put(COLUMN_COOK_TIME, recipe.getCookTime());
+        values.put(COLUMN_SERVINGS, recipe.getServings());
+        values.put(COLUMN_DIFFICULTY, recipe.getDifficulty());
+        values.put(COLUMN_CUISINE, recipe.getCuisine());
+        values.put(COLUMN_CATEGORY, recipe.getCategory());
+        values.put(COLUMN_RATING, recipe.getRating());
+        values.put(COLUMN_INGREDIENTS, gson.toJson(recipe.getIngredients()));
+        values.put(COLUMN_INSTRUCTIONS, gson.toJson(recipe.getInstructions()));
+        values.put(COLUMN_DIETARY_TAGS, gson.toJson(recipe.getDietaryTags()));
+        values.put(COLUMN_UPDATED_AT, now);
+        return values;
+    }
+
+    private Recipe cursorToRecipe(Cursor cursor) {
+        Recipe recipe = new Recipe(
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME)),
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DESCRIPTION)),
+            cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_IMAGE_URL)));
+        recipe.setId(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ID)));
+        recipe.setPrepTime(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_PREP_TIME)));
+        recipe.setCookTime(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_COOK_TIME)));
+        recipe.setServings(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_SERVINGS)));
+        recipe.setDifficulty(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DIFFICULTY)));
+        recipe.setCuisine(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CUISINE)));
+        recipe.setCategory(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CATEGORY)));
+        recipe.setRating(cursor.getDouble(cursor.getColumnIndexOrThrow(COLUMN_RATING)));
+        recipe.setIngredients(readList(cursor, COLUMN_INGREDIENTS));
+        recipe.setInstructions(readList(cursor, COLUMN_INSTRUCTIONS));
+        recipe.setDietaryTags(readList(cursor, COLUMN_DIETARY_TAGS));
+        return recipe;
+    }
+
+    private List<String> readList(Cursor cursor, String column) {
+        String json = cursor.getString(cursor.getColumnIndexOrThrow(column));
+        List<String> list = json != null ? gson.fromJson(json, STRING_LIST_TYPE) : null;
+        return list != null ? list : new ArrayList<>();
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * RecipeSuggestions - Keeps the Search Suggestions Ready
+ *
+ * Holds the one RecipeAutocomplete the search boxes share. When the app
+ * starts, the copy saved last time is read from a file, so suggestions work
+ * straight away. The file starts with RecipeStore's change mark from when it
+ * was built, so a fresh one is only built (and saved for next time) when the
+ * recipes on the phone have changed since. Call refresh() again after the
+ * recipes change (for example after a sync).
+ *
+ * Loading and building happen on a background thread. get() can be called
+ * from any thread and never waits; until something is ready it returns an
+ * autocomplete with no suggestions.
+ */
+package com.example.recipe_app;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class RecipeSuggestions {
+    private static final String TAG = "RecipeSuggestions";
+
+    // Where the autocomplete is saved between runs
+    private static final String FILE_NAME = "recipe_autocomplete.bin";
+
+    private static RecipeSuggestions instance;
+
+    private final RecipeStore store;
+    private final File file;
+    private volatile RecipeAutocomplete autocomplete = RecipeAutocomplete.empty();
+
+    // Loading and building happen here, one job at a time
+    private final ExecutorService buildExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean refreshQueued = new AtomicBoolean(false);   // So several refreshes in a row build once
+    private boolean loadedFromFile = false;   // Only used on the build thread
+    private String builtMark = null;          // The store's change mark the current suggestions match; build thread only
+
+    /**
+     * Gets the one and only RecipeSuggestions
+     */
+    public static synchronized RecipeSuggestions getInstance(Context context) {
+        if (instance == null) {
+            instance = new RecipeSuggestions(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private RecipeSuggestions(Context context) {
+        store = RecipeStore.getInstance(context);
+        file = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * The current suggestions (never null)
+     */
+    public RecipeAutocomplete get() {
+        return autocomplete;
+    }
+
+    /**
+     * Shortcut for get().suggest()
+     */
+    public List<String> suggest(String typed) {
+        return autocomplete.suggest(typed);
+    }
+
+    /**
+     * Builds fresh suggestions from the saved recipes in the background, then saves them
+     *
+     * The first time, the copy from the last run is loaded before building.
+     * Nothing is built when the recipes haven't changed since the current
+     * suggestions were made.
+     */
+    public void refresh() {
+        if (!refreshQueued.compareAndSet(false, true)) {
+            return;  // A build that will see the latest recipes is already waiting
+        }
+        buildExecutor.execute(() -> {
+            if (!loadedFromFile) {
+                loadedFromFile = true;
+                loadSaved();
+            }
+            refreshQueued.set(false);
+
+            // Read the mark before the recipes, so a change part way through builds again next time
+            String mark = store.getChangeMark();
+            if (mark.equals(builtMark)) {
+                return;
+            }
+            RecipeAutocomplete fresh = RecipeAutocomplete.build(store.getAllRecipes());
+            autocomplete = fresh;
+            builtMark = mark;
+            save(fresh, mark);
+        });
+    }
+
+    private void loadSaved() {
+        if (!file.exists()) {
+            return;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            String mark = new DataInputStream(in).readUTF();
+            autocomplete = RecipeAutocomplete.readFrom(in);
+            builtMark = mark;
+        } catch (IOException e) {
+            // An old or damaged copy; the fresh build replaces it
+            Log.w(TAG, "Couldn't read saved suggestions", e);
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so a crash part way through can't leave a broken copy
+     */
+    private void save(RecipeAutocomplete fresh, String mark) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+            new DataOutputStream(out).writeUTF(mark);
+            fresh.writeTo(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't save suggestions", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Couldn't replace saved suggestions");
+            temp.delete();
+        }
+    }
+}
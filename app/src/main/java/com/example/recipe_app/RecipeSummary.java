@@ -0,0 +1,171 @@
+/**
+ * RecipeSummary - The Short Version of a Recipe
+ *
+ * List screens only show a recipe's name, picture, time, difficulty, cuisine
+ * and rating. Loading the full Recipe for every row means downloading and
+ * keeping every ingredient and instruction too, which nobody sees until they
+ * open the recipe.
+ *
+ * A summary holds just what a list row needs. Firebase keeps a copy of each
+ * recipe's summary in the "recipe_summaries" collection (written together with
+ * the recipe by FirebaseManager.saveRecipe), so lists download only summaries
+ * and the full recipe is loaded when the detail screen opens.
+ */
+package com.example.recipe_app;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RecipeSummary implements Serializable {
+    // Longest description we keep; rows only show a couple of lines anyway
+    static final int MAX_DESCRIPTION_LENGTH = 200;
+
+    private String id;          // The same ID as the full recipe
+    private String name;        // What the recipe is called
+    private String description; // The start of the description
+    private String imageUrl;    // Where to find a picture of the finished dish
+    private int prepTime;       // How long it takes to prepare (in minutes)
+    private int cookTime;       // How long it takes to cook (in minutes)
+    private String difficulty;  // How hard it is to make (Easy, Medium, Hard)
+    private String cuisine;     // What type of food it is (e.g., Italian, Chinese)
+    private String category;    // What kind of dish it is (Main Course, Dessert, etc.)
+    private double rating;      // How good people think it is (0.0 to 5.0)
+    private List<String> dietaryTags; // Dietary information (e.g., Vegetarian, Gluten-Free)
+    private boolean isFavorite; // Whether the user likes this recipe
+
+    public RecipeSummary() {
+        this.dietaryTags = new ArrayList<>();
+    }
+
+    /**
+     * Makes a summary from a full recipe we already have
+     */
+    public static RecipeSummary from(Recipe recipe) {
+        RecipeSummary summary = new RecipeSummary();
+        summary.id = recipe.getId();
+        summary.name = recipe.getName();
+        summary.description = shorten(recipe.getDescription());
+        summary.imageUrl = recipe.getImageUrl();
+        summary.prepTime = recipe.getPrepTime();
+        summary.cookTime = recipe.getCookTime();
+        summary.difficulty = recipe.getDifficulty();
+        summary.cuisine = recipe.getCuisine();
+        summary.category = recipe.getCategory();
+        summary.rating = recipe.getRating();
+        if (recipe.getDietaryTags() != null) {
+            summary.dietaryTags = new ArrayList<>(recipe.getDietaryTags());
+        }
+        summary.isFavorite = recipe.isFavorite();
+        return summary;
+    }
+
+    /**
+     * Makes summaries from a list of full recipes
+     */
+    public static List<RecipeSummary> fromAll(List<Recipe> recipes) {
+        List<RecipeSummary> summaries = new ArrayList<>(recipes.size());
+        for (Recipe recipe : recipes) {
+            summaries.add(from(recipe));
+        }
+        return summaries;
+    }
+
+    /**
+     * Turns the summary into the fields we save in the "recipe_summaries" collection
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", name);
+        map.put("description", description);
+        map.put("imageUrl", imageUrl);
+        map.put("prepTime", prepTime);
+        map.put("cookTime", cookTime);
+        map.put("totalTime", prepTime + cookTime);  // Stored so Firebase can filter on it (see RecipeQueryPlanner)
+        map.put("difficulty", difficulty);
+        map.put("cuisine", cuisine);
+        map.put("category", category);
+        map.put("rating", rating);
+        map.put("dietaryTags", dietaryTags);
+        return map;
+    }
+
+    private static String shorten(String text) {
+        if (text == null || text.length() <= MAX_DESCRIPTION_LENGTH) {
+            return text;
+        }
+        return text.substring(0, MAX_DESCRIPTION_LENGTH - 1) + "…";
+    }
+
+    // Simple getters and setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public String getDescription() { return description; }
+    public void setDescription(String description) { this.description = shorten(description); }
+
+    public String getImageUrl() { return imageUrl; }
+    public void setImageUrl(String imageUrl) { this.imageUrl = imageUrl; }
+
+    public int getPrepTime() { return prepTime; }
+    public void setPrepTime(int prepTime) { this.prepTime = prepTime; }
+
+    public int getCookTime() { return cookTime; }
+    public void setCookTime(int cookTime) { this.cookTime = cookTime; }
+
+    public String getCuisine() { return cuisine; }
+    public void setCuisine(String cuisine) { this.cuisine = cuisine; }
+
+    public String getCategory() { return category; }
+    public void setCategory(String category) { this.category = category; }
+
+    public double getRating() { return rating; }
+    public void setRating(double rating) { this.rating = rating; }
+
+    public List<String> getDietaryTags() { return dietaryTags; }
+    public void setDietaryTags(List<String> tags) { this.dietaryTags = new ArrayList<>(tags); }
+
+    public boolean isFavorite() { return isFavorite; }
+    public void setFavorite(boolean favorite) { this.isFavorite = favorite; }
+
+    /**
+     * How hard the recipe is, worked out from the total time if it wasn't set
+     * (the same rule as Recipe.getDifficulty)
+     */
+    public String getDifficulty() {
+        if (difficulty != null) {
+            return difficulty;
+        }
+        int totalTime = prepTime + cookTime;
+        if (totalTime <= 30) return "Easy";
+        if (totalTime <= 60) return "Medium";
+        return "Hard";
+    }
+
+    public void setDifficulty(String difficulty) { this.difficulty = difficulty; }
+
+    /**
+     * Total time in minutes
+     */
+    public int getTotalTime() {
+        return prepTime + cookTime;
+    }
+
+    /**
+     * Shows the total cooking time in a nice format (the same as Recipe does)
+     */
+    public String getCookingTimeDisplay() {
+        int totalTime = getTotalTime();
+        if (totalTime >= 60) {
+            int hours = totalTime / 60;
+            int minutes = totalTime % 60;
+            return hours + "h " + (minutes > 0 ? minutes + "m" : "");
+        }
+        return totalTime + " min";
+    }
+}
@@ -0,0 +1,334 @@
+/**
+ * RecipeSyncEngine - Only Downloads the Recipes That Changed
+ *
+ * Every recipe in Firebase has a "timestamp" saying when it was last saved.
+ * Instead of downloading the whole catalog every time, this class remembers
+ * the newest timestamp it has seen (the "high-water mark") and next time asks
+ * only for recipes saved after it. Those few recipes are merged into the copy
+ * kept on the phone (RecipeStore).
+ *
+ * Deleted recipes:
+ * - Deleting a recipe leaves a small "tombstone" document behind (deleted = true
+ *   with a new timestamp), so it shows up as a change and we remove our copy
+ * - Once a day we download everything anyway and replace our copy, which also
+ *   catches anything the quick checks missed (for example a phone with the wrong clock)
+ * - Tombstones are removed from Firebase after TOMBSTONE_RETENTION_MILLIS (see
+ *   TombstonePurger). That's far longer than the gap between full downloads,
+ *   so no phone can miss one
+ *
+ * Gaps:
+ * - RecipeStore only keeps so many recipes. If it has to remove some to make
+ *   room, the quick checks would never bring them back (they're older than the
+ *   high-water mark), so the copy is marked incomplete and the next sync
+ *   downloads everything. If even that doesn't fit, the copy stays incomplete
+ *   until a later full download does; isComplete() says which
+ * - checkRowCount() also compares how many recipes are saved with how many
+ *   Firebase has, using a count query rather than a download, in case the
+ *   copy lost recipes some other way
+ */
+package com.example.recipe_app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.AggregateQuerySnapshot;
+import com.google.firebase.firestore.AggregateSource;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+public class RecipeSyncEngine {
+    private static final String TAG = "RecipeSyncEngine";
+
+    // Where we remember how far we've synced
+    private static final String PREFS_NAME = "RecipeSyncPrefs";
+    private static final String LAST_SYNC_PREFIX = "last_sync_";        // Newest timestamp we've seen
+    private static final String LAST_FULL_SYNC_PREFIX = "last_full_sync_"; // When we last downloaded everything
+    private static final String INCOMPLETE_PREFIX = "incomplete_";      // True once recipes were removed to make room
+
+    // The fields every synced document has
+    static final String FIELD_TIMESTAMP = "timestamp";
+    static final String FIELD_DELETED = "deleted";
+
+    // How often we download everything to catch anything we missed
+    private static final long FULL_SYNC_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    // How long tombstones are kept in Firebase; must be much longer than FULL_SYNC_INTERVAL_MILLIS
+    static final long TOMBSTONE_RETENTION_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    // Timestamps come from each phone's clock, so look a little further back in case one is behind
+    private static final long CLOCK_SKEW_MARGIN_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * What a sync changed
+     */
+    public static class SyncResult {
+        public final boolean fullSync;           // True if we downloaded everything
+        public final List<String> updatedIds;    // Recipes that were added or changed
+        public final List<String> deletedIds;    // Recipes that were deleted
+
+        SyncResult(boolean fullSync, List<String> updatedIds, List<String> deletedIds) {
+            this.fullSync = fullSync;
+            this.updatedIds = updatedIds;
+            this.deletedIds = deletedIds;
+        }
+
+        public boolean hasChanges() {
+            return fullSync || !updatedIds.isEmpty() || !deletedIds.isEmpty();
+        }
+    }
+
+    private final CollectionReference collection;
+    private final RecipeStore store;
+    private final ExecutorService storeExecutor;
+    private final Function<DocumentSnapshot, Recipe> converter;
+    private final SharedPreferences preferences;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Everyone waiting on the sync that's running now; told on the main thread
+    private final SyncWaiters<SyncResult> waiting = new SyncWaiters<SyncResult>(mainHandler::post) {
+        @Override
+        void finish(SyncResult result, Exception error) {
+            if (error != null) {
+                Log.w(TAG, "Sync of " + collection.getPath() + " failed", error);
+            }
+            super.finish(result, error);
+        }
+    };
+
+    // True while a full sync is replacing the saved copy (only used on the store's thread)
+    private boolean replacingAll = false;
+
+    /**
+     * Creates a sync engine for one collection
+     * @param collection The Firebase collection to sync
+     * @param store The copy on the phone to merge changes into
+     * @param storeExecutor The background thread the store is used on
+     * @param converter Turns a Firebase document into a Recipe
+     */
+    public RecipeSyncEngine(Context context, CollectionReference collection, RecipeStore store,
+                            ExecutorService storeExecutor, Function<DocumentSnapshot, Recipe> converter) {
+        this.collection = collection;
+        this.store = store;
+        this.storeExecutor = storeExecutor;
+        this.converter = converter;
+        this.preferences = context.getApplicationContext()
+            .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        store.setEvictionListener(this::onRecipesEvicted);
+    }
+
+    /**
+     * Checks whether the copy on the phone has ever been fully synced
+     */
+    public boolean hasSynced() {
+        return getLastSync() > 0;
+    }
+
+    /**
+     * Checks whether the copy on the phone holds every recipe in the catalog
+     *
+     * False until the first sync, and after the store had to remove recipes
+     * to make room (or checkRowCount found fewer than Firebase has), until a
+     * full sync fits everything again.
+     */
+    public boolean isComplete() {
+        return hasSynced() && !preferences.getBoolean(INCOMPLETE_PREFIX + collection.getPath(), false);
+    }
+
+    /**
+     * Brings the copy on the phone up to date with Firebase
+     *
+     * If a sync is already running, the callback just waits for that one.
+     * Must be called on the main thread; the callback is too.
+     */
+    public void sync(FirebaseManager.FirebaseCallback<SyncResult> callback) {
+        if (!waiting.join(callback)) {
+            return;
+        }
+
+        long lastSync = getLastSync();
+        long lastFullSync = preferences.getLong(LAST_FULL_SYNC_PREFIX + collection.getPath(), 0);
+        if (lastSync == 0 || System.currentTimeMillis() - lastFullSync > FULL_SYNC_INTERVAL_MILLIS) {
+            fullSync(lastSync);
+        } else {
+            deltaSync(lastSync);
+        }
+    }
+
+    /**
+     * Forgets how far we've synced, so the next sync downloads everything
+     */
+    public void reset() {
+        preferences.edit()
+            .remove(LAST_SYNC_PREFIX + collection.getPath())
+            .remove(LAST_FULL_SYNC_PREFIX + collection.getPath())
+            .remove(INCOMPLETE_PREFIX + collection.getPath())
+            .apply();
+    }
+
+    /**
+     * Downloads only what changed since the last sync
+     */
+    private void deltaSync(long lastSync) {
+        Query changed = collection
+            .whereGreaterThan(FIELD_TIMESTAMP, lastSync - CLOCK_SKEW_MARGIN_MILLIS)
+            .orderBy(FIELD_TIMESTAMP);
+
+        // Decoding and saving both happen on the store's background thread; a bad
+        // document or a database error fails the sync rather than leaving it stuck
+        changed.get()
+            .addOnSuccessListener(storeExecutor, snapshot -> waiting.run(() -> {
+                DataLayerMetrics.getInstance().recordReads(snapshot);
+                List<Recipe> updated = new ArrayList<>();
+                List<String> updatedIds = new ArrayList<>();
+                List<String> deletedIds = new ArrayList<>();
+                long highWaterMark = lastSync;
+                for (QueryDocumentSnapshot document : snapshot) {
+                    highWaterMark = Math.max(highWaterMark, timestampOf(document));
+                    if (isTombstone(document)) {
+                        deletedIds.add(document.getId());
+                    } else {
+                        updated.add(converter.apply(document));
+                        updatedIds.add(document.getId());
+                    }
+                }
+
+                store.applyChanges(updated, deletedIds);
+                saveMarks(highWaterMark, false);
+                waiting.finish(new SyncResult(false, updatedIds, deletedIds), null);
+            }))
+            .addOnFailureListener(e -> waiting.finish(null, e));
+    }
+
+    /**
+     * Downloads everything and replaces the copy on the phone
+     */
+    private void fullSync(long lastSync) {
+        collection.get()
+            .addOnSuccessListener(storeExecutor, snapshot -> waiting.run(() -> {
+                DataLayerMetrics.getInstance().recordReads(snapshot);
+                List<Recipe> recipes = new ArrayList<>();
+                List<String> updatedIds = new ArrayList<>();
+                long highWaterMark = lastSync;
+                for (QueryDocumentSnapshot document : snapshot) {
+                    highWaterMark = Math.max(highWaterMark, timestampOf(document));
+                    if (!isTombstone(document)) {
+                        recipes.add(converter.apply(document));
+                        updatedIds.add(document.getId());
+                    }
+                }
+                // Assume it all fits; onRecipesEvicted says otherwise while it's being saved
+                String incompleteKey = INCOMPLETE_PREFIX + collection.getPath();
+                boolean wasIncomplete = preferences.getBoolean(incompleteKey, false);
+                preferences.edit().remove(incompleteKey).apply();
+                replacingAll = true;
+                try {
+                    store.replaceAllRecipes(recipes);
+                } catch (RuntimeException e) {
+                    // Nothing was replaced, so the old copy's gaps are still there
+                    preferences.edit().putBoolean(incompleteKey, wasIncomplete).apply();
+                    throw e;
+                } finally {
+                    replacingAll = false;
+                }
+                // Never leave the mark at 0 after a successful full sync, even for an empty catalog
+                saveMarks(Math.max(highWaterMark, 1), true);
+                waiting.finish(new SyncResult(true, updatedIds, new ArrayList<>()), null);
+            }))
+            .addOnFailureListener(e -> waiting.finish(null, e));
+    }
+
+    /**
+     * Checks the copy on the phone has as many recipes as Firebase (call after a sync)
+     *
+     * Firebase counts the recipes without sending them, for one read per
+     * 1,000. If the phone has fewer, the copy is marked incomplete the same
+     * way as after an eviction, so it isn't used to answer "everything that
+     * matches" until a full sync has filled it again.
+     */
+    public void checkRowCount() {
+        if (!isComplete()) {
+            return;  // Already known to have gaps
+        }
+        Task<AggregateQuerySnapshot> allTask = collection.count().get(AggregateSource.SERVER);
+        Task<AggregateQuerySnapshot> deletedTask = collection.whereEqualTo(FIELD_DELETED, true)
+            .count().get(AggregateSource.SERVER);
+        Tasks.whenAllSuccess(allTask, deletedTask)
+            .addOnSuccessListener(storeExecutor, results -> {
+                long all = allTask.getResult().getCount();
+                long live = all - deletedTask.getResult().getCount();
+                DataLayerMetrics.getInstance().recordReads(Math.max(1, (all + 999) / 1000) * 2);
+                try {
+                    long saved = store.getRecipeCount();
+                    if (saved < live) {
+                        markIncomplete("has " + saved + " of " + live + " recipes");
+                    }
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Couldn't count saved " + collection.getPath(), e);
+                }
+            })
+            .addOnFailureListener(e -> Log.w(TAG, "Couldn't count " + collection.getPath(), e));
+    }
+
+    /**
+     * Called by RecipeStore when it removed recipes to make room
+     *
+     * The quick checks only ask for newer recipes, so the removed ones would
+     * never come back.
+     */
+    private void onRecipesEvicted(long count) {
+        markIncomplete("lost " + count + " recipes to make room");
+    }
+
+    /**
+     * Remembers the copy has gaps (on the store's thread)
+     *
+     * If the copy was complete until now, the next sync downloads everything
+     * instead. If a full download itself didn't fit, doing it again won't
+     * help, so it waits for the daily one.
+     */
+    private void markIncomplete(String reason) {
+        String incompleteKey = INCOMPLETE_PREFIX + collection.getPath();
+        boolean wasComplete = !preferences.getBoolean(incompleteKey, false);
+        Log.w(TAG, "Saved copy of " + collection.getPath() + " " + reason);
+        SharedPreferences.Editor editor = preferences.edit().putBoolean(incompleteKey, true);
+        if (wasComplete && !replacingAll) {
+            editor.remove(LAST_FULL_SYNC_PREFIX + collection.getPath());
+        }
+        editor.apply();
+    }
+
+    private long getLastSync() {
+        return preferences.getLong(LAST_SYNC_PREFIX + collection.getPath(), 0);
+    }
+
+    private void saveMarks(long highWaterMark, boolean fullSync) {
+        SharedPreferences.Editor editor = preferences.edit()
+            .putLong(LAST_SYNC_PREFIX + collection.getPath(), highWaterMark);
+        if (fullSync) {
+            editor.putLong(LAST_FULL_SYNC_PREFIX + collection.getPath(), System.currentTimeMillis());
+        }
+        editor.apply();
+    }
+
+    static boolean isTombstone(DocumentSnapshot document) {
+        return Boolean.TRUE.equals(document.getBoolean(FIELD_DELETED));
+    }
+
+    static long timestampOf(DocumentSnapshot document) {
+        Long timestamp = document.getLong(FIELD_TIMESTAMP);
+        return timestamp != null ? timestamp : 0;
+    }
+}
@@ -1,16 +1,23 @@
 /**
  * SearchActivity handles recipe search functionality.
  * It provides a search interface where users can search for recipes
- * and displays the results in a list format.
+ * and displays the results in a list format. While typing, a dropdown
+ * suggests recipe names, cuisines and ingredients (see RecipeSuggestions).
  */
 package com.example.recipe_app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.util.Log;
 import android.view.View;
-import android.widget.EditText;
+import android.widget.ArrayAdapter;
+import android.widget.AutoCompleteTextView;
+import android.widget.Filter;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
@@ -19,28 +26,54 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class SearchActivity extends AppCompatActivity implements RecipeSearchAdapter.OnRecipeClickListener {
+    private static final String TAG = "SearchActivity";
+
+    // Most "did you mean" results shown when nothing matches exactly
+    private static final int FUZZY_RESULT_LIMIT = 50;
+
     // UI Components
-    private EditText searchInput;           // Search input field
+    private AutoCompleteTextView searchInput;  // Search input field, with suggestions
     private RecyclerView searchResults;     // List of search results
     private ProgressBar progressBar;        // Loading indicator
     private TextView noResultsText;         // Empty state text
     
     // Data
     private RecipeSearchAdapter adapter;    // Adapter for search results
-    private List<Recipe> allRecipes;        // Complete list of recipes
+    private volatile RecipeSearchIndex searchIndex = new RecipeSearchIndex();             // Word index of every recipe
+    private volatile RecipeFuzzyIndex fuzzyIndex = new RecipeFuzzyIndex();                // Finds misspelled names
+    private volatile Map<String, RecipeSummary> recipesById = new ConcurrentHashMap<>(); // Every recipe, by ID
+
+    // The index is built and updated here, one job at a time, so typing never waits for it
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Searches in the background once typing pauses; only the newest results are shown
+    private SearchPipeline<List<RecipeSummary>> searchPipeline;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_search);
 
+        searchPipeline = new SearchPipeline<>("recipes",
+            getResources().getInteger(R.integer.search_debounce_millis),
+            this::filterRecipes,
+            (query, results) -> showResults(results));
+        searchPipeline.setErrorListener((query, e) -> progressBar.setVisibility(View.GONE));
+
         // Initialize UI components
         initializeViews();
         setupRecyclerView();
         setupSearchListener();
+        setupSuggestions();
 
         // Load initial data
         loadRecipes();
@@ -78,31 +111,115 @@ public class SearchActivity extends AppCompatActivity implements RecipeSearchAda
 
             @Override
             public void afterTextChanged(Editable s) {
-                performSearch(s.toString());
+                performSearch(s.toString(), false);
             }
         });
     }
 
+    /**
+     * Shows suggestions under the search box; picking one searches for it straight away
+     */
+    private void setupSuggestions() {
+        searchInput.setAdapter(new SuggestionAdapter(this, RecipeSuggestions.getInstance(this)));
+        searchInput.setOnItemClickListener((parent, view, position, id) ->
+            performSearch(searchInput.getText().toString(), true));
+    }
+
     /**
      * Loads all recipes from the data source
+     *
+     * Builds the search index from the recipes saved on the phone (in the
+     * background), then checks Firebase for anything that changed since and
+     * updates just those recipes.
      */
     private void loadRecipes() {
-        // TODO: Implement recipe loading from local storage
-        allRecipes = new ArrayList<>();
-        performSearch("");
+        progressBar.setVisibility(View.VISIBLE);
+        RecipeStore store = RecipeStore.getInstance(this);
+        indexExecutor.execute(() -> {
+            rebuildIndex(store);
+            mainHandler.post(() -> performSearch(searchInput.getText().toString(), true));
+        });
+
+        FirebaseManager.getInstance().syncRecipes(new FirebaseManager.FirebaseCallback<RecipeSyncEngine.SyncResult>() {
+            @Override
+            public void onSuccess(RecipeSyncEngine.SyncResult result) {
+                if (result.hasChanges()) {
+                    applySyncResult(store, result);
+                    RecipeSuggestions.getInstance(SearchActivity.this).refresh();
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                // The recipes already on the phone are still searchable
+                Log.w(TAG, "Couldn't check for recipe changes", e);
+            }
+        });
+    }
+
+    /**
+     * Builds a fresh index of every saved recipe (on the index thread)
+     */
+    private void rebuildIndex(RecipeStore store) {
+        List<Recipe> recipes = store.getAllRecipes();
+        Map<String, RecipeSummary> byId = new ConcurrentHashMap<>();
+        for (Recipe recipe : recipes) {
+            if (recipe.getId() != null) {
+                byId.put(recipe.getId(), RecipeSummary.from(recipe));
+            }
+        }
+        searchIndex = RecipeSearchIndex.build(recipes);
+        fuzzyIndex = RecipeFuzzyIndex.build(recipes);
+        recipesById = byId;
+    }
+
+    /**
+     * Updates the index with what changed in Firebase, then searches again
+     */
+    private void applySyncResult(RecipeStore store, RecipeSyncEngine.SyncResult result) {
+        if (isDestroyed()) {
+            return;  // The sync finished after the screen closed; indexExecutor is shut down
+        }
+        indexExecutor.execute(() -> {
+            if (result.fullSync) {
+                rebuildIndex(store);
+            } else {
+                for (Recipe recipe : store.getRecipesByIds(result.updatedIds)) {
+                    searchIndex.add(recipe);
+                    fuzzyIndex.add(recipe);
+                    recipesById.put(recipe.getId(), RecipeSummary.from(recipe));
+                }
+                for (String recipeId : result.deletedIds) {
+                    searchIndex.remove(recipeId);
+                    fuzzyIndex.remove(recipeId);
+                    recipesById.remove(recipeId);
+                }
+            }
+            mainHandler.post(() -> performSearch(searchInput.getText().toString(), true));
+        });
     }
 
     /**
      * Performs search on recipes based on query
      * @param query The search query string
+     * @param immediately True to skip waiting for typing to pause (e.g. when the recipes changed)
      */
-    private void performSearch(String query) {
+    private void performSearch(String query, boolean immediately) {
         progressBar.setVisibility(View.VISIBLE);
         noResultsText.setVisibility(View.GONE);
 
-        // Filter recipes based on query
-        List<Recipe> results = filterRecipes(query);
-        
+        // Filter recipes based on query, in the background
+        if (immediately) {
+            searchPipeline.submitNow(query);
+        } else {
+            searchPipeline.submit(query);
+        }
+    }
+
+    /**
+     * Shows the newest search results
+     */
+    private void showResults(List<RecipeSummary> results) {
         // Update UI with results
         adapter.updateRecipes(results);
         progressBar.setVisibility(View.GONE);
@@ -110,16 +227,28 @@ public class SearchActivity extends AppCompatActivity implements RecipeSearchAda
     }
 
     /**
-     * Filters recipes based on search query
+     * Filters recipes based on search query (runs on the search thread)
+     *
+     * Every word typed has to start a word in the recipe's name, description,
+     * cuisine, dietary tags or ingredients. The best matches come first, so a
+     * word in the name beats the same word in the description. If nothing
+     * matches, recipes with similarly spelled names are shown instead,
+     * closest first.
      * @param query The search query string
+     * @param cancellation Tells us when a newer search has replaced this one
      * @return Filtered list of recipes
      */
-    private List<Recipe> filterRecipes(String query) {
-        List<Recipe> filteredList = new ArrayList<>();
-        String lowercaseQuery = query.toLowerCase().trim();
+    private List<RecipeSummary> filterRecipes(String query, SearchPipeline.Cancellation cancellation) {
+        Map<String, RecipeSummary> recipes = recipesById;
+        List<String> matchingIds = searchIndex.searchRanked(query);
+        if (matchingIds.isEmpty() && !query.trim().isEmpty() && !cancellation.isCancelled()) {
+            matchingIds = fuzzyIndex.search(query, FUZZY_RESULT_LIMIT);
+        }
+        List<RecipeSummary> filteredList = new ArrayList<>(matchingIds.size());
 
-        for (Recipe recipe : allRecipes) {
-            if (recipe.getName().toLowerCase().contains(lowercaseQuery)) {
+        for (String recipeId : matchingIds) {
+            RecipeSummary recipe = recipes.get(recipeId);
+            if (recipe != null) {
                 filteredList.add(recipe);
             }
         }
@@ -132,9 +261,58 @@ public class SearchActivity extends AppCompatActivity implements RecipeSearchAda
      * @param recipe The recipe that was clicked
      */
     @Override
-    public void onRecipeClick(Recipe recipe) {
-        Intent intent = new Intent(this, RecipeDetailActivity.class);
-        intent.putExtra("RECIPE_ID", recipe.getId());
-        startActivity(intent);
+    public void onRecipeClick(RecipeSummary recipe) {
+        // The detail screen loads the full recipe itself
+        startActivity(RecipeDetailActivity.newIntent(this, recipe.getId()));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        indexExecutor.shutdownNow();
+        searchPipeline.shutdown();
+    }
+
+    /**
+     * Fills the suggestion dropdown from RecipeSuggestions
+     *
+     * The dropdown runs the filter on a background thread, and looking up
+     * suggestions is quick anyway, so nothing else is needed.
+     */
+    private static class SuggestionAdapter extends ArrayAdapter<String> {
+        private final RecipeSuggestions suggestions;
+        private final Filter filter = new Filter() {
+            @Override
+            protected FilterResults performFiltering(CharSequence constraint) {
+                List<String> found = constraint == null
+                    ? Collections.emptyList()
+                    : suggestions.suggest(constraint.toString());
+                FilterResults results = new FilterResults();
+                results.values = found;
+                results.count = found.size();
+                return results;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            protected void publishResults(CharSequence constraint, FilterResults results) {
+                setNotifyOnChange(false);
+                clear();
+                if (results.values != null) {
+                    addAll((List<String>) results.values);
+                }
+                notifyDataSetChanged();
+            }
+        };
+
+        SuggestionAdapter(Context context, RecipeSuggestions suggestions) {
+            super(context, android.R.layout.simple_dropdown_item_1line);
+            this.suggestions = suggestions;
+        }
+
+        @Override
+        public Filter getFilter() {
+            return filter;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,260 @@
+/**
+ * SearchPipeline - Runs Searches While the User Types, Without Freezing the Screen
+ *
+ * Searching on every keystroke, on the main thread, makes typing feel sticky
+ * and wastes work on words the user hasn't finished. This class:
+ * - Waits until typing pauses for a moment ("debouncing") before searching
+ * - Runs the search on a background thread
+ * - Cancels a search that's been replaced by a newer one, whether it's
+ *   still waiting, queued or already running
+ * - Only ever hands the newest result to the screen, on the main thread
+ *
+ * Every search is timed. getLatency() measures from the last keystroke to the
+ * result being shown (including the pause), and the search itself shows up
+ * in DataLayerMetrics as "search.<name>", so slow searches can be spotted
+ * on the Data Usage screen. A search replaced after it started still counts
+ * there (as cancelled), and getCancelledLatency() times how long it ran
+ * before being dropped, since the replaced searches are often the slow ones.
+ *
+ * A search that throws is logged and handed to the ErrorListener, if there
+ * is one, so the screen can stop showing that it's busy. Once shutdown() has
+ * been called, new searches are ignored.
+ *
+ * submit() and cancel() must be called on the main thread.
+ */
+package com.example.recipe_app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SearchPipeline<T> {
+    private static final String TAG = "SearchPipeline";
+
+    /**
+     * Does the actual searching, on a background thread
+     */
+    public interface Searcher<T> {
+        /**
+         * @param query The text to search for
+         * @param cancellation Long searches should check this now and then and give up once it's cancelled
+         * @return The results (may be null; a cancelled search's results are thrown away anyway)
+         */
+        T search(String query, Cancellation cancellation);
+    }
+
+    /**
+     * Receives the newest results, on the main thread
+     */
+    public interface ResultListener<T> {
+        void onResults(String query, T results);
+    }
+
+    /**
+     * Hears about a search that threw instead of answering, on the main thread
+     */
+    public interface ErrorListener {
+        void onSearchFailed(String query, RuntimeException e);
+    }
+
+    /**
+     * Tells a running search whether a newer one has replaced it
+     */
+    public interface Cancellation {
+        boolean isCancelled();
+    }
+
+    private final String name;
+    private final long debounceMillis;
+    private final Searcher<T> searcher;
+    private final ResultListener<T> listener;
+    private ErrorListener errorListener;
+
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final DataLayerMetrics metrics = DataLayerMetrics.getInstance();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram cancelledLatency = new LatencyHistogram();   // Started, then replaced
+
+    // Goes up with every new query; a search whose number is out of date is cancelled
+    private final AtomicInteger generation = new AtomicInteger();
+    private Runnable pendingSearch;     // Waiting for typing to pause
+    private Future<?> runningSearch;    // Queued or running on the background thread
+    private int cancelledCount = 0;     // Searches replaced before they finished
+    private boolean shutDown = false;   // Set by shutdown(); nothing new starts after that
+
+    /**
+     * Creates a pipeline
+     * @param name Used in the metrics, e.g. "recipes"
+     * @param debounceMillis How long typing has to pause before searching
+     * @param searcher Does the searching (on a background thread)
+     * @param listener Gets the newest results (on the main thread)
+     */
+    public SearchPipeline(String name, long debounceMillis, Searcher<T> searcher, ResultListener<T> listener) {
+        this.name = name;
+        this.debounceMillis = debounceMillis;
+        this.searcher = searcher;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets who hears about searches that fail (can be null)
+     */
+    public void setErrorListener(ErrorListener errorListener) {
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Searches for the text once typing pauses, replacing any earlier search
+     */
+    public void submit(String query) {
+        schedule(query, debounceMillis);
+    }
+
+    /**
+     * Searches for the text straight away, replacing any earlier search
+     *
+     * Use this when the data changed rather than the text.
+     */
+    public void submitNow(String query) {
+        schedule(query, 0);
+    }
+
+    /**
+     * Drops any waiting or running search without starting a new one
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+        cancelPending();
+    }
+
+    /**
+     * Cancels everything and stops the background thread (call from onDestroy)
+     */
+    public void shutdown() {
+        shutDown = true;
+        cancel();
+        searchExecutor.shutdownNow();
+    }
+
+    /**
+     * Time from the last keystroke to the results being shown
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Time from the last keystroke until a search that had started was dropped for a newer one
+     */
+    public LatencyHistogram getCancelledLatency() {
+        return cancelledLatency;
+    }
+
+    /**
+     * True while a search is waiting for typing to pause or hasn't shown its results yet
+     */
+    public boolean isBusy() {
+        return pendingSearch != null || runningSearch != null;
+    }
+
+    public int getCancelledCount() {
+        return cancelledCount;
+    }
+
+    private void schedule(String query, long delayMillis) {
+        if (shutDown) {
+            return;  // The screen has closed (for example a sync finished after onDestroy)
+        }
+        int myGeneration = generation.incrementAndGet();
+        cancelPending();
+
+        long submittedAt = SystemClock.elapsedRealtime();
+        pendingSearch = () -> {
+            pendingSearch = null;
+            runningSearch = searchExecutor.submit(() -> run(query, myGeneration, submittedAt));
+        };
+        if (delayMillis > 0) {
+            mainHandler.postDelayed(pendingSearch, delayMillis);
+        } else {
+            pendingSearch.run();
+        }
+    }
+
+    private void cancelPending() {
+        if (pendingSearch != null) {
+            mainHandler.removeCallbacks(pendingSearch);
+            pendingSearch = null;
+            cancelledCount++;
+        }
+        if (runningSearch != null) {
+            if (runningSearch.cancel(true)) {
+                cancelledCount++;
+            }
+            runningSearch = null;
+        }
+    }
+
+    /**
+     * Runs one search on the background thread and sends the results back if they're still wanted
+     */
+    private void run(String query, int myGeneration, long submittedAt) {
+        Cancellation cancellation = () -> generation.get() != myGeneration
+            || Thread.currentThread().isInterrupted();
+        if (cancellation.isCancelled()) {
+            return;
+        }
+
+        DataLayerMetrics.Call call = metrics.start("search." + name);
+        T results;
+        try {
+            results = searcher.search(query, cancellation);
+        } catch (RuntimeException e) {
+            if (cancellation.isCancelled()) {
+                dropped(call, submittedAt);  // Gave up part way because it was replaced
+                return;
+            }
+            Log.e(TAG, "Search for \"" + query + "\" failed", e);
+            call.finish(false);
+            mainHandler.post(() -> {
+                if (generation.get() == myGeneration) {
+                    runningSearch = null;
+                    if (errorListener != null) {
+                        errorListener.onSearchFailed(query, e);
+                    }
+                }
+            });
+            return;
+        }
+        if (cancellation.isCancelled()) {
+            dropped(call, submittedAt);
+            return;
+        }
+
+        mainHandler.post(() -> {
+            // A newer search may have started while this one was on its way
+            if (generation.get() != myGeneration) {
+                dropped(call, submittedAt);
+                return;
+            }
+            runningSearch = null;
+            call.finish(true);
+            latency.record((SystemClock.elapsedRealtime() - submittedAt) * 1000);
+            listener.onResults(query, results);
+        });
+    }
+
+    /**
+     * Records a search that ran but whose results aren't wanted any more
+     */
+    private void dropped(DataLayerMetrics.Call call, long submittedAt) {
+        call.cancel();
+        cancelledLatency.record((SystemClock.elapsedRealtime() - submittedAt) * 1000);
+    }
+}
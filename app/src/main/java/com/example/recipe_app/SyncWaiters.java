@@ -0,0 +1,77 @@
+/**
+ * SyncWaiters - Everyone Waiting on the Sync That's Running
+ *
+ * RecipeSyncEngine only runs one sync at a time; anyone who asks while one
+ * is running waits for that one instead. This keeps the list of who is
+ * waiting and makes sure it's always emptied again: if a step of the sync
+ * throws (a document that can't be decoded, a database error), everyone
+ * waiting is told it failed, and the next sync can start afresh.
+ *
+ * join() and the callbacks run on the thread deliverOn posts to (the main
+ * thread in the app). The steps may run on any thread. This class doesn't
+ * use any Android code, so it can be tested on a computer.
+ */
+package com.example.recipe_app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+class SyncWaiters<T> {
+    private final Executor deliverOn;
+
+    // Everyone waiting on the sync that's running now (null when none is running)
+    private List<FirebaseManager.FirebaseCallback<T>> waiting;
+
+    /**
+     * @param deliverOn Where results are handed out, e.g. the main thread's handler
+     */
+    SyncWaiters(Executor deliverOn) {
+        this.deliverOn = deliverOn;
+    }
+
+    /**
+     * Adds someone to wait for the sync
+     * @return True if no sync was running, so the caller should start one
+     */
+    boolean join(FirebaseManager.FirebaseCallback<T> callback) {
+        if (waiting != null) {
+            waiting.add(callback);
+            return false;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(callback);
+        return true;
+    }
+
+    /**
+     * Runs one step of the sync; if it throws, everyone waiting hears it failed
+     */
+    void run(Runnable step) {
+        try {
+            step.run();
+        } catch (RuntimeException e) {
+            finish(null, e);
+        }
+    }
+
+    /**
+     * Hands the result (or the error, if there is one) to everyone waiting
+     */
+    void finish(T result, Exception error) {
+        deliverOn.execute(() -> {
+            List<FirebaseManager.FirebaseCallback<T>> callbacks = waiting;
+            waiting = null;
+            if (callbacks == null) {
+                return;
+            }
+            for (FirebaseManager.FirebaseCallback<T> callback : callbacks) {
+                if (error != null) {
+                    callback.onFailure(error);
+                } else {
+                    callback.onSuccess(result);
+                }
+            }
+        });
+    }
+}
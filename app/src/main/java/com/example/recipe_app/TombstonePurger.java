@@ -0,0 +1,156 @@
+/**
+ * TombstonePurger - Clears Out Old Deleted-Recipe Markers
+ *
+ * Deleting a recipe leaves a "tombstone" behind (deleted = true and a new
+ * timestamp) in both "recipes" and "recipe_summaries", so phones that only
+ * download recent changes find out it's gone (see RecipeSyncEngine). Once
+ * every phone has had time to see it, the tombstone is just clutter: every
+ * catalog read still downloads it and has to skip it. This class deletes
+ * tombstones older than RecipeSyncEngine.TOMBSTONE_RETENTION_MILLIS.
+ *
+ * Deletes are sent in batches, oldest first, at most once a day. The query
+ * needs a composite index on (deleted, timestamp) for each collection; they
+ * are listed in firestore.indexes.json.
+ */
+package com.example.recipe_app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TombstonePurger {
+    private static final String TAG = "TombstonePurger";
+
+    // How often we look for old tombstones
+    private static final long PURGE_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    // Firebase allows at most 500 writes in one batch
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    // Where we remember when we last looked
+    private static final String PREFS_NAME = "TombstonePurgerPrefs";
+    private static final String LAST_PURGE_KEY = "last_purge";
+
+    private final FirebaseFirestore db;
+    private final List<CollectionReference> collections;
+    private final SharedPreferences preferences;
+    private final DataLayerMetrics metrics = DataLayerMetrics.getInstance();
+
+    // True while a purge is running
+    private boolean running = false;
+
+    /**
+     * Creates a purger
+     * @param collections The collections deleteRecipe leaves tombstones in
+     */
+    public TombstonePurger(Context context, FirebaseFirestore db, CollectionReference... collections) {
+        this.db = db;
+        this.collections = Arrays.asList(collections);
+        this.preferences = context.getApplicationContext()
+            .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Deletes old tombstones if we haven't looked in the last day
+     *
+     * Must be called on the main thread.
+     */
+    public void maybePurge() {
+        long lastPurge = preferences.getLong(LAST_PURGE_KEY, 0);
+        if (System.currentTimeMillis() - lastPurge < PURGE_INTERVAL_MILLIS) {
+            return;
+        }
+        purge(new FirebaseManager.FirebaseCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer deleted) {
+                Log.d(TAG, "Removed " + deleted + " old tombstones");
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.w(TAG, "Couldn't remove old tombstones", e);
+            }
+        });
+    }
+
+    /**
+     * Deletes old tombstones from every collection now
+     *
+     * Answers with how many were deleted. If a purge is already running,
+     * answers 0 straight away. Must be called on the main thread; the callback is too.
+     */
+    public void purge(FirebaseManager.FirebaseCallback<Integer> callback) {
+        if (running) {
+            callback.onSuccess(0);
+            return;
+        }
+        running = true;
+
+        long cutoff = System.currentTimeMillis() - RecipeSyncEngine.TOMBSTONE_RETENTION_MILLIS;
+        purgeCollection(0, cutoff, 0, new FirebaseManager.FirebaseCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer deleted) {
+                running = false;
+                preferences.edit().putLong(LAST_PURGE_KEY, System.currentTimeMillis()).apply();
+                callback.onSuccess(deleted);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                running = false;
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Deletes old tombstones from one collection a batch at a time, then moves on to the next
+     */
+    private void purgeCollection(int index, long cutoff, int deletedSoFar,
+                                 FirebaseManager.FirebaseCallback<Integer> callback) {
+        if (index == collections.size()) {
+            callback.onSuccess(deletedSoFar);
+            return;
+        }
+
+        collections.get(index)
+            .whereEqualTo(RecipeSyncEngine.FIELD_DELETED, true)
+            .whereLessThan(RecipeSyncEngine.FIELD_TIMESTAMP, cutoff)
+            .orderBy(RecipeSyncEngine.FIELD_TIMESTAMP)
+            .limit(DELETE_BATCH_SIZE)
+            .get()
+            .addOnSuccessListener(snapshot -> {
+                metrics.recordReads(snapshot);
+                List<DocumentSnapshot> documents = snapshot.getDocuments();
+                if (documents.isEmpty()) {
+                    purgeCollection(index + 1, cutoff, deletedSoFar, callback);
+                    return;
+                }
+
+                WriteBatch batch = db.batch();
+                for (DocumentSnapshot document : documents) {
+                    batch.delete(document.getReference());
+                }
+                batch.commit()
+                    .addOnSuccessListener(aVoid -> {
+                        metrics.recordWrites(documents.size());
+                        int deleted = deletedSoFar + documents.size();
+                        if (documents.size() == DELETE_BATCH_SIZE) {
+                            purgeCollection(index, cutoff, deleted, callback);
+                        } else {
+                            purgeCollection(index + 1, cutoff, deleted, callback);
+                        }
+                    })
+                    .addOnFailureListener(callback::onFailure);
+            })
+            .addOnFailureListener(callback::onFailure);
+    }
+}
@@ -0,0 +1,403 @@
+/**
+ * WriteOutbox - Saves Changes Up and Sends Them in Batches
+ *
+ * Liking a recipe or opening one used to send a write to Firebase straight
+ * away. Browsing quickly meant lots of tiny writes, and if the app was closed
+ * while offline those writes were lost. The outbox fixes both:
+ * - Each change is written down on the phone first, so it survives the app closing
+ * - Changes to the same document are squashed together (opening a recipe twice
+ *   keeps only the latest time; liking then unliking a recipe that wasn't liked
+ *   before cancels out, as long as the like hasn't been sent yet)
+ * - Changes are sent together in one batch (up to Firebase's 500-write limit)
+ *   after a short wait, when lots have piled up, or when the app goes into the background
+ * - If sending fails, it tries again later, waiting a little longer each time
+ *
+ * Changes on their way to Firebase are kept apart from ones still waiting, so
+ * a change made while a batch is being sent always goes out after it.
+ *
+ * All methods must be called on the main thread.
+ */
+package com.example.recipe_app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.WriteBatch;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.ToNumberPolicy;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class WriteOutbox {
+    private static final String TAG = "WriteOutbox";
+
+    // Where the waiting changes are written down
+    private static final String PREFS_NAME = "WriteOutboxPrefs";
+    private static final String PENDING_KEY = "pending_writes";
+
+    // When to send
+    private static final int MAX_BATCH_SIZE = 500;          // Firebase's limit for one batch
+    private static final int FLUSH_THRESHOLD = 50;          // Send straight away once this many are waiting
+    private static final long FLUSH_DELAY_MILLIS = 5000;    // Otherwise send this long after the first change
+
+    // How long to wait before trying again after a failure
+    private static final long RETRY_BASE_MILLIS = 2000;
+    private static final long RETRY_MAX_MILLIS = 5 * 60 * 1000;
+
+    private static final String OP_SET = "set";
+    private static final String OP_DELETE = "delete";
+
+    /**
+     * One change waiting to be sent
+     */
+    private static class PendingWrite {
+        String path;               // The document to change, like "favorites/{uid}/recipes/{id}"
+        String op;                 // OP_SET or OP_DELETE
+        Map<String, Object> data;  // What to write (only for OP_SET)
+        boolean createsDocument;   // True if the document isn't in Firebase yet, so a delete can just cancel this set
+
+        PendingWrite(String path, String op, Map<String, Object> data, boolean createsDocument) {
+            this.path = path;
+            this.op = op;
+            this.data = data;
+            this.createsDocument = createsDocument;
+        }
+    }
+
+    private final FirebaseFirestore db;
+    private final SharedPreferences preferences;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Gson gson = new GsonBuilder()
+        .setObjectToNumberStrategy(ToNumberPolicy.LONG_OR_DOUBLE) // Keep timestamps as whole numbers
+        .create();
+
+    // Waiting changes, one per document, in the order they were first made
+    private final LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<>();
+
+    // The batch on its way to Firebase right now (empty when nothing is being sent)
+    private final List<PendingWrite> sending = new ArrayList<>();
+
+    private boolean flushScheduled = false;
+    private boolean flushing = false;
+    private int failedAttempts = 0;
+
+    // Waiting for flushAll() to finish
+    private final List<Runnable> flushAllWaiters = new ArrayList<>();
+
+    private final Runnable flushRunnable = () -> {
+        flushScheduled = false;
+        flush();
+    };
+
+    /**
+     * Creates the outbox and picks up any changes left over from last time
+     */
+    public WriteOutbox(Context context, FirebaseFirestore db) {
+        this.db = db;
+        this.preferences = context.getApplicationContext()
+            .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        loadJournal();
+        if (!pending.isEmpty()) {
+            scheduleFlush(0);
+        }
+    }
+
+    /**
+     * Queues writing a whole document (replacing what's there)
+     */
+    public void set(String path, Map<String, Object> data) {
+        queueSet(path, data, false);
+    }
+
+    /**
+     * Queues writing a document the caller knows isn't in Firebase yet
+     *
+     * A delete queued before this is sent cancels it, so nothing is sent at all.
+     * Only use this when the caller really knows (for example the live favorites
+     * list has loaded and doesn't have it); otherwise use set().
+     */
+    public void create(String path, Map<String, Object> data) {
+        queueSet(path, data, true);
+    }
+
+    private void queueSet(String path, Map<String, Object> data, boolean knownAbsent) {
+        PendingWrite existing = pending.remove(path);
+        // If a delete was waiting, or this document is being written right now,
+        // it might be in Firebase by the time this set arrives
+        boolean createsDocument = knownAbsent && !isSending(path)
+            && (existing == null || existing.createsDocument);
+        // Re-adding moves it to the end, so batches go out in the order changes were last made
+        pending.put(path, new PendingWrite(path, OP_SET, data, createsDocument));
+        onChanged();
+    }
+
+    /**
+     * Queues deleting a document
+     *
+     * If the only thing waiting for this document is a create() that hasn't
+     * been sent yet, the two cancel out and nothing is sent at all.
+     */
+    public void delete(String path) {
+        PendingWrite existing = pending.remove(path);
+        if (existing == null || !OP_SET.equals(existing.op) || !existing.createsDocument) {
+            pending.put(path, new PendingWrite(path, OP_DELETE, null, false));
+        }
+        onChanged();
+    }
+
+    /**
+     * What the documents directly inside a collection will be once everything waiting is sent
+     *
+     * Used to show changes that haven't reached Firebase yet, including ones
+     * left over from before the app was closed.
+     * @return Document ID -> true if it will be there (a set is waiting), false if it will be deleted
+     */
+    public Map<String, Boolean> getPendingDocuments(String collectionPath) {
+        String prefix = collectionPath + "/";
+        Map<String, Boolean> documents = new LinkedHashMap<>();
+        List<PendingWrite> writes = new ArrayList<>(sending);
+        writes.addAll(pending.values());
+        for (PendingWrite write : writes) {
+            if (write.path.startsWith(prefix) && write.path.indexOf('/', prefix.length()) < 0) {
+                documents.put(write.path.substring(prefix.length()), OP_SET.equals(write.op));
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Sends everything that's waiting right now (for example when the app goes into the background)
+     */
+    public void flushNow() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        failedAttempts = 0;
+        flush();
+    }
+
+    /**
+     * Sends everything that's waiting, then runs whenDone
+     *
+     * whenDone runs once nothing is waiting, or as soon as a batch fails (the
+     * failed changes stay queued for the next try). It always runs on the main thread.
+     */
+    public void flushAll(Runnable whenDone) {
+        if (!flushing && pending.isEmpty()) {
+            handler.post(whenDone);
+            return;
+        }
+        flushAllWaiters.add(whenDone);
+        flushNow();
+    }
+
+    /**
+     * Forgets every waiting change to documents under this path (for example
+     * "favorites/{uid}"), so they're never sent
+     *
+     * A batch already on its way can't be stopped.
+     * @return How many changes were forgotten
+     */
+    public int discardUnder(String documentPath) {
+        String prefix = documentPath + "/";
+        int discarded = 0;
+        Iterator<PendingWrite> waiting = pending.values().iterator();
+        while (waiting.hasNext()) {
+            if (waiting.next().path.startsWith(prefix)) {
+                waiting.remove();
+                discarded++;
+            }
+        }
+        if (discarded > 0) {
+            saveJournal();
+        }
+        return discarded;
+    }
+
+    /**
+     * How many changes are waiting to be sent
+     */
+    public int getPendingCount() {
+        return pending.size() + sending.size();
+    }
+
+    private boolean isSending(String path) {
+        for (PendingWrite write : sending) {
+            if (write.path.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onChanged() {
+        saveJournal();
+        if (pending.size() >= FLUSH_THRESHOLD) {
+            flushNow();
+        } else if (!pending.isEmpty()) {
+            scheduleFlush(FLUSH_DELAY_MILLIS);
+        }
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        handler.postDelayed(flushRunnable, delayMillis);
+    }
+
+    /**
+     * Sends up to one batch of waiting changes
+     */
+    private void flush() {
+        if (flushing || pending.isEmpty()) {
+            return;
+        }
+        flushing = true;
+
+        // Move the batch out of the waiting list, so changes made while it's
+        // being sent are queued after it instead of merged into it
+        WriteBatch batch = db.batch();
+        Iterator<PendingWrite> waiting = pending.values().iterator();
+        while (waiting.hasNext() && sending.size() < MAX_BATCH_SIZE) {
+            PendingWrite write = waiting.next();
+            waiting.remove();
+            if (OP_SET.equals(write.op)) {
+                batch.set(db.document(write.path), write.data);
+            } else {
+                batch.delete(db.document(write.path));
+            }
+            sending.add(write);
+        }
+        saveJournal();
+        int batchSize = sending.size();
+
+        batch.commit()
+            .addOnSuccessListener(aVoid -> {
+                DataLayerMetrics.getInstance().recordWrites(batchSize);
+                flushing = false;
+                failedAttempts = 0;
+                sending.clear();
+                saveJournal();
+                if (!flushAllWaiters.isEmpty() && !pending.isEmpty()) {
+                    // Someone is waiting for everything to go, so send the next batch now
+                    flushNow();
+                } else if (!pending.isEmpty()) {
+                    // More came in while we were sending, or there was more than one batch
+                    scheduleFlush(pending.size() >= FLUSH_THRESHOLD ? 0 : FLUSH_DELAY_MILLIS);
+                } else {
+                    notifyFlushAllWaiters();
+                }
+            })
+            .addOnFailureListener(e -> {
+                flushing = false;
+                if (isPermanentFailure(e)) {
+                    // Trying again won't help (for example the user has logged out)
+                    Log.e(TAG, "Dropping " + batchSize + " writes that can't succeed", e);
+                    sending.clear();
+                    saveJournal();
+                    if (!pending.isEmpty()) {
+                        scheduleFlush(FLUSH_DELAY_MILLIS);
+                    }
+                    notifyFlushAllWaiters();
+                    return;
+                }
+                requeueSending();
+                failedAttempts++;
+                long delay = Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(failedAttempts - 1, 16));
+                Log.w(TAG, "Batch failed, trying again in " + delay + "ms", e);
+                scheduleFlush(delay);
+                notifyFlushAllWaiters();
+            });
+    }
+
+    private void notifyFlushAllWaiters() {
+        List<Runnable> waiters = new ArrayList<>(flushAllWaiters);
+        flushAllWaiters.clear();
+        for (Runnable waiter : waiters) {
+            waiter.run();
+        }
+    }
+
+    /**
+     * Puts a batch that failed back at the front of the waiting list
+     *
+     * A document changed again while the batch was out keeps only its newer change.
+     * The batch may have partly reached Firebase, so none of it counts as creating a document any more.
+     */
+    private void requeueSending() {
+        LinkedHashMap<String, PendingWrite> requeued = new LinkedHashMap<>();
+        for (PendingWrite write : sending) {
+            if (!pending.containsKey(write.path)) {
+                write.createsDocument = false;
+                requeued.put(write.path, write);
+            }
+        }
+        requeued.putAll(pending);
+        pending.clear();
+        pending.putAll(requeued);
+        sending.clear();
+        saveJournal();
+    }
+
+    private static boolean isPermanentFailure(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) {
+            return false;
+        }
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case PERMISSION_DENIED:
+            case UNAUTHENTICATED:
+            case INVALID_ARGUMENT:
+            case NOT_FOUND:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Writes down everything not yet confirmed, the batch being sent first
+     */
+    private void saveJournal() {
+        List<PendingWrite> writes = new ArrayList<>(sending);
+        writes.addAll(pending.values());
+        preferences.edit()
+            .putString(PENDING_KEY, gson.toJson(writes))
+            .apply();
+    }
+
+    private void loadJournal() {
+        String json = preferences.getString(PENDING_KEY, "");
+        if (json.isEmpty()) {
+            return;
+        }
+        try {
+            Type type = new TypeToken<List<PendingWrite>>(){}.getType();
+            List<PendingWrite> writes = gson.fromJson(json, type);
+            if (writes != null) {
+                for (PendingWrite write : writes) {
+                    // Any of these may have reached Firebase before the app closed, so none
+                    // can be cancelled. A newer change to the same document replaces an older one.
+                    write.createsDocument = false;
+                    pending.remove(write.path);
+                    pending.put(write.path, write);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Couldn't read saved writes, starting fresh", e);
+            preferences.edit().remove(PENDING_KEY).apply();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Benchmarks - Keeps the Timing Tests Out of the Normal Test Run
+ *
+ * The benchmark_ tests time how fast things are and print the numbers
+ * rather than check them, since they depend on the machine. They're skipped
+ * unless the RECIPE_BENCHMARKS environment variable is 1, for example:
+ *
+ *   RECIPE_BENCHMARKS=1 ./gradlew testDebugUnitTest --tests '*RecipeFuzzyIndexTest' -i
+ *
+ * (-i shows what they print.) It's an environment variable rather than a
+ * -D property because Gradle runs the tests in a separate JVM, which gets
+ * the environment but not the command line's properties.
+ */
+package com.example.recipe_app;
+
+import org.junit.Assume;
+
+final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    /**
+     * Skips the calling test unless benchmarks were asked for
+     */
+    static void assumeEnabled() {
+        Assume.assumeTrue("Set RECIPE_BENCHMARKS=1 to run benchmarks",
+            "1".equals(System.getenv("RECIPE_BENCHMARKS")));
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * RecipeAutocompleteTest - Makes Sure Suggestions Come Up in the Right Order
+ *
+ * Covers where suggestions come from (names, cuisines, tidied ingredients),
+ * matching the start of any word, the most-used-first order and the limit,
+ * odd typing, and saving to bytes and reading back, including files that
+ * are damaged and must be turned away when loaded.
+ */
+package com.example.recipe_app;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecipeAutocompleteTest {
+
+    @Test
+    public void suggest_findsNamesCuisinesAndIngredients() {
+        RecipeAutocomplete autocomplete = RecipeAutocomplete.build(Arrays.asList(
+            recipe("Spaghetti Carbonara", "Italian", "200g spaghetti", "2 eggs"),
+            recipe("Onion Bhaji", "Indian", "2 chopped onions", "Gram flour")));
+
+        assertEquals(Arrays.asList("spaghetti", "Spaghetti Carbonara"), autocomplete.suggest("spag"));
+        assertEquals(Arrays.asList("Italian"), autocomplete.suggest("ital"));
+        assertEquals(Arrays.asList("onion", "Onion Bhaji"), autocomplete.suggest("Onion"));
+        assertEquals(Arrays.asList("gram flour"), autocomplete.suggest("flo"));
+    }
+
+    @Test
+    public void suggest_matchesTheStartOfAnyWord() {
+        RecipeAutocomplete autocomplete = RecipeAutocomplete.build(Arrays.asList(
+            recipe("Spaghetti Carbonara", "")));
+
+        assertEquals(Arrays.asList("Spaghetti Carbonara"), autocomplete.suggest("carb"));
+        assertEquals(Arrays.asList("Spaghetti Carbonara"), autocomplete.suggest("spaghetti car"));
+        assertTrue(autocomplete.suggest("arbonara").isEmpty());
+        assertTrue(autocomplete.suggest("carbs").isEmpty());
+    }
+
+    @Test
+    public void suggest_putsTheMostUsedFirstThenAToZ() {
+        RecipeAutocomplete autocomplete = RecipeAutocomplete.build(Arrays.asList(
+            recipe("Tomato Soup", "", "Tomatoes", "Basil"),
+            recipe("Tomato Salad", "", "Tomatoes", "Mozzarella"),
+            recipe("Bruschetta", "", "2 tomatoes", "Bread")));
+
+        assertEquals(Arrays.asList("tomato", "Tomato Salad", "Tomato Soup"), autocomplete.suggest("tom"));
+    }
+
+    @Test
+    public void suggest_countsEachRecipeOnceAndKeepsTheFirstSpelling() {
+        RecipeAutocomplete autocomplete = RecipeAutocomplete.build(Arrays.asList(
+            recipe("Lime Pickle", "", "Lime", "Lime juice"),
+            recipe("lime pickle", "", "Salt"),
+            recipe("Limeade", "", "Sugar"),
+            recipe("Key Lime Pie", "", "Biscuits")));
+
+        // "Lime Pickle" is in two recipes, "lime" in only one however often that recipe lists it
+        assertEquals(Arrays.asList("Lime Pickle", "Key Lime Pie", "lime", "lime juice", "Limeade"),
+            autocomplete.suggest("lime"));
+    }
+
+    @Test
+    public void suggest_stopsAtTheLimit() {
+        List<Recipe> recipes = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            recipes.add(recipe("Curry " + (char) ('a' + i % 26) + (i / 26), ""));
+        }
+        RecipeAutocomplete autocomplete = RecipeAutocomplete.build(recipes);
+
+        assertEquals(RecipeAutocomplete.MAX_SUGGESTIONS, autocomplete.suggest("curry").size());
+        assertEquals(30, autocomplete.size());
+    }
+
+    @Test
+    public void oddTyping_isHandledSensibly() {
+        RecipeAutocomplete autocomplete = RecipeAutocomplete.build(Arrays.asList(
+            recipe("Chicken", "", "Salt"),
+            recipe("Chicken Korma", "Indian")));
+
+        assertTrue(autocomplete.suggest("").isEmpty());
+        assertTrue(autocomplete.suggest(null).isEmpty());
+        assertTrue(autocomplete.suggest(" ,. ").isEmpty());
+        assertEquals(Arrays.asList("Chicken", "Chicken Korma"), autocomplete.suggest("  CHICKEN"));
+        // A space at the end means another word is coming
+        assertEquals(Arrays.asList("Chicken Korma"), autocomplete.suggest("chicken "));
+        assertTrue(RecipeAutocomplete.empty().suggest("chicken").isEmpty());
+    }
+
+    @Test
+    public void writeTo_readFrom_givesTheSameSuggestions() throws IOException {
+        List<Recipe> recipes = new ArrayList<>();
+        String[] words = {"Smoky", "Lemon", "Garlic", "Crème", "Chilli", "Honey", "Roast"};
+        String[] dishes = {"Chicken", "Brûlée", "Noodles", "Prawns", "Tart"};
+        for (int i = 0; i < 200; i++) {
+            recipes.add(recipe(words[i % words.length] + " " + dishes[i % dishes.length] + " " + i,
+                i % 3 == 0 ? "Thai" : "French", "2 cloves garlic", "1 lemon"));
+        }
+        RecipeAutocomplete built = RecipeAutocomplete.build(recipes);
+
+        RecipeAutocomplete loaded = RecipeAutocomplete.readFrom(new ByteArrayInputStream(save(built)));
+
+        assertEquals(built.size(), loaded.size());
+        for (String typed : Arrays.asList("s", "smoky ch", "crè", "brû", "garlic", "th", "1", "lemon ", "x")) {
+            assertEquals(typed, built.suggest(typed), loaded.suggest(typed));
+        }
+        assertEquals(0, RecipeAutocomplete.readFrom(
+            new ByteArrayInputStream(save(RecipeAutocomplete.empty()))).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void readFrom_rejectsSomethingElse() throws IOException {
+        RecipeAutocomplete.readFrom(new ByteArrayInputStream("not a saved autocomplete".getBytes("UTF-8")));
+    }
+
+    @Test(expected = IOException.class)
+    public void readFrom_rejectsACutOffFile() throws IOException {
+        byte[] bytes = save(sampleAutocomplete());
+        RecipeAutocomplete.readFrom(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3)));
+    }
+
+    @Test
+    public void readFrom_rejectsNumbersOutOfRange() throws IOException {
+        byte[] bytes = save(sampleAutocomplete());
+        // Spoil each length, place and suggestion number in turn; every one must fail to load
+        for (int at : numberPositions(bytes)) {
+            for (int spoilt : new int[]{-1, 1 << 20}) {
+                byte[] damaged = bytes.clone();
+                ByteBuffer.wrap(damaged).putInt(at, spoilt);
+                try {
+                    RecipeAutocomplete.readFrom(new ByteArrayInputStream(damaged));
+                    fail("Loaded a file with " + spoilt + " at byte " + at);
+                } catch (IOException expected) {
+                    // Turned away, as it should be
+                }
+            }
+        }
+    }
+
+    private static RecipeAutocomplete sampleAutocomplete() {
+        return RecipeAutocomplete.build(Arrays.asList(
+            recipe("Pad Thai", "Thai", "Rice noodles"),
+            recipe("Pancakes", "", "Flour", "Eggs")));
+    }
+
+    /**
+     * Where each int in a saved file starts, leaving out the header and the text
+     *
+     * Follows the layout writeTo() uses: the suggestions, three lists of
+     * places, the letters, then two more lists.
+     */
+    private static List<Integer> numberPositions(byte[] bytes) {
+        List<Integer> positions = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(8);
+        positions.add(buffer.position());
+        int phraseCount = buffer.getInt();
+        for (int i = 0; i < phraseCount; i++) {
+            int length = buffer.getShort() & 0xffff;
+            buffer.position(buffer.position() + length);
+        }
+        for (int list = 0; list < 6; list++) {
+            positions.add(buffer.position());
+            int count = buffer.getInt();
+            if (list == 3) {
+                buffer.position(buffer.position() + 2 * count);   // The letters
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                positions.add(buffer.position());
+                buffer.getInt();
+            }
+        }
+        assertEquals(bytes.length, buffer.position());
+        return positions;
+    }
+
+    private static byte[] save(RecipeAutocomplete autocomplete) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        autocomplete.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static Recipe recipe(String name, String cuisine, String... ingredients) {
+        Recipe recipe = new Recipe(name, name, "", 10, 20, "",
+            ingredients.length == 0 ? Collections.<String>emptyList() : Arrays.asList(ingredients));
+        recipe.setCuisine(cuisine);
+        return recipe;
+    }
+}
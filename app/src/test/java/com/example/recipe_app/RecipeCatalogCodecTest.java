@@ -0,0 +1,244 @@
+/**
+ * RecipeCatalogCodecTest - Makes Sure Exported Catalogs Read Back Unchanged
+ *
+ * A catalog written by RecipeCatalogCodec should read back as the same
+ * recipes, field for field. Files from elsewhere may have extra fields,
+ * nulls or gaps, so those must still read, while a cut-off file must fail
+ * instead of quietly losing recipes.
+ *
+ * benchmark_writeAndReadThroughput times writing and reading a 20,000-recipe
+ * catalog. It only runs when asked for (see Benchmarks).
+ */
+package com.example.recipe_app;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecipeCatalogCodecTest {
+    private static final int BENCHMARK_RECIPES = 20000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int TIMED_ROUNDS = 5;
+
+    @Test
+    public void roundTrip_keepsEveryField() throws IOException {
+        List<Recipe> recipes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            recipes.add(makeRecipe(i));
+        }
+
+        List<Recipe> readBack = readAll(writeAll(recipes));
+
+        assertEquals(recipes.size(), readBack.size());
+        for (int i = 0; i < recipes.size(); i++) {
+            Recipe before = recipes.get(i);
+            Recipe after = readBack.get(i);
+            assertEquals(before.getId(), after.getId());
+            assertEquals(before.getName(), after.getName());
+            assertEquals(before.getDescription(), after.getDescription());
+            assertEquals(before.getImageUrl(), after.getImageUrl());
+            assertEquals(before.getPrepTime(), after.getPrepTime());
+            assertEquals(before.getCookTime(), after.getCookTime());
+            assertEquals(before.getServings(), after.getServings());
+            assertEquals(before.getIngredients(), after.getIngredients());
+            assertEquals(before.getInstructions(), after.getInstructions());
+            assertEquals(before.getDifficulty(), after.getDifficulty());
+            assertEquals(before.getCuisine(), after.getCuisine());
+            assertEquals(before.getCategory(), after.getCategory());
+            assertEquals(before.getRating(), after.getRating(), 0.0);
+            assertEquals(before.getDietaryTags(), after.getDietaryTags());
+        }
+    }
+
+    @Test
+    public void roundTrip_keepsUnicodeText() throws IOException {
+        Recipe recipe = makeRecipe(1);
+        recipe.setName("Crème brûlée à la \"maison\"");
+        recipe.setIngredients(Arrays.asList("200g sucre", "4 jaunes d'œuf", "Line\nbreak"));
+
+        Recipe readBack = readAll(writeAll(Arrays.asList(recipe))).get(0);
+
+        assertEquals(recipe.getName(), readBack.getName());
+        assertEquals(recipe.getIngredients(), readBack.getIngredients());
+    }
+
+    @Test
+    public void read_skipsUnknownFieldsAndNulls() throws IOException {
+        String catalog = "[{\"id\": \"a\", \"name\": \"Toast\", \"description\": null,"
+            + " \"source\": {\"site\": \"x\", \"tags\": [1, 2]}, \"prepTime\": 5,"
+            + " \"ingredients\": [\"Bread\", 3, null, \"Butter\"]},"
+            + " {\"name\": \"No ID\"}]";
+
+        List<Recipe> recipes = readAll(catalog);
+
+        assertEquals(2, recipes.size());
+        assertEquals("a", recipes.get(0).getId());
+        assertEquals("Toast", recipes.get(0).getName());
+        assertNull(recipes.get(0).getDescription());
+        assertEquals(5, recipes.get(0).getPrepTime());
+        assertEquals(Arrays.asList("Bread", "Butter"), recipes.get(0).getIngredients());
+
+        // Missing fields get the same defaults as a new recipe; no ID means saveRecipes picks one
+        assertNull(recipes.get(1).getId());
+        assertEquals(4, recipes.get(1).getServings());
+        assertTrue(recipes.get(1).getInstructions().isEmpty());
+    }
+
+    @Test
+    public void nextBatch_readsInGroups() throws IOException {
+        List<Recipe> recipes = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            recipes.add(makeRecipe(i));
+        }
+
+        List<Integer> batchSizes = new ArrayList<>();
+        try (RecipeCatalogCodec.CatalogReader reader =
+                 new RecipeCatalogCodec.CatalogReader(new StringReader(writeAll(recipes)))) {
+            List<Recipe> batch;
+            while (!(batch = reader.nextBatch(10)).isEmpty()) {
+                batchSizes.add(batch.size());
+            }
+        }
+
+        assertEquals(Arrays.asList(10, 10, 5), batchSizes);
+    }
+
+    @Test
+    public void read_emptyCatalog() throws IOException {
+        assertTrue(readAll("[]").isEmpty());
+        assertTrue(readAll(writeAll(new ArrayList<>())).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void read_brokenFileFails() throws IOException {
+        readAll("[{\"name\": \"Toast\"}, {\"name\": ");
+    }
+
+    @Test
+    public void roundTrip_throughFileBytes() throws IOException {
+        List<Recipe> recipes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            recipes.add(makeRecipe(i));
+        }
+
+        // Through UTF-8 bytes, the way FirebaseManager imports and exports catalogs
+        assertEquals(recipes.size(), countRecipes(writeBytes(recipes)));
+    }
+
+    @Test
+    public void benchmark_writeAndReadThroughput() throws IOException {
+        Benchmarks.assumeEnabled();
+        List<Recipe> recipes = new ArrayList<>(BENCHMARK_RECIPES);
+        for (int i = 0; i < BENCHMARK_RECIPES; i++) {
+            recipes.add(makeRecipe(i));
+        }
+
+        byte[] file = null;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            file = writeBytes(recipes);
+            assertEquals(BENCHMARK_RECIPES, countRecipes(file));
+        }
+
+        long writeNanos = 0;
+        long readNanos = 0;
+        for (int i = 0; i < TIMED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            file = writeBytes(recipes);
+            writeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            assertEquals(BENCHMARK_RECIPES, countRecipes(file));
+            readNanos += System.nanoTime() - start;
+        }
+
+        double megabytes = file.length / (1024.0 * 1024.0);
+        double writeSeconds = writeNanos / 1e9 / TIMED_ROUNDS;
+        double readSeconds = readNanos / 1e9 / TIMED_ROUNDS;
+        System.out.printf("Catalog of %d recipes (%.1f MB): write %.0f recipes/s (%.1f MB/s), "
+                + "read %.0f recipes/s (%.1f MB/s)%n",
+            BENCHMARK_RECIPES, megabytes,
+            BENCHMARK_RECIPES / writeSeconds, megabytes / writeSeconds,
+            BENCHMARK_RECIPES / readSeconds, megabytes / readSeconds);
+    }
+
+    private static String writeAll(List<Recipe> recipes) throws IOException {
+        StringWriter out = new StringWriter();
+        try (RecipeCatalogCodec.CatalogWriter writer = new RecipeCatalogCodec.CatalogWriter(out)) {
+            for (Recipe recipe : recipes) {
+                writer.write(recipe);
+            }
+        }
+        return out.toString();
+    }
+
+    private static List<Recipe> readAll(String catalog) throws IOException {
+        List<Recipe> recipes = new ArrayList<>();
+        try (RecipeCatalogCodec.CatalogReader reader =
+                 new RecipeCatalogCodec.CatalogReader(new StringReader(catalog))) {
+            while (reader.hasNext()) {
+                recipes.add(reader.next());
+            }
+        }
+        return recipes;
+    }
+
+    private static byte[] writeBytes(List<Recipe> recipes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RecipeCatalogCodec.CatalogWriter writer = new RecipeCatalogCodec.CatalogWriter(
+                 new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+            for (Recipe recipe : recipes) {
+                writer.write(recipe);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a catalog one recipe at a time without keeping them, like an import does
+     */
+    private static int countRecipes(byte[] file) throws IOException {
+        int count = 0;
+        try (RecipeCatalogCodec.CatalogReader reader = new RecipeCatalogCodec.CatalogReader(
+                 new InputStreamReader(new ByteArrayInputStream(file), StandardCharsets.UTF_8))) {
+            while (reader.hasNext()) {
+                reader.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Recipe makeRecipe(int i) {
+        Recipe recipe = new Recipe("id" + i, "Recipe " + i, "A tasty dish number " + i + " that is quick to make",
+            10 + i % 20, 30 + i % 40, "https://example.com/recipes/" + i + ".jpg", new ArrayList<>());
+        List<String> ingredients = new ArrayList<>();
+        for (int j = 0; j < 12; j++) {
+            ingredients.add((j + 1) * 50 + "g ingredient " + j);
+        }
+        recipe.setIngredients(ingredients);
+        List<String> instructions = new ArrayList<>();
+        for (int j = 0; j < 8; j++) {
+            instructions.add("Step " + (j + 1) + ": do something careful with the ingredients");
+        }
+        recipe.setInstructions(instructions);
+        recipe.setServings(2 + i % 6);
+        recipe.setDifficulty(i % 2 == 0 ? "Easy" : "Hard");
+        recipe.setCuisine("Italian");
+        recipe.setCategory("Dinner");
+        recipe.setRating((i % 50) / 10.0);
+        recipe.setDietaryTags(Arrays.asList("Vegetarian"));
+        return recipe;
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * RecipeFacetTableTest - Makes Sure Chips, the Time Slider and Sorting Agree
+ *
+ * Checks that select() keeps exactly the recipes passing every filter
+ * (including when the slider moves back and forth), that each chip's count
+ * is what picking it would show, and that the sort orders and paging by
+ * skip/count come out in the right order.
+ */
+package com.example.recipe_app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RecipeFacetTableTest {
+    private static final int ANY_TIME = Integer.MAX_VALUE;
+
+    @Test
+    public void select_keepsRowsPassingEveryFilter() {
+        RecipeFacetTable table = sampleTable();
+
+        assertEquals(rows(0, 1, 2, 3, 4), table.select("", "", "", ANY_TIME));
+        assertEquals(rows(0, 2), table.select("Italian", null, "", ANY_TIME));
+        assertEquals(rows(2), table.select("Italian", "Hard", "", ANY_TIME));
+        assertEquals(rows(1, 2), table.select("", "", "Dinner", ANY_TIME));
+        assertEquals(rows(), table.select("French", "", "", ANY_TIME));
+    }
+
+    @Test
+    public void select_followsTheSliderBothWays() {
+        RecipeFacetTable table = sampleTable();
+
+        assertEquals(rows(0, 3), table.select("", "", "", 30));
+        assertEquals(rows(0, 1, 3), table.select("", "", "", 45));
+        assertEquals(rows(), table.select("", "", "", 5));
+        assertEquals(rows(0, 1, 3, 4), table.select("", "", "", 60));
+        assertEquals(rows(0), table.select("Italian", "", "", 30));
+    }
+
+    @Test
+    public void select_matchesCheckingEveryRow() {
+        String[] cuisines = {"Italian", "Thai", "Mexican", ""};
+        String[] difficulties = {"Easy", "Medium", "Hard"};
+        String[] categories = {"Dinner", "Lunch", null};
+        Random random = new Random(7);
+        RecipeFacetTable table = new RecipeFacetTable();
+        List<RecipeSummary> all = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            RecipeSummary summary = summary("r" + i, "Recipe " + i, cuisines[random.nextInt(4)],
+                difficulties[random.nextInt(3)], categories[random.nextInt(3)],
+                random.nextInt(60), random.nextInt(60), 0);
+            all.add(summary);
+            table.add(summary);
+        }
+
+        int[] limits = {90, 10, 120, 0, 45, ANY_TIME};
+        for (int limit : limits) {
+            BitSet expected = new BitSet();
+            for (int row = 0; row < all.size(); row++) {
+                RecipeSummary summary = all.get(row);
+                if ("Thai".equals(summary.getCuisine()) && "Easy".equals(summary.getDifficulty())
+                        && summary.getPrepTime() + summary.getCookTime() <= limit) {
+                    expected.set(row);
+                }
+            }
+            assertEquals(expected, table.select("Thai", "Easy", "", limit));
+        }
+    }
+
+    @Test
+    public void countFacets_matchesWhatEachChipWouldShow() {
+        RecipeFacetTable table = sampleTable();
+
+        RecipeFacetTable.FacetCounts counts = table.countFacets("Italian", "", "", ANY_TIME, null);
+
+        // Cuisine counts ignore the cuisine chip itself; the others keep it
+        assertEquals(2, counts.getCuisineCount("Italian"));
+        assertEquals(2, counts.getCuisineCount("Thai"));
+        assertEquals(5, counts.getCuisineCount(""));
+        assertEquals(1, counts.getDifficultyCount("Easy"));
+        assertEquals(1, counts.getDifficultyCount("Hard"));
+        assertEquals(2, counts.getDifficultyCount(""));
+        assertEquals(1, counts.getCategoryCount("Dinner"));
+        assertEquals(0, counts.getCuisineCount("French"));
+    }
+
+    @Test
+    public void countFacets_appliesTimeAndSearchToEveryChip() {
+        RecipeFacetTable table = sampleTable();
+
+        RecipeFacetTable.FacetCounts counts = table.countFacets("", "", "", 45,
+            new HashSet<>(Arrays.asList("carbonara", "curry", "tacos")));
+
+        assertEquals(2, counts.getCuisineCount(""));
+        assertEquals(1, counts.getCuisineCount("Italian"));
+        assertEquals(1, counts.getCuisineCount("Thai"));
+        assertEquals(0, counts.getCuisineCount("Mexican"));
+    }
+
+    @Test
+    public void countNewRows_addsOnlyTheNewPage() {
+        RecipeFacetTable table = sampleTable();
+        RecipeFacetTable.FacetCounts counts = table.countFacets("", "", "", ANY_TIME, null);
+
+        table.add(summary("ramen", "Ramen", "Japanese", "Medium", "Dinner", 20, 20, 4.0));
+        table.countNewRows(counts, 5, null);
+
+        assertEquals(6, counts.getCuisineCount(""));
+        assertEquals(1, counts.getCuisineCount("Japanese"));
+        assertEquals(3, counts.getCategoryCount("Dinner"));
+    }
+
+    @Test
+    public void selectSorted_walksEachOrderWithSkipAndCount() {
+        RecipeFacetTable table = sampleTable();
+        BitSet everything = table.select("", "", "", ANY_TIME);
+
+        assertEquals(Arrays.asList("lasagna", "tacos", "carbonara", "curry", "pad thai"),
+            names(table, everything, RecipeFacetTable.SORT_RATING, 0, 10));
+        assertEquals(Arrays.asList("carbonara", "pad thai", "curry", "tacos", "lasagna"),
+            names(table, everything, RecipeFacetTable.SORT_TIME, 0, 10));
+        assertEquals(Arrays.asList("curry", "lasagna"),
+            names(table, everything, RecipeFacetTable.SORT_NAME, 1, 2));
+        assertEquals(Arrays.asList("curry", "lasagna"),
+            names(table, table.select("", "", "Dinner", ANY_TIME), RecipeFacetTable.SORT_DEFAULT, 0, 10));
+    }
+
+    @Test
+    public void selectSorted_keepsTiesInTheOrderAdded() {
+        RecipeFacetTable table = new RecipeFacetTable();
+        table.add(summary("b", "Soup", "", "", "", 10, 10, 3.0));
+        table.add(summary("a", "Soup", "", "", "", 10, 10, 3.0));
+        table.add(summary("c", null, "", "", "", 10, 10, 3.0));
+        BitSet everything = table.select("", "", "", ANY_TIME);
+
+        List<RecipeSummary> byRating = new ArrayList<>();
+        table.selectSorted(everything, RecipeFacetTable.SORT_RATING, 0, 10, byRating);
+        List<RecipeSummary> byName = new ArrayList<>();
+        table.selectSorted(everything, RecipeFacetTable.SORT_NAME, 0, 10, byName);
+
+        assertEquals(Arrays.asList("b", "a", "c"), ids(byRating));
+        assertEquals(Arrays.asList("c", "b", "a"), ids(byName));
+    }
+
+    @Test
+    public void clear_emptiesTheTable() {
+        RecipeFacetTable table = sampleTable();
+        table.select("", "", "", 30);
+
+        table.clear();
+        table.add(summary("one", "One", "Thai", "Easy", "Lunch", 5, 5, 1.0));
+
+        assertEquals(1, table.size());
+        assertEquals(rows(0), table.select("Thai", "", "", 30));
+        assertEquals(rows(), table.select("Italian", "", "", ANY_TIME));
+    }
+
+    /**
+     * Five recipes; total times 25, 45, 70, 30 and 50 minutes
+     */
+    private static RecipeFacetTable sampleTable() {
+        RecipeFacetTable table = new RecipeFacetTable();
+        table.add(summary("carbonara", "carbonara", "Italian", "Easy", "Lunch", 10, 15, 4.0));
+        table.add(summary("curry", "curry", "Thai", "Medium", "Dinner", 15, 30, 3.5));
+        table.add(summary("lasagna", "lasagna", "Italian", "Hard", "Dinner", 30, 40, 5.0));
+        table.add(summary("pad thai", "pad thai", "Thai", "Easy", "", 10, 20, 3.0));
+        table.add(summary("tacos", "tacos", "Mexican", "Easy", "Lunch", 20, 30, 4.5));
+        return table;
+    }
+
+    private static RecipeSummary summary(String id, String name, String cuisine, String difficulty,
+                                         String category, int prepTime, int cookTime, double rating) {
+        Recipe recipe = new Recipe(id, name, "", prepTime, cookTime, "", new ArrayList<>());
+        recipe.setCuisine(cuisine);
+        recipe.setDifficulty(difficulty);
+        recipe.setCategory(category);
+        recipe.setRating(rating);
+        return RecipeSummary.from(recipe);
+    }
+
+    private static List<String> names(RecipeFacetTable table, BitSet rows, int sortOption, int skip, int count) {
+        List<RecipeSummary> out = new ArrayList<>();
+        table.selectSorted(rows, sortOption, skip, count, out);
+        List<String> names = new ArrayList<>();
+        for (RecipeSummary summary : out) {
+            names.add(summary.getName());
+        }
+        return names;
+    }
+
+    private static List<String> ids(List<RecipeSummary> summaries) {
+        List<String> ids = new ArrayList<>();
+        for (RecipeSummary summary : summaries) {
+            ids.add(summary.getId());
+        }
+        return ids;
+    }
+
+    private static BitSet rows(int... rows) {
+        BitSet set = new BitSet();
+        for (int row : rows) {
+            set.set(row);
+        }
+        return set;
+    }
+}
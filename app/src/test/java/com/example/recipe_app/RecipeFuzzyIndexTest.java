@@ -0,0 +1,218 @@
+/**
+ * RecipeFuzzyIndexTest - Makes Sure Typos Still Find the Right Recipe
+ *
+ * Covers misspelled and run-together words, the order of results, recipes
+ * that are changed or removed, the shortcut that skips words of a very
+ * different length, and the edit distance itself.
+ *
+ * benchmark_searchOver10kNames and benchmark_searchOver100kNames time a set
+ * of misspelled queries and print the build time and the p50, p99 and worst
+ * query times. They only run when asked for (see Benchmarks).
+ */
+package com.example.recipe_app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RecipeFuzzyIndexTest {
+    private static final int WARMUP_ROUNDS = 30;
+    private static final int TIMED_ROUNDS = 20;
+
+    // Misspelled queries a user might type, one per keystroke-sized search
+    private static final String[] BENCHMARK_QUERIES = {
+        "carbonera", "chiken", "stirfry", "tomatoe soup", "lasagne", "panckes",
+        "brocoli", "guacamol", "beef stw", "risoto", "curyy", "omlette"
+    };
+
+    private static final String[] NAME_WORDS = {
+        "Spaghetti", "Carbonara", "Chicken", "Curry", "Stir", "Fry", "Tomato", "Soup",
+        "Lasagna", "Pancakes", "Broccoli", "Guacamole", "Beef", "Stew", "Risotto",
+        "Omelette", "Salad", "Roasted", "Garlic", "Lemon", "Honey", "Spicy", "Vegan",
+        "Mushroom", "Pie", "Grilled", "Salmon", "Baked", "Potato", "Thai", "Green"
+    };
+
+    @Test
+    public void search_findsMisspelledNames() {
+        RecipeFuzzyIndex index = sampleIndex();
+
+        assertEquals(Arrays.asList("carbonara"), index.search("carbonera", 10));
+        assertEquals(Arrays.asList("curry"), index.search("chiken curyy", 10));
+        assertEquals(Arrays.asList("pancakes"), index.search("Panckes", 10));
+    }
+
+    @Test
+    public void search_findsRunTogetherWords() {
+        RecipeFuzzyIndex index = sampleIndex();
+
+        assertEquals(Arrays.asList("stirfry"), index.search("stirfry", 10));
+        assertEquals(Arrays.asList("stirfry"), index.search("stirfri", 10));
+    }
+
+    @Test
+    public void search_putsCloserMatchesFirst() {
+        RecipeFuzzyIndex index = new RecipeFuzzyIndex();
+        index.add(RecipeSummary.from(recipe("far", "Bread")));
+        index.add(RecipeSummary.from(recipe("exact", "Bead")));
+
+        assertEquals(Arrays.asList("exact", "far"), index.search("bead", 10));
+        assertEquals(Arrays.asList("exact"), index.search("bead", 1));
+    }
+
+    @Test
+    public void search_shortWordsMustMatchExactly() {
+        RecipeFuzzyIndex index = new RecipeFuzzyIndex();
+        index.add(RecipeSummary.from(recipe("pie", "Pie")));
+
+        assertTrue(index.search("pe", 10).isEmpty());
+        assertEquals(Arrays.asList("pie"), index.search("pies", 10));
+    }
+
+    @Test
+    public void updatesAndRemovals_areFollowed() {
+        RecipeFuzzyIndex index = sampleIndex();
+
+        index.add(RecipeSummary.from(recipe("carbonara", "Mushroom Risotto")));
+        assertTrue(index.search("carbonera", 10).isEmpty());
+        assertEquals(Arrays.asList("carbonara"), index.search("risoto", 10));
+
+        index.remove("carbonara");
+        assertTrue(index.search("risoto", 10).isEmpty());
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void manyRemovals_stillFindTheRest() {
+        RecipeFuzzyIndex index = new RecipeFuzzyIndex();
+        for (int i = 0; i < 3000; i++) {
+            index.add(RecipeSummary.from(recipe("r" + i, "Lemon Chicken " + i)));
+        }
+        for (int i = 0; i < 2500; i++) {
+            index.remove("r" + i);
+        }
+
+        assertEquals(500, index.size());
+        assertEquals(500, index.search("lemin chiken", 1000).size());
+        assertEquals("r2999", index.search("chicken 2999", 10).get(0));
+    }
+
+    @Test
+    public void editDistance_countsEditsUpToTheLimit() {
+        assertEquals(0, RecipeFuzzyIndex.editDistance("curry", "curry", 2));
+        assertEquals(1, RecipeFuzzyIndex.editDistance("curry", "curyy", 2));
+        assertEquals(1, RecipeFuzzyIndex.editDistance("chiken", "chicken", 2));
+        assertEquals(1, RecipeFuzzyIndex.editDistance("panckes", "pancakes", 2));
+        assertEquals(3, RecipeFuzzyIndex.editDistance("kitten", "sitting", 3));
+        assertEquals(3, RecipeFuzzyIndex.editDistance("kitten", "sitting", 2));
+        assertEquals(3, RecipeFuzzyIndex.editDistance("a", "abcd", 2));
+        assertEquals(2, RecipeFuzzyIndex.editDistance("", "ab", 2));
+    }
+
+    @Test
+    public void search_skipsWordsOfAVeryDifferentLength() {
+        RecipeFuzzyIndex index = new RecipeFuzzyIndex();
+        index.add(RecipeSummary.from(recipe("stew", "Beef Stew")));
+        index.add(RecipeSummary.from(recipe("long", "Stewardship Platter")));
+        index.add(RecipeSummary.from(recipe("numbered", "Stir 12345")));
+
+        // "stw" shares its first pieces with all three, but only "stew" is one edit away
+        assertEquals(Arrays.asList("stew"), index.search("beef stw", 10));
+        assertEquals(Arrays.asList("stew"), index.search("stw", 10));
+        assertTrue(index.search("stirfry", 10).isEmpty());
+    }
+
+    @Test
+    public void search_findsTheRightRecipeAmongMany() {
+        Random random = new Random(42);
+        RecipeFuzzyIndex index = new RecipeFuzzyIndex();
+        for (int i = 0; i < 5000; i++) {
+            index.add(recipe("r" + i, randomName(random, i)));
+        }
+        index.add(recipe("target", "Smoky Paprika Goulash"));
+
+        assertEquals(Arrays.asList("target"), index.search("smoky paprica goulas", 10));
+        assertFalse(index.search("lasagne", 10000).contains("target"));
+    }
+
+    @Test
+    public void benchmark_searchOver10kNames() {
+        Benchmarks.assumeEnabled();
+        benchmark(10000);
+    }
+
+    @Test
+    public void benchmark_searchOver100kNames() {
+        Benchmarks.assumeEnabled();
+        benchmark(100000);
+    }
+
+    private static void benchmark(int recipeCount) {
+        Random random = new Random(42);
+        List<Recipe> recipes = new ArrayList<>(recipeCount);
+        for (int i = 0; i < recipeCount; i++) {
+            recipes.add(recipe("r" + i, randomName(random, i)));
+        }
+
+        long buildStart = System.nanoTime();
+        RecipeFuzzyIndex index = RecipeFuzzyIndex.build(recipes);
+        double buildMillis = (System.nanoTime() - buildStart) / 1e6;
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            for (String query : BENCHMARK_QUERIES) {
+                index.search(query, 50);
+            }
+        }
+
+        long[] nanos = new long[TIMED_ROUNDS * BENCHMARK_QUERIES.length];
+        int found = 0;
+        int n = 0;
+        for (int round = 0; round < TIMED_ROUNDS; round++) {
+            for (String query : BENCHMARK_QUERIES) {
+                long start = System.nanoTime();
+                found += index.search(query, 50).size();
+                nanos[n++] = System.nanoTime() - start;
+            }
+        }
+        assertTrue(found > 0);
+
+        Arrays.sort(nanos);
+        System.out.printf(Locale.US, "Fuzzy search over %d names: build %.0f ms, "
+                + "query p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+            recipeCount, buildMillis,
+            nanos[nanos.length / 2] / 1e6,
+            nanos[(int) Math.ceil(nanos.length * 0.99) - 1] / 1e6,
+            nanos[nanos.length - 1] / 1e6);
+    }
+
+    /**
+     * A made-up name of two to four words, with a number so names aren't all the same
+     */
+    private static String randomName(Random random, int i) {
+        StringBuilder name = new StringBuilder();
+        int words = 2 + random.nextInt(3);
+        for (int w = 0; w < words; w++) {
+            name.append(NAME_WORDS[random.nextInt(NAME_WORDS.length)]).append(' ');
+        }
+        return name.append(i).toString();
+    }
+
+    private static RecipeFuzzyIndex sampleIndex() {
+        RecipeFuzzyIndex index = new RecipeFuzzyIndex();
+        index.add(recipe("carbonara", "Spaghetti Carbonara"));
+        index.add(recipe("curry", "Chicken Curry"));
+        index.add(recipe("stirfry", "Vegetable Stir-Fry"));
+        index.add(recipe("pancakes", "Fluffy Pancakes"));
+        index.add(recipe("soup", "Tomato Soup"));
+        return index;
+    }
+
+    private static Recipe recipe(String id, String name) {
+        return new Recipe(id, name, "", 10, 20, "", new ArrayList<>());
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * RecipeIngredientIndexTest - Makes Sure "What Can I Cook?" Picks the Right Recipes
+ *
+ * Covers tidying ingredient lines (amounts, units, plurals), which lines
+ * something the user has covers, the ranking by coverage then by fewest
+ * missing, ties, the result limit, and recipes that are changed or removed.
+ */
+package com.example.recipe_app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecipeIngredientIndexTest {
+
+    @Test
+    public void normalise_keepsOnlyWhatTheIngredientIs() {
+        assertEquals(Arrays.asList("tomato"), RecipeIngredientIndex.normalise("200g Chopped Tomatoes"));
+        assertEquals(Arrays.asList("chicken", "breast"), RecipeIngredientIndex.normalise("2 chicken breasts"));
+        assertEquals(Arrays.asList("olive", "oil"), RecipeIngredientIndex.normalise("1 tbsp olive oil, to taste"));
+        assertTrue(RecipeIngredientIndex.normalise("2 tsp").isEmpty());
+        assertTrue(RecipeIngredientIndex.normalise(null).isEmpty());
+    }
+
+    @Test
+    public void singular_handlesCommonPlurals() {
+        assertEquals("berry", RecipeIngredientIndex.singular("berries"));
+        assertEquals("tomato", RecipeIngredientIndex.singular("tomatoes"));
+        assertEquals("peach", RecipeIngredientIndex.singular("peaches"));
+        assertEquals("onion", RecipeIngredientIndex.singular("onions"));
+        assertEquals("couscous", RecipeIngredientIndex.singular("couscous"));
+        assertEquals("glass", RecipeIngredientIndex.singular("glass"));
+    }
+
+    @Test
+    public void findRecipes_ranksByCoverageThenFewestMissing() {
+        RecipeIngredientIndex index = new RecipeIngredientIndex();
+        index.add(recipe("half", "Chicken", "Rice", "Peas", "Carrots"));
+        index.add(recipe("all", "Chicken thighs", "Rice"));
+        index.add(recipe("bigger", "Chicken", "Rice", "Stock", "Onion", "Garlic", "Ginger"));
+        index.add(recipe("none", "Flour", "Eggs"));
+
+        List<RecipeIngredientIndex.Match> matches =
+            index.findRecipes(Arrays.asList("chicken", "rice"), 10);
+
+        assertEquals(Arrays.asList("all", "half", "bigger"), ids(matches));
+        assertEquals(0, matches.get(0).getMissingCount());
+        assertEquals(2, matches.get(1).getMissingCount());
+        assertEquals(0.5, matches.get(1).getCoverage(), 1e-9);
+    }
+
+    @Test
+    public void findRecipes_needsEveryWordOfWhatTheUserHas() {
+        RecipeIngredientIndex index = new RecipeIngredientIndex();
+        index.add(recipe("oil", "2 tbsp olive oil", "Bread"));
+        index.add(recipe("olives", "Black olives", "Bread"));
+
+        assertEquals(Arrays.asList("oil"), ids(index.findRecipes(Arrays.asList("Olive Oil"), 10)));
+        assertEquals(Arrays.asList("oil", "olives"), ids(index.findRecipes(Arrays.asList("olive"), 10)));
+    }
+
+    @Test
+    public void findRecipes_leavesStaplesOutOfTheCount() {
+        RecipeIngredientIndex index = new RecipeIngredientIndex();
+        index.add(recipe("eggs", "3 eggs", "Salt and pepper", "Water"));
+
+        RecipeIngredientIndex.Match match = index.findRecipes(Arrays.asList("egg"), 10).get(0);
+
+        assertEquals(1, match.ingredientCount);
+        assertEquals(1, match.matchedCount);
+    }
+
+    @Test
+    public void findRecipes_keepsTiesInTheOrderAddedAndHonoursTheLimit() {
+        RecipeIngredientIndex index = new RecipeIngredientIndex();
+        for (int i = 0; i < 20; i++) {
+            index.add(recipe("r" + i, "Potato", "Leek"));
+        }
+
+        assertEquals(Arrays.asList("r0", "r1", "r2"), ids(index.findRecipes(Arrays.asList("potato"), 3)));
+        assertTrue(index.findRecipes(Arrays.asList("potato"), 0).isEmpty());
+    }
+
+    @Test
+    public void findRecipes_withNothingUsefulFindsNothing() {
+        RecipeIngredientIndex index = new RecipeIngredientIndex();
+        index.add(recipe("soup", "Tomatoes", "Basil"));
+
+        assertTrue(index.findRecipes(Collections.<String>emptyList(), 10).isEmpty());
+        assertTrue(index.findRecipes(Arrays.asList("", "500g", "durian"), 10).isEmpty());
+        assertTrue(new RecipeIngredientIndex().findRecipes(Arrays.asList("basil"), 10).isEmpty());
+    }
+
+    @Test
+    public void updatesAndRemovals_areFollowed() {
+        RecipeIngredientIndex index = new RecipeIngredientIndex();
+        index.add(recipe("soup", "Tomatoes", "Basil"));
+        index.add(recipe("salad", "Tomatoes", "Mozzarella"));
+
+        index.add(recipe("soup", "Leeks", "Potatoes"));
+        assertEquals(Arrays.asList("salad"), ids(index.findRecipes(Arrays.asList("tomato"), 10)));
+
+        index.remove("salad");
+        index.remove("missing");
+        assertTrue(index.findRecipes(Arrays.asList("tomato"), 10).isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void manyRemovals_stillFindTheRest() {
+        RecipeIngredientIndex index = new RecipeIngredientIndex();
+        for (int i = 0; i < 3000; i++) {
+            index.add(recipe("r" + i, "Lentils", i % 2 == 0 ? "Spinach" : "Cumin"));
+        }
+        for (int i = 0; i < 2500; i++) {
+            index.remove("r" + i);
+        }
+
+        assertEquals(500, index.size());
+        assertEquals(500, index.findRecipes(Arrays.asList("lentil"), 1000).size());
+        assertEquals("r2500", index.findRecipes(Arrays.asList("lentil", "spinach"), 1).get(0).recipeId);
+    }
+
+    @Test
+    public void onlyTheFirstLinesAreLookedAt() {
+        List<String> ingredients = new ArrayList<>();
+        for (int i = 0; i < RecipeIngredientIndex.MAX_LINES + 10; i++) {
+            ingredients.add("spice" + (char) ('a' + i % 26) + (char) ('a' + i / 26));
+        }
+        ingredients.add("Saffron");
+        RecipeIngredientIndex index = new RecipeIngredientIndex();
+        index.add(new Recipe("long", "Long", "", 0, 0, "", ingredients));
+
+        assertTrue(index.findRecipes(Arrays.asList("saffron"), 10).isEmpty());
+        assertEquals(RecipeIngredientIndex.MAX_LINES,
+            index.findRecipes(Arrays.asList("spiceaa"), 10).get(0).ingredientCount);
+    }
+
+    private static Recipe recipe(String id, String... ingredients) {
+        return new Recipe(id, id, "", 10, 20, "", Arrays.asList(ingredients));
+    }
+
+    private static List<String> ids(List<RecipeIngredientIndex.Match> matches) {
+        List<String> ids = new ArrayList<>();
+        for (RecipeIngredientIndex.Match match : matches) {
+            ids.add(match.recipeId);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * RecipeMapperTest - Makes Sure Documents Become the Right Recipes
+ *
+ * RecipeMapper replaced the old field-by-field DocumentSnapshot code. These
+ * tests feed it plain maps shaped like our Firebase documents and check it
+ * reads every field, copes with missing or odd values, and gives the same
+ * recipes the old code did.
+ *
+ * benchmark_decodePerThousandDocuments times both ways per 1,000 documents:
+ * the old way on the calling (main) thread, and RecipeMapper on a background
+ * thread, where the caller only pays for handing the work over. It only runs
+ * when asked for (see Benchmarks).
+ */
+package com.example.recipe_app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class RecipeMapperTest {
+    private static final int BENCHMARK_DOCUMENTS = 1000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int TIMED_ROUNDS = 50;
+
+    @Test
+    public void fromMap_readsEveryField() {
+        Recipe recipe = RecipeMapper.fromMap("abc", makeDocument(7));
+
+        assertEquals("abc", recipe.getId());
+        assertEquals("Recipe 7", recipe.getName());
+        assertEquals(17, recipe.getPrepTime());
+        assertEquals(37, recipe.getCookTime());
+        assertEquals(4, recipe.getServings());
+        assertEquals("Easy", recipe.getDifficulty());
+        assertEquals("Italian", recipe.getCuisine());
+        assertEquals("Dinner", recipe.getCategory());
+        assertEquals(12, recipe.getIngredients().size());
+        assertEquals(8, recipe.getInstructions().size());
+        assertEquals(4.5, recipe.getRating(), 0.0);
+        assertEquals(Arrays.asList("Vegetarian"), recipe.getDietaryTags());
+    }
+
+    @Test
+    public void fromMap_handlesMissingAndWrongTypes() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", "Toast");
+        data.put("prepTime", "ten");                         // Wrong type
+        data.put("ingredients", Arrays.asList("Bread", 5)); // Mixed list
+
+        Recipe recipe = RecipeMapper.fromMap("t", data);
+
+        assertEquals(0, recipe.getPrepTime());
+        assertEquals(4, recipe.getServings());
+        assertEquals(Arrays.asList("Bread"), recipe.getIngredients());
+        assertTrue(recipe.getInstructions().isEmpty());
+        assertNotNull(RecipeMapper.fromMap("empty", null));
+    }
+
+    @Test
+    public void fromMap_matchesOldDecoding() {
+        for (int i = 0; i < 50; i++) {
+            Map<String, Object> document = makeDocument(i);
+            Recipe before = decodeTheOldWay("id" + i, document);
+            Recipe after = RecipeMapper.fromMap("id" + i, document);
+
+            assertEquals(before.getId(), after.getId());
+            assertEquals(before.getName(), after.getName());
+            assertEquals(before.getDescription(), after.getDescription());
+            assertEquals(before.getImageUrl(), after.getImageUrl());
+            assertEquals(before.getPrepTime(), after.getPrepTime());
+            assertEquals(before.getCookTime(), after.getCookTime());
+            assertEquals(before.getServings(), after.getServings());
+            assertEquals(before.getDifficulty(), after.getDifficulty());
+            assertEquals(before.getIngredients(), after.getIngredients());
+            assertEquals(before.getInstructions(), after.getInstructions());
+        }
+    }
+
+    @Test
+    public void benchmark_decodePerThousandDocuments() throws Exception {
+        Benchmarks.assumeEnabled();
+        List<Map<String, Object>> documents = new ArrayList<>();
+        for (int i = 0; i < BENCHMARK_DOCUMENTS; i++) {
+            documents.add(makeDocument(i));
+        }
+
+        // Before: every document decoded on the calling thread
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            decodeAllTheOldWay(documents);
+        }
+        long beforeNanos = 0;
+        for (int i = 0; i < TIMED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            decodeAllTheOldWay(documents);
+            beforeNanos += System.nanoTime() - start;
+        }
+
+        // After: decoded on a background thread; the caller only hands it over
+        ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                decodeExecutor.submit(() -> decodeAll(documents)).get();
+            }
+            long callerNanos = 0;
+            long decodeNanos = 0;
+            for (int i = 0; i < TIMED_ROUNDS; i++) {
+                long start = System.nanoTime();
+                Future<List<Recipe>> result = decodeExecutor.submit(() -> decodeAll(documents));
+                callerNanos += System.nanoTime() - start;
+                assertEquals(BENCHMARK_DOCUMENTS, result.get().size());
+                decodeNanos += System.nanoTime() - start;
+            }
+
+            System.out.printf("Decode per %d documents: before %.3f ms on the main thread; "
+                    + "after %.3f ms in the background, %.3f ms on the main thread%n",
+                BENCHMARK_DOCUMENTS, beforeNanos / 1e6 / TIMED_ROUNDS,
+                decodeNanos / 1e6 / TIMED_ROUNDS, callerNanos / 1e6 / TIMED_ROUNDS);
+        } finally {
+            decodeExecutor.shutdown();
+        }
+    }
+
+    private static List<Recipe> decodeAll(List<Map<String, Object>> documents) {
+        List<Recipe> recipes = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            recipes.add(RecipeMapper.fromMap("id" + i, documents.get(i)));
+        }
+        return recipes;
+    }
+
+    private static List<Recipe> decodeAllTheOldWay(List<Map<String, Object>> documents) {
+        List<Recipe> recipes = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            recipes.add(decodeTheOldWay("id" + i, documents.get(i)));
+        }
+        return recipes;
+    }
+
+    /**
+     * The old documentSnapshotToRecipe, with each getLong/getString call
+     * turned into a map lookup like DocumentSnapshot does
+     */
+    private static Recipe decodeTheOldWay(String id, Map<String, Object> document) {
+        String name = (String) document.get("name");
+        String description = (String) document.get("description");
+        String imageUrl = (String) document.get("imageUrl");
+        int prepTime = getLong(document, "prepTime") != null ? getLong(document, "prepTime").intValue() : 0;
+        int cookTime = getLong(document, "cookTime") != null ? getLong(document, "cookTime").intValue() : 0;
+        int servings = getLong(document, "servings") != null ? getLong(document, "servings").intValue() : 4;
+        String difficulty = (String) document.get("difficulty");
+        String cuisine = (String) document.get("cuisine");
+        String category = (String) document.get("category");
+
+        List<String> ingredients = new ArrayList<>();
+        List<String> instructions = new ArrayList<>();
+        Object ingredientsObj = document.get("ingredients");
+        if (ingredientsObj instanceof List<?>) {
+            for (Object item : ((List<?>) ingredientsObj)) {
+                if (item instanceof String) {
+                    ingredients.add((String) item);
+                }
+            }
+        }
+        Object instructionsObj = document.get("instructions");
+        if (instructionsObj instanceof List<?>) {
+            for (Object item : ((List<?>) instructionsObj)) {
+                if (item instanceof String) {
+                    instructions.add((String) item);
+                }
+            }
+        }
+
+        Recipe recipe = new Recipe(name, description, imageUrl);
+        recipe.setId(id);
+        recipe.setPrepTime(prepTime);
+        recipe.setCookTime(cookTime);
+        recipe.setServings(servings);
+        recipe.setIngredients(ingredients);
+        recipe.setInstructions(instructions);
+        recipe.setDifficulty(difficulty);
+        recipe.setCuisine(cuisine);
+        recipe.setCategory(category);
+        return recipe;
+    }
+
+    private static Long getLong(Map<String, Object> document, String field) {
+        Object value = document.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    /**
+     * Makes a document shaped like the ones saveRecipe writes
+     */
+    private static Map<String, Object> makeDocument(int i) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", "Recipe " + i);
+        data.put("description", "A tasty dish number " + i + " that is quick to make");
+        data.put("imageUrl", "https://example.com/recipes/" + i + ".jpg");
+        data.put("prepTime", 10L + i % 20);
+        data.put("cookTime", 30L + i % 40);
+        data.put("servings", 4L);
+        data.put("difficulty", "Easy");
+        data.put("cuisine", "Italian");
+        data.put("category", "Dinner");
+        data.put("rating", 4.5);
+        data.put("dietaryTags", Arrays.asList("Vegetarian"));
+        data.put("timestamp", 1700000000000L + i);
+
+        List<String> ingredients = new ArrayList<>();
+        for (int j = 0; j < 12; j++) {
+            ingredients.add((j + 1) * 50 + "g ingredient " + j);
+        }
+        data.put("ingredients", ingredients);
+
+        List<String> instructions = new ArrayList<>();
+        for (int j = 0; j < 8; j++) {
+            instructions.add("Step " + (j + 1) + ": do something careful with the ingredients");
+        }
+        data.put("instructions", instructions);
+        return data;
+    }
+}
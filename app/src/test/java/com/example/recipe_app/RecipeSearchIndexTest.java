@@ -0,0 +1,151 @@
+/**
+ * RecipeSearchIndexTest - Makes Sure Word Search Finds and Ranks Recipes
+ *
+ * Covers matching by the start of a word, needing every typed word, the
+ * best-first order (name beats tags beats ingredients beats description),
+ * ties, recipes that are changed or removed, and odd input like empty
+ * queries, punctuation and missing fields.
+ */
+package com.example.recipe_app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecipeSearchIndexTest {
+
+    @Test
+    public void search_matchesTheStartOfWords() {
+        RecipeSearchIndex index = sampleIndex();
+
+        assertEquals(Arrays.asList("stirfry", "salad"), index.search("chick"));
+        assertEquals(Arrays.asList("stirfry"), index.search("CHICKEN fry"));
+        assertTrue(index.search("hicken").isEmpty());
+    }
+
+    @Test
+    public void search_needsEveryWord() {
+        RecipeSearchIndex index = sampleIndex();
+
+        assertEquals(Arrays.asList("salad"), index.search("chickpea salad"));
+        assertTrue(index.search("chicken pancakes").isEmpty());
+    }
+
+    @Test
+    public void searchRanked_putsNameMatchesFirst() {
+        RecipeSearchIndex index = new RecipeSearchIndex();
+        Recipe description = recipe("description", "Green Bowl", "Nice with chicken on the side");
+        Recipe ingredient = recipe("ingredient", "Rice Bowl", "");
+        ingredient.setIngredients(Arrays.asList("200g chicken"));
+        Recipe tag = recipe("tag", "Noodle Bowl", "");
+        tag.setDietaryTags(Arrays.asList("Chicken"));
+        Recipe name = recipe("name", "Chicken Bowl", "");
+        index.addRecipes(Arrays.asList(description, ingredient, tag, name));
+
+        assertEquals(Arrays.asList("name", "tag", "ingredient", "description"),
+            index.searchRanked("chicken"));
+    }
+
+    @Test
+    public void searchRanked_prefersRareWordsAndShortNames() {
+        RecipeSearchIndex index = new RecipeSearchIndex();
+        index.add(recipe("long", "Lemon Garlic Butter Roast Chicken Thighs", ""));
+        index.add(recipe("short", "Lemon Chicken", ""));
+        index.add(recipe("other", "Lemon Tart", ""));
+
+        // "lemon" is in every name, so "chicken" decides; the shorter name wins
+        assertEquals(Arrays.asList("short", "long"), index.searchRanked("lemon chicken"));
+    }
+
+    @Test
+    public void searchRanked_keepsTiesInTheOrderAdded() {
+        RecipeSearchIndex index = new RecipeSearchIndex();
+        index.add(recipe("b", "Tomato Soup", ""));
+        index.add(recipe("a", "Tomato Soup", ""));
+        index.add(recipe("c", "Tomato Soup", ""));
+
+        assertEquals(Arrays.asList("b", "a", "c"), index.searchRanked("tomato"));
+        assertEquals(index.search("soup"), index.searchRanked("soup"));
+    }
+
+    @Test
+    public void emptyOrOddQueries_matchSensibly() {
+        RecipeSearchIndex index = sampleIndex();
+
+        // No words at all matches everything, in the order added
+        assertEquals(Arrays.asList("stirfry", "salad", "pancakes"), index.search(""));
+        assertEquals(index.search(""), index.searchRanked("  ,.! "));
+        assertEquals(index.search(""), index.search(null));
+
+        // Punctuation splits words rather than being searched for
+        assertEquals(Arrays.asList("stirfry"), index.search("stir-fry!"));
+        assertTrue(index.search("zzz").isEmpty());
+        assertTrue(new RecipeSearchIndex().searchRanked("chicken").isEmpty());
+    }
+
+    @Test
+    public void recipesWithMissingFields_areStillIndexed() {
+        RecipeSearchIndex index = new RecipeSearchIndex();
+        Recipe bare = new Recipe("bare", "Toast", null, 0, 0, null, new ArrayList<>());
+        bare.setIngredients(null);
+        index.add(bare);
+        index.add(new Recipe(null, "No ID", "", 0, 0, "", new ArrayList<>()));
+
+        assertEquals(Collections.singletonList("bare"), index.searchRanked("toast"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void updatesAndRemovals_areFollowed() {
+        RecipeSearchIndex index = sampleIndex();
+
+        index.add(recipe("salad", "Fruit Salad", ""));
+        assertEquals(Arrays.asList("stirfry"), index.search("chick"));
+        assertEquals(Arrays.asList("salad"), index.searchRanked("fruit"));
+
+        index.remove("salad");
+        index.remove("missing");
+        assertTrue(index.search("fruit").isEmpty());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void manyRemovals_keepRankingTheRest() {
+        RecipeSearchIndex index = new RecipeSearchIndex();
+        for (int i = 0; i < 3000; i++) {
+            index.add(recipe("r" + i, "Curry " + i, ""));
+        }
+        for (int i = 0; i < 2500; i++) {
+            index.remove("r" + i);
+        }
+
+        assertEquals(500, index.size());
+        assertEquals(500, index.searchRanked("curry").size());
+        assertEquals(Arrays.asList("r2999"), index.searchRanked("curry 2999"));
+    }
+
+    @Test
+    public void tokenize_splitsIntoLowerCaseWords() {
+        assertEquals(Arrays.asList("crème", "brûlée", "2", "ways"),
+            RecipeSearchIndex.tokenize("Crème Brûlée: 2 ways"));
+        assertTrue(RecipeSearchIndex.tokenize(null).isEmpty());
+        assertTrue(RecipeSearchIndex.tokenize(" - ").isEmpty());
+    }
+
+    private static RecipeSearchIndex sampleIndex() {
+        RecipeSearchIndex index = new RecipeSearchIndex();
+        index.add(recipe("stirfry", "Chicken Stir-Fry", "Quick weeknight dinner"));
+        index.add(recipe("salad", "Chickpea Salad", "Fresh and light"));
+        index.add(recipe("pancakes", "Fluffy Pancakes", "Sunday breakfast"));
+        return index;
+    }
+
+    private static Recipe recipe(String id, String name, String description) {
+        return new Recipe(id, name, description, 10, 20, "", new ArrayList<>());
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * SyncWaitersTest - Makes Sure a Sync Never Leaves Anyone Waiting Forever
+ *
+ * Covers sharing one sync between everyone who asks while it runs, and a
+ * step that throws part way through (like a document the converter can't
+ * decode): everyone waiting must be told it failed, and the next sync must
+ * be able to start.
+ */
+package com.example.recipe_app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class SyncWaitersTest {
+
+    @Test
+    public void join_sharesTheRunningSync() {
+        SyncWaiters<String> waiters = new SyncWaiters<>(Runnable::run);
+        Recorder<String> first = new Recorder<>();
+        Recorder<String> second = new Recorder<>();
+
+        assertTrue(waiters.join(first));
+        assertFalse(waiters.join(second));
+        waiters.finish("done", null);
+
+        assertEquals("done", first.result);
+        assertEquals("done", second.result);
+        assertTrue(waiters.join(new Recorder<>()));
+    }
+
+    @Test
+    public void aThrowingConverter_stillReachesOnFailure() {
+        SyncWaiters<List<Recipe>> waiters = new SyncWaiters<>(Runnable::run);
+        Function<String, Recipe> converter = document -> {
+            throw new IllegalStateException("Can't decode " + document);
+        };
+        Recorder<List<Recipe>> first = new Recorder<>();
+        Recorder<List<Recipe>> second = new Recorder<>();
+        waiters.join(first);
+        waiters.join(second);
+
+        // What the sync engine does with each downloaded page
+        waiters.run(() -> {
+            List<Recipe> recipes = new ArrayList<>();
+            recipes.add(converter.apply("recipes/bad"));
+            waiters.finish(recipes, null);
+        });
+
+        assertTrue(first.error instanceof IllegalStateException);
+        assertSame(first.error, second.error);
+        assertNull(first.result);
+
+        // The next sync starts rather than waiting on the broken one
+        Recorder<List<Recipe>> next = new Recorder<>();
+        assertTrue(waiters.join(next));
+        waiters.finish(new ArrayList<>(), null);
+        assertNotNull(next.result);
+    }
+
+    @Test
+    public void finish_handsOutOnTheDeliveryThreadOnly() {
+        List<Runnable> posted = new ArrayList<>();
+        SyncWaiters<String> waiters = new SyncWaiters<>(posted::add);
+        Recorder<String> recorder = new Recorder<>();
+        waiters.join(recorder);
+
+        waiters.run(() -> {
+            throw new RuntimeException("disk full");
+        });
+        assertNull(recorder.error);
+
+        posted.get(0).run();
+        assertEquals("disk full", recorder.error.getMessage());
+    }
+
+    /**
+     * Remembers what a callback was given
+     */
+    private static class Recorder<T> implements FirebaseManager.FirebaseCallback<T> {
+        T result;
+        Exception error;
+
+        @Override
+        public void onSuccess(T result) {
+            this.result = result;
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            this.error = e;
+        }
+    }
+}